@@ -17,6 +17,7 @@ import org.opendaylight.controller.sal.core.ComponentActivatorAbstractBase;
 import org.opendaylight.controller.sal.flowprogrammer.IFlowProgrammerService;
 import org.opendaylight.controller.sal.packet.IDataPacketService;
 import org.opendaylight.controller.sal.packet.IListenDataPacket;
+import org.opendaylight.controller.switchmanager.IInventoryListener;
 import org.opendaylight.controller.switchmanager.ISwitchManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,12 +33,48 @@ public class Activator extends ComponentActivatorAbstractBase {
     public Object[] getImplementations() {
         log.trace("Getting Implementations");
         
-        Object[] res = { PacketHandler.class, PacketForwarder.class, FlowProgrammer.class };
+        Object[] res = { ConnectionManager.class, InventoryCache.class, PacketBufferCache.class, RuleTable.class, PacketHandler.class, PacketForwarder.class, FlowProgrammer.class, DirectBus.class, SharedMemoryTransport.class };
         return res;
     }
 
     public void configureInstance(Component c, Object imp, String containerName) {
-        if (imp.equals(PacketHandler.class)) {
+        if (imp.equals(ConnectionManager.class)) {
+            log.trace("Configuring connection manager");
+            
+            // Export the connection manager interface used by all components sending or receiving JMS messages.
+            c.setInterface(new String[] {IConnectionManager.class.getName()}, null);
+        } else if (imp.equals(InventoryCache.class)) {
+            log.trace("Configuring inventory cache");
+            
+            // Export IInventoryListener interface to get notified about removed nodes and connectors,
+            // and the cache interface used by the other components.
+            c.setInterface(new String[] {IInventoryListener.class.getName(), IInventoryCache.class.getName()}, null);
+            
+            // Need SwitchManager service for finding nodes and node connectors
+            c.add(createContainerServiceDependency(containerName).setService(
+                    ISwitchManager.class).setCallbacks(
+                            "setSwitchManagerService", "unsetSwitchManagerService").setRequired(true));
+        } else if (imp.equals(PacketBufferCache.class)) {
+            log.trace("Configuring packet buffer cache");
+            
+            // Export the cache interface used by packet handler and packet forwarder.
+            c.setInterface(new String[] {IPacketBufferCache.class.getName()}, null);
+        } else if (imp.equals(RuleTable.class)) {
+            log.trace("Configuring rule table");
+            
+            // Export the rule table interface used by the packet handler.
+            c.setInterface(new String[] {IRuleTable.class.getName()}, null);
+            
+            // Need ConnectionManager for the shared JMS connections
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IConnectionManager.class).setCallbacks(
+                            "setConnectionManager", "unsetConnectionManager").setRequired(true));
+            
+            // Need FlowProgrammer for deleting the flows of deleted or replaced rules
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IFlowProgrammer.class).setCallbacks(
+                            "setFlowProgrammer", "unsetFlowProgrammer").setRequired(true));
+        } else if (imp.equals(PacketHandler.class)) {
             log.trace("Configuring packet handler");
          
             // Export IListenDataPacket interface to receive packet-in events.
@@ -49,22 +86,63 @@ public class Activator extends ComponentActivatorAbstractBase {
             c.add(createContainerServiceDependency(containerName).setService(
                     IDataPacketService.class).setCallbacks(
                             "setDataPacketService", "unsetDataPacketService").setRequired(true));
-
+            
+            // Need PacketBufferCache for buffering packets referred to by packet forwarding requests
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IPacketBufferCache.class).setCallbacks(
+                            "setPacketBufferCache", "unsetPacketBufferCache").setRequired(true));
+            
+            // Need RuleTable, FlowProgrammer, and InventoryCache for applying reactive rules
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IRuleTable.class).setCallbacks(
+                            "setRuleTable", "unsetRuleTable").setRequired(true));
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IFlowProgrammer.class).setCallbacks(
+                            "setFlowProgrammer", "unsetFlowProgrammer").setRequired(true));
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IInventoryCache.class).setCallbacks(
+                            "setInventoryCache", "unsetInventoryCache").setRequired(true));
+            
+            // Optional packet-in transports in addition to JMS (e.g., the DirectBus)
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IPacketInTransport.class).setCallbacks(
+                            "addTransport", "removeTransport").setRequired(false));
+            
+            // Need ConnectionManager for the shared JMS connections
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IConnectionManager.class).setCallbacks(
+                            "setConnectionManager", "unsetConnectionManager").setRequired(true));
         } else if (imp.equals(PacketForwarder.class)) {
             log.trace("Configuring packet forwarder");
             
+            // Export IPacketForwarder interface for forwarding packets from within the container.
+            c.setInterface(new String[] {IPacketForwarder.class.getName()}, null);
+            
             // Need the DataPacketService for encoding and sending packets
             c.add(createContainerServiceDependency(containerName).setService(
                     IDataPacketService.class).setCallbacks(
                             "setDataPacketService", "unsetDataPacketService").setRequired(true));
             
-            // Need SwitchManager service for finding nodes and node connectors
+            // Need InventoryCache for finding nodes and node connectors
             c.add(createContainerServiceDependency(containerName).setService(
-                    ISwitchManager.class).setCallbacks(
-                            "setSwitchManagerService", "unsetSwitchManagerService").setRequired(true));
+                    IInventoryCache.class).setCallbacks(
+                            "setInventoryCache", "unsetInventoryCache").setRequired(true));
+            
+            // Need PacketBufferCache for resolving packet ids
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IPacketBufferCache.class).setCallbacks(
+                            "setPacketBufferCache", "unsetPacketBufferCache").setRequired(true));
+            
+            // Need ConnectionManager for the shared JMS connections
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IConnectionManager.class).setCallbacks(
+                            "setConnectionManager", "unsetConnectionManager").setRequired(true));
         } else if (imp.equals(FlowProgrammer.class)) {
             log.trace("Configuring flow programmer");
             
+            // Export IFlowProgrammer interface for programming flows from within the bundle.
+            c.setInterface(new String[] {IFlowProgrammer.class.getName()}, null);
+            
             // Need SwitchManager service for finding nodes and node connectors
             c.add(createContainerServiceDependency(containerName).setService(
                     ISwitchManager.class).setCallbacks(
@@ -74,6 +152,52 @@ public class Activator extends ComponentActivatorAbstractBase {
             c.add(createContainerServiceDependency(containerName).setService(
                     IFlowProgrammerService.class).setCallbacks(
                             "setFlowProgrammerService", "unsetFlowProgrammerService").setRequired(true));
+            
+            // Need InventoryCache for resolving nodes and node connectors
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IInventoryCache.class).setCallbacks(
+                            "setInventoryCache", "unsetInventoryCache").setRequired(true));
+            
+            // Need DataPacketService and PacketBufferCache for packet-out requests embedded into 
+            // flow programming requests
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IDataPacketService.class).setCallbacks(
+                            "setDataPacketService", "unsetDataPacketService").setRequired(true));
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IPacketBufferCache.class).setCallbacks(
+                            "setPacketBufferCache", "unsetPacketBufferCache").setRequired(true));
+            
+            // Need ConnectionManager for the shared JMS connections
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IConnectionManager.class).setCallbacks(
+                            "setConnectionManager", "unsetConnectionManager").setRequired(true));
+        } else if (imp.equals(DirectBus.class)) {
+            log.trace("Configuring direct bus");
+            
+            // Export the bus interface used by co-located applications, and the packet-in 
+            // transport interface used by the packet handler.
+            c.setInterface(new String[] {IDirectBus.class.getName(), IPacketInTransport.class.getName()}, null);
+            
+            // Need PacketForwarder and FlowProgrammer for executing requests
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IPacketForwarder.class).setCallbacks(
+                            "setPacketForwarder", "unsetPacketForwarder").setRequired(true));
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IFlowProgrammer.class).setCallbacks(
+                            "setFlowProgrammer", "unsetFlowProgrammer").setRequired(true));
+        } else if (imp.equals(SharedMemoryTransport.class)) {
+            log.trace("Configuring shared memory transport");
+            
+            // Export the packet-in transport interface used by the packet handler.
+            c.setInterface(new String[] {IPacketInTransport.class.getName()}, null);
+            
+            // Need PacketForwarder and FlowProgrammer for executing requests
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IPacketForwarder.class).setCallbacks(
+                            "setPacketForwarder", "unsetPacketForwarder").setRequired(true));
+            c.add(createContainerServiceDependency(containerName).setService(
+                    IFlowProgrammer.class).setCallbacks(
+                            "setFlowProgrammer", "unsetFlowProgrammer").setRequired(true));
         }
     }
 }
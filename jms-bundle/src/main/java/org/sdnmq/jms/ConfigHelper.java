@@ -0,0 +1,111 @@
+/**
+ * ConfigHelper
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * ConfigHelper is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class supports reading typed SDN-MQ properties from the OpenDaylight system properties
+ * (see file $OPENDAYLIGHTHOME/configuration/config.ini).
+ *
+ * Invalid values are logged and replaced by the given default value.
+ *
+ * @author Frank Duerr
+ */
+public class ConfigHelper {
+    private static final Logger log = LoggerFactory.getLogger(ConfigHelper.class);
+
+    /**
+     * Retrieves an integer property.
+     *
+     * @param key the name of the property
+     * @param defaultValue the value returned if the property is undefined or invalid
+     * @return value of the property
+     */
+    static public int getIntProperty(String key, int defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid value of property " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Retrieves a long integer property.
+     *
+     * @param key the name of the property
+     * @param defaultValue the value returned if the property is undefined or invalid
+     * @return value of the property
+     */
+    static public long getLongProperty(String key, long defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid value of property " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Retrieves a boolean property ("true" or "false").
+     *
+     * @param key the name of the property
+     * @param defaultValue the value returned if the property is undefined
+     * @return value of the property
+     */
+    static public boolean getBooleanProperty(String key, boolean defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Retrieves a property defining a comma-separated list of values (e.g., "a, b, c").
+     *
+     * @param key the name of the property
+     * @return list of (trimmed) values; empty list if the property is undefined
+     */
+    static public List<String> getListProperty(String key) {
+        List<String> values = new LinkedList<String>();
+        String value = System.getProperty(key);
+        if (value == null) {
+            return values;
+        }
+
+        StringTokenizer tokenizer = new StringTokenizer(value, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+            if (token.length() > 0) {
+                values.add(token);
+            }
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * ConnectionContext
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * ConnectionContext is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.QueueConnection;
+import javax.jms.TopicConnection;
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+/**
+ * The connections established by the connection manager together with the JNDI contexts 
+ * they were created from.
+ * 
+ * The connections are partitioned into shards, one per broker. Within a shard, the connection 
+ * pool may hold several connections; sessions are spread over the pool round-robin.
+ * 
+ * @author Frank Duerr
+ */
+public class ConnectionContext {
+    /**
+     * The connections to one broker.
+     */
+    static class Shard {
+        final String name;
+        Context jndiContext = null;
+        final List<QueueConnection> queueConnections = new ArrayList<QueueConnection>();
+        final List<TopicConnection> topicConnections = new ArrayList<TopicConnection>();
+        final AtomicInteger nextQueueConnection = new AtomicInteger();
+        final AtomicInteger nextTopicConnection = new AtomicInteger();
+        
+        Shard(String name) {
+            this.name = name;
+        }
+    }
+    
+    private final List<Shard> shards;
+    
+    ConnectionContext(List<Shard> shards) {
+        this.shards = shards;
+    }
+    
+    /**
+     * @return the number of shards (brokers)
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+    
+    /**
+     * @param shard the index of the shard
+     * @return the name of the shard (the provider URL of the broker), used for consistent hashing
+     */
+    public String getShardName(int shard) {
+        return shards.get(shard).name;
+    }
+    
+    /**
+     * @param shard the index of the shard
+     * @return the next queue connection of the pool of the shard
+     */
+    public QueueConnection getQueueConnection(int shard) {
+        Shard s = shards.get(shard);
+        int i = (s.nextQueueConnection.getAndIncrement() & Integer.MAX_VALUE) % s.queueConnections.size();
+        return s.queueConnections.get(i);
+    }
+    
+    /**
+     * @param shard the index of the shard
+     * @return the next topic connection of the pool of the shard
+     */
+    public TopicConnection getTopicConnection(int shard) {
+        Shard s = shards.get(shard);
+        int i = (s.nextTopicConnection.getAndIncrement() & Integer.MAX_VALUE) % s.topicConnections.size();
+        return s.topicConnections.get(i);
+    }
+    
+    /**
+     * @param shard the index of the shard
+     * @return all topic connections of the pool of the shard
+     */
+    public List<TopicConnection> getTopicConnections(int shard) {
+        return Collections.unmodifiableList(shards.get(shard).topicConnections);
+    }
+    
+    /**
+     * Looks up a JMS object (e.g., a queue or topic) of a shard by its JNDI name.
+     * 
+     * @param shard the index of the shard
+     * @param name the JNDI name
+     * @return the object
+     * @throws NamingException if the name is not bound
+     */
+    public Object lookup(int shard, String name) throws NamingException {
+        return shards.get(shard).jndiContext.lookup(name);
+    }
+    
+    List<Shard> getShards() {
+        return shards;
+    }
+}
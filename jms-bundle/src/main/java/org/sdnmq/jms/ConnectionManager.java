@@ -0,0 +1,403 @@
+/**
+ * ConnectionManager
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * ConnectionManager is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.TopicConnection;
+import javax.jms.TopicConnectionFactory;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection manager establishing the JMS connections shared by all components of the bundle.
+ *
+ * Connections are established in the background, so activation of the bundle does not block
+ * if the JMS server is not reachable. If the connections fail, listeners are notified to
+ * release their sessions, and the manager reconnects with exponential backoff. After reconnecting,
+ * listeners are notified again to rebuild their sessions, producers, and consumers.
+ *
+ * All connection events and listener callbacks are processed by a single thread.
+ *
+ * Traffic can be spread over several brokers (shards). Every shard has its own connection pool.
+ * Since listeners hold JMS objects of all shards, a failure of any shard is handled like the
+ * failure of all connections, i.e., all shards are reconnected together.
+ *
+ * If configured, the manager also starts an embedded broker (cf. class EmbeddedBroker) before
+ * connecting and stops it after all listeners have released their JMS objects.
+ *
+ * @author Frank Duerr
+ */
+public class ConnectionManager implements IConnectionManager {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionManager.class);
+
+    /**
+     * Number of queue connections and topic connections. Sessions of the components are
+     * spread round-robin over these connections.
+     */
+    private static final String POOL_SIZE_PROPERTY = "sdnmq.connection.pool";
+    private static final int DEFAULT_POOL_SIZE = 1;
+
+    /**
+     * Time in milliseconds to wait before the first reconnect attempt. The time is doubled
+     * after every failed attempt up to the maximum backoff time.
+     */
+    private static final String INITIAL_BACKOFF_PROPERTY = "sdnmq.connection.backoff.initial";
+    private static final long DEFAULT_INITIAL_BACKOFF = 1000;
+
+    private static final String MAX_BACKOFF_PROPERTY = "sdnmq.connection.backoff.max";
+    private static final long DEFAULT_MAX_BACKOFF = 30000;
+
+    /**
+     * Comma-separated list of provider URLs of the brokers to spread traffic over. Every URL
+     * replaces the provider URL of the configured JNDI properties. If not set, a single broker
+     * defined by the JNDI properties is used.
+     */
+    private static final String SHARDS_PROPERTY = "sdnmq.shards";
+
+    private int poolSize;
+    private long initialBackoff;
+    private long maxBackoff;
+
+    private ScheduledThreadPoolExecutor executor = null;
+    private EmbeddedBroker embeddedBroker = null;
+
+    // The following fields are only accessed by the executor thread.
+    private final List<IConnectionListener> listeners = new LinkedList<IConnectionListener>();
+    private ConnectionContext context = null;
+    private long backoff;
+    private boolean stopped = false;
+
+    /**
+     * Notifies the manager about a failure of the connections of a certain context.
+     */
+    private class FailureListener implements ExceptionListener {
+        private final ConnectionContext failedContext;
+
+        FailureListener(ConnectionContext failedContext) {
+            this.failedContext = failedContext;
+        }
+
+        @Override
+        public void onException(final JMSException e) {
+            log.error("JMS connection failed: " + e.getMessage());
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    connectionFailed(failedContext);
+                }
+            });
+        }
+    }
+
+    /**
+     * Function called by the dependency manager if all the required
+     * dependencies are satisfied.
+     */
+    public void init() {
+        poolSize = Math.max(1, ConfigHelper.getIntProperty(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE));
+        initialBackoff = Math.max(1, ConfigHelper.getLongProperty(INITIAL_BACKOFF_PROPERTY, DEFAULT_INITIAL_BACKOFF));
+        maxBackoff = Math.max(initialBackoff, ConfigHelper.getLongProperty(MAX_BACKOFF_PROPERTY, DEFAULT_MAX_BACKOFF));
+        backoff = initialBackoff;
+        
+        if (EmbeddedBroker.isEnabled()) {
+            embeddedBroker = new EmbeddedBroker();
+        }
+
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "sdnmq-connection-manager");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Pending reconnect attempts are dropped when the manager is stopped.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                connect();
+            }
+        });
+    }
+
+    /**
+     * Function called by the dependency manager before the component is stopped.
+     */
+    public void destroy() {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                stopped = true;
+                disconnect();
+                if (embeddedBroker != null) {
+                    embeddedBroker.stop();
+                }
+            }
+        });
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void addListener(final IConnectionListener listener) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                listeners.add(listener);
+                if (context != null) {
+                    notifyEstablished(listener, context);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void removeListener(final IConnectionListener listener) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                listeners.remove(listener);
+            }
+        });
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Manager has been stopped.
+        }
+    }
+
+    private void scheduleReconnect() {
+        if (stopped) {
+            return;
+        }
+
+        log.info("Reconnecting to JMS server in " + backoff + " ms");
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    connect();
+                }
+            }, backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        backoff = Math.min(2*backoff, maxBackoff);
+    }
+
+    /**
+     * Establishes the connections and notifies all listeners.
+     */
+    private void connect() {
+        if (stopped || context != null) {
+            return;
+        }
+
+        log.trace("Connecting to JMS server");
+        
+        Properties jndiProps = JNDIHelper.getJNDIProperties();
+        if (embeddedBroker != null) {
+            // Started by the manager thread, so the broker does not delay bundle activation either.
+            if (!embeddedBroker.start()) {
+                scheduleReconnect();
+                return;
+            }
+            embeddedBroker.configureJNDI(jndiProps);
+        }
+
+        List<String> shardUrls = ConfigHelper.getListProperty(SHARDS_PROPERTY);
+        if (embeddedBroker != null || shardUrls.isEmpty()) {
+            if (embeddedBroker != null && !shardUrls.isEmpty()) {
+                log.error("Ignoring shards since an embedded broker is used");
+            }
+            shardUrls.clear();
+            shardUrls.add(jndiProps.getProperty(Context.PROVIDER_URL, "default"));
+        }
+
+        List<ConnectionContext.Shard> shards = new ArrayList<ConnectionContext.Shard>(shardUrls.size());
+        ConnectionContext newContext = new ConnectionContext(shards);
+        try {
+            for (String url : shardUrls) {
+                ConnectionContext.Shard shard = new ConnectionContext.Shard(url);
+                shards.add(shard);
+                connectShard(newContext, shard, jndiProps, shardUrls.size() > 1);
+            }
+        } catch (NamingException e) {
+            log.error("Could not connect to JMS server: " + e.getMessage());
+            close(newContext);
+            scheduleReconnect();
+            return;
+        } catch (JMSException e) {
+            log.error("Could not connect to JMS server: " + e.getMessage());
+            close(newContext);
+            scheduleReconnect();
+            return;
+        }
+
+        context = newContext;
+
+        // Let listeners set up their consumers before messages are delivered.
+        for (IConnectionListener listener : new ArrayList<IConnectionListener>(listeners)) {
+            if (!notifyEstablished(listener, newContext)) {
+                return;
+            }
+        }
+
+        try {
+            for (ConnectionContext.Shard shard : shards) {
+                for (QueueConnection connection : shard.queueConnections) {
+                    connection.start();
+                }
+                for (TopicConnection connection : shard.topicConnections) {
+                    connection.start();
+                }
+            }
+        } catch (JMSException e) {
+            log.error("Could not start JMS connection: " + e.getMessage());
+            connectionFailed(newContext);
+            return;
+        }
+
+        backoff = initialBackoff;
+        log.info("Connected to JMS server (" + shards.size() + " shard(s))");
+    }
+
+    /**
+     * Establishes the connections of a shard.
+     *
+     * @param ctx the context the shard belongs to
+     * @param shard the shard
+     * @param jndiProps the configured JNDI properties
+     * @param useShardUrl if true, the name of the shard replaces the configured provider URL
+     */
+    private void connectShard(ConnectionContext ctx, ConnectionContext.Shard shard, Properties jndiProps, boolean useShardUrl) 
+            throws NamingException, JMSException {
+        Properties shardProps = jndiProps;
+        if (useShardUrl) {
+            shardProps = new Properties();
+            shardProps.putAll(jndiProps);
+            shardProps.setProperty(Context.PROVIDER_URL, shard.name);
+        }
+
+        shard.jndiContext = new InitialContext(shardProps);
+        QueueConnectionFactory queueFactory = (QueueConnectionFactory) shard.jndiContext.lookup("QueueConnectionFactory");
+        TopicConnectionFactory topicFactory = (TopicConnectionFactory) shard.jndiContext.lookup("TopicConnectionFactory");
+        for (int i = 0; i < poolSize; i++) {
+            shard.queueConnections.add(queueFactory.createQueueConnection());
+            shard.topicConnections.add(topicFactory.createTopicConnection());
+        }
+
+        // A failure of any shard fails the whole context, so all shards are reconnected together.
+        ExceptionListener failureListener = new FailureListener(ctx);
+        for (QueueConnection connection : shard.queueConnections) {
+            connection.setExceptionListener(failureListener);
+        }
+        for (TopicConnection connection : shard.topicConnections) {
+            connection.setExceptionListener(failureListener);
+        }
+    }
+
+    /**
+     * Notifies a listener about established connections.
+     *
+     * @return false if the connections failed while the listener was setting up its JMS objects
+     */
+    private boolean notifyEstablished(IConnectionListener listener, ConnectionContext ctx) {
+        try {
+            listener.connectionEstablished(ctx);
+        } catch (NamingException e) {
+            // Reconnecting does not help against configuration errors.
+            log.error(e.getMessage());
+        } catch (JMSException e) {
+            log.error(e.getMessage());
+            connectionFailed(ctx);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases failed connections and schedules a reconnect.
+     */
+    private void connectionFailed(ConnectionContext failedContext) {
+        if (context != failedContext) {
+            // Already handled.
+            return;
+        }
+
+        disconnect();
+        scheduleReconnect();
+    }
+
+    /**
+     * Notifies all listeners and closes the connections.
+     */
+    private void disconnect() {
+        if (context == null) {
+            return;
+        }
+
+        for (IConnectionListener listener : new ArrayList<IConnectionListener>(listeners)) {
+            listener.connectionLost();
+        }
+
+        close(context);
+        context = null;
+    }
+
+    private void close(ConnectionContext ctx) {
+        for (ConnectionContext.Shard shard : ctx.getShards()) {
+            for (QueueConnection connection : shard.queueConnections) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {}
+            }
+            for (TopicConnection connection : shard.topicConnections) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {}
+            }
+
+            if (shard.jndiContext != null) {
+                try {
+                    shard.jndiContext.close();
+                } catch (NamingException e) {}
+            }
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * ConsumerSettings
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * ConsumerSettings is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import javax.jms.JMSException;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Acknowledgement and prefetch settings of request queue consumers, read from the OpenDaylight 
+ * configuration ($OPENDAYLIGHTHOME/configuration/config.ini):
+ * 
+ * <pre>
+ * PREFIX.ack             acknowledgement mode: "auto" (default), "dupsok", or "client"
+ * PREFIX.ack.batchsize   client mode: acknowledge every N messages (default: 100)
+ * PREFIX.ack.interval    client mode: acknowledge at least every T milliseconds (default: 100)
+ * PREFIX.prefetch        number of messages prefetched per consumer (default: 0 = JMS server default)
+ * </pre>
+ * 
+ * @author Frank Duerr
+ */
+public class ConsumerSettings {
+    private static final Logger log = LoggerFactory.getLogger(ConsumerSettings.class);
+    
+    private static final int DEFAULT_ACK_BATCH_SIZE = 100;
+    private static final long DEFAULT_ACK_INTERVAL = 100;
+    
+    public enum AckMode {
+        AUTO("auto", Session.AUTO_ACKNOWLEDGE),
+        DUPS_OK("dupsok", Session.DUPS_OK_ACKNOWLEDGE),
+        CLIENT("client", Session.CLIENT_ACKNOWLEDGE);
+        
+        private String configName;
+        private int sessionMode;
+        
+        AckMode(String configName, int sessionMode) {
+            this.configName = configName;
+            this.sessionMode = sessionMode;
+        }
+        
+        public String toConfigName() {
+            return configName;
+        }
+        
+        public int toSessionMode() {
+            return sessionMode;
+        }
+        
+        public static AckMode fromConfigName(String name) {
+            for (AckMode mode : AckMode.values()) {
+                if (mode.configName.equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            
+            return null;
+        }
+    }
+    
+    private final AckMode ackMode;
+    private final int ackBatchSize;
+    private final long ackInterval;
+    private final int prefetch;
+    
+    /**
+     * Reads the settings from the configuration.
+     * 
+     * @param prefix the prefix of the properties (e.g., "sdnmq.flowprogrammer")
+     */
+    public ConsumerSettings(String prefix) {
+        String modeName = System.getProperty(prefix + ".ack", AckMode.AUTO.toConfigName());
+        AckMode mode = AckMode.fromConfigName(modeName);
+        if (mode == null) {
+            log.error("Invalid acknowledgement mode " + modeName + ". Using auto acknowledgement.");
+            mode = AckMode.AUTO;
+        }
+        ackMode = mode;
+        
+        ackBatchSize = Math.max(1, ConfigHelper.getIntProperty(prefix + ".ack.batchsize", DEFAULT_ACK_BATCH_SIZE));
+        ackInterval = ConfigHelper.getLongProperty(prefix + ".ack.interval", DEFAULT_ACK_INTERVAL);
+        prefetch = ConfigHelper.getIntProperty(prefix + ".prefetch", 0);
+        
+        log.info(prefix + ": acknowledgement mode " + ackMode.toConfigName() + 
+                (ackMode == AckMode.CLIENT ? " (every " + ackBatchSize + " messages or " + ackInterval + " ms)" : "") + 
+                (prefetch > 0 ? ", prefetch " + prefetch : ""));
+    }
+    
+    public AckMode getAckMode() {
+        return ackMode;
+    }
+    
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+    
+    public long getAckInterval() {
+        return ackInterval;
+    }
+    
+    /**
+     * Creates a session with the configured acknowledgement mode.
+     */
+    public QueueSession createSession(QueueConnection connection) throws JMSException {
+        return connection.createQueueSession(false, ackMode.toSessionMode());
+    }
+    
+    /**
+     * Applies the prefetch setting to a queue using the destination options of ActiveMQ 
+     * ("consumer.prefetchSize"). Other JMS servers might ignore or reject these options, so the 
+     * queue is only modified if a prefetch value is configured.
+     * 
+     * @param session the session used to create the consumer
+     * @param queue the queue as looked up via JNDI
+     * @return the queue to be used for creating consumers
+     */
+    public Queue applyPrefetch(QueueSession session, Queue queue) throws JMSException {
+        if (prefetch <= 0) {
+            return queue;
+        }
+        
+        return session.createQueue(queue.getQueueName() + "?consumer.prefetchSize=" + prefetch);
+    }
+}
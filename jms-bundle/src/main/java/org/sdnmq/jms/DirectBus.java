@@ -0,0 +1,128 @@
+/**
+ * DirectBus
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * DirectBus is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process bus for co-located control applications. 
+ * 
+ * The bus is a packet-in transport of the packet handler. Listeners are kept in a copy-on-write list, 
+ * so publishing a packet-in event does not take any lock. Requests are passed on to the packet 
+ * forwarder and flow programmer directly.
+ * 
+ * @author Frank Duerr
+ */
+public class DirectBus implements IDirectBus, IPacketInTransport {
+    private static final Logger log = LoggerFactory.getLogger(DirectBus.class);
+    
+    private final List<IPacketInListener> listeners = new CopyOnWriteArrayList<IPacketInListener>();
+    
+    private IPacketForwarder packetForwarder = null;
+    private IFlowProgrammer flowProgrammer = null;
+    
+    /**
+     * Bind to PacketForwarder.
+     */
+    void setPacketForwarder(IPacketForwarder s) {
+        log.trace("Bind to PacketForwarder.");
+        
+        packetForwarder = s;
+    }
+    
+    /**
+     * Unbind from PacketForwarder.
+     */
+    void unsetPacketForwarder(IPacketForwarder s) {
+        log.trace("Unbind from PacketForwarder.");
+        
+        if (packetForwarder == s) {
+            packetForwarder = null;
+        }
+    }
+    
+    /**
+     * Bind to FlowProgrammer.
+     */
+    void setFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Bind to FlowProgrammer.");
+        
+        flowProgrammer = s;
+    }
+    
+    /**
+     * Unbind from FlowProgrammer.
+     */
+    void unsetFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Unbind from FlowProgrammer.");
+        
+        if (flowProgrammer == s) {
+            flowProgrammer = null;
+        }
+    }
+    
+    @Override
+    public void addPacketInListener(IPacketInListener listener) {
+        listeners.add(listener);
+    }
+    
+    @Override
+    public void removePacketInListener(IPacketInListener listener) {
+        listeners.remove(listener);
+    }
+    
+    @Override
+    public boolean forwardPacket(JSONObject request) {
+        IPacketForwarder forwarder = packetForwarder;
+        if (forwarder == null) {
+            log.error("Cannot forward packet. Packet forwarder not available.");
+            return false;
+        }
+        
+        return forwarder.handleRequest(request);
+    }
+    
+    @Override
+    public boolean programFlow(JSONObject request) {
+        IFlowProgrammer programmer = flowProgrammer;
+        if (programmer == null) {
+            log.error("Cannot program flow. Flow programmer not available.");
+            return false;
+        }
+        
+        return programmer.handleRequest(request);
+    }
+    
+    @Override
+    public boolean isActive() {
+        return !listeners.isEmpty();
+    }
+    
+    @Override
+    public boolean publish(PacketInEvent event) {
+        boolean success = true;
+        for (IPacketInListener listener : listeners) {
+            try {
+                listener.receivePacketIn(event);
+            } catch (RuntimeException e) {
+                // A faulty application must not keep the other listeners from receiving the event.
+                log.error("Packet-in listener failed: " + e.getMessage());
+                success = false;
+            }
+        }
+        
+        return success;
+    }
+}
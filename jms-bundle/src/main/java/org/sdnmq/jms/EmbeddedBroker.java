@@ -0,0 +1,146 @@
+/**
+ * EmbeddedBroker
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * EmbeddedBroker is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.List;
+import java.util.Properties;
+
+import javax.naming.Context;
+
+import org.apache.activemq.broker.BrokerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ActiveMQ broker running inside the SDN-MQ bundle. The components of SDN-MQ connect to the
+ * embedded broker through the in-VM transport, external applications through the configured
+ * transport connectors (e.g., TCP or STOMP).
+ *
+ * @author Frank Duerr
+ */
+public class EmbeddedBroker {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedBroker.class);
+
+    /**
+     * Set to true to start an embedded broker.
+     */
+    private static final String ENABLED_PROPERTY = "sdnmq.broker.embedded";
+
+    private static final String NAME_PROPERTY = "sdnmq.broker.name";
+    private static final String DEFAULT_NAME = "sdnmq";
+
+    /**
+     * Comma-separated list of transport connector URIs for external applications. The connectors 
+     * are not authenticated, so everybody who can connect may program flows and send packets. 
+     * Therefore, the default connectors only listen on the loopback interface.
+     */
+    private static final String CONNECTORS_PROPERTY = "sdnmq.broker.connectors";
+    private static final String DEFAULT_CONNECTORS = "tcp://127.0.0.1:61616,stomp://127.0.0.1:61613";
+
+    /**
+     * Persistence of messages (default: off). Packet-in events are never persisted.
+     */
+    private static final String PERSISTENT_PROPERTY = "sdnmq.broker.persistent";
+    private static final String DATA_DIR_PROPERTY = "sdnmq.broker.datadir";
+    private static final String DEFAULT_DATA_DIR = "sdnmq-broker";
+
+    private static final String JMX_PROPERTY = "sdnmq.broker.jmx";
+
+    private static final String INITIAL_CONTEXT_FACTORY = "org.apache.activemq.jndi.ActiveMQInitialContextFactory";
+
+    private final String name = System.getProperty(NAME_PROPERTY, DEFAULT_NAME);
+    private BrokerService broker = null;
+
+    /**
+     * @return true if an embedded broker is configured
+     */
+    public static boolean isEnabled() {
+        return ConfigHelper.getBooleanProperty(ENABLED_PROPERTY, false);
+    }
+
+    /**
+     * Starts the broker (if not running yet).
+     *
+     * @return true if the broker is running
+     */
+    public synchronized boolean start() {
+        if (broker != null) {
+            return true;
+        }
+
+        boolean persistent = ConfigHelper.getBooleanProperty(PERSISTENT_PROPERTY, false);
+
+        BrokerService newBroker = new BrokerService();
+        newBroker.setBrokerName(name);
+        newBroker.setPersistent(persistent);
+        if (persistent) {
+            newBroker.setDataDirectory(System.getProperty(DATA_DIR_PROPERTY, DEFAULT_DATA_DIR));
+        }
+        newBroker.setUseJmx(ConfigHelper.getBooleanProperty(JMX_PROPERTY, false));
+        // The broker is stopped with the bundle.
+        newBroker.setUseShutdownHook(false);
+
+        List<String> connectors = ConfigHelper.getListProperty(CONNECTORS_PROPERTY);
+        if (connectors.isEmpty() && System.getProperty(CONNECTORS_PROPERTY) == null) {
+            for (String connector : DEFAULT_CONNECTORS.split(",")) {
+                connectors.add(connector);
+            }
+        }
+
+        try {
+            for (String connector : connectors) {
+                log.info("Embedded broker accepting connections on " + connector);
+                newBroker.addConnector(connector);
+            }
+            newBroker.start();
+            newBroker.waitUntilStarted();
+        } catch (Exception e) {
+            log.error("Could not start embedded broker: " + e.getMessage());
+            try {
+                newBroker.stop();
+            } catch (Exception e2) {}
+            return false;
+        }
+
+        log.info("Started embedded broker " + name + (persistent ? " (persistent)" : ""));
+        broker = newBroker;
+
+        return true;
+    }
+
+    /**
+     * Stops the broker.
+     */
+    public synchronized void stop() {
+        if (broker == null) {
+            return;
+        }
+
+        try {
+            broker.stop();
+            broker.waitUntilStopped();
+        } catch (Exception e) {
+            log.error("Could not stop embedded broker: " + e.getMessage());
+        }
+        broker = null;
+    }
+
+    /**
+     * Adapts JNDI properties, so connections are established to the embedded broker
+     * through the in-VM transport. Destination names defined by the JNDI properties are kept.
+     *
+     * @param jndiProps the JNDI properties as configured
+     */
+    public void configureJNDI(Properties jndiProps) {
+        jndiProps.setProperty(Context.INITIAL_CONTEXT_FACTORY, INITIAL_CONTEXT_FACTORY);
+        // create=false: never implicitly create a second broker if the embedded one is not running.
+        jndiProps.setProperty(Context.PROVIDER_URL, "vm://" + name + "?create=false");
+    }
+}
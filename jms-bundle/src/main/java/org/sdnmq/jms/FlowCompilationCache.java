@@ -0,0 +1,265 @@
+/**
+ * FlowCompilationCache
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowCompilationCache is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opendaylight.controller.sal.action.Action;
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.match.Match;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of compiled matches and action lists of flow programming requests. 
+ * 
+ * Many requests share the same match or actions (e.g., "output to port 1"). Compiled objects 
+ * are cached per node and canonical JSON representation (keys sorted), so such requests are 
+ * only parsed once (cf. class FlowJsonParser). Action lists are immutable and shared by all 
+ * flows using them; matches are mutable, so every caller gets its own copy.
+ * 
+ * Compiling does not depend on the state of the inventory: ports are parsed into node 
+ * connectors of the (already resolved) node without checking their existence (cf. 
+ * IInventoryCache.parseNodeConnector()). Therefore, cached objects stay valid when ports are 
+ * removed, and caching does not change which requests are accepted.
+ * 
+ * Hits and misses are counted; the hit rates are logged (level debug) after every 
+ * STATS_INTERVAL lookups.
+ * 
+ * The cache is thread-safe.
+ * 
+ * @author Frank Duerr
+ */
+public class FlowCompilationCache {
+    private static final Logger log = LoggerFactory.getLogger(FlowCompilationCache.class);
+    
+    private static final long STATS_INTERVAL = 65536;
+    
+    /**
+     * Key of cached objects: node and canonical JSON representation.
+     */
+    private static class Key {
+        final Node node;
+        final String json;
+        
+        Key(Node node, String json) {
+            this.node = node;
+            this.json = json;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31*node.hashCode() + json.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return json.equals(other.json) && node.equals(other.node);
+        }
+    }
+    
+    /**
+     * Bounded LRU map; guarded by its own lock.
+     */
+    private static class LruMap<V> extends LinkedHashMap<Key, V> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int maxSize;
+        
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+    
+    private final int maxSize;
+    private final LruMap<Match> matches;
+    private final LruMap<List<Action>> actionLists;
+    
+    private final AtomicLong matchHits = new AtomicLong(0);
+    private final AtomicLong matchMisses = new AtomicLong(0);
+    private final AtomicLong actionHits = new AtomicLong(0);
+    private final AtomicLong actionMisses = new AtomicLong(0);
+    
+    /**
+     * Constructor.
+     * 
+     * @param maxSize maximum number of cached matches and of cached action lists (0 disables caching)
+     */
+    public FlowCompilationCache(int maxSize) {
+        this.maxSize = maxSize;
+        matches = new LruMap<Match>(maxSize);
+        actionLists = new LruMap<List<Action>>(maxSize);
+    }
+    
+    /**
+     * Gets the compiled match of a JSON match specification.
+     * 
+     * @param inventoryCache the inventory used to parse ports
+     * @param node the node on which the match will be performed
+     * @param json the JSON document specifying the match attributes
+     * @return Match object (owned by the caller) or null if the JSON specification was invalid
+     * @throws JSONException if an attribute has the wrong type
+     */
+    public Match getMatch(IInventoryCache inventoryCache, Node node, JSONObject json) throws JSONException {
+        if (maxSize <= 0) {
+            return FlowJsonParser.parseMatch(inventoryCache, node, json);
+        }
+        
+        Key key = new Key(node, canonicalize(json));
+        Match match;
+        synchronized (matches) {
+            match = matches.get(key);
+        }
+        if (match != null) {
+            count(matchHits);
+            return match.clone();
+        }
+        
+        count(matchMisses);
+        match = FlowJsonParser.parseMatch(inventoryCache, node, json);
+        if (match == null) {
+            return null;
+        }
+        synchronized (matches) {
+            matches.put(key, match);
+        }
+        
+        return match.clone();
+    }
+    
+    /**
+     * Gets the compiled actions of a JSON action list.
+     * 
+     * @param inventoryCache the inventory used to parse ports
+     * @param node the node to be programmed
+     * @param json JSON array specifying actions
+     * @return immutable list of actions or null if an action is invalid
+     * @throws JSONException if an attribute is missing or has the wrong type
+     */
+    public List<Action> getActions(IInventoryCache inventoryCache, Node node, JSONArray json) throws JSONException {
+        if (maxSize <= 0) {
+            return FlowJsonParser.parseActions(inventoryCache, node, json);
+        }
+        
+        Key key = new Key(node, canonicalize(json));
+        List<Action> actions;
+        synchronized (actionLists) {
+            actions = actionLists.get(key);
+        }
+        if (actions != null) {
+            count(actionHits);
+            return actions;
+        }
+        
+        count(actionMisses);
+        actions = FlowJsonParser.parseActions(inventoryCache, node, json);
+        if (actions == null) {
+            return null;
+        }
+        actions = Collections.unmodifiableList(actions);
+        synchronized (actionLists) {
+            actionLists.put(key, actions);
+        }
+        
+        return actions;
+    }
+    
+    /**
+     * @return fraction of match lookups answered from the cache
+     */
+    public double getMatchHitRate() {
+        return hitRate(matchHits.get(), matchMisses.get());
+    }
+    
+    /**
+     * @return fraction of action list lookups answered from the cache
+     */
+    public double getActionHitRate() {
+        return hitRate(actionHits.get(), actionMisses.get());
+    }
+    
+    private static double hitRate(long hits, long misses) {
+        long lookups = hits + misses;
+        return (lookups == 0 ? 0.0 : (double) hits/lookups);
+    }
+    
+    private void count(AtomicLong counter) {
+        if (counter.incrementAndGet() % STATS_INTERVAL == 0 && log.isDebugEnabled()) {
+            log.debug(String.format("Flow compilation cache hit rates: matches %.3f, actions %.3f", 
+                    getMatchHitRate(), getActionHitRate()));
+        }
+    }
+    
+    /**
+     * Creates the canonical representation of a JSON value: objects with sorted keys, no whitespace.
+     */
+    private static String canonicalize(Object json) {
+        StringBuilder builder = new StringBuilder(64);
+        appendCanonical(builder, json);
+        
+        return builder.toString();
+    }
+    
+    private static void appendCanonical(StringBuilder builder, Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            String[] names = new String[object.length()];
+            int i = 0;
+            for (Iterator<?> it = object.keys(); it.hasNext(); ) {
+                names[i++] = (String) it.next();
+            }
+            Arrays.sort(names);
+            
+            builder.append('{');
+            for (i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(JSONObject.quote(names[i])).append(':');
+                appendCanonical(builder, object.get(names[i]));
+            }
+            builder.append('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            builder.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendCanonical(builder, array.get(i));
+            }
+            builder.append(']');
+        } else if (value instanceof String) {
+            builder.append(JSONObject.quote((String) value));
+        } else {
+            // Numbers, booleans, and null; the type is kept, so 1 and "1" differ.
+            builder.append(String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * FlowJsonParser
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowJsonParser is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opendaylight.controller.sal.action.Action;
+import org.opendaylight.controller.sal.action.Controller;
+import org.opendaylight.controller.sal.action.Drop;
+import org.opendaylight.controller.sal.action.Flood;
+import org.opendaylight.controller.sal.action.Loopback;
+import org.opendaylight.controller.sal.action.Output;
+import org.opendaylight.controller.sal.action.PopVlan;
+import org.opendaylight.controller.sal.action.PushVlan;
+import org.opendaylight.controller.sal.action.SetDlDst;
+import org.opendaylight.controller.sal.action.SetDlSrc;
+import org.opendaylight.controller.sal.action.SetNwDst;
+import org.opendaylight.controller.sal.action.SetNwSrc;
+import org.opendaylight.controller.sal.action.SetTpDst;
+import org.opendaylight.controller.sal.action.SetTpSrc;
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.opendaylight.controller.sal.match.Match;
+import org.opendaylight.controller.sal.match.MatchType;
+import org.opendaylight.controller.sal.utils.EtherTypes;
+import org.sdnmq.jms.json.ActionAttributes;
+import org.sdnmq.jms.json.MatchAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parser of the match and actions of flow programming requests in JSON representation.
+ * 
+ * The attributes of a match are visited once in the order of the JSON object; unknown attributes 
+ * are ignored. Network addresses and masks must be numeric IPv4 or IPv6 literals. Host names are 
+ * rejected, so parsing never blocks on DNS lookups.
+ * 
+ * @author Frank Duerr
+ */
+public class FlowJsonParser {
+    private static final Logger log = LoggerFactory.getLogger(FlowJsonParser.class);
+    
+    private static final Map<String, MatchAttributes.Keys> MATCH_KEYS = new HashMap<String, MatchAttributes.Keys>();
+    static {
+        for (MatchAttributes.Keys key : MatchAttributes.Keys.values()) {
+            MATCH_KEYS.put(key.toJSON(), key);
+        }
+    }
+    
+    private static final Map<String, ActionAttributes.ActionTypeValues> ACTION_TYPES = 
+            new HashMap<String, ActionAttributes.ActionTypeValues>();
+    static {
+        for (ActionAttributes.ActionTypeValues type : ActionAttributes.ActionTypeValues.values()) {
+            ACTION_TYPES.put(type.toJSON(), type);
+        }
+    }
+    
+    /**
+     * Creates OpenDaylight Match object from JSON specification.
+     * 
+     * @param inventoryCache the inventory used to look up ports
+     * @param node the node on which the match will be performed
+     * @param json the JSON document specifying the match attributes
+     * @return Match object or null if the JSON specification was invalid
+     * @throws JSONException if an attribute has the wrong type
+     */
+    static public Match parseMatch(IInventoryCache inventoryCache, Node node, JSONObject json) throws JSONException {
+        Match m = new Match();
+        
+        // Addresses are combined with their masks after all attributes have been visited.
+        InetAddress nwSrc = null;
+        InetAddress nwSrcMask = null;
+        InetAddress nwDst = null;
+        InetAddress nwDstMask = null;
+        boolean protocolDefined = false;
+        boolean transportDefined = false;
+        
+        Iterator<?> it = json.keys();
+        while (it.hasNext()) {
+            String name = (String) it.next();
+            MatchAttributes.Keys key = MATCH_KEYS.get(name);
+            if (key == null) {
+                continue;
+            }
+            
+            Object value = json.get(name);
+            switch (key) {
+            case INGRESS_PORT :
+                NodeConnector connector = inventoryCache.parseNodeConnector(node, toString(name, value));
+                if (connector == null) {
+                    log.error("Port does not exist on node " + node.toString());
+                    return null;
+                }
+                m.setField(MatchType.IN_PORT, connector);
+                break;
+            case DL_SRC :
+                byte[] dlSrc = Netutil.parseDlAddr(toString(name, value));
+                if (dlSrc == null) {
+                    log.error("Invalid DL source address: " + value);
+                    return null;
+                }
+                m.setField(MatchType.DL_SRC, dlSrc);
+                break;
+            case DL_DST :
+                byte[] dlDst = Netutil.parseDlAddr(toString(name, value));
+                if (dlDst == null) {
+                    log.error("Invalid DL destination address: " + value);
+                    return null;
+                }
+                m.setField(MatchType.DL_DST, dlDst);
+                break;
+            case DL_VLAN :
+                m.setField(MatchType.DL_VLAN, (short) toInt(name, value));
+                break;
+            case DL_VLAN_PRIORITY :
+                m.setField(MatchType.DL_VLAN_PR, (byte) toInt(name, value));
+                break;
+            case ETHERTYPE :
+                m.setField(MatchType.DL_TYPE, (short) toInt(name, value));
+                break;
+            case NW_SRC :
+                nwSrc = Netutil.parseInetAddress(toString(name, value));
+                if (nwSrc == null) {
+                    log.error("Invalid source network address " + value);
+                    return null;
+                }
+                break;
+            case NW_SRC_MASK :
+                nwSrcMask = Netutil.parseInetAddress(toString(name, value));
+                if (nwSrcMask == null) {
+                    log.error("Invalid source network mask " + value);
+                    return null;
+                }
+                break;
+            case NW_DST :
+                nwDst = Netutil.parseInetAddress(toString(name, value));
+                if (nwDst == null) {
+                    log.error("Invalid destination network address " + value);
+                    return null;
+                }
+                break;
+            case NW_DST_MASK :
+                nwDstMask = Netutil.parseInetAddress(toString(name, value));
+                if (nwDstMask == null) {
+                    log.error("Invalid destination network mask " + value);
+                    return null;
+                }
+                break;
+            case NW_TOS :
+                m.setField(MatchType.NW_TOS, (byte) toInt(name, value));
+                break;
+            case PROTOCOL :
+                m.setField(MatchType.NW_PROTO, (byte) toInt(name, value));
+                protocolDefined = true;
+                break;
+            case TP_SRC :
+                m.setField(MatchType.TP_SRC, (short) toInt(name, value));
+                transportDefined = true;
+                break;
+            case TP_DST :
+                m.setField(MatchType.TP_DST, (short) toInt(name, value));
+                transportDefined = true;
+                break;
+            }
+        }
+        
+        if (transportDefined && !protocolDefined) {
+            log.error("Layer 4 information specified without defining protocol number");
+            return null;
+        }
+        
+        if (nwSrc != null) {
+            if (nwSrcMask != null) {
+                m.setField(MatchType.NW_SRC, nwSrc, nwSrcMask);
+            } else {
+                m.setField(MatchType.NW_SRC, nwSrc);
+            }
+        }
+        
+        if (nwDst != null) {
+            if (nwDstMask != null) {
+                m.setField(MatchType.NW_DST, nwDst, nwDstMask);
+            } else {
+                m.setField(MatchType.NW_DST, nwDst);
+            }
+        }
+        
+        return m;
+    }
+    
+    /**
+     * Create OpenDaylight actions from JSON specifications.
+     * 
+     * @param inventoryCache the inventory used to look up ports
+     * @param node the node to be programmed (required for specifying valid output actions with correct node connectors)
+     * @param actionsJson JSON array specifying actions
+     * @return list of created OpenDaylight actions or null if an action is invalid
+     * @throws JSONException if an attribute is missing or has the wrong type
+     */
+    static public List<Action> parseActions(IInventoryCache inventoryCache, Node node, JSONArray actionsJson) throws JSONException {
+        List<Action> actions = new ArrayList<Action>(actionsJson.length());
+        
+        for (int i = 0; i < actionsJson.length(); i++) {
+            JSONObject actionJson = actionsJson.getJSONObject(i);
+            Action action = parseAction(inventoryCache, node, actionJson);
+            if (action == null) {
+                log.error("Invalid action: " + actionJson.toString());
+                return null;
+            } else {
+                actions.add(action);
+            }
+        }
+        
+        return actions;
+    }
+    
+    /**
+     * Creates OpenDaylight Action object from JSON specification.
+     * 
+     * @param inventoryCache the inventory used to look up ports
+     * @param node the node (switch) receiving the action (required to define output action with valid node connector) 
+     * @param actionJson the JSON object specifying the action
+     * @return OpenDaylight action object or null if the action is invalid
+     */
+    static private Action parseAction(IInventoryCache inventoryCache, Node node, JSONObject actionJson) throws JSONException {
+        String actionName = actionJson.getString(ActionAttributes.Keys.ACTION.toJSON());
+        ActionAttributes.ActionTypeValues actionType = ACTION_TYPES.get(actionName);
+        if (actionType == null) {
+            log.error("Unsupported action: " + actionName);
+            return null;
+        }
+        
+        switch (actionType) {
+        case LOOPBACK :
+            return new Loopback();
+        case DROP :
+            return new Drop();
+        case CONTROLLER :
+            return new Controller();
+        case FLOOD :
+            return new Flood();
+        case OUTPUT :
+            String connectorId = actionJson.getString(ActionAttributes.Keys.PORT.toJSON());
+            NodeConnector conn = inventoryCache.parseNodeConnector(node, connectorId);
+            if (conn == null) {
+                log.error("Invalid node connector for output action: " + connectorId);
+                return null;
+            }
+            return new Output(conn);
+        case SET_DL_SRC :
+        case SET_DL_DST :
+            String dlAddrStr = actionJson.getString(ActionAttributes.Keys.DL_ADDRESS.toJSON());
+            byte[] dlAddr = Netutil.parseDlAddr(dlAddrStr);
+            if (dlAddr == null) {
+                log.error("Invalid DL address specified: " + dlAddrStr);
+                return null;
+            }
+            return (actionType == ActionAttributes.ActionTypeValues.SET_DL_SRC ? new SetDlSrc(dlAddr) : new SetDlDst(dlAddr));
+        case SET_NW_SRC :
+        case SET_NW_DST :
+            String nwAddrStr = actionJson.getString(ActionAttributes.Keys.NW_ADDRESS.toJSON());
+            InetAddress nwAddr = Netutil.parseInetAddress(nwAddrStr);
+            if (nwAddr == null) {
+                log.error("Invalid network address specified: " + nwAddrStr);
+                return null;
+            }
+            return (actionType == ActionAttributes.ActionTypeValues.SET_NW_SRC ? new SetNwSrc(nwAddr) : new SetNwDst(nwAddr));
+        case SET_TP_SRC :
+        case SET_TP_DST :
+            String tpAddrStr = actionJson.getString(ActionAttributes.Keys.TP_ADDRESS.toJSON());
+            int port;
+            try {
+                port = Integer.parseInt(tpAddrStr);
+            } catch (NumberFormatException e) {
+                log.error("Invalid transport layer address specified: " + tpAddrStr);
+                return null;
+            }
+            return (actionType == ActionAttributes.ActionTypeValues.SET_TP_SRC ? new SetTpSrc(port) : new SetTpDst(port));
+        case PUSH_VLAN :
+            // 3 bit Priority Code Point
+            int pcp = actionJson.getInt(ActionAttributes.Keys.PCP.toJSON());
+            // 1 bit Drop Eligible Indicator (aka cfi)
+            int dei = actionJson.getInt(ActionAttributes.Keys.DEI.toJSON());
+            // 12 bit VLAN ID
+            int vlanId = actionJson.getInt(ActionAttributes.Keys.VLAN_ID.toJSON());
+            return new PushVlan(EtherTypes.VLANTAGGED, pcp, dei, vlanId);
+        case POP_VLAN :
+            return new PopVlan();
+        default :
+            log.error("Unsupported action: " + actionName);
+            return null;
+        }
+    }
+    
+    /**
+     * Converts an attribute value to a string (cf. JSONObject.getString()).
+     */
+    static private String toString(String name, Object value) throws JSONException {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        
+        throw new JSONException("JSONObject[" + JSONObject.quote(name) + "] not a string.");
+    }
+    
+    /**
+     * Converts an attribute value to an integer (cf. JSONObject.getInt()).
+     */
+    static private int toInt(String name, Object value) throws JSONException {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        
+        try {
+            return Integer.parseInt((String) value);
+        } catch (Exception e) {
+            throw new JSONException("JSONObject[" + JSONObject.quote(name) + "] is not an int.");
+        }
+    }
+}
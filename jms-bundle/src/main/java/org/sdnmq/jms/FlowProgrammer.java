@@ -10,25 +10,26 @@
 package org.sdnmq.jms;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.Queue;
-import javax.jms.QueueConnection;
-import javax.jms.QueueConnectionFactory;
 import javax.jms.QueueReceiver;
 import javax.jms.QueueSession;
-import javax.jms.Session;
 import javax.jms.TextMessage;
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 import org.json.JSONArray;
@@ -37,6 +38,7 @@ import org.json.JSONObject;
 import org.opendaylight.controller.sal.action.Action;
 import org.opendaylight.controller.sal.action.Controller;
 import org.opendaylight.controller.sal.action.Drop;
+import org.opendaylight.controller.sal.action.Flood;
 import org.opendaylight.controller.sal.action.Loopback;
 import org.opendaylight.controller.sal.action.Output;
 import org.opendaylight.controller.sal.action.PopVlan;
@@ -53,13 +55,15 @@ import org.opendaylight.controller.sal.flowprogrammer.Flow;
 import org.opendaylight.controller.sal.flowprogrammer.IFlowProgrammerService;
 import org.opendaylight.controller.sal.match.Match;
 import org.opendaylight.controller.sal.match.MatchType;
+import org.opendaylight.controller.sal.packet.IDataPacketService;
 import org.opendaylight.controller.sal.utils.EtherTypes;
 import org.opendaylight.controller.sal.utils.Status;
+import org.opendaylight.controller.sal.utils.StatusCode;
 import org.opendaylight.controller.switchmanager.ISwitchManager;
-import org.sdnmq.jms.json.ActionAttributes;
+import org.sdnmq.jms.binary.BinaryFormat;
+import org.sdnmq.jms.binary.FlowModDecoder;
 import org.sdnmq.jms.json.FlowAttributes;
 import org.sdnmq.jms.json.FlowProgrammerRequestAttributes;
-import org.sdnmq.jms.json.MatchAttributes;
 import org.sdnmq.jms.json.NodeAttributes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,7 +74,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Frank Duerr
  */
-public class FlowProgrammer implements MessageListener {
+public class FlowProgrammer implements IFlowProgrammer, IConnectionListener {
     private static final Logger log = LoggerFactory.getLogger(FlowProgrammer.class);
     
     /**
@@ -81,142 +85,360 @@ public class FlowProgrammer implements MessageListener {
     private static final String FLOWPROGRAMMER_QUEUE_PROPERTY = "sdnmq.queuename.flowprogrammer";
     private static final String DEFAULT_FLOWPROGRAMMER_QUEUE_NAME = "org.sdnmq.flowprogrammer";
     
-    private QueueConnection connection = null;
-    private QueueSession session = null;
-    private QueueReceiver receiver = null;
-    private Queue flowProgrammerQueue = null;
+    /**
+     * Optional comma-separated list of JNDI names of flow programmer request queues ("lanes") 
+     * ordered by priority (highest priority first). If defined, this list replaces the single 
+     * queue defined by FLOWPROGRAMMER_QUEUE_PROPERTY. Latency-sensitive (reactive) requests should 
+     * be sent to the first lane, bulk requests to a later lane.
+     */
+    private static final String FLOWPROGRAMMER_LANES_PROPERTY = "sdnmq.queuename.flowprogrammer.lanes";
+    
+    /**
+     * Scheduling policy for lanes: "strict" (default) or "weighted".
+     */
+    private static final String LANE_POLICY_PROPERTY = "sdnmq.flowprogrammer.lanes.policy";
+    
+    /**
+     * Comma-separated list of lane weights for the weighted policy (default: 1 per lane).
+     */
+    private static final String LANE_WEIGHTS_PROPERTY = "sdnmq.flowprogrammer.lanes.weights";
+    
+    /**
+     * Time in milliseconds to block on the highest-priority lane if all lanes are empty.
+     */
+    private static final String LANE_IDLE_WAIT_PROPERTY = "sdnmq.flowprogrammer.lanes.idlewait";
+    private static final long DEFAULT_LANE_IDLE_WAIT = 10;
+    
+    /**
+     * Number of concurrent consumers, each with its own JMS session. To keep the order of requests
+     * for the same node, requests should be sent with the node id as message group (JMSXGroupID).
+     */
+    private static final String CONSUMERS_PROPERTY = "sdnmq.flowprogrammer.consumers";
+    private static final int DEFAULT_CONSUMERS = 1;
+    
+    /**
+     * Maximum number of cached compiled matches and action lists (cf. class FlowCompilationCache). 
+     * 0 disables the cache.
+     */
+    private static final String COMPILATION_CACHE_PROPERTY = "sdnmq.flowprogrammer.compilationcache.size";
+    private static final int DEFAULT_COMPILATION_CACHE_SIZE = 1024;
+    
+    /**
+     * Maximum time in milliseconds JSON add and modify requests are staged for coalescing 
+     * (cf. class FlowRequestCoalescer). Of several staged requests for the same flow name, only 
+     * the latest one is programmed. 0 disables coalescing. Coalescing is only applied with a single 
+     * consumer, since the consumers stage requests independently.
+     */
+    private static final String COALESCE_DELAY_PROPERTY = "sdnmq.flowprogrammer.coalesce.delay";
+    private static final long DEFAULT_COALESCE_DELAY = 0;
+    
+    /**
+     * Maximum number of staged requests per consumer. If reached, staged requests are programmed 
+     * immediately.
+     */
+    private static final String COALESCE_MAX_PROPERTY = "sdnmq.flowprogrammer.coalesce.max";
+    private static final int DEFAULT_COALESCE_MAX = 256;
+    
+    /**
+     * Number of processed requests remembered to skip redelivered requests.
+     */
+    private static final int REQUEST_HISTORY_SIZE = 16384;
+    
+    /**
+     * Result of the packet-out request embedded into a flow programming request. 
+     */
+    private static class PacketOutResult {
+        // Null if the packet-out request succeeded or was not executed.
+        String error = null;
+    }
+    
+    /**
+     * A consumer receiving requests through its own session from all lanes.
+     */
+    private class Consumer implements MessageListener, FlowRequestCoalescer.RequestHandler {
+        final QueueSession session;
+        final List<QueueReceiver> receivers = new LinkedList<QueueReceiver>();
+        final RequestAcknowledger acknowledger = new RequestAcknowledger(consumerSettings, requestHistory);
+        LaneDispatcher laneDispatcher = null;
+        // Guarded by acknowledger; null if coalescing is disabled.
+        FlowRequestCoalescer coalescer = null;
+        
+        Consumer(QueueSession session) {
+            this.session = session;
+        }
+        
+        @Override
+        public void onMessage(Message msg) {
+            // Holding the lock while processing keeps the ack timer from acknowledging this request
+            // before it has been processed.
+            synchronized (acknowledger) {
+                if (acknowledger.isDuplicate(msg) || handleMessage(msg, this)) {
+                    acknowledger.processed(msg);
+                }
+            }
+        }
+        
+        @Override
+        public boolean apply(JSONObject request, Message msg) {
+            PacketOutResult packetOutResult = new PacketOutResult();
+            boolean success = handleRequest(request, packetOutResult);
+            sendStatusReply(msg, session, success, "Flow programming request failed", packetOutResult.error);
+            acknowledger.processed(msg);
+            acknowledger.release();
+            
+            return success;
+        }
+        
+        @Override
+        public void superseded(JSONObject request, Message msg, boolean success) {
+            // The flow is in the state requested by the later request, so it shares its result.
+            sendStatusReply(msg, session, success, "Superseded by a later request for the same flow, which failed");
+            acknowledger.processed(msg);
+            acknowledger.release();
+        }
+    }
+    
+    private List<Consumer> consumers = new LinkedList<Consumer>();
+    private ConsumerSettings consumerSettings = null;
+    // Shared by all consumers and kept across reconnects.
+    private final RequestHistory requestHistory = new RequestHistory(REQUEST_HISTORY_SIZE);
+    private ScheduledExecutorService ackTimer = null;
+    private ScheduledExecutorService coalesceTimer = null;
+    private boolean destroyed = false;
     
+    private IConnectionManager connectionManager = null;
     private ISwitchManager switchManager = null;
     private IFlowProgrammerService flowProgrammerService = null;
+    private IInventoryCache inventoryCache = null;
+    private IDataPacketService dataPacketService = null;
+    private IPacketBufferCache packetBufferCache = null;
     
-    private Map<String, Flow> flowNameToFlow = null;
-    private Map<String, Node> flowNameToNode = null;
+    private FlowRegistry flowRegistry = null;
+    private FlowTableCapacity flowTableCapacity = null;
+    private FlowCompilationCache compilationCache = null;
+    private final ConcurrentMap<Node, Object> nodeLocks = new ConcurrentHashMap<Node, Object>();
     
     /**
      * Called by the dependency manager if all the required
      * dependencies are satisfied.
      */
     public void init() {
-        flowNameToFlow = new HashMap<String, Flow>();
-        flowNameToNode = new HashMap<String, Node>();
+        flowRegistry = new FlowRegistry();
+        flowTableCapacity = new FlowTableCapacity();
+        compilationCache = new FlowCompilationCache(
+                ConfigHelper.getIntProperty(COMPILATION_CACHE_PROPERTY, DEFAULT_COMPILATION_CACHE_SIZE));
+        consumerSettings = new ConsumerSettings("sdnmq.flowprogrammer");
         
-        if (initMQ()) {
-            startMsgListener();
-        }
+        // Consumers are set up as soon as the connection manager is connected.
+        connectionManager.addListener(this);
+    }
+    
+    /**
+     * Called by the dependency manager before the component is removed.
+     */
+    public synchronized void destroy() {
+        connectionManager.removeListener(this);
+        destroyed = true;
+        releaseMQ();
     }
     
     /**
-     * JMS setup
+     * JMS setup (consumers and their sessions). 
+     * 
+     * With a single queue, requests are delivered asynchronously by JMS. With several queues (lanes), 
+     * a dispatcher thread per consumer polls the lanes according to the configured scheduling policy.
      */
-    private boolean initMQ() {
+    @Override
+    public synchronized void connectionEstablished(ConnectionContext ctx) throws JMSException, NamingException {
+        if (destroyed) {
+            return;
+        }
+        
         log.trace("Setting up JMS ...");
         
-        Properties jndiProps = JNDIHelper.getJNDIProperties();
+        List<String> queueNames = ConfigHelper.getListProperty(FLOWPROGRAMMER_LANES_PROPERTY);
+        if (queueNames.isEmpty()) {
+            queueNames.add(System.getProperty(FLOWPROGRAMMER_QUEUE_PROPERTY, DEFAULT_FLOWPROGRAMMER_QUEUE_NAME));
+        }
         
-        Context ctx = null;
-        try {
-            ctx = new InitialContext(jndiProps);
-        } catch (NamingException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
+        for (String queueName : queueNames) {
+            log.info("Using the following queue for flow programming requests: " + queueName);
         }
         
-        QueueConnectionFactory queueFactory = null;
+        int consumerCnt = Math.max(1, ConfigHelper.getIntProperty(CONSUMERS_PROPERTY, DEFAULT_CONSUMERS));
+        log.info("Using " + consumerCnt + " consumer(s) per shard for flow programming requests");
         try {
-            queueFactory = (QueueConnectionFactory) ctx.lookup("QueueConnectionFactory");
+            // Requests may arrive through every shard (broker).
+            for (int shard = 0; shard < ctx.getShardCount(); shard++) {
+                List<Queue> queues = new LinkedList<Queue>();
+                for (String queueName : queueNames) {
+                    queues.add((Queue) ctx.lookup(shard, queueName));
+                }
+                
+                for (int i = 0; i < consumerCnt; i++) {
+                    Consumer consumer = new Consumer(consumerSettings.createSession(ctx.getQueueConnection(shard)));
+                    consumers.add(consumer);
+                    
+                    for (Queue queue : queues) {
+                        consumer.receivers.add(consumer.session.createReceiver(
+                                consumerSettings.applyPrefetch(consumer.session, queue)));
+                    }
+                    
+                    if (consumer.receivers.size() == 1) {
+                        consumer.receivers.get(0).setMessageListener(consumer);
+                    } else {
+                        consumer.laneDispatcher = createLaneDispatcher(consumer);
+                    }
+                }
+            }
         } catch (NamingException e) {
-            log.error(e.getMessage());
             releaseMQ();
-            return false;
-        }
-        
-        try {
-            connection = queueFactory.createQueueConnection();
+            throw e;
         } catch (JMSException e) {
-            log.error(e.getMessage());
             releaseMQ();
-            return false;
+            throw e;
         }
         
-        try {
-            session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
+        List<RequestAcknowledger> acknowledgers = new LinkedList<RequestAcknowledger>();
+        for (Consumer consumer : consumers) {
+            acknowledgers.add(consumer.acknowledger);
         }
+        ackTimer = RequestAcknowledger.startFlushTimer(consumerSettings, acknowledgers, "sdnmq-flowprogrammer-ack");
         
-        String queueName = System.getProperty(FLOWPROGRAMMER_QUEUE_PROPERTY, DEFAULT_FLOWPROGRAMMER_QUEUE_NAME);
-        log.info("Using the following queue for flow programming requests: " + queueName);
-        try {
-            flowProgrammerQueue = (Queue) ctx.lookup(queueName);
-        } catch (NamingException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
+        long coalesceDelay = ConfigHelper.getLongProperty(COALESCE_DELAY_PROPERTY, DEFAULT_COALESCE_DELAY);
+        if (coalesceDelay > 0 && consumers.size() > 1) {
+            // Requests for the same flow could be staged by different consumers and applied in any order.
+            log.error("Coalescing of flow programming requests requires a single consumer (and shard). " + 
+                    "Coalescing disabled.");
+        } else if (coalesceDelay > 0) {
+            int coalesceMax = ConfigHelper.getIntProperty(COALESCE_MAX_PROPERTY, DEFAULT_COALESCE_MAX);
+            log.info("Coalescing flow programming requests staged for up to " + coalesceDelay + " ms");
+            coalesceTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "sdnmq-flowprogrammer-coalesce");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            for (Consumer consumer : consumers) {
+                consumer.coalescer = new FlowRequestCoalescer(consumer.acknowledger, consumer, coalesceTimer, 
+                        coalesceDelay, coalesceMax);
+            }
         }
         
-        try {
-            receiver = session.createReceiver(flowProgrammerQueue);
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
+        int i = 0;
+        for (Consumer consumer : consumers) {
+            if (consumer.laneDispatcher != null) {
+                consumer.laneDispatcher.start("sdnmq-flowprogrammer-lanes-" + i);
+            }
+            i++;
         }
         
         log.trace("Setup JMS successfully");
-        
-        return true;
+    }
+    
+    @Override
+    public synchronized void connectionLost() {
+        releaseMQ();
     }
     
     /**
      * Release JMS-related objects.
      */
     private void releaseMQ() {
-        if (connection != null) {
-            try {
-                connection.stop();
-            } catch (JMSException e) {}
+        for (Consumer consumer : consumers) {
+            if (consumer.laneDispatcher != null) {
+                consumer.laneDispatcher.stop();
+                consumer.laneDispatcher = null;
+            }
         }
-        if (receiver != null) {
-            try {
-                receiver.close();
-            } catch (JMSException e) {}
+        
+        if (coalesceTimer != null) {
+            coalesceTimer.shutdownNow();
+            coalesceTimer = null;
+        }
+        if (ackTimer != null) {
+            ackTimer.shutdownNow();
+            ackTimer = null;
+        }
+        for (Consumer consumer : consumers) {
+            synchronized (consumer.acknowledger) {
+                // Program staged requests while the session is still open for replies.
+                if (consumer.coalescer != null) {
+                    consumer.coalescer.flush();
+                }
+                consumer.acknowledger.flush();
+            }
         }
         
-        if (session != null) {
+        for (Consumer consumer : consumers) {
+            for (QueueReceiver receiver : consumer.receivers) {
+                try {
+                    receiver.close();
+                } catch (JMSException e) {}
+            }
+            
             try {
-                session.close();
+                consumer.session.close();
             } catch (JMSException e) {}
         }
-        
-        if (connection != null) {
-           try {
-            connection.close();
-           } catch (JMSException e) {}
-        }
+        consumers.clear();
     }
     
     /**
-     * Starts the receiver thread receiving flow programming requests via JMS queue.
+     * Creates the dispatcher for the lanes of a consumer according to the configuration.
      */
-    private void startMsgListener() {
-        try {
-            receiver.setMessageListener(this);
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            return;
+    private LaneDispatcher createLaneDispatcher(Consumer consumer) {
+        String policyName = System.getProperty(LANE_POLICY_PROPERTY, LaneDispatcher.Policy.STRICT.toConfigName());
+        LaneDispatcher.Policy policy = LaneDispatcher.Policy.fromConfigName(policyName);
+        if (policy == null) {
+            log.error("Invalid lane scheduling policy " + policyName + ". Using strict priorities.");
+            policy = LaneDispatcher.Policy.STRICT;
         }
         
-        try {
-            connection.start();
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            return;
+        int[] weights = new int[consumer.receivers.size()];
+        List<String> weightStrs = ConfigHelper.getListProperty(LANE_WEIGHTS_PROPERTY);
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1;
+            if (i < weightStrs.size()) {
+                try {
+                    weights[i] = Math.max(1, Integer.parseInt(weightStrs.get(i)));
+                } catch (NumberFormatException e) {
+                    log.error("Invalid lane weight: " + weightStrs.get(i));
+                }
+            }
         }
+        
+        long idleWait = ConfigHelper.getLongProperty(LANE_IDLE_WAIT_PROPERTY, DEFAULT_LANE_IDLE_WAIT);
+        
+        log.info("Scheduling " + consumer.receivers.size() + " flow programmer lanes using policy " + 
+                policy.toConfigName());
+        
+        return new LaneDispatcher(new LinkedList<MessageConsumer>(consumer.receivers), weights, policy, 
+                Math.max(1, idleWait), consumer);
     }
 
+    /**
+     * Callback called by OpenDaylight when ConnectionManager is bound.
+     */
+    void setConnectionManager(IConnectionManager s) {
+        log.trace("Set ConnectionManager.");
+        
+        connectionManager = s;
+    }
+    
+    /**
+     * Callback called by OpenDaylight when ConnectionManager is unbound.
+     */
+    void unsetConnectionManager(IConnectionManager s) {
+        log.trace("Removed ConnectionManager.");
+        
+        if (connectionManager == s) {
+            connectionManager = null;
+        }
+    }
+    
     /**
      * Callback called by OpenDaylight when Switch Manager Service is bound.
      */
@@ -258,290 +480,224 @@ public class FlowProgrammer implements MessageListener {
     }
     
     /**
-     * Creates OpenDaylight Match object from JSON specification.
-     * 
-     * @param node the node on which the match will be performed
-     * @param json the JSON document specifying the match attributes
-     * @return Match object or null if the JSON specification was invalid
+     * Callback called by OpenDaylight when Inventory Cache is bound.
      */
-    private Match matchFromJson(Node node, JSONObject json) throws JSONException {
-        Match m = new Match();
-        
-        if (json.has(MatchAttributes.Keys.INGRESS_PORT.toJSON())) {
-            NodeConnector connector = NodeConnector.fromStringNoNode(json.getString(MatchAttributes.Keys.INGRESS_PORT.toJSON()), node);
-            if (connector == null) {
-                log.error("Port does not exist on node " + node.toString());
-                return null;
-            } else {
-                m.setField(MatchType.IN_PORT, connector);
-            }
+    void setInventoryCache(IInventoryCache s) {
+        log.trace("Set InventoryCache.");
+     
+        inventoryCache = s;
+    }
+     
+    /**
+     * Callback called by OpenDaylight when Inventory Cache is unbound.
+     */
+    void unsetInventoryCache(IInventoryCache s) {
+        log.trace("Removed InventoryCache.");
+     
+        if (inventoryCache == s) {
+            inventoryCache = null;
         }
+    }
+    
+    /**
+     * Callback called by OpenDaylight when Data Packet Service is bound.
+     */
+    void setDataPacketService(IDataPacketService s) {
+        log.trace("Set DataPacketService.");
         
-        if (json.has(MatchAttributes.Keys.DL_DST.toJSON())) {
-            byte[] dlSrc = Netutil.parseDlAddr(json.getString(MatchAttributes.Keys.DL_SRC.toJSON()));
-            if (dlSrc == null) {
-                log.error("Invalid DL source address: " + json.getString(MatchAttributes.Keys.DL_SRC.toJSON()));
-                return null;
-            } else {
-                m.setField(MatchType.DL_SRC, dlSrc);    
-            }
-        }
+        dataPacketService = s;
+    }
+    
+    /**
+     * Callback called by OpenDaylight when Data Packet Service is unbound.
+     */
+    void unsetDataPacketService(IDataPacketService s) {
+        log.trace("Removed DataPacketService.");
         
-        if (json.has(MatchAttributes.Keys.DL_DST.toJSON())) {
-            byte[] dlDst = Netutil.parseDlAddr(json.getString(MatchAttributes.Keys.DL_DST.toJSON()));
-            if (dlDst == null) {
-                log.error("Invalid DL destination address: " + json.getString(MatchAttributes.Keys.DL_DST.toJSON()));
-                return null;
-            } else {
-                m.setField(MatchType.DL_DST, dlDst);    
-            }
+        if (dataPacketService == s) {
+            dataPacketService = null;
         }
+    }
+    
+    /**
+     * Callback called by OpenDaylight when Packet Buffer Cache is bound.
+     */
+    void setPacketBufferCache(IPacketBufferCache s) {
+        log.trace("Set PacketBufferCache.");
         
-        if (json.has(MatchAttributes.Keys.DL_VLAN.toJSON())) {
-            short vlan = (short) json.getInt(MatchAttributes.Keys.DL_VLAN.toJSON());
-            m.setField(MatchType.DL_VLAN, vlan);
-        }
+        packetBufferCache = s;
+    }
+    
+    /**
+     * Callback called by OpenDaylight when Packet Buffer Cache is unbound.
+     */
+    void unsetPacketBufferCache(IPacketBufferCache s) {
+        log.trace("Removed PacketBufferCache.");
         
-        if (json.has(MatchAttributes.Keys.DL_VLAN_PRIORITY.toJSON())) {
-            byte vlanPr = (byte) json.getInt(MatchAttributes.Keys.DL_VLAN_PRIORITY.toJSON());
-            m.setField(MatchType.DL_VLAN_PR, vlanPr);
+        if (packetBufferCache == s) {
+            packetBufferCache = null;
         }
+    }
+    
+    /**
+     * Handles a flow programming request received by a consumer.
+     * 
+     * JSON add and modify requests are staged in the coalescer of the consumer (if enabled). 
+     * Before any other request is executed, staged requests are programmed to keep the order 
+     * of requests.
+     * 
+     * @param msg the request
+     * @param consumer the consumer that received the request
+     * @return true if the request has been processed, false if it has been staged
+     */
+    private boolean handleMessage(Message msg, Consumer consumer) {
+        log.trace("Received flow programming request");
         
-        short ethertype;
-        if (json.has(MatchAttributes.Keys.ETHERTYPE.toJSON())) {
-            ethertype = (short) json.getInt(MatchAttributes.Keys.ETHERTYPE.toJSON());
-            m.setField(MatchType.DL_TYPE, ethertype);
-        }
+        QueueSession session = consumer.session;
         
-        InetAddress nwSrcMask = null;
-        if (json.has(MatchAttributes.Keys.NW_SRC_MASK.toJSON())) {            
-            try {
-                nwSrcMask = InetAddress.getByName(json.getString(MatchAttributes.Keys.NW_SRC_MASK.toJSON()));
-            } catch (UnknownHostException e) {
-                log.error("Invalid source network mask " + json.getString(MatchAttributes.Keys.NW_SRC_MASK.toJSON()));
-                return null;
-            }
-        }
+        // TODO: Check, how we can send an error message to the requester using JMS if something goes wrong.
         
-        if (json.has(MatchAttributes.Keys.NW_SRC.toJSON())) {        
+        JSONObject json = null;
+        if (msg instanceof TextMessage) {
             try {
-                InetAddress nwSrc = InetAddress.getByName(json.getString(MatchAttributes.Keys.NW_SRC.toJSON()));
-                if (nwSrcMask != null) {
-                    m.setField(MatchType.NW_SRC, nwSrc, nwSrcMask);
-                } else {
-                    m.setField(MatchType.NW_SRC, nwSrc);
+                json = new JSONObject(((TextMessage) msg).getText());
+            } catch (JSONException e) {
+                log.error(e.getMessage());
+                sendStatusReply(msg, session, false, "Could not parse JSON message: " + e.getMessage());
+                return true;
+            } catch (JMSException e) {
+                log.error(e.getMessage());
+                return true;
+            }
+            assert(json != null);
+            log.trace(json.toString());
+            
+            if (consumer.coalescer != null) {
+                String flowName = getCoalescableFlowName(json);
+                if (flowName != null) {
+                    consumer.acknowledger.hold();
+                    consumer.coalescer.stage(flowName, json, msg);
+                    return false;
                 }
-            } catch (UnknownHostException e) {
-                log.error("Invalid source network address " + json.getString(MatchAttributes.Keys.NW_SRC.toJSON()));
-                return null;
             }
         }
         
-        InetAddress nwDstMask = null;
-        if (json.has(MatchAttributes.Keys.NW_DST_MASK.toJSON())) {            
-            try {
-                nwDstMask = InetAddress.getByName(json.getString(MatchAttributes.Keys.NW_DST_MASK.toJSON()));
-            } catch (UnknownHostException e) {
-                log.error("Invalid destination network mask " + json.getString(MatchAttributes.Keys.NW_DST_MASK.toJSON()));
-                return null;
-            }
+        if (consumer.coalescer != null) {
+            consumer.coalescer.flush();
         }
         
-        if (json.has(MatchAttributes.Keys.NW_DST.toJSON())) {
+        if (msg instanceof BytesMessage) {
             try {
-                InetAddress nwDst = InetAddress.getByName(json.getString(MatchAttributes.Keys.NW_DST.toJSON()));
-                if (nwDstMask != null) {
-                    m.setField(MatchType.NW_DST, nwDst, nwDstMask);
-                } else {
-                    m.setField(MatchType.NW_DST, nwDst);
-                }
-            } catch (UnknownHostException e) {
-                log.error("Invalid destination network address " + json.getString(MatchAttributes.Keys.NW_DST.toJSON()));
-                return null;
+                boolean success = handleBinaryRequest(MessageHelper.readBody((BytesMessage) msg));
+                sendStatusReply(msg, session, success, "Binary flow programming request failed");
+            } catch (JMSException e) {
+                log.error(e.getMessage());
             }
-        }
-                
-        if (json.has(MatchAttributes.Keys.NW_TOS.toJSON())) {        
-            byte tos = (byte) json.getInt(MatchAttributes.Keys.NW_TOS.toJSON());
-            m.setField(MatchType.NW_TOS, tos);
+            return true;
         }
         
-        boolean protocolDefined = false;
-        byte protocol;
-        if (json.has(MatchAttributes.Keys.PROTOCOL.toJSON())) {
-            protocol = (byte) json.getInt(MatchAttributes.Keys.PROTOCOL.toJSON());
-            m.setField(MatchType.NW_PROTO, protocol);
-            protocolDefined = true;
+        if (json == null) {
+            log.error("Received invalid message type (neither text nor bytes message).");
+            sendStatusReply(msg, session, false, "Invalid message type");
+            return true;
         }
         
-        if (json.has(MatchAttributes.Keys.TP_SRC.toJSON())) {            
-            if (!protocolDefined) {
-                log.error("Layer 4 information specified without defining protocol number");
-                return null;
-            }
-            
-            short tpSrc = (short) json.getInt(MatchAttributes.Keys.TP_SRC.toJSON());
-            m.setField(MatchType.TP_SRC, tpSrc);
-        }
-        
-        if (json.has(MatchAttributes.Keys.TP_DST.toJSON())) {            
-            if (!protocolDefined) {
-                log.error("Layer 4 information specified without defining protocol number");
-                return null;
-            }
-            
-            short tpDst = (short) json.getInt(MatchAttributes.Keys.TP_DST.toJSON());
-            m.setField(MatchType.TP_DST, tpDst);
-        }
+        // The status refers to the flow. Errors of an embedded packet-out request are reported 
+        // by the same reply.
+        PacketOutResult packetOutResult = new PacketOutResult();
+        boolean success = handleRequest(json, packetOutResult);
+        sendStatusReply(msg, session, success, "Flow programming request failed", packetOutResult.error);
         
-        return m;
+        return true;
     }
     
     /**
-     * Creates OpenDaylight Action object from JSON specification.
+     * Checks whether a request may be coalesced with later requests for the same flow. 
+     * Only add and modify requests without embedded packet-out requests are coalesced, since 
+     * the packet of a packet-out request must not be dropped.
      * 
-     * @param node the node (switch) receiving the action (required to define output action with valid node connector) 
-     * @param actionJson the JSON object specifying the action
-     * @return OpenDaylight action object
-     */
-    private Action parseAction(Node node, JSONObject actionJson) throws JSONException {
-        String actionType = actionJson.getString(ActionAttributes.Keys.ACTION.toJSON());
-        
-        if (actionType.equals(ActionAttributes.ActionTypeValues.LOOPBACK.toJSON())) {
-            return new Loopback();
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.DROP.toJSON())) {
-            return new Drop();
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.CONTROLLER.toJSON())) {
-            return new Controller();
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.OUTPUT.toJSON())) {
-            String connectorId = actionJson.getString(ActionAttributes.Keys.PORT.toJSON());
-            NodeConnector conn = NodeConnector.fromStringNoNode(connectorId, node);
-            if (conn == null) {
-                log.error("Invalid node connector for output action: " + connectorId);
-                return null;
-            } else {
-                return new Output(conn);
-            }
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.SET_DL_SRC.toJSON())) {
-            String addrStr = actionJson.getString(ActionAttributes.Keys.DL_ADDRESS.toJSON());
-            byte[] addr = Netutil.parseDlAddr(addrStr);
-            if (addr == null) {
-                log.error("Invalid DL address specified: " + addrStr);
-                return null;
-            } else {
-                return new SetDlSrc(addr);
-            }
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.SET_DL_DST.toJSON())) {
-            String addrStr = actionJson.getString(ActionAttributes.Keys.DL_ADDRESS.toJSON());
-            byte[] addr = Netutil.parseDlAddr(addrStr);
-            if (addr == null) {
-                log.error("Invalid DL address specified: " + addrStr);
-                return null;
-            } else {
-                return new SetDlDst(addr);
-            }
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.SET_NW_SRC.toJSON())) {
-            String addrStr = actionJson.getString(ActionAttributes.Keys.NW_ADDRESS.toJSON());
-            try {
-                InetAddress addr = InetAddress.getByName(addrStr);
-                return new SetNwSrc(addr);
-            } catch (UnknownHostException e) {
-                log.error("Invalid network address specified: " + addrStr);
-                return null;
-            }
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.SET_NW_DST.toJSON())) {
-            String addrStr = actionJson.getString(ActionAttributes.Keys.NW_ADDRESS.toJSON());
-            try {
-                InetAddress addr = InetAddress.getByName(addrStr);
-                return new SetNwDst(addr);
-            } catch (UnknownHostException e) {
-                log.error("Invalid network address specified: " + addrStr);
-                return null;
-            }
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.SET_TP_SRC.toJSON())) {
-            String addrStr = actionJson.getString(ActionAttributes.Keys.TP_ADDRESS.toJSON());
-            try {
-                int port = Integer.parseInt(addrStr);
-                return new SetTpSrc(port);
-            } catch (NumberFormatException e) {
-                log.error("Invalid transport layer address specified: " + addrStr);
-                return null;
-            }
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.SET_TP_DST.toJSON())) {
-            String addrStr = actionJson.getString(ActionAttributes.Keys.TP_ADDRESS.toJSON());
-            try {
-                int port = Integer.parseInt(addrStr);
-                return new SetTpDst(port);
-            } catch (NumberFormatException e) {
-                log.error("Invalid transport layer address specified: " + addrStr);
-                return null;
-            }
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.PUSH_VLAN.toJSON())) {
-            // 3 bit Priority Code Point
-            int pcp = actionJson.getInt(ActionAttributes.Keys.PCP.toJSON());
-            // 1 bit Drop Eligible Indicator (aka cfi)
-            int dei = actionJson.getInt(ActionAttributes.Keys.DEI.toJSON());
-            // 12 bit VLAN ID
-            int vlanId = actionJson.getInt(ActionAttributes.Keys.VLAN_ID.toJSON());;
-            return new PushVlan(EtherTypes.VLANTAGGED, pcp, dei, vlanId);
-        } else if (actionType.equals(ActionAttributes.ActionTypeValues.POP_VLAN.toJSON())) {
-            return new PopVlan();
-        } else {
-            log.error("Unsupported action: " + actionType);
+     * @param json the request
+     * @return the name of the flow or null if the request must not be coalesced
+     */
+    private String getCoalescableFlowName(JSONObject json) {
+        String command = json.optString(FlowProgrammerRequestAttributes.Keys.COMMAND.toJSON(), null);
+        if (!FlowProgrammerRequestAttributes.CommandValues.ADD.toJSON().equals(command) && 
+                !FlowProgrammerRequestAttributes.CommandValues.MODIFY.toJSON().equals(command)) {
             return null;
         }
-    }
-    
-    /**
-     * Create OpenDaylight actions from JSON specifications.
-     * 
-     * @param node the node to be programmed (required for specifying valid output actions with correct node connectors)
-     * @param actionsJson JSON array specifying actions
-     * @return list of created OpenDaylight actions
-     */
-    private List<Action> actionsFromJson(Node node, JSONArray actionsJson) throws JSONException {
-        List<Action> actions = new LinkedList<Action>();
         
-        for (int i = 0; i < actionsJson.length(); i++) {
-            JSONObject actionJson = actionsJson.getJSONObject(i);
-            Action action = parseAction(node, actionJson);
-            if (action == null) {
-                log.error("Invalid action: " + actionJson.toString());
-                return null;
-            } else {
-                actions.add(action);
-            }
+        if (json.has(FlowProgrammerRequestAttributes.Keys.PACKET_OUT.toJSON())) {
+            return null;
         }
         
-        return actions;
+        return json.optString(FlowProgrammerRequestAttributes.Keys.FLOW_NAME.toJSON(), null);
     }
-
-    @Override
-    public void onMessage(Message msg) {
-        log.trace("Received flow programming request");
-        
-        // TODO: Check, how we can send an error message to the requester using JMS if something goes wrong.
-        
-        if (!(msg instanceof TextMessage)) {
-            log.error("Received invalid message type (not a text message).");
-            return;
-        }
-
-        // Parse JSON message
-        
-        JSONObject json = null;
+    
+    private void sendStatusReply(Message msg, QueueSession session, boolean success, String description) {
+        sendStatusReply(msg, session, success, description, null);
+    }
+    
+    private void sendStatusReply(Message msg, QueueSession session, boolean success, String description, 
+            String packetOutError) {
         try {
-            json = new JSONObject(((TextMessage) msg).getText());
-        } catch (JSONException e) {
-            log.error(e.getMessage());
-            return;
+            MessageHelper.sendStatusReply(session, msg, success, description, packetOutError);
         } catch (JMSException e) {
-            log.error(e.getMessage());
-            return;
+            log.error("Could not send status reply: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public boolean handleRequest(JSONObject json) {
+        return handleRequest(json, null);
+    }
+    
+    @Override
+    public boolean isProgrammed(String flowName, Node node, JSONObject flowJson) {
+        FlowRegistry.Entry entry = getRegistryEntry(flowName);
+        if (entry == null || !entry.getNode().equals(node)) {
+            return false;
+        }
+        
+        // Compiling is cheap for repeated flows, since the compiled flow is taken from the compilation cache.
+        Match match;
+        List<Action> actions;
+        short priority = 0;
+        try {
+            match = compilationCache.getMatch(inventoryCache, node, flowJson.getJSONObject(FlowAttributes.Keys.MATCH.toJSON()));
+            actions = compilationCache.getActions(inventoryCache, node, flowJson.getJSONArray(FlowAttributes.Keys.ACTIONS.toJSON()));
+            if (flowJson.has(FlowAttributes.Keys.PRIORITY.toJSON())) {
+                priority = (short) flowJson.getInt(FlowAttributes.Keys.PRIORITY.toJSON());
+            }
+        } catch (JSONException e) {
+            return false;
         }
-        assert(json != null);
-        log.trace(json.toString());
         
+        if (match == null || actions == null) {
+            return false;
+        }
+        Flow flow = new Flow(match, actions);
+        flow.setPriority(priority);
+        
+        return isSameFlow(entry.getFlow(), flow);
+    }
+    
+    /**
+     * @return true if both flows have the same match, actions, and priority
+     */
+    private static boolean isSameFlow(Flow flow1, Flow flow2) {
+        return flow1.getPriority() == flow2.getPriority() && flow1.getMatch().equals(flow2.getMatch()) && 
+                flow1.getActions().equals(flow2.getActions());
+    }
+    
+    /**
+     * Executes a flow programming request in JSON representation.
+     * 
+     * @param json the request
+     * @param packetOutResult receives the result of an embedded packet-out request (null if the 
+     * request was not received via JMS)
+     * @return true if the request was executed successfully
+     */
+    private boolean handleRequest(JSONObject json, PacketOutResult packetOutResult) {
         // Get the command to be executed.
         
         String command = null;
@@ -549,10 +705,14 @@ public class FlowProgrammer implements MessageListener {
             command = json.getString(FlowProgrammerRequestAttributes.Keys.COMMAND.toJSON());
         } catch (JSONException e) {
             log.error("No command specified: " + e.getMessage());
-            return;
+            return false;
         }
         assert(command != null);
         
+        if (command.equals(FlowProgrammerRequestAttributes.CommandValues.DELETE_ALL.toJSON())) {
+            return deleteFlows(json);
+        }
+        
         // Get name of flow
         
         String flowName = null;
@@ -560,7 +720,7 @@ public class FlowProgrammer implements MessageListener {
             flowName = json.getString(FlowProgrammerRequestAttributes.Keys.FLOW_NAME.toJSON());
         } catch (JSONException e) {
             log.error("No flow name specified: " + e.getMessage());
-            return;
+            return false;
         }
         assert(flowName != null);
         
@@ -571,13 +731,15 @@ public class FlowProgrammer implements MessageListener {
         JSONObject flowJson = null;
         Node node = null;
         short priority = 0;
+        boolean evictable = false;
+        String tag = null;
         if (command.equals(FlowProgrammerRequestAttributes.CommandValues.ADD.toJSON()) || 
                 command.equals(FlowProgrammerRequestAttributes.CommandValues.MODIFY.toJSON())) {
             try {
                 flowJson = json.getJSONObject(FlowProgrammerRequestAttributes.Keys.FLOW.toJSON());
             } catch (JSONException e) {
                 log.error("No flow object defined for request: " + e.getMessage());
-                return;
+                return false;
             }
             
             String nodeId = null;
@@ -592,37 +754,37 @@ public class FlowProgrammer implements MessageListener {
                 }
             } catch (JSONException e) {
                 log.error("No node attributes specified: " + e.getMessage());
-                return;
+                return false;
             }
         
-            node = Node.fromString(nodeType, nodeId);
+            node = inventoryCache.getNode(nodeType, nodeId);
             if (node == null) {
-                log.error("Invalid node id: " + nodeId);
-                return;
+                log.error("Node '" + nodeId + "' not found");
+                return false;
             }
             
             try {
                 JSONObject matchJson = flowJson.getJSONObject(FlowAttributes.Keys.MATCH.toJSON());
-                match = matchFromJson(node, matchJson);      
+                match = compilationCache.getMatch(inventoryCache, node, matchJson);      
                 if (match == null) {
                     log.error("Could not parse match specification");
-                    return;
+                    return false;
                 }
             } catch (JSONException e) {
                 log.error("No match specification: " + e.getMessage());
-                return;
+                return false;
             }
             
             try {
                 JSONArray actionsJson = flowJson.getJSONArray(FlowAttributes.Keys.ACTIONS.toJSON());
-                actions = actionsFromJson(node, actionsJson);
+                actions = compilationCache.getActions(inventoryCache, node, actionsJson);
                 if (actions == null) {
                     log.error("Could not parse (some) actions. Will not program flow.");
-                    return;
+                    return false;
                 }
             } catch (JSONException e) {
                 log.error("No actions specified: "+ e.getMessage());
-                return;
+                return false;
             }
             
             try {
@@ -633,7 +795,25 @@ public class FlowProgrammer implements MessageListener {
                 }
             } catch (JSONException e) {
                 log.error("No flow priority specified: " + e.getMessage());
-                return;
+                return false;
+            }
+            
+            try {
+                if (json.has(FlowProgrammerRequestAttributes.Keys.EVICTABLE.toJSON())) {
+                    evictable = json.getBoolean(FlowProgrammerRequestAttributes.Keys.EVICTABLE.toJSON());
+                }
+            } catch (JSONException e) {
+                log.error("Invalid evictable attribute: " + e.getMessage());
+                return false;
+            }
+            
+            try {
+                if (json.has(FlowProgrammerRequestAttributes.Keys.TAG.toJSON())) {
+                    tag = json.getString(FlowProgrammerRequestAttributes.Keys.TAG.toJSON());
+                }
+            } catch (JSONException e) {
+                log.error("Invalid tag attribute: " + e.getMessage());
+                return false;
             }
         }
         
@@ -646,46 +826,660 @@ public class FlowProgrammer implements MessageListener {
             assert(flowName != null);
             assert(node != null);
             
-            synchronized (flowNameToFlow) {
-                Flow newFlow = new Flow(match, actions);
-                newFlow.setPriority(priority);
-                Flow oldFlow = flowNameToFlow.get(flowName);
-                Status status = null;
-                if (oldFlow != null) {
-                    // Old flow exists, so we modify it.
-                    status = flowProgrammerService.modifyFlow(node, oldFlow, newFlow);
-                } else {
-                    // No flow with that name exists, so add it.
-                    status = flowProgrammerService.addFlow(node, newFlow);
-                }
-                if (!status.isSuccess()) {
-                    log.error("Could not add/modify flow: " + status.getDescription());
-                    return;
-                }
+            Flow newFlow = new Flow(match, actions);
+            newFlow.setPriority(priority);
+            if (!addOrModifyFlow(flowName, node, newFlow, evictable, tag)) {
+                return false;
+            }
+            if (json.has(FlowProgrammerRequestAttributes.Keys.PACKET_OUT.toJSON())) {
+                // Release the packet that triggered the flow only after the flow has been programmed,
+                // so it does not trigger another packet-in event.
+                sendPacketOut(json, packetOutResult);
+            }
+            return true;
+        } else if (command.equals(FlowProgrammerRequestAttributes.CommandValues.PATCH.toJSON())) {
+            assert(flowName != null);
             
-                flowNameToFlow.put(flowName, newFlow);
-                flowNameToNode.put(flowName, node);
+            if (!patchFlow(flowName, json)) {
+                return false;
             }
+            if (json.has(FlowProgrammerRequestAttributes.Keys.PACKET_OUT.toJSON())) {
+                sendPacketOut(json, packetOutResult);
+            }
+            return true;
         } else if (command.equals(FlowProgrammerRequestAttributes.CommandValues.DELETE.toJSON())) {
             assert(flowName != null);
             
-            synchronized (flowNameToFlow) {
-                Flow flow = flowNameToFlow.get(flowName);
-                node = flowNameToNode.get(flowName);
-                assert( flow == null || ((flow != null) && (node != null)) );
+            return deleteFlow(flowName);
+        }
+        
+        log.error("Invalid command: " + command);
+        return false;
+    }
+    
+    /**
+     * Sends the packets of the packet-out request embedded into a flow programming request.
+     * 
+     * @param json the flow programming request
+     * @param packetOutResult receives the error if the packet is no longer available (null if the 
+     * request was not received via JMS)
+     */
+    private void sendPacketOut(JSONObject json, PacketOutResult packetOutResult) {
+        JSONObject packetOutJson;
+        try {
+            packetOutJson = json.getJSONObject(FlowProgrammerRequestAttributes.Keys.PACKET_OUT.toJSON());
+        } catch (JSONException e) {
+            log.error("Invalid packet-out request: " + e.getMessage());
+            return;
+        }
+        
+        PacketOut packetOut = new PacketOut(inventoryCache, packetBufferCache);
+        if (!packetOut.parseJson(packetOutJson)) {
+            if (packetOut.isPacketUnavailable() && packetOutResult != null) {
+                packetOutResult.error = packetOut.getError();
+            }
+            return;
+        }
+        
+        packetOut.transmit(dataPacketService);
+    }
+    
+    /**
+     * Handles a flow programming request in binary representation (cf. class BinaryFormat).
+     * 
+     * @param request the request (position 0 is the start of the request)
+     * @return true if the request was executed successfully
+     */
+    @Override
+    public boolean handleBinaryRequest(ByteBuffer request) {
+        FlowModDecoder decoder = new FlowModDecoder();
+        if (!decoder.wrap(request)) {
+            log.error("Invalid binary flow programming request");
+            return false;
+        }
+        
+        String flowName = decoder.getFlowName();
+        byte command = decoder.getCommand();
+        
+        if (command == BinaryFormat.COMMAND_DELETE) {
+            return deleteFlow(flowName);
+        } else if (command != BinaryFormat.COMMAND_ADD && command != BinaryFormat.COMMAND_MODIFY) {
+            log.error("Invalid command: " + command);
+            return false;
+        }
+        
+        String nodeId = BinaryFormat.dpidToString(decoder.getDpid());
+        Node node = inventoryCache.getNode(NodeAttributes.TypeValues.OF.toJSON(), nodeId);
+        if (node == null) {
+            log.error("Node '" + nodeId + "' not found");
+            return false;
+        }
+        
+        Match match = matchFromBinary(node, decoder);
+        if (match == null) {
+            log.error("Could not parse match specification");
+            return false;
+        }
+        
+        List<Action> actions = actionsFromBinary(node, decoder);
+        if (actions == null) {
+            log.error("Could not parse (some) actions. Will not program flow.");
+            return false;
+        }
+        
+        Flow newFlow = new Flow(match, actions);
+        newFlow.setPriority(decoder.getPriority());
+        return addOrModifyFlow(flowName, node, newFlow, decoder.isEvictable(), null);
+    }
+    
+    /**
+     * Creates OpenDaylight Match object from binary specification.
+     * 
+     * @param node the node on which the match will be performed
+     * @param decoder the decoder wrapping the binary request
+     * @return Match object or null if the specification was invalid
+     */
+    private Match matchFromBinary(Node node, FlowModDecoder decoder) {
+        Match m = new Match();
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_IN_PORT)) {
+            NodeConnector connector = inventoryCache.parseNodeConnector(node, Integer.toString(decoder.getInPort()));
+            if (connector == null) {
+                log.error("Port does not exist on node " + node.toString());
+                return null;
+            }
+            m.setField(MatchType.IN_PORT, connector);
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_DL_SRC)) {
+            m.setField(MatchType.DL_SRC, decoder.getDlSrc());
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_DL_DST)) {
+            m.setField(MatchType.DL_DST, decoder.getDlDst());
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_DL_VLAN)) {
+            m.setField(MatchType.DL_VLAN, decoder.getDlVlan());
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_DL_VLAN_PR)) {
+            m.setField(MatchType.DL_VLAN_PR, decoder.getDlVlanPriority());
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_DL_TYPE)) {
+            m.setField(MatchType.DL_TYPE, decoder.getDlType());
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_NW_SRC)) {
+            InetAddress nwSrc = Netutil.ipv4ToInetAddress(decoder.getNwSrc());
+            int mask = decoder.getNwSrcMask();
+            if (mask != 0 && mask != 0xffffffff) {
+                m.setField(MatchType.NW_SRC, nwSrc, Netutil.ipv4ToInetAddress(mask));
+            } else {
+                m.setField(MatchType.NW_SRC, nwSrc);
+            }
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_NW_DST)) {
+            InetAddress nwDst = Netutil.ipv4ToInetAddress(decoder.getNwDst());
+            int mask = decoder.getNwDstMask();
+            if (mask != 0 && mask != 0xffffffff) {
+                m.setField(MatchType.NW_DST, nwDst, Netutil.ipv4ToInetAddress(mask));
+            } else {
+                m.setField(MatchType.NW_DST, nwDst);
+            }
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_NW_TOS)) {
+            m.setField(MatchType.NW_TOS, decoder.getNwTos());
+        }
+        
+        boolean protocolDefined = decoder.hasMatchField(BinaryFormat.MATCH_NW_PROTO);
+        if (protocolDefined) {
+            m.setField(MatchType.NW_PROTO, decoder.getNwProto());
+        }
+        
+        if (decoder.hasMatchField(BinaryFormat.MATCH_TP_SRC) || decoder.hasMatchField(BinaryFormat.MATCH_TP_DST)) {
+            if (!protocolDefined) {
+                log.error("Layer 4 information specified without defining protocol number");
+                return null;
+            }
+            
+            if (decoder.hasMatchField(BinaryFormat.MATCH_TP_SRC)) {
+                m.setField(MatchType.TP_SRC, decoder.getTpSrc());
+            }
+            
+            if (decoder.hasMatchField(BinaryFormat.MATCH_TP_DST)) {
+                m.setField(MatchType.TP_DST, decoder.getTpDst());
+            }
+        }
+        
+        return m;
+    }
+    
+    /**
+     * Create OpenDaylight actions from binary specification.
+     * 
+     * @param node the node to be programmed (required for specifying valid output actions with correct node connectors)
+     * @param decoder the decoder wrapping the binary request
+     * @return list of created OpenDaylight actions or null if an action is invalid
+     */
+    private List<Action> actionsFromBinary(Node node, FlowModDecoder decoder) {
+        List<Action> actions = new LinkedList<Action>();
+        
+        for (int i = 0; i < decoder.getActionCount(); i++) {
+            Action action = null;
+            switch (decoder.getActionType(i)) {
+            case BinaryFormat.ACTION_LOOPBACK:
+                action = new Loopback();
+                break;
+            case BinaryFormat.ACTION_DROP:
+                action = new Drop();
+                break;
+            case BinaryFormat.ACTION_CONTROLLER:
+                action = new Controller();
+                break;
+            case BinaryFormat.ACTION_FLOOD:
+                action = new Flood();
+                break;
+            case BinaryFormat.ACTION_OUTPUT:
+                NodeConnector conn = inventoryCache.parseNodeConnector(node, Integer.toString(decoder.getActionPort(i)));
+                if (conn != null) {
+                    action = new Output(conn);
+                }
+                break;
+            case BinaryFormat.ACTION_SET_DL_SRC:
+                action = new SetDlSrc(decoder.getActionDlAddress(i));
+                break;
+            case BinaryFormat.ACTION_SET_DL_DST:
+                action = new SetDlDst(decoder.getActionDlAddress(i));
+                break;
+            case BinaryFormat.ACTION_SET_NW_SRC:
+                action = new SetNwSrc(Netutil.ipv4ToInetAddress(decoder.getActionNwAddress(i)));
+                break;
+            case BinaryFormat.ACTION_SET_NW_DST:
+                action = new SetNwDst(Netutil.ipv4ToInetAddress(decoder.getActionNwAddress(i)));
+                break;
+            case BinaryFormat.ACTION_SET_TP_SRC:
+                action = new SetTpSrc(decoder.getActionPort(i));
+                break;
+            case BinaryFormat.ACTION_SET_TP_DST:
+                action = new SetTpDst(decoder.getActionPort(i));
+                break;
+            case BinaryFormat.ACTION_PUSH_VLAN:
+                action = new PushVlan(EtherTypes.VLANTAGGED, decoder.getActionVlanPcp(i), 
+                        decoder.getActionVlanDei(i), decoder.getActionVlanId(i));
+                break;
+            case BinaryFormat.ACTION_POP_VLAN:
+                action = new PopVlan();
+                break;
+            }
+            
+            if (action == null) {
+                log.error("Invalid action of type " + decoder.getActionType(i));
+                return null;
+            }
+            actions.add(action);
+        }
+        
+        return actions;
+    }
+    
+    /**
+     * Adds a new named flow or modifies the existing flow with the same name.
+     * 
+     * If the flow moves to another node, it is programmed on the new node first and removed from 
+     * the old node afterwards, so the flow is kept on the old node if the new node rejects it.
+     * 
+     * If flows are evicted to make room for the flow, they are re-installed if the node rejects 
+     * the flow, so they are not evicted for nothing.
+     * 
+     * @param flowName the name of the flow
+     * @param node the node to be programmed
+     * @param newFlow the flow
+     * @param evictable true if the flow may be evicted to make room for other flows
+     * @param tag the group tag of the flow (may be null)
+     * @return true if the flow was programmed successfully
+     */
+    private boolean addOrModifyFlow(String flowName, Node node, Flow newFlow, boolean evictable, String tag) {
+        FlowRegistry.Entry movedEntry = null;
+        synchronized (getNodeLock(node)) {
+            FlowRegistry.Entry oldEntry = getRegistryEntry(flowName);
+            if (oldEntry != null && !oldEntry.getNode().equals(node)) {
+                // The flow moves to another node. It is added to the new node and removed from the old 
+                // node after releasing the lock of the new node (to avoid deadlocks).
+                movedEntry = oldEntry;
+                oldEntry = null;
+            }
+            
+            Status status = null;
+            if (oldEntry != null && isSameFlow(oldEntry.getFlow(), newFlow)) {
+                // Nothing to program, e.g., the request was redelivered or repeated.
+                log.trace("Flow " + flowName + " is already programmed");
+                status = new Status(StatusCode.SUCCESS);
+            } else if (oldEntry != null) {
+                // Old flow exists, so we modify it.
+                status = flowProgrammerService.modifyFlow(node, oldEntry.getFlow(), newFlow);
+            } else {
+                // No flow with that name exists, so add it if the flow table of the node has room for it.
+                // Only the holder of the node lock adds flows to the node, so the admission stays valid 
+                // after releasing the registry lock.
+                List<FlowRegistry.Entry> evicted;
+                synchronized (flowRegistry) {
+                    evicted = flowTableCapacity.admit(flowRegistry, node, flowName, newFlow.getPriority());
+                }
+                if (evicted == null) {
+                    log.error("Rejected flow " + flowName + ": flow table of node is full");
+                    return false;
+                }
+                // The flow table is full, so the evicted flows must be deleted before the flow is added.
+                List<FlowRegistry.Entry> deleted = new LinkedList<FlowRegistry.Entry>();
+                for (FlowRegistry.Entry entry : evicted) {
+                    log.info("Evicting flow " + entry.getFlowName() + " from node " + 
+                            entry.getNode().getNodeIDString());
+                    if (!deleteFlow(entry.getFlowName())) {
+                        reinstallFlows(deleted);
+                        return false;
+                    }
+                    deleted.add(entry);
+                }
                 
-                if (flow != null) {
-                    Status status = flowProgrammerService.removeFlow(node, flow);
+                status = flowProgrammerService.addFlow(node, newFlow);
+                if (!status.isSuccess()) {
+                    reinstallFlows(deleted);
+                }
+            }
+            if (!status.isSuccess()) {
+                log.error("Could not add/modify flow: " + status.getDescription());
+                return false;
+            }
+            
+            synchronized (flowRegistry) {
+                flowRegistry.put(flowName, node, newFlow, evictable, tag);
+            }
+        }
+        
+        if (movedEntry != null) {
+            Node oldNode = movedEntry.getNode();
+            synchronized (getNodeLock(oldNode)) {
+                Status status = flowProgrammerService.removeFlow(oldNode, movedEntry.getFlow());
+                if (!status.isSuccess()) {
+                    // The flow is programmed on the new node, so the request succeeded nevertheless.
+                    log.error("Could not delete moved flow " + flowName + " from node " + 
+                            oldNode.getNodeIDString() + ": " + status.getDescription());
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Re-installs evicted flows after the flow they made room for could not be added.
+     * The caller holds the lock of the node of the flows.
+     * 
+     * @param evicted the deleted registry entries of the evicted flows
+     */
+    private void reinstallFlows(List<FlowRegistry.Entry> evicted) {
+        for (FlowRegistry.Entry entry : evicted) {
+            Status status = flowProgrammerService.addFlow(entry.getNode(), entry.getFlow());
+            if (!status.isSuccess()) {
+                log.error("Could not re-install evicted flow " + entry.getFlowName() + ": " + 
+                        status.getDescription());
+                continue;
+            }
+            
+            synchronized (flowRegistry) {
+                flowRegistry.put(entry.getFlowName(), entry.getNode(), entry.getFlow(), entry.isEvictable(), 
+                        entry.getTag());
+            }
+        }
+    }
+    
+    /**
+     * Patches a named flow. The new flow is derived from the programmed flow by replacing the 
+     * attributes given in the request (actions, priority, evictable, tag); the match and the node 
+     * of the flow cannot be patched.
+     * 
+     * @param flowName the name of the flow
+     * @param json the patch request
+     * @return true if the flow was patched successfully
+     */
+    private boolean patchFlow(String flowName, JSONObject json) {
+        FlowRegistry.Entry entry = getRegistryEntry(flowName);
+        if (entry == null) {
+            log.error("Flow to be patched does not exist");
+            return false;
+        }
+        Node node = entry.getNode();
+        
+        JSONObject flowJson = null;
+        try {
+            flowJson = json.getJSONObject(FlowProgrammerRequestAttributes.Keys.FLOW.toJSON());
+        } catch (JSONException e) {
+            log.error("No flow object defined for request: " + e.getMessage());
+            return false;
+        }
+        
+        if (flowJson.has(FlowAttributes.Keys.MATCH.toJSON())) {
+            log.error("The match of a flow cannot be patched. Use a modify request instead.");
+            return false;
+        }
+        
+        List<Action> actions = null;
+        if (flowJson.has(FlowAttributes.Keys.ACTIONS.toJSON())) {
+            try {
+                JSONArray actionsJson = flowJson.getJSONArray(FlowAttributes.Keys.ACTIONS.toJSON());
+                actions = compilationCache.getActions(inventoryCache, node, actionsJson);
+                if (actions == null) {
+                    log.error("Could not parse (some) actions. Will not patch flow.");
+                    return false;
+                }
+            } catch (JSONException e) {
+                log.error("Invalid actions: " + e.getMessage());
+                return false;
+            }
+        }
+        
+        boolean hasPriority = flowJson.has(FlowAttributes.Keys.PRIORITY.toJSON());
+        short priority = 0;
+        boolean hasEvictable = json.has(FlowProgrammerRequestAttributes.Keys.EVICTABLE.toJSON());
+        boolean evictable = false;
+        boolean hasTag = json.has(FlowProgrammerRequestAttributes.Keys.TAG.toJSON());
+        String tag = null;
+        try {
+            if (hasPriority) {
+                priority = (short) flowJson.getInt(FlowAttributes.Keys.PRIORITY.toJSON());
+            }
+            if (hasEvictable) {
+                evictable = json.getBoolean(FlowProgrammerRequestAttributes.Keys.EVICTABLE.toJSON());
+            }
+            if (hasTag) {
+                tag = json.getString(FlowProgrammerRequestAttributes.Keys.TAG.toJSON());
+            }
+        } catch (JSONException e) {
+            log.error("Invalid flow attribute: " + e.getMessage());
+            return false;
+        }
+        
+        synchronized (getNodeLock(node)) {
+            // The actions have been compiled for the node of the flow, so the flow must not have moved.
+            entry = getRegistryEntry(flowName);
+            if (entry == null || !entry.getNode().equals(node)) {
+                log.error("Flow " + flowName + " was concurrently deleted or moved");
+                return false;
+            }
+            
+            Flow oldFlow = entry.getFlow();
+            Flow newFlow = oldFlow.clone();
+            if (actions != null) {
+                newFlow.setActions(actions);
+            }
+            if (hasPriority) {
+                newFlow.setPriority(priority);
+            }
+            
+            Status status = flowProgrammerService.modifyFlow(node, oldFlow, newFlow);
+            if (!status.isSuccess()) {
+                log.error("Could not patch flow: " + status.getDescription());
+                return false;
+            }
+            
+            synchronized (flowRegistry) {
+                flowRegistry.put(flowName, node, newFlow, hasEvictable ? evictable : entry.isEvictable(), 
+                        hasTag ? tag : entry.getTag());
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Deletes a named flow.
+     * 
+     * @param flowName the name of the flow
+     * @return true if the flow was deleted successfully
+     */
+    private boolean deleteFlow(String flowName) {
+        FlowRegistry.Entry entry = getRegistryEntry(flowName);
+        if (entry == null) {
+            // Deleting is idempotent, so redelivered or repeated requests succeed.
+            log.trace("Flow " + flowName + " to be deleted does not exist");
+            return true;
+        }
+        
+        Node node = entry.getNode();
+        synchronized (getNodeLock(node)) {
+            entry = getRegistryEntry(flowName);
+            if (entry == null) {
+                log.trace("Flow " + flowName + " was concurrently deleted");
+                return true;
+            }
+            if (!entry.getNode().equals(node)) {
+                log.error("Flow " + flowName + " was concurrently moved");
+                return false;
+            }
+            
+            Status status = flowProgrammerService.removeFlow(node, entry.getFlow());
+            if (!status.isSuccess()) {
+                log.error("Could not delete flow: " + status.getDescription());
+                return false;
+            }
+            
+            synchronized (flowRegistry) {
+                flowRegistry.remove(flowName);
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Deletes all named flows selected by node, flow name prefix, and group tag. Flows must match 
+     * all given criteria. If only a node is given, all flows are removed from the node at once.
+     * 
+     * @param json the bulk delete request
+     * @return true if all selected flows were deleted successfully
+     */
+    private boolean deleteFlows(JSONObject json) {
+        Node node = null;
+        String prefix = null;
+        String tag = null;
+        try {
+            if (json.has(FlowProgrammerRequestAttributes.Keys.NODE.toJSON())) {
+                JSONObject nodeJson = json.getJSONObject(FlowProgrammerRequestAttributes.Keys.NODE.toJSON());
+                String nodeId = nodeJson.getString(NodeAttributes.Keys.ID.toJSON());
+                String nodeType = NodeAttributes.TypeValues.OF.toJSON();
+                if (nodeJson.has(NodeAttributes.Keys.TYPE.toJSON())) {
+                    nodeType = nodeJson.getString(NodeAttributes.Keys.TYPE.toJSON());
+                }
+                node = inventoryCache.getNode(nodeType, nodeId);
+                if (node == null) {
+                    log.error("Node '" + nodeId + "' not found");
+                    return false;
+                }
+            }
+            if (json.has(FlowProgrammerRequestAttributes.Keys.FLOW_NAME_PREFIX.toJSON())) {
+                prefix = json.getString(FlowProgrammerRequestAttributes.Keys.FLOW_NAME_PREFIX.toJSON());
+            }
+            if (json.has(FlowProgrammerRequestAttributes.Keys.TAG.toJSON())) {
+                tag = json.getString(FlowProgrammerRequestAttributes.Keys.TAG.toJSON());
+            }
+        } catch (JSONException e) {
+            log.error("Invalid selection of flows: " + e.getMessage());
+            return false;
+        }
+        
+        if (node == null && prefix == null && tag == null) {
+            log.error("No node, flow name prefix, or tag specified for deleting flows");
+            return false;
+        }
+        
+        if (prefix == null && tag == null) {
+            return deleteAllFlows(node);
+        }
+        
+        List<FlowRegistry.Entry> entries;
+        synchronized (flowRegistry) {
+            entries = flowRegistry.find(node, prefix, tag);
+        }
+        
+        // Delete the flows node by node, so every node lock is acquired only once.
+        Map<Node, List<FlowRegistry.Entry>> nodeToEntries = new HashMap<Node, List<FlowRegistry.Entry>>();
+        for (FlowRegistry.Entry entry : entries) {
+            List<FlowRegistry.Entry> nodeEntries = nodeToEntries.get(entry.getNode());
+            if (nodeEntries == null) {
+                nodeEntries = new LinkedList<FlowRegistry.Entry>();
+                nodeToEntries.put(entry.getNode(), nodeEntries);
+            }
+            nodeEntries.add(entry);
+        }
+        
+        boolean success = true;
+        int deleted = 0;
+        for (Map.Entry<Node, List<FlowRegistry.Entry>> nodeEntries : nodeToEntries.entrySet()) {
+            Node entryNode = nodeEntries.getKey();
+            synchronized (getNodeLock(entryNode)) {
+                for (FlowRegistry.Entry entry : nodeEntries.getValue()) {
+                    String flowName = entry.getFlowName();
+                    entry = getRegistryEntry(flowName);
+                    if (entry == null || !entry.getNode().equals(entryNode)) {
+                        // Concurrently deleted or moved.
+                        continue;
+                    }
+                    
+                    Status status = flowProgrammerService.removeFlow(entryNode, entry.getFlow());
                     if (!status.isSuccess()) {
-                        log.error("Could not delete flow: " + status.getDescription());
-                        return;
-                    }   
-                } else {
-                    log.error("Flow to be deleted does not exist");
-                    return;
+                        log.error("Could not delete flow " + flowName + ": " + status.getDescription());
+                        success = false;
+                        continue;
+                    }
+                    
+                    synchronized (flowRegistry) {
+                        flowRegistry.remove(flowName);
+                    }
+                    deleted++;
                 }
             }
         }
+        
+        log.trace("Deleted " + deleted + " flow(s)");
+        
+        return success;
     }
     
+    /**
+     * Removes all flows from a node, including flows not programmed by SDN-MQ.
+     * 
+     * @param node the node
+     * @return true if the flows were removed successfully
+     */
+    private boolean deleteAllFlows(Node node) {
+        synchronized (getNodeLock(node)) {
+            Status status = flowProgrammerService.removeAllFlows(node);
+            if (!status.isSuccess()) {
+                log.error("Could not delete flows of node: " + status.getDescription());
+                return false;
+            }
+            
+            synchronized (flowRegistry) {
+                flowRegistry.removeAll(node);
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Looks up a named flow in the flow registry.
+     * 
+     * @param flowName the name of the flow
+     * @return registry entry or null if no flow with this name exists
+     */
+    private FlowRegistry.Entry getRegistryEntry(String flowName) {
+        synchronized (flowRegistry) {
+            return flowRegistry.get(flowName);
+        }
+    }
+    
+    /**
+     * Gets the lock serializing the programming of a node. Different nodes are programmed concurrently
+     * by different consumers.
+     * 
+     * @param node the node
+     * @return the lock object of the node
+     */
+    private Object getNodeLock(Node node) {
+        Object lock = nodeLocks.get(node);
+        if (lock == null) {
+            lock = new Object();
+            Object existing = nodeLocks.putIfAbsent(node, lock);
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        
+        return lock;
+    }
 }
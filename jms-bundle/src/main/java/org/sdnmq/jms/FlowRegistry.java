@@ -0,0 +1,280 @@
+/**
+ * FlowRegistry
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowRegistry is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.flowprogrammer.Flow;
+
+/**
+ * Registry of all named flows programmed by SDN-MQ.
+ *
+ * Besides the mapping from flow names to flows, the registry keeps a per-node index of flows
+ * in least-recently-programmed order (i.e., by the time the flow was last added or modified; 
+ * traffic matching the flow is not taken into account), an index 
+ * of flows by group tag, and a sorted index of flow names for selecting flows by name prefix.
+ *
+ * This class is not thread-safe. Callers must synchronize on the registry.
+ *
+ * @author Frank Duerr
+ */
+public class FlowRegistry {
+    /**
+     * A named flow installed on a node.
+     */
+    public static class Entry {
+        private final String flowName;
+        private final Node node;
+        private final Flow flow;
+        private final boolean evictable;
+        private final String tag;
+
+        Entry(String flowName, Node node, Flow flow, boolean evictable, String tag) {
+            this.flowName = flowName;
+            this.node = node;
+            this.flow = flow;
+            this.evictable = evictable;
+            this.tag = tag;
+        }
+
+        public String getFlowName() {
+            return flowName;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+
+        public Flow getFlow() {
+            return flow;
+        }
+
+        /**
+         * @return true if this flow may be evicted to make room for other flows
+         */
+        public boolean isEvictable() {
+            return evictable;
+        }
+
+        /**
+         * @return the group tag of this flow or null if the flow has no tag
+         */
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private final Map<String, Entry> flowNameToEntry = new HashMap<String, Entry>();
+
+    // Flows of each node in least-recently-programmed order (access-ordered maps).
+    private final Map<Node, LinkedHashMap<String, Entry>> nodeToEntries = new HashMap<Node, LinkedHashMap<String, Entry>>();
+
+    // Names of the flows of each group tag.
+    private final Map<String, Set<String>> tagToFlowNames = new HashMap<String, Set<String>>();
+
+    // All flow names in lexicographical order.
+    private final TreeSet<String> sortedFlowNames = new TreeSet<String>();
+
+    /**
+     * Returns the flow with the given name.
+     *
+     * @param flowName the name of the flow
+     * @return the registry entry or null if no flow with this name exists
+     */
+    public Entry get(String flowName) {
+        return flowNameToEntry.get(flowName);
+    }
+
+    /**
+     * Adds a new flow or replaces the flow with the same name. The flow becomes the most-recently-programmed
+     * flow of its node.
+     *
+     * @param flowName the name of the flow
+     * @param node the node on which the flow is installed
+     * @param flow the flow
+     * @param evictable true if this flow may be evicted to make room for other flows
+     * @param tag the group tag of the flow (may be null)
+     * @return the new registry entry
+     */
+    public Entry put(String flowName, Node node, Flow flow, boolean evictable, String tag) {
+        remove(flowName);
+
+        Entry entry = new Entry(flowName, node, flow, evictable, tag);
+        flowNameToEntry.put(flowName, entry);
+        sortedFlowNames.add(flowName);
+
+        if (tag != null) {
+            Set<String> flowNames = tagToFlowNames.get(tag);
+            if (flowNames == null) {
+                flowNames = new HashSet<String>();
+                tagToFlowNames.put(tag, flowNames);
+            }
+            flowNames.add(flowName);
+        }
+
+        LinkedHashMap<String, Entry> entries = nodeToEntries.get(node);
+        if (entries == null) {
+            entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+            nodeToEntries.put(node, entries);
+        }
+        entries.put(flowName, entry);
+
+        return entry;
+    }
+
+    /**
+     * Removes the flow with the given name.
+     *
+     * @param flowName the name of the flow
+     * @return the removed entry or null if no flow with this name exists
+     */
+    public Entry remove(String flowName) {
+        Entry entry = flowNameToEntry.remove(flowName);
+        if (entry == null) {
+            return null;
+        }
+        sortedFlowNames.remove(flowName);
+
+        LinkedHashMap<String, Entry> entries = nodeToEntries.get(entry.getNode());
+        if (entries != null) {
+            entries.remove(flowName);
+            if (entries.isEmpty()) {
+                nodeToEntries.remove(entry.getNode());
+            }
+        }
+
+        if (entry.getTag() != null) {
+            Set<String> flowNames = tagToFlowNames.get(entry.getTag());
+            if (flowNames != null) {
+                flowNames.remove(flowName);
+                if (flowNames.isEmpty()) {
+                    tagToFlowNames.remove(entry.getTag());
+                }
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Removes all flows of a node.
+     *
+     * @param node the node
+     * @return the removed entries
+     */
+    public List<Entry> removeAll(Node node) {
+        List<Entry> removed = find(node, null, null);
+        for (Entry entry : removed) {
+            remove(entry.getFlowName());
+        }
+
+        return removed;
+    }
+
+    /**
+     * Finds all flows matching the given criteria. Criteria that are null are not checked. 
+     * The most selective index is used to find candidates.
+     *
+     * @param node the node of the flows (may be null)
+     * @param prefix the prefix of the flow names (may be null)
+     * @param tag the group tag of the flows (may be null)
+     * @return the entries of the flows
+     */
+    public List<Entry> find(Node node, String prefix, String tag) {
+        List<Entry> result = new LinkedList<Entry>();
+
+        if (tag != null) {
+            Set<String> flowNames = tagToFlowNames.get(tag);
+            if (flowNames != null) {
+                for (String flowName : flowNames) {
+                    addIfMatching(result, flowNameToEntry.get(flowName), node, prefix, tag);
+                }
+            }
+        } else if (node != null) {
+            LinkedHashMap<String, Entry> entries = nodeToEntries.get(node);
+            if (entries != null) {
+                // Iterating does not change the access order.
+                for (Entry entry : entries.values()) {
+                    addIfMatching(result, entry, node, prefix, tag);
+                }
+            }
+        } else if (prefix != null) {
+            for (String flowName : sortedFlowNames.tailSet(prefix)) {
+                if (!flowName.startsWith(prefix)) {
+                    break;
+                }
+                result.add(flowNameToEntry.get(flowName));
+            }
+        } else {
+            result.addAll(flowNameToEntry.values());
+        }
+
+        return result;
+    }
+
+    private static void addIfMatching(List<Entry> result, Entry entry, Node node, String prefix, String tag) {
+        if ((node == null || node.equals(entry.getNode())) &&
+                (prefix == null || entry.getFlowName().startsWith(prefix)) &&
+                (tag == null || tag.equals(entry.getTag()))) {
+            result.add(entry);
+        }
+    }
+
+    /**
+     * Returns the number of named flows installed on a node.
+     */
+    public int getFlowCount(Node node) {
+        Map<String, Entry> entries = nodeToEntries.get(node);
+        if (entries == null) {
+            return 0;
+        }
+
+        return entries.size();
+    }
+
+    /**
+     * Finds the least-recently-programmed evictable flows of a node whose priority does not exceed
+     * the given priority.
+     *
+     * @param node the node
+     * @param maxPriority maximum priority of the flows to be evicted
+     * @param exclude name of a flow that must not be selected (may be null)
+     * @param maxCount maximum number of flows to be returned
+     * @return the entries of the flows in least-recently-programmed order (least-recently programmed first)
+     */
+    public List<Entry> findEvictionCandidates(Node node, short maxPriority, String exclude, int maxCount) {
+        List<Entry> candidates = new LinkedList<Entry>();
+
+        LinkedHashMap<String, Entry> entries = nodeToEntries.get(node);
+        if (entries == null) {
+            return candidates;
+        }
+
+        // Iteration order of an access-ordered map is from least-recently to most-recently programmed.
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && candidates.size() < maxCount; ) {
+            Entry entry = it.next();
+            if (entry.isEvictable() && entry.getFlow().getPriority() <= maxPriority &&
+                    !entry.getFlowName().equals(exclude)) {
+                candidates.add(entry);
+            }
+        }
+
+        return candidates;
+    }
+}
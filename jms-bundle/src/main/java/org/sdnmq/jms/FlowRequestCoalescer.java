@@ -0,0 +1,171 @@
+/**
+ * FlowRequestCoalescer
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowRequestCoalescer is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Message;
+
+import org.json.JSONObject;
+
+/**
+ * Staging map coalescing flow programming requests per flow name (last writer wins).
+ * 
+ * Requests are staged for at most a maximum delay. If another request for the same flow name 
+ * is staged meanwhile, it replaces the staged request, so only the latest state of a flow 
+ * reaches the switch. Flushing applies the staged requests in the order in which their latest 
+ * version was staged. Superseded requests are completed with the result of the request that 
+ * replaced them, after that request has been applied.
+ * 
+ * The coalescer is not thread-safe itself. All methods must be called while holding the lock 
+ * given to the constructor; the timer flushing staged requests after the maximum delay acquires 
+ * the same lock.
+ * 
+ * @author Frank Duerr
+ */
+public class FlowRequestCoalescer {
+    /**
+     * Handler of staged requests.
+     */
+    public interface RequestHandler {
+        /**
+         * Applies a staged request.
+         * 
+         * @param request the request
+         * @param msg the request message
+         * @return true if the request was executed successfully
+         */
+        public boolean apply(JSONObject request, Message msg);
+        
+        /**
+         * Completes a staged request that has been replaced by a later request for the same flow 
+         * name and has not been applied. Called after the later request has been applied.
+         * 
+         * @param request the request
+         * @param msg the request message
+         * @param success the result of the later request
+         */
+        public void superseded(JSONObject request, Message msg, boolean success);
+    }
+    
+    private static class StagedRequest {
+        final JSONObject request;
+        final Message msg;
+        // Earlier requests for the same flow replaced by this request (null if none).
+        List<StagedRequest> superseded = null;
+        
+        StagedRequest(JSONObject request, Message msg) {
+            this.request = request;
+            this.msg = msg;
+        }
+    }
+    
+    private final Object lock;
+    private final RequestHandler handler;
+    private final ScheduledExecutorService timer;
+    private final long maxDelay;
+    private final int maxStaged;
+    
+    // Guarded by lock.
+    private final Map<String, StagedRequest> staged = new LinkedHashMap<String, StagedRequest>();
+    private ScheduledFuture<?> flushTask = null;
+    
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                flush();
+            }
+        }
+    };
+    
+    /**
+     * Constructor.
+     * 
+     * @param lock the lock guarding the coalescer
+     * @param handler the handler applying staged requests
+     * @param timer the timer flushing staged requests
+     * @param maxDelay maximum time in milliseconds a request is staged
+     * @param maxStaged maximum number of staged requests; if reached, the requests are flushed immediately
+     */
+    public FlowRequestCoalescer(Object lock, RequestHandler handler, ScheduledExecutorService timer, 
+            long maxDelay, int maxStaged) {
+        this.lock = lock;
+        this.handler = handler;
+        this.timer = timer;
+        this.maxDelay = maxDelay;
+        this.maxStaged = Math.max(1, maxStaged);
+    }
+    
+    /**
+     * Stages a request. A staged request with the same flow name is superseded.
+     * 
+     * @param flowName the name of the flow
+     * @param request the request
+     * @param msg the request message
+     */
+    public void stage(String flowName, JSONObject request, Message msg) {
+        // Remove first, so the latest version is applied in the position of the latest request.
+        StagedRequest old = staged.remove(flowName);
+        StagedRequest latest = new StagedRequest(request, msg);
+        if (old != null) {
+            latest.superseded = old.superseded != null ? old.superseded : new ArrayList<StagedRequest>();
+            old.superseded = null;
+            latest.superseded.add(old);
+        }
+        staged.put(flowName, latest);
+        
+        if (staged.size() >= maxStaged) {
+            flush();
+            return;
+        }
+        
+        if (flushTask == null) {
+            try {
+                flushTask = timer.schedule(flushRunnable, maxDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Timer has been stopped.
+                flush();
+            }
+        }
+    }
+    
+    /**
+     * Applies all staged requests.
+     */
+    public void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        
+        if (staged.isEmpty()) {
+            return;
+        }
+        
+        List<StagedRequest> requests = new ArrayList<StagedRequest>(staged.values());
+        staged.clear();
+        for (StagedRequest request : requests) {
+            boolean success = handler.apply(request.request, request.msg);
+            if (request.superseded != null) {
+                for (StagedRequest superseded : request.superseded) {
+                    handler.superseded(superseded.request, superseded.msg, success);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * FlowTableCapacity
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowTableCapacity is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.opendaylight.controller.sal.core.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for named flows based on the flow table capacity of nodes.
+ *
+ * The capacity of a node is the maximum number of named flows that SDN-MQ installs on it.
+ * If a node is full, a new flow is either rejected or the least-recently-programmed (added or 
+ * modified) evictable flows with lower or equal priority are evicted, depending on the configured 
+ * policy. SDN-MQ does not see the traffic matching flows, so eviction is not based on usage.
+ *
+ * @author Frank Duerr
+ */
+public class FlowTableCapacity {
+    private static final Logger log = LoggerFactory.getLogger(FlowTableCapacity.class);
+
+    /**
+     * Default capacity of every node (0 = unlimited).
+     */
+    private static final String CAPACITY_PROPERTY = "sdnmq.flowprogrammer.capacity";
+    private static final int DEFAULT_CAPACITY = 0;
+
+    /**
+     * Comma-separated list of node-specific capacities, e.g.,
+     * "00:00:00:00:00:00:00:01=1500, 00:00:00:00:00:00:00:02=500".
+     */
+    private static final String NODE_CAPACITIES_PROPERTY = "sdnmq.flowprogrammer.capacity.nodes";
+
+    /**
+     * Policy if a node is full: "reject" (default) or "evict".
+     */
+    private static final String POLICY_PROPERTY = "sdnmq.flowprogrammer.capacity.policy";
+
+    /**
+     * Possible policies applied if a node is full.
+     */
+    public enum Policy {
+        REJECT("reject"),
+        EVICT("evict");
+
+        private String configName;
+
+        Policy(String configName) {
+            this.configName = configName;
+        }
+
+        public String toConfigName() {
+            return configName;
+        }
+
+        /**
+         * Returns the policy with the given configuration name, or null if there is no such policy.
+         */
+        public static Policy fromConfigName(String name) {
+            for (Policy p : values()) {
+                if (p.configName.equalsIgnoreCase(name)) {
+                    return p;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final int defaultCapacity;
+    private final Map<String, Integer> nodeIdToCapacity = new HashMap<String, Integer>();
+    private final Policy policy;
+
+    /**
+     * Creates the admission control according to the OpenDaylight configuration.
+     */
+    public FlowTableCapacity() {
+        defaultCapacity = ConfigHelper.getIntProperty(CAPACITY_PROPERTY, DEFAULT_CAPACITY);
+
+        for (String nodeCapacity : ConfigHelper.getListProperty(NODE_CAPACITIES_PROPERTY)) {
+            int i = nodeCapacity.lastIndexOf('=');
+            if (i <= 0) {
+                log.error("Invalid node capacity: " + nodeCapacity);
+                continue;
+            }
+            String nodeId = nodeCapacity.substring(0, i).trim();
+            try {
+                int capacity = Integer.parseInt(nodeCapacity.substring(i+1).trim());
+                nodeIdToCapacity.put(nodeId, capacity);
+            } catch (NumberFormatException e) {
+                log.error("Invalid node capacity: " + nodeCapacity);
+            }
+        }
+
+        String policyName = System.getProperty(POLICY_PROPERTY, Policy.REJECT.toConfigName());
+        Policy p = Policy.fromConfigName(policyName);
+        if (p == null) {
+            log.error("Invalid flow table capacity policy " + policyName + ". Rejecting flows if a node is full.");
+            p = Policy.REJECT;
+        }
+        policy = p;
+    }
+
+    /**
+     * Returns the capacity of a node.
+     *
+     * @return maximum number of named flows; 0 if unlimited
+     */
+    public int getCapacity(Node node) {
+        Integer capacity = nodeIdToCapacity.get(node.getNodeIDString());
+        if (capacity != null) {
+            return capacity;
+        }
+
+        return defaultCapacity;
+    }
+
+    /**
+     * Decides whether a new flow can be installed on a node.
+     *
+     * @param registry the registry of installed flows (the caller must hold its lock)
+     * @param node the node on which the flow will be installed
+     * @param flowName the name of the new flow
+     * @param priority the priority of the new flow
+     * @return the list of flows to be evicted before installing the new flow (possibly empty),
+     * or null if the flow must be rejected
+     */
+    public List<FlowRegistry.Entry> admit(FlowRegistry registry, Node node, String flowName, short priority) {
+        int capacity = getCapacity(node);
+        if (capacity <= 0) {
+            return new LinkedList<FlowRegistry.Entry>();
+        }
+
+        int excess = registry.getFlowCount(node) + 1 - capacity;
+        if (excess <= 0) {
+            return new LinkedList<FlowRegistry.Entry>();
+        }
+
+        if (policy == Policy.REJECT) {
+            log.error("Flow table of node " + node.getNodeIDString() + " is full (capacity " + capacity + ")");
+            return null;
+        }
+
+        // Evict least-recently-programmed flows.
+        List<FlowRegistry.Entry> evicted = registry.findEvictionCandidates(node, priority, flowName, excess);
+        if (evicted.size() < excess) {
+            log.error("Flow table of node " + node.getNodeIDString() + " is full (capacity " + capacity +
+                    ") and no evictable flows with priority <= " + priority + " exist");
+            return null;
+        }
+
+        return evicted;
+    }
+}
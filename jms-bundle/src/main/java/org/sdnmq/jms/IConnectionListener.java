@@ -0,0 +1,39 @@
+/**
+ * IConnectionListener
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IConnectionListener is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import javax.jms.JMSException;
+import javax.naming.NamingException;
+
+/**
+ * Listener of the connection manager notified whenever the shared JMS connections 
+ * are established or lost.
+ * 
+ * Both callbacks are invoked from the single thread of the connection manager.
+ * 
+ * @author Frank Duerr
+ */
+public interface IConnectionListener {
+    /**
+     * Called after the connections have been (re-)established. The listener should create
+     * its sessions, producers, and consumers here.
+     * 
+     * @param ctx the connections and the JNDI context to look up destinations
+     * @throws JMSException if setting up JMS objects failed (the connection manager will reconnect)
+     * @throws NamingException if a destination could not be looked up (configuration error)
+     */
+    public void connectionEstablished(ConnectionContext ctx) throws JMSException, NamingException;
+    
+    /**
+     * Called if the connections have been lost. The listener should release all
+     * sessions, producers, and consumers created in connectionEstablished().
+     */
+    public void connectionLost();
+}
@@ -0,0 +1,32 @@
+/**
+ * IConnectionManager
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IConnectionManager is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+/**
+ * Service managing the JMS connections shared by all components of the bundle.
+ * 
+ * @author Frank Duerr
+ */
+public interface IConnectionManager {
+    /**
+     * Adds a listener. If the connections are already established, 
+     * the listener is notified right away (asynchronously).
+     * 
+     * @param listener the listener
+     */
+    public void addListener(IConnectionListener listener);
+    
+    /**
+     * Removes a listener. The listener is responsible for releasing its own JMS objects.
+     * 
+     * @param listener the listener
+     */
+    public void removeListener(IConnectionListener listener);
+}
@@ -0,0 +1,53 @@
+/**
+ * IDirectBus
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IDirectBus is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import org.json.JSONObject;
+
+/**
+ * In-process bus for control applications running in the same OpenDaylight container.
+ * 
+ * Co-located applications get packet-in events and submit requests without going through 
+ * the JMS server. Events are passed by reference and requests are not serialized.
+ * 
+ * @author Frank Duerr
+ */
+public interface IDirectBus {
+    /**
+     * Subscribes to packet-in events.
+     * 
+     * @param listener the listener
+     */
+    public void addPacketInListener(IPacketInListener listener);
+    
+    /**
+     * Unsubscribes from packet-in events.
+     * 
+     * @param listener the listener
+     */
+    public void removePacketInListener(IPacketInListener listener);
+    
+    /**
+     * Executes a packet forwarding request. The packet can be referred to by 
+     * the packet id of a packet-in event (cf. PacketInEvent.getPacketId()).
+     * 
+     * @param request the request in JSON representation (cf. class PacketForwarderRequestAttributes)
+     * @return true if the packet was forwarded
+     */
+    public boolean forwardPacket(JSONObject request);
+    
+    /**
+     * Executes a flow programming request.
+     * 
+     * @param request the request in JSON representation (cf. class FlowProgrammerRequestAttributes)
+     * @return true if the request was executed successfully
+     */
+    public boolean programFlow(JSONObject request);
+}
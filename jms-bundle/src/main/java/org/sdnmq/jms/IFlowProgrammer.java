@@ -0,0 +1,51 @@
+/**
+ * IFlowProgrammer
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IFlowProgrammer is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.nio.ByteBuffer;
+
+import org.json.JSONObject;
+import org.opendaylight.controller.sal.core.Node;
+
+/**
+ * Service executing flow programming requests from within the bundle (e.g., triggered by reactive rules), 
+ * sharing the named flows, flow table accounting, and checks of requests received via JMS.
+ * 
+ * @author Frank Duerr
+ */
+public interface IFlowProgrammer {
+    /**
+     * Executes a flow programming request.
+     * 
+     * @param request the request in JSON representation (cf. class FlowProgrammerRequestAttributes)
+     * @return true if the request was executed successfully
+     */
+    public boolean handleRequest(JSONObject request);
+    
+    /**
+     * Executes a flow programming request in binary representation.
+     * 
+     * @param request the request (cf. class org.sdnmq.jms.binary.BinaryFormat; position 0 is the start 
+     * of the request)
+     * @return true if the request was executed successfully
+     */
+    public boolean handleBinaryRequest(ByteBuffer request);
+    
+    /**
+     * Checks whether a named flow is programmed on a node with the given match, actions, and priority, 
+     * so it does not need to be programmed again.
+     * 
+     * @param flowName the name of the flow
+     * @param node the node
+     * @param flow the flow in JSON representation (cf. class FlowAttributes)
+     * @return true if an identical flow with this name is programmed on the node
+     */
+    public boolean isProgrammed(String flowName, Node node, JSONObject flow);
+}
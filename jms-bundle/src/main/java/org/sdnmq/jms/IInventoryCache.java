@@ -0,0 +1,61 @@
+/**
+ * IInventoryCache
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IInventoryCache is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.List;
+
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.core.NodeConnector;
+
+/**
+ * Service resolving node and node connector strings as used in requests to OpenDaylight objects.
+ * 
+ * Resolved objects are cached, so repeated lookups of the same node or port are cheap.
+ * 
+ * @author Frank Duerr
+ */
+public interface IInventoryCache {
+    /**
+     * Resolves an existing node.
+     * 
+     * @param nodeType the type of the node (e.g., "OF")
+     * @param nodeId the id of the node (e.g., "00:00:00:00:00:00:00:01")
+     * @return the node or null if the node id is invalid or the node does not exist
+     */
+    public Node getNode(String nodeType, String nodeId);
+    
+    /**
+     * Resolves an existing node connector.
+     * 
+     * @param node the node of the connector
+     * @param connectorId the id of the connector (e.g., "1")
+     * @return the node connector or null if the id is invalid or the connector does not exist
+     */
+    public NodeConnector getNodeConnector(Node node, String connectorId);
+    
+    /**
+     * Parses a node connector without checking whether it exists (e.g., for specifying 
+     * the ingress port of a flow match).
+     * 
+     * @param node the node of the connector
+     * @param connectorId the id of the connector (e.g., "1")
+     * @return the node connector or null if the id is invalid
+     */
+    public NodeConnector parseNodeConnector(Node node, String connectorId);
+    
+    /**
+     * Returns the ports of a node to which flooded packets are sent, i.e., all 
+     * ports that are up except for special (logical) ports.
+     * 
+     * @param node the node
+     * @return list of node connectors (empty if the node is unknown)
+     */
+    public List<NodeConnector> getFloodConnectors(Node node);
+}
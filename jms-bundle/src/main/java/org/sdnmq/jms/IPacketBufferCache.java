@@ -0,0 +1,39 @@
+/**
+ * IPacketBufferCache
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IPacketBufferCache is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+/**
+ * Service buffering the raw data of packet-in events for a limited time, so packet forwarding 
+ * requests can refer to a received packet by its id instead of carrying the packet data.
+ * 
+ * @author Frank Duerr
+ */
+public interface IPacketBufferCache {
+    /**
+     * Id returned if a packet could not be buffered.
+     */
+    public static final long INVALID_PACKET_ID = -1;
+    
+    /**
+     * Buffers a packet.
+     * 
+     * @param packetData the raw packet data
+     * @return the id of the buffered packet or INVALID_PACKET_ID if the packet could not be buffered
+     */
+    public long put(byte[] packetData);
+    
+    /**
+     * Retrieves a buffered packet.
+     * 
+     * @param packetId the id of the packet
+     * @return a copy of the raw packet data or null if the packet has been evicted or has expired
+     */
+    public byte[] get(long packetId);
+}
@@ -0,0 +1,39 @@
+/**
+ * IPacketForwarder
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IPacketForwarder is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.nio.ByteBuffer;
+
+import org.json.JSONObject;
+
+/**
+ * Service executing packet forwarding requests from within the container, sharing the checks 
+ * and the packet buffer of requests received via JMS.
+ * 
+ * @author Frank Duerr
+ */
+public interface IPacketForwarder {
+    /**
+     * Executes a packet forwarding request.
+     * 
+     * @param request the request in JSON representation (cf. class PacketForwarderRequestAttributes)
+     * @return true if the packet was forwarded
+     */
+    public boolean handleRequest(JSONObject request);
+    
+    /**
+     * Executes a packet forwarding request in binary representation.
+     * 
+     * @param request the request (cf. class org.sdnmq.jms.binary.BinaryFormat; position 0 is the start 
+     * of the request)
+     * @return true if the packet was forwarded
+     */
+    public boolean handleBinaryRequest(ByteBuffer request);
+}
@@ -0,0 +1,25 @@
+/**
+ * IPacketInListener
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IPacketInListener is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+/**
+ * Listener of a co-located application receiving packet-in events through the direct bus.
+ * 
+ * @author Frank Duerr
+ */
+public interface IPacketInListener {
+    /**
+     * Called by the thread delivering the packet-in event. Implementations should return 
+     * quickly and must not modify the event.
+     * 
+     * @param event the event
+     */
+    public void receivePacketIn(PacketInEvent event);
+}
@@ -0,0 +1,33 @@
+/**
+ * IPacketInTransport
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IPacketInTransport is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+/**
+ * Transport delivering packet-in events to applications. 
+ * 
+ * The packet handler publishes every packet-in event through its built-in JMS transport and 
+ * all transports registered as OSGi service with this interface.
+ * 
+ * @author Frank Duerr
+ */
+public interface IPacketInTransport {
+    /**
+     * @return true if the transport currently has receivers (otherwise, events are not handed to it)
+     */
+    public boolean isActive();
+    
+    /**
+     * Publishes a packet-in event. Called by the thread delivering the packet-in event.
+     * 
+     * @param event the event
+     * @return true if the event was published successfully
+     */
+    public boolean publish(PacketInEvent event);
+}
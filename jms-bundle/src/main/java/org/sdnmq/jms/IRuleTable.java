@@ -0,0 +1,32 @@
+/**
+ * IRuleTable
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * IRuleTable is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.Map;
+
+/**
+ * Service providing the reactive rules pushed by applications.
+ * 
+ * @author Frank Duerr
+ */
+public interface IRuleTable {
+    /**
+     * @return true if no rules are defined
+     */
+    public boolean isEmpty();
+    
+    /**
+     * Finds the rule of highest priority matching the given header fields.
+     * 
+     * @param fields the header fields of a packet (cf. class PacketFields)
+     * @return the matching rule or null if no rule matches
+     */
+    public Rule lookup(Map<MessageFilterAttributes.Keys, String> fields);
+}
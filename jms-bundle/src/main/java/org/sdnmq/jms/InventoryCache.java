@@ -0,0 +1,260 @@
+/**
+ * InventoryCache
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * InventoryCache is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.opendaylight.controller.sal.core.Property;
+import org.opendaylight.controller.sal.core.UpdateType;
+import org.opendaylight.controller.switchmanager.IInventoryListener;
+import org.opendaylight.controller.switchmanager.ISwitchManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of nodes and node connectors shared by all SDN-MQ components.
+ *
+ * Nodes and connectors are resolved through the Switch Manager on the first lookup. Afterwards,
+ * lookups only require hash map probes. Entries are invalidated through inventory notifications
+ * when nodes or connectors are removed.
+ *
+ * @author Frank Duerr
+ */
+public class InventoryCache implements IInventoryCache, IInventoryListener {
+    private static final Logger log = LoggerFactory.getLogger(InventoryCache.class);
+
+    /**
+     * Maximum number of unverified connector strings cached per node (protects against
+     * unbounded growth through invalid requests).
+     */
+    private static final int MAX_PARSED_CONNECTORS = 1024;
+
+    /**
+     * Cached information about an existing node.
+     */
+    private static class NodeEntry {
+        // Connectors known to exist, keyed by the connector string of the request.
+        final ConcurrentMap<String, NodeConnector> connectors = new ConcurrentHashMap<String, NodeConnector>();
+        // Parsed connectors (existence not checked), keyed by the connector string of the request.
+        final ConcurrentMap<String, NodeConnector> parsedConnectors = new ConcurrentHashMap<String, NodeConnector>();
+        // Ports used for flooding; null if not yet computed or invalidated.
+        volatile List<NodeConnector> floodConnectors = null;
+    }
+
+    private ISwitchManager switchManager = null;
+
+    // Node type -> node id -> node
+    private final ConcurrentMap<String, ConcurrentMap<String, Node>> nodesByString =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Node>>();
+
+    private final ConcurrentMap<Node, NodeEntry> nodeEntries = new ConcurrentHashMap<Node, NodeEntry>();
+
+    /**
+     * Callback invoked by OpenDaylight when SwitchManagerService is bound.
+     */
+    void setSwitchManagerService(ISwitchManager s) {
+        log.trace("Set SwitchManagerService.");
+
+        switchManager = s;
+    }
+
+    /**
+     * Callback invoked by OpenDaylight when SwitchManagerService is unbound.
+     */
+    void unsetSwitchManagerService(ISwitchManager s) {
+        log.trace("Removed SwitchManagerService.");
+
+        if (switchManager == s) {
+            switchManager = null;
+            clear();
+        }
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    private void clear() {
+        nodesByString.clear();
+        nodeEntries.clear();
+    }
+
+    @Override
+    public Node getNode(String nodeType, String nodeId) {
+        ConcurrentMap<String, Node> nodes = nodesByString.get(nodeType);
+        if (nodes != null) {
+            Node node = nodes.get(nodeId);
+            if (node != null) {
+                return node;
+            }
+        }
+
+        // Cache miss
+
+        Node node = Node.fromString(nodeType, nodeId);
+        if (node == null) {
+            return null;
+        }
+
+        ISwitchManager sm = switchManager;
+        if (sm == null || !sm.getNodes().contains(node)) {
+            return null;
+        }
+
+        if (nodes == null) {
+            nodes = new ConcurrentHashMap<String, Node>();
+            ConcurrentMap<String, Node> existing = nodesByString.putIfAbsent(nodeType, nodes);
+            if (existing != null) {
+                nodes = existing;
+            }
+        }
+        nodeEntries.putIfAbsent(node, new NodeEntry());
+        nodes.put(nodeId, node);
+
+        return node;
+    }
+
+    @Override
+    public NodeConnector getNodeConnector(Node node, String connectorId) {
+        NodeEntry entry = nodeEntries.get(node);
+        if (entry != null) {
+            NodeConnector connector = entry.connectors.get(connectorId);
+            if (connector != null) {
+                return connector;
+            }
+        }
+
+        // Cache miss
+
+        NodeConnector connector = NodeConnector.fromStringNoNode(connectorId, node);
+        if (connector == null) {
+            return null;
+        }
+
+        ISwitchManager sm = switchManager;
+        if (sm == null || !sm.doesNodeConnectorExist(connector)) {
+            return null;
+        }
+
+        if (entry != null) {
+            entry.connectors.put(connectorId, connector);
+        }
+
+        return connector;
+    }
+
+    @Override
+    public NodeConnector parseNodeConnector(Node node, String connectorId) {
+        NodeEntry entry = nodeEntries.get(node);
+        if (entry != null) {
+            NodeConnector connector = entry.parsedConnectors.get(connectorId);
+            if (connector != null) {
+                return connector;
+            }
+        }
+
+        // Cache miss
+
+        NodeConnector connector = NodeConnector.fromStringNoNode(connectorId, node);
+        if (connector != null && entry != null && entry.parsedConnectors.size() < MAX_PARSED_CONNECTORS) {
+            entry.parsedConnectors.put(connectorId, connector);
+        }
+
+        return connector;
+    }
+
+    @Override
+    public List<NodeConnector> getFloodConnectors(Node node) {
+        NodeEntry entry = nodeEntries.get(node);
+        if (entry != null) {
+            List<NodeConnector> connectors = entry.floodConnectors;
+            if (connectors != null) {
+                return connectors;
+            }
+        }
+
+        // Cache miss
+
+        ISwitchManager sm = switchManager;
+        if (sm == null) {
+            return Collections.emptyList();
+        }
+
+        List<NodeConnector> connectors = new ArrayList<NodeConnector>();
+        Set<NodeConnector> upConnectors = sm.getUpNodeConnectors(node);
+        if (upConnectors != null) {
+            for (NodeConnector connector : upConnectors) {
+                if (!sm.isSpecial(connector)) {
+                    connectors.add(connector);
+                }
+            }
+        }
+        connectors = Collections.unmodifiableList(connectors);
+
+        if (entry != null) {
+            entry.floodConnectors = connectors;
+        }
+
+        return connectors;
+    }
+
+    @Override
+    public void notifyNode(Node node, UpdateType type, Map<String, Property> propMap) {
+        if (type != UpdateType.REMOVED) {
+            // Nodes are added lazily on the first lookup.
+            return;
+        }
+
+        log.trace("Invalidating cache entries of node " + node);
+
+        nodeEntries.remove(node);
+        ConcurrentMap<String, Node> nodes = nodesByString.get(node.getType());
+        if (nodes != null) {
+            // Different strings (e.g., upper and lower case ids) might resolve to the same node.
+            for (Iterator<Node> it = nodes.values().iterator(); it.hasNext(); ) {
+                if (it.next().equals(node)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void notifyNodeConnector(NodeConnector nodeConnector, UpdateType type, Map<String, Property> propMap) {
+        NodeEntry entry = nodeEntries.get(nodeConnector.getNode());
+        if (entry == null) {
+            return;
+        }
+
+        // Any change of a port (added, removed, up/down) might change the set of flood ports.
+        entry.floodConnectors = null;
+
+        if (type != UpdateType.REMOVED) {
+            // Connectors are added lazily on the first lookup.
+            return;
+        }
+
+        log.trace("Invalidating cache entries of node connector " + nodeConnector);
+
+        for (Iterator<NodeConnector> it = entry.connectors.values().iterator(); it.hasNext(); ) {
+            if (it.next().equals(nodeConnector)) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * LaneDispatcher
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * LaneDispatcher is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatcher thread receiving requests from several queues ("lanes") of different priority and
+ * passing them on to a message listener.
+ *
+ * Two scheduling policies are supported:
+ * - STRICT: a request from a lane is only processed if all lanes of higher priority are empty.
+ * - WEIGHTED: lanes are served round-robin; in each round, lane i may process up to weights[i] requests.
+ *
+ * All consumers must belong to the same session, which is exclusively used by this dispatcher thread
+ * (JMS sessions must not be used concurrently by several threads).
+ *
+ * @author Frank Duerr
+ */
+public class LaneDispatcher implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(LaneDispatcher.class);
+
+    /**
+     * Possible scheduling policies.
+     */
+    public enum Policy {
+        STRICT("strict"),
+        WEIGHTED("weighted");
+
+        private String configName;
+
+        Policy(String configName) {
+            this.configName = configName;
+        }
+
+        public String toConfigName() {
+            return configName;
+        }
+
+        /**
+         * Returns the policy with the given configuration name, or null if there is no such policy.
+         */
+        public static Policy fromConfigName(String name) {
+            for (Policy p : values()) {
+                if (p.configName.equalsIgnoreCase(name)) {
+                    return p;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final MessageConsumer[] lanes;
+    private final int[] weights;
+    private final Policy policy;
+    private final long idleWait;
+    private final MessageListener listener;
+
+    private volatile boolean running = true;
+    private Thread thread = null;
+
+    /**
+     * Constructor.
+     *
+     * @param lanes the consumers of the lanes ordered by priority (highest priority first)
+     * @param weights the weights of the lanes (only used by policy WEIGHTED)
+     * @param policy the scheduling policy
+     * @param idleWait time in milliseconds to wait for requests on the highest-priority lane if all
+     * lanes are empty, before polling the other lanes again
+     * @param listener the listener processing the requests
+     */
+    public LaneDispatcher(List<MessageConsumer> lanes, int[] weights, Policy policy, long idleWait,
+            MessageListener listener) {
+        assert(lanes.size() > 0);
+        assert(weights.length == lanes.size());
+
+        this.lanes = lanes.toArray(new MessageConsumer[lanes.size()]);
+        this.weights = weights;
+        this.policy = policy;
+        this.idleWait = idleWait;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the dispatcher thread.
+     */
+    public synchronized void start(String threadName) {
+        thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the dispatcher thread and waits until it has terminated.
+     */
+    public void stop() {
+        running = false;
+
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join(idleWait + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        log.trace("Lane dispatcher started (" + lanes.length + " lanes, policy " + policy.toConfigName() + ")");
+
+        while (running) {
+            try {
+                boolean served;
+                if (policy == Policy.STRICT) {
+                    served = serveStrict();
+                } else {
+                    served = serveWeighted();
+                }
+
+                if (!served) {
+                    // All lanes are empty. Block on the most important lane, so latency-sensitive
+                    // requests are processed without delay while idle.
+                    Message msg = lanes[0].receive(idleWait);
+                    if (msg != null) {
+                        listener.onMessage(msg);
+                    }
+                }
+            } catch (JMSException e) {
+                if (running) {
+                    log.error("Error while receiving request: " + e.getMessage());
+                    // Avoid busy looping on a broken connection.
+                    try {
+                        Thread.sleep(idleWait);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        log.trace("Lane dispatcher stopped");
+    }
+
+    /**
+     * Processes the next request according to strict priorities.
+     *
+     * @return true if a request was processed; false if all lanes were empty.
+     */
+    private boolean serveStrict() throws JMSException {
+        for (int i = 0; i < lanes.length; i++) {
+            Message msg = lanes[i].receiveNoWait();
+            if (msg != null) {
+                listener.onMessage(msg);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Performs one weighted round-robin round over all lanes.
+     *
+     * @return true if at least one request was processed; false if all lanes were empty.
+     */
+    private boolean serveWeighted() throws JMSException {
+        boolean served = false;
+
+        for (int i = 0; i < lanes.length && running; i++) {
+            for (int n = 0; n < weights[i]; n++) {
+                Message msg = lanes[i].receiveNoWait();
+                if (msg == null) {
+                    break;
+                }
+                listener.onMessage(msg);
+                served = true;
+            }
+        }
+
+        return served;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * MessageHelper
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * MessageHelper is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.json.JSONObject;
+import org.sdnmq.jms.json.ReplyAttributes;
+
+/**
+ * Helper functions for handling JMS messages.
+ * 
+ * @author Frank Duerr
+ */
+public class MessageHelper {
+    /**
+     * Boolean message property of a request. If set to true and the request defines a JMSReplyTo 
+     * destination, a status reply (ok or error) is sent for the request. Otherwise, only certain
+     * errors are replied to.
+     */
+    public static final String STATUS_REPLY_PROPERTY = "sdnmqStatusReply";
+    
+    /**
+     * Reads the complete body of a bytes message.
+     * 
+     * @param msg the message
+     * @return buffer wrapping the message body
+     */
+    static public ByteBuffer readBody(BytesMessage msg) throws JMSException {
+        byte[] body = new byte[(int) msg.getBodyLength()];
+        msg.readBytes(body);
+        
+        return ByteBuffer.wrap(body);
+    }
+    
+    /**
+     * Sends an error reply to the destination specified by the JMSReplyTo header of a request. 
+     * If the request does not specify a reply destination, no reply is sent.
+     * 
+     * The correlation id of the reply is set to the correlation id of the request or, if the request
+     * has no correlation id, to the message id of the request.
+     * 
+     * @param session the session used to send the reply (must be owned by the calling thread)
+     * @param request the request
+     * @param description description of the error
+     */
+    static public void sendErrorReply(Session session, Message request, String description) throws JMSException {
+        sendReply(session, request, ReplyAttributes.StatusValues.ERROR, description);
+    }
+    
+    /**
+     * @param request a request
+     * @return true if the request asks for a status reply (cf. STATUS_REPLY_PROPERTY)
+     */
+    static public boolean isStatusReplyRequested(Message request) throws JMSException {
+        return request.getJMSReplyTo() != null && request.propertyExists(STATUS_REPLY_PROPERTY) && 
+                request.getBooleanProperty(STATUS_REPLY_PROPERTY);
+    }
+    
+    /**
+     * Sends a status reply if the request asks for it (cf. STATUS_REPLY_PROPERTY).
+     * 
+     * @param session the session used to send the reply (must be owned by the calling thread)
+     * @param request the request
+     * @param success true if the request was executed successfully
+     * @param description description of the error (ignored if success is true)
+     */
+    static public void sendStatusReply(Session session, Message request, boolean success, String description) 
+            throws JMSException {
+        sendStatusReply(session, request, success, description, null);
+    }
+    
+    /**
+     * Replies to a flow programming request with an embedded packet-out request. Exactly one reply 
+     * is sent for the request: if the request asks for a status reply, the status refers to the flow, 
+     * and a failed packet-out request is reported by the packetOutError attribute of the status reply
+     * (cf. ReplyAttributes). Otherwise, only an error reply is sent if the packet-out request failed.
+     * 
+     * @param session the session used to send the reply (must be owned by the calling thread)
+     * @param request the request
+     * @param success true if the flow was programmed successfully
+     * @param description description of the error (ignored if success is true)
+     * @param packetOutError description of the error of the packet-out request (null if it succeeded
+     * or was not executed)
+     */
+    static public void sendStatusReply(Session session, Message request, boolean success, String description, 
+            String packetOutError) throws JMSException {
+        if (!isStatusReplyRequested(request)) {
+            if (packetOutError != null) {
+                sendErrorReply(session, request, packetOutError);
+            }
+            return;
+        }
+        
+        if (success) {
+            sendReply(session, request, ReplyAttributes.StatusValues.OK, null, packetOutError);
+        } else {
+            sendReply(session, request, ReplyAttributes.StatusValues.ERROR, description, packetOutError);
+        }
+    }
+    
+    static private void sendReply(Session session, Message request, ReplyAttributes.StatusValues status, 
+            String description) throws JMSException {
+        sendReply(session, request, status, description, null);
+    }
+    
+    static private void sendReply(Session session, Message request, ReplyAttributes.StatusValues status, 
+            String description, String packetOutError) throws JMSException {
+        Destination replyTo = request.getJMSReplyTo();
+        if (replyTo == null) {
+            return;
+        }
+        
+        JSONObject json = new JSONObject();
+        json.put(ReplyAttributes.Keys.STATUS.toJSON(), status.toJSON());
+        if (description != null) {
+            json.put(ReplyAttributes.Keys.DESCRIPTION.toJSON(), description);
+        }
+        if (packetOutError != null) {
+            json.put(ReplyAttributes.Keys.PACKET_OUT_ERROR.toJSON(), packetOutError);
+        }
+        
+        TextMessage reply = session.createTextMessage(json.toString());
+        String correlationId = request.getJMSCorrelationID();
+        if (correlationId == null) {
+            correlationId = request.getJMSMessageID();
+        }
+        reply.setJMSCorrelationID(correlationId);
+        
+        MessageProducer producer = session.createProducer(replyTo);
+        try {
+            producer.send(reply);
+        } finally {
+            producer.close();
+        }
+    }
+}
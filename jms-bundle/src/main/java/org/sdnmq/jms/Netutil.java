@@ -9,27 +9,191 @@
 
 package org.sdnmq.jms;
 
-import java.util.StringTokenizer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 /**
  * Network helper functions.
  * 
+ * Addresses are formatted with lookup tables into character arrays. Strings of frequently 
+ * seen addresses are interned in small bounded caches, so formatting the same address again 
+ * does not allocate. 
+ * 
  * @author Frank Duerr
  */
 public class Netutil {
+    /**
+     * Number of entries of each address string cache (rounded up to a power of two). 
+     * 0 disables the caches.
+     */
+    private static final String INTERN_CACHE_SIZE_PROPERTY = "sdnmq.netutil.interncache.size";
+    private static final int DEFAULT_INTERN_CACHE_SIZE = 1024;
+    
+    public static final int MAC_LENGTH = 6;
+    
+    /**
+     * Value returned by parseIPv4() for invalid addresses.
+     */
+    public static final long INVALID_IPV4 = -1;
+    
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    
+    // Decimal representation of all octets (0 to 255).
+    private static final char[][] DECIMAL_OCTETS = new char[256][];
+    static {
+        for (int i = 0; i < 256; i++) {
+            DECIMAL_OCTETS[i] = Integer.toString(i).toCharArray();
+        }
+    }
+    
+    // Value of hexadecimal digits; -1 for other characters.
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = (byte) Character.digit((char) i, 16);
+        }
+    }
+    
+    /**
+     * Bounded cache of address strings. Every address maps to a single slot; a new address 
+     * replaces the address in its slot. The cache is not locked: slots hold immutable entries, 
+     * so readers see either a complete entry or no entry.
+     */
+    private static class InternCache {
+        private static class Entry {
+            final long address;
+            final String str;
+            
+            Entry(long address, String str) {
+                this.address = address;
+                this.str = str;
+            }
+        }
+        
+        private final Entry[] slots;
+        private final int mask;
+        
+        InternCache(int size) {
+            int capacity = Integer.highestOneBit(Math.max(1, size));
+            if (capacity < size) {
+                capacity <<= 1;
+            }
+            slots = new Entry[capacity];
+            mask = capacity - 1;
+        }
+        
+        private int slot(long address) {
+            long h = address * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+        
+        String get(long address) {
+            Entry entry = slots[slot(address)];
+            if (entry != null && entry.address == address) {
+                return entry.str;
+            }
+            
+            return null;
+        }
+        
+        String put(long address, String str) {
+            slots[slot(address)] = new Entry(address, str);
+            
+            return str;
+        }
+    }
+    
+    private static final InternCache macStrings;
+    private static final InternCache ipv4Strings;
+    private static final InternCache ipv4BinaryStrings;
+    static {
+        int size = ConfigHelper.getIntProperty(INTERN_CACHE_SIZE_PROPERTY, DEFAULT_INTERN_CACHE_SIZE);
+        if (size > 0) {
+            macStrings = new InternCache(size);
+            ipv4Strings = new InternCache(size);
+            ipv4BinaryStrings = new InternCache(size);
+        } else {
+            macStrings = null;
+            ipv4Strings = null;
+            ipv4BinaryStrings = null;
+        }
+    }
+    
     /**
      * Converts a MAC address to colon hexadecimal representation (e.g., "00:01:02:03:04:05").
      */
     static public String macToStr(byte[] mac) {
-        StringBuilder strBuilder = new StringBuilder();
+        if (macStrings == null || mac.length != MAC_LENGTH) {
+            char[] chars = new char[Math.max(0, 3*mac.length - 1)];
+            writeMac(mac, chars, 0);
+            return new String(chars);
+        }
+        
+        long address = 0;
+        for (byte b : mac) {
+            address = (address << 8) | (b & 0xff);
+        }
         
+        return macToStr(address);
+    }
+    
+    /**
+     * Converts a MAC address to colon hexadecimal representation (e.g., "00:01:02:03:04:05").
+     * 
+     * @param mac the MAC address as 48 bit integer
+     */
+    static public String macToStr(long mac) {
+        String str = (macStrings == null ? null : macStrings.get(mac));
+        if (str != null) {
+            return str;
+        }
+        
+        char[] chars = new char[3*MAC_LENGTH - 1];
+        writeMac(mac, chars, 0);
+        str = new String(chars);
+        
+        return (macStrings == null ? str : macStrings.put(mac, str));
+    }
+    
+    /**
+     * Writes a MAC address in colon hexadecimal representation to a character array.
+     * 
+     * @param mac the MAC address
+     * @param dst the destination array (3*mac.length - 1 characters are written)
+     * @param offset the position of the first character
+     * @return the position after the last character
+     */
+    static public int writeMac(byte[] mac, char[] dst, int offset) {
         for (int i = 0; i < mac.length; i++) {
-            strBuilder.append(String.format("%02X", mac[i]));
-            if (i < mac.length-1) {
-                strBuilder.append(":");
+            if (i > 0) {
+                dst[offset++] = ':';
             }
+            dst[offset++] = HEX_DIGITS[(mac[i] >> 4) & 0xf];
+            dst[offset++] = HEX_DIGITS[mac[i] & 0xf];
         }
-        return strBuilder.toString();
+        
+        return offset;
+    }
+    
+    /**
+     * Writes a MAC address in colon hexadecimal representation to a character array.
+     * 
+     * @param mac the MAC address as 48 bit integer
+     * @param dst the destination array (17 characters are written)
+     * @param offset the position of the first character
+     * @return the position after the last character
+     */
+    static public int writeMac(long mac, char[] dst, int offset) {
+        for (int shift = 8*(MAC_LENGTH - 1); shift >= 0; shift -= 8) {
+            int b = (int) (mac >>> shift);
+            dst[offset++] = HEX_DIGITS[(b >> 4) & 0xf];
+            dst[offset++] = HEX_DIGITS[b & 0xf];
+            if (shift > 0) {
+                dst[offset++] = ':';
+            }
+        }
+        
+        return offset;
     }
     
     /**
@@ -38,17 +202,38 @@ public class Netutil {
      * @return dotted decimal notation
      */
     static public String ipv4ToStr(int ipv4) {
-        short[] decimals = new short[4];
-        
-        for (int i = 0; i < 4; i++) {
-            decimals[i] = (short) (ipv4&0xff);
-            ipv4 >>= 8;
+        long address = ipv4 & 0xffffffffL;
+        String str = (ipv4Strings == null ? null : ipv4Strings.get(address));
+        if (str != null) {
+            return str;
         }
         
-        String dottedStr = Short.toString(decimals[3]) + "." + Short.toString(decimals[2]) + "." + 
-                Short.toString(decimals[1]) + "." + Short.toString(decimals[0]);
+        char[] chars = new char[15];
+        int length = writeIPv4(ipv4, chars, 0);
+        str = new String(chars, 0, length);
         
-        return dottedStr;
+        return (ipv4Strings == null ? str : ipv4Strings.put(address, str));
+    }
+    
+    /**
+     * Writes an IPv4 address in dotted decimal notation to a character array.
+     * 
+     * @param ipv4 the IPv4 address (must be in big endian byte-order)
+     * @param dst the destination array (up to 15 characters are written)
+     * @param offset the position of the first character
+     * @return the position after the last character
+     */
+    static public int writeIPv4(int ipv4, char[] dst, int offset) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            char[] decimal = DECIMAL_OCTETS[(ipv4 >>> shift) & 0xff];
+            System.arraycopy(decimal, 0, dst, offset, decimal.length);
+            offset += decimal.length;
+            if (shift > 0) {
+                dst[offset++] = '.';
+            }
+        }
+        
+        return offset;
     }
     
     /**
@@ -57,52 +242,266 @@ public class Netutil {
      * @return dotted decimal notation
      */
     static public String ipv4ToBinaryStr(int ipv4) {
-        StringBuilder[] strBuilder = new StringBuilder[4];
-        
-        for (int i = 0; i < 4; i++) {
-            strBuilder[i] = new StringBuilder(0);
-            short b = (short) (ipv4&0xff);
-            ipv4 >>= 8;
-        
-            short mask = (short) 128;
-            for (int j = 0; j < 8; j++) {
-                if ((b&mask) == mask) {
-                    strBuilder[i].append('1');
-                } else {
-                    strBuilder[i].append('0');
+        long address = ipv4 & 0xffffffffL;
+        String str = (ipv4BinaryStrings == null ? null : ipv4BinaryStrings.get(address));
+        if (str != null) {
+            return str;
+        }
+        
+        char[] chars = new char[32];
+        for (int i = 0; i < 32; i++) {
+            chars[i] = ((ipv4 << i) < 0 ? '1' : '0');
+        }
+        str = new String(chars);
+        
+        return (ipv4BinaryStrings == null ? str : ipv4BinaryStrings.put(address, str));
+    }
+    
+    /**
+     * Converts an IPv4 address from integer representation to an InetAddress object 
+     * (without DNS lookup).
+     * @param ipv4 the IPv4 address to be converted (must be in big endian byte-order)
+     * @return address object
+     */
+    static public InetAddress ipv4ToInetAddress(int ipv4) {
+        byte[] bytes = new byte[4];
+        bytes[0] = (byte) (ipv4 >>> 24);
+        bytes[1] = (byte) (ipv4 >>> 16);
+        bytes[2] = (byte) (ipv4 >>> 8);
+        bytes[3] = (byte) ipv4;
+        
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Cannot happen for 4 byte addresses.
+            throw new IllegalArgumentException(e);
+        }
+    }
+    
+    /**
+     * Parses an IPv4 address in dotted decimal notation (e.g., "192.168.1.1"). Every part must 
+     * consist of one to three decimal digits and be at most 255.
+     * 
+     * @param addr the address string
+     * @return the address in big endian byte-order in the lower 32 bits or INVALID_IPV4 
+     * if the address string is invalid
+     */
+    public static long parseIPv4(String addr) {
+        int length = addr.length();
+        long address = 0;
+        int parts = 0;
+        int pos = 0;
+        while (pos < length) {
+            int value = 0;
+            int digits = 0;
+            while (pos < length) {
+                char c = addr.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = 10*value + (c - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 3 || value > 255) {
+                return INVALID_IPV4;
+            }
+            
+            address = (address << 8) | value;
+            parts++;
+            
+            if (pos < length) {
+                if (addr.charAt(pos) != '.' || parts == 4 || pos == length - 1) {
+                    return INVALID_IPV4;
+                }
+                pos++;
+            }
+        }
+        
+        return (parts == 4 ? address : INVALID_IPV4);
+    }
+    
+    /**
+     * Parses an IPv6 address in hexadecimal notation as defined by RFC 4291 (e.g., "fe80::1" or 
+     * "::ffff:192.168.1.1"). Zone ids are not supported.
+     * 
+     * @param addr the address string
+     * @return the 16 address bytes or null if the address string is invalid
+     */
+    public static byte[] parseIPv6(String addr) {
+        int length = addr.length();
+        byte[] bytes = new byte[16];
+        int n = 0;
+        // Position of "::" in the address bytes; -1 if not present.
+        int gap = -1;
+        int pos = 0;
+        
+        if (addr.startsWith("::")) {
+            gap = 0;
+            pos = 2;
+        } else if (length == 0 || addr.charAt(0) == ':') {
+            return null;
+        }
+        
+        while (pos < length) {
+            int start = pos;
+            int value = 0;
+            int digits = 0;
+            while (pos < length) {
+                char c = addr.charAt(pos);
+                int digit = (c < HEX_VALUES.length ? HEX_VALUES[c] : -1);
+                if (digit < 0) {
+                    break;
+                }
+                value = (value << 4) | digit;
+                digits++;
+                pos++;
+            }
+            
+            if (pos < length && addr.charAt(pos) == '.') {
+                // Embedded IPv4 address (last 32 bits).
+                long ipv4 = parseIPv4(addr.substring(start));
+                if (ipv4 == INVALID_IPV4 || n > 12) {
+                    return null;
+                }
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    bytes[n++] = (byte) (ipv4 >>> shift);
                 }
-                
-                mask >>= 1;
+                break;
             }
+            
+            if (digits == 0 || digits > 4 || n > 14) {
+                return null;
+            }
+            bytes[n++] = (byte) (value >>> 8);
+            bytes[n++] = (byte) value;
+            
+            if (pos < length) {
+                if (addr.charAt(pos) != ':' || pos == length - 1) {
+                    return null;
+                }
+                pos++;
+                if (addr.charAt(pos) == ':') {
+                    if (gap >= 0) {
+                        return null;
+                    }
+                    gap = n;
+                    pos++;
+                }
+            }
+        }
+        
+        if (gap >= 0) {
+            // "::" replaces at least one group of zeros.
+            if (n > 14) {
+                return null;
+            }
+            int tail = n - gap;
+            System.arraycopy(bytes, gap, bytes, 16 - tail, tail);
+            for (int i = gap; i < 16 - tail; i++) {
+                bytes[i] = 0;
+            }
+        } else if (n != 16) {
+            return null;
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * Parses a numeric IPv4 or IPv6 address. In contrast to InetAddress.getByName(), 
+     * host names are rejected, so parsing never blocks on a DNS lookup.
+     * 
+     * @param addr the address string
+     * @return address object or null if the address string is invalid
+     */
+    public static InetAddress parseInetAddress(String addr) {
+        byte[] bytes;
+        if (addr.indexOf(':') >= 0) {
+            bytes = parseIPv6(addr);
+        } else {
+            long ipv4 = parseIPv4(addr);
+            if (ipv4 == INVALID_IPV4) {
+                return null;
+            }
+            return ipv4ToInetAddress((int) ipv4);
         }
         
-        return (strBuilder[3].toString()+strBuilder[2].toString()+strBuilder[1].toString()+strBuilder[0].toString());
+        if (bytes == null) {
+            return null;
+        }
+        
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Cannot happen for 16 byte addresses.
+            throw new IllegalArgumentException(e);
+        }
     }
     
     /**
-     * Parses a data link layer address in colon hexadecimal notation
+     * Parses a data link layer (MAC) address in colon hexadecimal notation (e.g., "00:01:02:03:04:05"). 
+     * Every part must consist of one or two hexadecimal digits.
+     * 
      * @param addr the address string
      * @return address bytes or null if address string is invalid.
      */
     public static byte[] parseDlAddr(String addr) {
         assert(addr != null);
         
-        StringTokenizer tokenizer = new StringTokenizer(addr, ":");
-        int byteCnt = tokenizer.countTokens();
-        if (byteCnt <= 0) {
+        long mac = parseMac(addr);
+        if (mac < 0) {
             return null;
         }
         
-        byte[] bytes = new byte[byteCnt];
-        for (int i = 0; i < byteCnt; i++) {
-           String token = tokenizer.nextToken();
-           try {
-               bytes[i] = Byte.parseByte(token, 16);
-           } catch (NumberFormatException e) {
-               return null;
-           }
+        byte[] bytes = new byte[MAC_LENGTH];
+        for (int i = MAC_LENGTH - 1; i >= 0; i--) {
+            bytes[i] = (byte) mac;
+            mac >>>= 8;
         }
         
         return bytes;
     }
+    
+    /**
+     * Parses a MAC address in colon hexadecimal notation (e.g., "00:01:02:03:04:05").
+     * 
+     * @param addr the address string
+     * @return the address as 48 bit integer or -1 if the address string is invalid
+     */
+    public static long parseMac(String addr) {
+        int length = addr.length();
+        long mac = 0;
+        int parts = 0;
+        int pos = 0;
+        while (pos < length) {
+            int value = 0;
+            int digits = 0;
+            while (pos < length) {
+                char c = addr.charAt(pos);
+                int digit = (c < HEX_VALUES.length ? HEX_VALUES[c] : -1);
+                if (digit < 0) {
+                    break;
+                }
+                value = (value << 4) | digit;
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 2) {
+                return -1;
+            }
+            
+            mac = (mac << 8) | value;
+            parts++;
+            
+            if (pos < length) {
+                if (addr.charAt(pos) != ':' || parts == MAC_LENGTH || pos == length - 1) {
+                    return -1;
+                }
+                pos++;
+            }
+        }
+        
+        return (parts == MAC_LENGTH ? mac : -1);
+    }
 }
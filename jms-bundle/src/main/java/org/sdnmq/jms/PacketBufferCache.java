@@ -0,0 +1,181 @@
+/**
+ * PacketBufferCache
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketBufferCache is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, time-limited buffer of packet-in data.
+ * 
+ * Packets are stored in a ring of fixed-size slots in a direct (off-heap) buffer, so buffering 
+ * does not add to the garbage collected heap. The slot of a packet is derived from its id, 
+ * i.e., a new packet overwrites the oldest packet once the ring is full. Slots are protected
+ * by striped locks, so concurrent puts and gets only contend if they hit the same stripe.
+ * 
+ * Packet ids must not be guessable, since any client of the JMS server could otherwise send
+ * packets buffered for other applications. The upper 31 bits of an id hold a sequence number 
+ * (starting at a random value) selecting the slot, the lower 32 bits are random. A packet is 
+ * only returned if the complete id matches the id stored in its slot.
+ * 
+ * @author Frank Duerr
+ */
+public class PacketBufferCache implements IPacketBufferCache {
+    private static final Logger log = LoggerFactory.getLogger(PacketBufferCache.class);
+    
+    /**
+     * These properties can be defined in the OpenDaylight configuration:
+     * $OPENDAYLIGHTHOME/configuration/config.ini
+     * 
+     * Number of packets that can be buffered.
+     */
+    private static final String SLOTS_PROPERTY = "sdnmq.packetbuffer.slots";
+    private static final int DEFAULT_SLOTS = 4096;
+    
+    /**
+     * Maximum size of a buffered packet in bytes. Larger packets are not buffered.
+     */
+    private static final String SLOT_SIZE_PROPERTY = "sdnmq.packetbuffer.slotsize";
+    private static final int DEFAULT_SLOT_SIZE = 2048;
+    
+    /**
+     * Time in milliseconds after which a buffered packet expires.
+     */
+    private static final String TTL_PROPERTY = "sdnmq.packetbuffer.ttl";
+    private static final long DEFAULT_TTL = 5000;
+    
+    private static final int LOCK_STRIPES = 64;
+    
+    private static final int RANDOM_BITS = 32;
+    private static final long SEQUENCE_MASK = 0x7fffffffL;
+    
+    /**
+     * Pool of secure random numbers. Random bytes are generated in blocks, so the cost of the 
+     * secure random number generator is amortized over many packets.
+     */
+    private static class RandomPool {
+        private static final int BLOCK_SIZE = 4096;
+        
+        private final SecureRandom random = new SecureRandom();
+        private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        
+        RandomPool() {
+            block.position(BLOCK_SIZE);
+        }
+        
+        synchronized int nextInt() {
+            if (block.remaining() < 4) {
+                random.nextBytes(block.array());
+                block.clear();
+            }
+            
+            return block.getInt();
+        }
+    }
+    
+    private final int slots;
+    private final int slotSize;
+    private final long ttl;
+    
+    private final ByteBuffer buffer;
+    // Per-slot meta data: id of the buffered packet, time of insertion, and packet length.
+    private final long[] packetIds;
+    private final long[] timestamps;
+    private final int[] lengths;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    
+    private final RandomPool randomPool = new RandomPool();
+    private final AtomicLong nextSequenceNo = new AtomicLong(randomPool.nextInt() & SEQUENCE_MASK);
+    
+    public PacketBufferCache() {
+        int slots = ConfigHelper.getIntProperty(SLOTS_PROPERTY, DEFAULT_SLOTS);
+        if (slots <= 0) {
+            log.error("Invalid number of packet buffer slots: " + slots);
+            slots = DEFAULT_SLOTS;
+        }
+        this.slots = slots;
+        
+        int slotSize = ConfigHelper.getIntProperty(SLOT_SIZE_PROPERTY, DEFAULT_SLOT_SIZE);
+        if (slotSize <= 0 || (long) slotSize*slots > Integer.MAX_VALUE) {
+            log.error("Invalid packet buffer slot size: " + slotSize);
+            slotSize = DEFAULT_SLOT_SIZE;
+        }
+        this.slotSize = slotSize;
+        
+        ttl = ConfigHelper.getLongProperty(TTL_PROPERTY, DEFAULT_TTL);
+        
+        log.info("Buffering up to " + this.slots + " packet-in events of up to " + this.slotSize + 
+                " bytes for " + ttl + " ms");
+        
+        buffer = ByteBuffer.allocateDirect(this.slots*this.slotSize);
+        packetIds = new long[this.slots];
+        timestamps = new long[this.slots];
+        lengths = new int[this.slots];
+        for (int i = 0; i < this.slots; i++) {
+            packetIds[i] = INVALID_PACKET_ID;
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    @Override
+    public long put(byte[] packetData) {
+        if (packetData.length > slotSize) {
+            return INVALID_PACKET_ID;
+        }
+        
+        long sequenceNo = nextSequenceNo.getAndIncrement() & SEQUENCE_MASK;
+        long packetId = (sequenceNo << RANDOM_BITS) | (randomPool.nextInt() & 0xffffffffL);
+        int slot = (int) (sequenceNo%slots);
+        
+        synchronized (locks[slot%LOCK_STRIPES]) {
+            ByteBuffer slotBuffer = buffer.duplicate();
+            slotBuffer.position(slot*slotSize);
+            slotBuffer.put(packetData);
+            packetIds[slot] = packetId;
+            timestamps[slot] = System.currentTimeMillis();
+            lengths[slot] = packetData.length;
+        }
+        
+        return packetId;
+    }
+    
+    @Override
+    public byte[] get(long packetId) {
+        if (packetId < 0) {
+            return null;
+        }
+        
+        int slot = (int) ((packetId >>> RANDOM_BITS)%slots);
+        
+        synchronized (locks[slot%LOCK_STRIPES]) {
+            if (packetIds[slot] != packetId) {
+                // Overwritten by a newer packet or invalid (guessed) id.
+                return null;
+            }
+            
+            if (System.currentTimeMillis() - timestamps[slot] > ttl) {
+                return null;
+            }
+            
+            byte[] packetData = new byte[lengths[slot]];
+            ByteBuffer slotBuffer = buffer.duplicate();
+            slotBuffer.position(slot*slotSize);
+            slotBuffer.get(packetData);
+            
+            return packetData;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * PacketFields
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketFields is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.opendaylight.controller.sal.packet.Ethernet;
+import org.opendaylight.controller.sal.packet.IEEE8021Q;
+import org.opendaylight.controller.sal.packet.IPv4;
+import org.opendaylight.controller.sal.packet.Packet;
+import org.opendaylight.controller.sal.packet.TCP;
+import org.opendaylight.controller.sal.packet.UDP;
+
+/**
+ * Header fields of a packet-in event in the normalized string representation used by reactive rules.
+ * 
+ * Fields are identified by the filter names of class MessageFilterAttributes. MAC addresses are
+ * represented in upper case colon hexadecimal notation, IPv4 addresses in dotted decimal notation, and 
+ * numeric fields as unsigned decimal numbers.
+ * 
+ * @author Frank Duerr
+ */
+public class PacketFields {
+    /**
+     * Checks whether a field can be matched by rules.
+     */
+    static public boolean isSupported(MessageFilterAttributes.Keys key) {
+        switch (key) {
+        case NODE_ID:
+        case NODE_TYPE:
+        case INPORT:
+        case DL_SRC:
+        case DL_DST:
+        case DL_VLAN:
+        case DL_VLAN_PR:
+        case DL_TYPE:
+        case NW_SRC:
+        case NW_DST:
+        case NW_PROTOCOL:
+        case TP_SRC:
+        case TP_DST:
+            return true;
+        default:
+            return false;
+        }
+    }
+    
+    /**
+     * Normalizes the value of a field as given in a rule.
+     * 
+     * @param key the field
+     * @param value the value as given in JSON (string or number)
+     * @return normalized value or null if the field is not supported or the value is invalid
+     */
+    static public String normalize(MessageFilterAttributes.Keys key, Object value) {
+        if (!isSupported(key)) {
+            return null;
+        }
+        
+        String str = value.toString().trim();
+        switch (key) {
+        case DL_SRC:
+        case DL_DST:
+            return str.toUpperCase();
+        case DL_VLAN:
+        case DL_VLAN_PR:
+        case DL_TYPE:
+        case NW_PROTOCOL:
+        case TP_SRC:
+        case TP_DST:
+            try {
+                return Integer.toString(Integer.decode(str));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        default:
+            return str;
+        }
+    }
+    
+    /**
+     * Extracts the header fields of a packet.
+     * 
+     * @param ingressConnector the port that received the packet
+     * @param pkt the decoded packet
+     * @return the header fields
+     */
+    static public Map<MessageFilterAttributes.Keys, String> fromPacket(NodeConnector ingressConnector, Packet pkt) {
+        Map<MessageFilterAttributes.Keys, String> fields = 
+                new EnumMap<MessageFilterAttributes.Keys, String>(MessageFilterAttributes.Keys.class);
+        
+        Node node = ingressConnector.getNode();
+        fields.put(MessageFilterAttributes.Keys.NODE_ID, node.getNodeIDString());
+        fields.put(MessageFilterAttributes.Keys.NODE_TYPE, node.getType());
+        fields.put(MessageFilterAttributes.Keys.INPORT, ingressConnector.getNodeConnectorIDString());
+        
+        while (pkt != null) {
+            if (pkt instanceof Ethernet) {
+                Ethernet ethernet = (Ethernet) pkt;
+                fields.put(MessageFilterAttributes.Keys.DL_SRC, Netutil.macToStr(ethernet.getSourceMACAddress()));
+                fields.put(MessageFilterAttributes.Keys.DL_DST, Netutil.macToStr(ethernet.getDestinationMACAddress()));
+                fields.put(MessageFilterAttributes.Keys.DL_TYPE, Integer.toString(ethernet.getEtherType() & 0xffff));
+            } else if (pkt instanceof IEEE8021Q) {
+                IEEE8021Q ieee8021q = (IEEE8021Q) pkt;
+                fields.put(MessageFilterAttributes.Keys.DL_VLAN, Integer.toString(ieee8021q.getVid()));
+                fields.put(MessageFilterAttributes.Keys.DL_VLAN_PR, Integer.toString(ieee8021q.getPcp()));
+                // The ethertype of the encapsulated packet.
+                fields.put(MessageFilterAttributes.Keys.DL_TYPE, Integer.toString(ieee8021q.getEtherType() & 0xffff));
+            } else if (pkt instanceof IPv4) {
+                IPv4 ipv4 = (IPv4) pkt;
+                fields.put(MessageFilterAttributes.Keys.NW_SRC, Netutil.ipv4ToStr(ipv4.getSourceAddress()));
+                fields.put(MessageFilterAttributes.Keys.NW_DST, Netutil.ipv4ToStr(ipv4.getDestinationAddress()));
+                fields.put(MessageFilterAttributes.Keys.NW_PROTOCOL, Integer.toString(ipv4.getProtocol() & 0xff));
+            } else if (pkt instanceof TCP) {
+                TCP tcp = (TCP) pkt;
+                fields.put(MessageFilterAttributes.Keys.TP_SRC, Integer.toString(tcp.getSourcePort() & 0xffff));
+                fields.put(MessageFilterAttributes.Keys.TP_DST, Integer.toString(tcp.getDestinationPort() & 0xffff));
+            } else if (pkt instanceof UDP) {
+                UDP udp = (UDP) pkt;
+                fields.put(MessageFilterAttributes.Keys.TP_SRC, Integer.toString(udp.getSourcePort() & 0xffff));
+                fields.put(MessageFilterAttributes.Keys.TP_DST, Integer.toString(udp.getDestinationPort() & 0xffff));
+            }
+            
+            pkt = pkt.getPayload();
+        }
+        
+        return fields;
+    }
+}
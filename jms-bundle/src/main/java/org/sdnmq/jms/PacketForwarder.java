@@ -9,33 +9,25 @@
 
 package org.sdnmq.jms;
 
-import java.util.Properties;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.Queue;
-import javax.jms.QueueConnection;
-import javax.jms.QueueConnectionFactory;
 import javax.jms.QueueReceiver;
 import javax.jms.QueueSession;
-import javax.jms.Session;
 import javax.jms.TextMessage;
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import javax.xml.bind.DatatypeConverter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.opendaylight.controller.sal.core.ConstructionException;
-import org.opendaylight.controller.sal.core.Node;
-import org.opendaylight.controller.sal.core.NodeConnector;
 import org.opendaylight.controller.sal.packet.IDataPacketService;
-import org.opendaylight.controller.sal.packet.RawPacket;
-import org.opendaylight.controller.switchmanager.ISwitchManager;
-import org.sdnmq.jms.json.NodeAttributes;
-import org.sdnmq.jms.json.PacketForwarderRequestAttributes;
+import org.sdnmq.jms.binary.PacketOutDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,7 +36,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Frank Duerr
  */
-public class PacketForwarder implements MessageListener {
+public class PacketForwarder implements IPacketForwarder, IConnectionListener {
     private static final Logger log = LoggerFactory.getLogger(PacketForwarder.class);
  
     /**
@@ -55,13 +47,55 @@ public class PacketForwarder implements MessageListener {
     private static final String PACKETOUT_QUEUE_PROPERTY = "sdnmq.queuename.packetout";
     private static final String DEFAULT_PACKETOUT_QUEUE_NAME = "org.sdnmq.packetout";
     
-    private QueueConnection connection = null;
-    private QueueSession session = null;
-    private QueueReceiver receiver = null;
-    private Queue packetOutQueue = null;
+    /**
+     * Number of concurrent consumers, each with its own JMS session. To keep the order of requests
+     * for the same node, requests should be sent with the node id as message group (JMSXGroupID).
+     */
+    private static final String CONSUMERS_PROPERTY = "sdnmq.packetforwarder.consumers";
+    private static final int DEFAULT_CONSUMERS = 1;
+    
+    /**
+     * Number of processed requests remembered to skip redelivered requests.
+     */
+    private static final int REQUEST_HISTORY_SIZE = 16384;
+    
+    /**
+     * A consumer receiving requests through its own session.
+     */
+    private class Consumer implements MessageListener {
+        final QueueSession session;
+        final QueueReceiver receiver;
+        final RequestAcknowledger acknowledger = new RequestAcknowledger(consumerSettings, requestHistory);
+        
+        Consumer(QueueSession session, QueueReceiver receiver) {
+            this.session = session;
+            this.receiver = receiver;
+        }
+        
+        @Override
+        public void onMessage(Message msg) {
+            // Holding the lock while processing keeps the ack timer from acknowledging this request
+            // before it has been processed.
+            synchronized (acknowledger) {
+                if (!acknowledger.isDuplicate(msg)) {
+                    handleMessage(msg, session);
+                }
+                acknowledger.processed(msg);
+            }
+        }
+    }
     
+    private List<Consumer> consumers = new LinkedList<Consumer>();
+    private ConsumerSettings consumerSettings = null;
+    // Shared by all consumers and kept across reconnects.
+    private final RequestHistory requestHistory = new RequestHistory(REQUEST_HISTORY_SIZE);
+    private ScheduledExecutorService ackTimer = null;
+    private boolean destroyed = false;
+    
+    private IConnectionManager connectionManager = null;
     private IDataPacketService dataPacketService = null;
-    private ISwitchManager switchManager = null;
+    private IInventoryCache inventoryCache = null;
+    private IPacketBufferCache packetBufferCache = null;
     
     /**
      * Bind to DataPacketService.
@@ -84,158 +118,195 @@ public class PacketForwarder implements MessageListener {
     }
     
     /**
-     * Bind to SwitchManagerService
+     * Bind to InventoryCache
      */
-    void setSwitchManagerService(ISwitchManager s) {
-       log.trace("Bind to SwitchManagerService.");
+    void setInventoryCache(IInventoryCache s) {
+       log.trace("Bind to InventoryCache.");
      
-       switchManager = s;
+       inventoryCache = s;
     }
      
     /**
-     * Unbind from SwitchManagerService
+     * Unbind from InventoryCache
      */
-    void unsetSwitchManagerService(ISwitchManager s) {
-        log.trace("Unbind from SwitchManagerService.");
+    void unsetInventoryCache(IInventoryCache s) {
+        log.trace("Unbind from InventoryCache.");
      
-        if (switchManager == s) {
-            switchManager = null;
+        if (inventoryCache == s) {
+            inventoryCache = null;
         }
     }
     
     /**
-     * Function called by the dependency manager if all the required
-     * dependencies are satisfied.
+     * Bind to PacketBufferCache
      */
-    public void init() {
-        if (initMQ()) {
-            log.trace("MQ setup successful");
-            startMsgListener();
-        } else {
-            log.error("Could not init MQ");
-        }
+    void setPacketBufferCache(IPacketBufferCache s) {
+        log.trace("Bind to PacketBufferCache.");
+        
+        packetBufferCache = s;
     }
     
     /**
-     * Setup MQ
+     * Unbind from PacketBufferCache
      */
-    private boolean initMQ() {
-        log.trace("Setting up MQ system");
+    void unsetPacketBufferCache(IPacketBufferCache s) {
+        log.trace("Unbind from PacketBufferCache.");
         
-        Properties jndiProps = JNDIHelper.getJNDIProperties();
-        
-        Context ctx = null;
-        try {
-            ctx = new InitialContext(jndiProps);
-        } catch (NamingException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
+        if (packetBufferCache == s) {
+            packetBufferCache = null;
         }
+    }
+    
+    /**
+     * Bind to ConnectionManager
+     */
+    void setConnectionManager(IConnectionManager s) {
+        log.trace("Bind to ConnectionManager.");
         
-        QueueConnectionFactory queueFactory = null;
-        try {
-            queueFactory = (QueueConnectionFactory) ctx.lookup("QueueConnectionFactory");
-        } catch (NamingException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
-        }
+        connectionManager = s;
+    }
+    
+    /**
+     * Unbind from ConnectionManager
+     */
+    void unsetConnectionManager(IConnectionManager s) {
+        log.trace("Unbind from ConnectionManager.");
         
-        try {
-            connection = queueFactory.createQueueConnection();
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
+        if (connectionManager == s) {
+            connectionManager = null;
         }
+    }
+    
+    /**
+     * Function called by the dependency manager if all the required
+     * dependencies are satisfied.
+     */
+    public void init() {
+        consumerSettings = new ConsumerSettings("sdnmq.packetforwarder");
         
-        try {
-            session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return false;
+        // Consumers are set up as soon as the connection manager is connected.
+        connectionManager.addListener(this);
+    }
+    
+    /**
+     * Function called by the dependency manager before the component is stopped.
+     */
+    public synchronized void destroy() {
+        connectionManager.removeListener(this);
+        destroyed = true;
+        releaseMQ();
+    }
+    
+    /**
+     * Setup MQ (consumers and their sessions).
+     */
+    @Override
+    public synchronized void connectionEstablished(ConnectionContext ctx) throws JMSException, NamingException {
+        if (destroyed) {
+            return;
         }
         
+        log.trace("Setting up MQ system");
+        
         String queueName = System.getProperty(PACKETOUT_QUEUE_PROPERTY, DEFAULT_PACKETOUT_QUEUE_NAME);
         log.info("Using the following queue for packet forwarding requests: " + queueName);
+        
+        int consumerCnt = Math.max(1, ConfigHelper.getIntProperty(CONSUMERS_PROPERTY, DEFAULT_CONSUMERS));
+        log.info("Using " + consumerCnt + " consumer(s) per shard for packet forwarding requests");
         try {
-            packetOutQueue = (Queue) ctx.lookup(queueName);
+            // Requests may arrive through every shard (broker).
+            for (int shard = 0; shard < ctx.getShardCount(); shard++) {
+                Queue packetOutQueue = (Queue) ctx.lookup(shard, queueName);
+                
+                for (int i = 0; i < consumerCnt; i++) {
+                    QueueSession session = consumerSettings.createSession(ctx.getQueueConnection(shard));
+                    QueueReceiver receiver = null;
+                    try {
+                        receiver = session.createReceiver(consumerSettings.applyPrefetch(session, packetOutQueue));
+                    } catch (JMSException e) {
+                        try {
+                            session.close();
+                        } catch (JMSException e2) {}
+                        throw e;
+                    }
+                    
+                    Consumer consumer = new Consumer(session, receiver);
+                    consumers.add(consumer);
+                    receiver.setMessageListener(consumer);
+                }
+            }
         } catch (NamingException e) {
-            log.error(e.getMessage());
             releaseMQ();
-            return false;
-        }
-        
-        try {
-            receiver = session.createReceiver(packetOutQueue);
+            throw e;
         } catch (JMSException e) {
-            log.error(e.getMessage());
             releaseMQ();
-            return false;
+            throw e;
         }
         
-        return true;
+        List<RequestAcknowledger> acknowledgers = new LinkedList<RequestAcknowledger>();
+        for (Consumer consumer : consumers) {
+            acknowledgers.add(consumer.acknowledger);
+        }
+        ackTimer = RequestAcknowledger.startFlushTimer(consumerSettings, acknowledgers, "sdnmq-packetforwarder-ack");
+        
+        log.trace("MQ setup successful");
+    }
+    
+    @Override
+    public synchronized void connectionLost() {
+        releaseMQ();
     }
     
     /**
      * Release MQ-related objects.
      */
     private void releaseMQ() {
-        if (connection != null) {
-            try {
-                connection.stop();
-            } catch (JMSException e) {}
+        if (ackTimer != null) {
+            ackTimer.shutdownNow();
+            ackTimer = null;
         }
-        if (receiver != null) {
-            try {
-                receiver.close();
-            } catch (JMSException e) {}
+        for (Consumer consumer : consumers) {
+            consumer.acknowledger.flush();
         }
         
-        if (session != null) {
+        for (Consumer consumer : consumers) {
             try {
-                session.close();
+                consumer.receiver.close();
+            } catch (JMSException e) {}
+            
+            try {
+                consumer.session.close();
             } catch (JMSException e) {}
         }
-        
-        if (connection != null) {
-           try {
-            connection.close();
-           } catch (JMSException e) {}
-        }
+        consumers.clear();
     }
-    
+
     /**
-     * Starts the receiver thread.
+     * Handles a packet forwarding request received by a consumer.
+     * 
+     * @param msg the request
+     * @param session the session of the consumer (used for replies)
      */
-    private void startMsgListener() {
-        try {
-            receiver.setMessageListener(this);
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            return;
-        }
-        
-        try {
-            connection.start();
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-            return;
-        }
-    }
-
-    @Override
-    public void onMessage(Message msg) {
+    private void handleMessage(Message msg, QueueSession session) {
         log.trace("Received packet forwarding request.");
         
         // TODO: Check, how we can send an error message to the requester if something goes wrong.
         
+        if (msg instanceof BytesMessage) {
+            try {
+                boolean success = handleBinaryRequest(MessageHelper.readBody((BytesMessage) msg));
+                sendStatusReply(msg, session, success, "Invalid binary packet forwarding request");
+            } catch (JMSException e) {
+                log.error(e.getMessage());
+            }
+            return;
+        }
+        
         // Parse JSON
         
         if (!(msg instanceof TextMessage)) {
-            log.error("Received invalid message type (not a text message).");
+            log.error("Received invalid message type (neither text nor bytes message).");
+            sendStatusReply(msg, session, false, "Invalid message type");
             return;
         }
         
@@ -244,6 +315,7 @@ public class PacketForwarder implements MessageListener {
             json = new JSONObject(((TextMessage) msg).getText());
         } catch (JSONException e) {
             log.error("Could not parse JSON message: " + e.getMessage());
+            sendStatusReply(msg, session, false, "Could not parse JSON message: " + e.getMessage());
             return;
         } catch (JMSException e) {
             log.error(e.getMessage());
@@ -252,75 +324,77 @@ public class PacketForwarder implements MessageListener {
         assert(json != null);
         log.trace(json.toString());
         
-        // Get node information
-        
-        String nodeId = null;
-        String nodeType = null;
-        try {
-            JSONObject nodeJson = json.getJSONObject(PacketForwarderRequestAttributes.Keys.NODE.toJSON());
-            nodeId = nodeJson.getString(NodeAttributes.Keys.ID.toJSON());
-            nodeType = nodeJson.getString(NodeAttributes.Keys.TYPE.toJSON());
-        } catch (JSONException e) {
-            log.error("Node attributes not specified: " + e.getMessage());
-            return;
+        // Error replies are sent while handling the request.
+        if (handleRequest(json, msg, session)) {
+            sendStatusReply(msg, session, true, null);
         }
-        
-        // Outgoing port
-        
-        String outPort = null;
-        try {
-            outPort = json.getString(PacketForwarderRequestAttributes.Keys.EGRESS_PORT.toJSON());
-        } catch (JSONException e) {
-            log.error("Outport not specified: " + e.getMessage());
-            return;
-        }
-        
-        // The raw packet to be sent.
-        
-        byte[] packetData = null;
+    }
+    
+    private void sendStatusReply(Message msg, QueueSession session, boolean success, String description) {
         try {
-            packetData = DatatypeConverter.parseBase64Binary(json.getString(PacketForwarderRequestAttributes.Keys.PACKET.toJSON()));
-        } catch (JSONException e) {
-            log.error("Packet data not specified: " + e.getMessage());
-            return;
+            MessageHelper.sendStatusReply(session, msg, success, description);
+        } catch (JMSException e) {
+            log.error("Could not send status reply: " + e.getMessage());
         }
-        
-        assert(nodeId != null);
-        assert(nodeType != null);
-        assert(packetData != null);
-        assert(outPort != null);
-        
-        // Try to find node and node connector
-        
-        Node node = Node.fromString(nodeType, nodeId);
-        if (node == null) {
-            log.error("Invalid node id: " + nodeId);
-            return;
+    }
+    
+    @Override
+    public boolean handleRequest(JSONObject json) {
+        return handleRequest(json, null, null);
+    }
+    
+    /**
+     * Handles a packet forwarding request in JSON representation.
+     * 
+     * @param json the request
+     * @param msg the JMS message carrying the request (null for requests from within the container)
+     * @param session the session of the consumer that received the request (null for requests from 
+     * within the container)
+     * @return true if the packet was forwarded
+     */
+    private boolean handleRequest(JSONObject json, Message msg, QueueSession session) {
+        PacketOut packetOut = new PacketOut(inventoryCache, packetBufferCache);
+        if (!packetOut.parseJson(json)) {
+            if (msg != null) {
+                try {
+                    if (packetOut.isPacketUnavailable()) {
+                        MessageHelper.sendErrorReply(session, msg, packetOut.getError());
+                    } else {
+                        MessageHelper.sendStatusReply(session, msg, false, packetOut.getError());
+                    }
+                } catch (JMSException e) {
+                    log.error("Could not send error reply: " + e.getMessage());
+                }
+            }
+            return false;
         }
         
-        if (!switchManager.getNodes().contains(node)) {
-            log.error("Node '" + node.getID() + "' not found");
-            return;
-        }
+        packetOut.transmit(dataPacketService);
         
-        NodeConnector connector = NodeConnector.fromStringNoNode(outPort, node);
-        if (!switchManager.doesNodeConnectorExist(connector)) {
-            log.error("Port '" + outPort + "' does not exist on node '" + node.getID() + "'");
-            return;
+        return true;
+    }
+    
+    /**
+     * Handles a packet forwarding request in binary representation (cf. class BinaryFormat).
+     * 
+     * @param request the request (position 0 is the start of the request)
+     * @return true if the packet was forwarded
+     */
+    @Override
+    public boolean handleBinaryRequest(ByteBuffer request) {
+        PacketOutDecoder decoder = new PacketOutDecoder();
+        if (!decoder.wrap(request)) {
+            log.error("Invalid binary packet forwarding request");
+            return false;
         }
         
-        // Construct packet 
-        
-        RawPacket pkt;
-        try {
-            pkt = new RawPacket(packetData);
-        } catch (ConstructionException e) {
-            log.error("Invalid packet data: " + e.getMessage());
-            return;
+        PacketOut packetOut = new PacketOut(inventoryCache, packetBufferCache);
+        if (!packetOut.parseBinary(decoder)) {
+            return false;
         }
         
-        // Send packet via Data Packet Service
+        packetOut.transmit(dataPacketService);
         
-        dataPacketService.transmitDataPacket(pkt);
+        return true;
     }
 }
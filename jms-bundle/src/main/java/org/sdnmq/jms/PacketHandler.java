@@ -9,37 +9,32 @@
 
 package org.sdnmq.jms;
 
-import java.util.Properties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Session;
-import javax.jms.TextMessage;
 import javax.jms.Topic;
 import javax.jms.TopicConnection;
-import javax.jms.TopicConnectionFactory;
 import javax.jms.TopicPublisher;
 import javax.jms.TopicSession;
-import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import javax.xml.bind.DatatypeConverter;
 
 import org.json.JSONObject;
 import org.opendaylight.controller.sal.core.Node;
 import org.opendaylight.controller.sal.core.NodeConnector;
-import org.opendaylight.controller.sal.packet.Ethernet;
 import org.opendaylight.controller.sal.packet.IDataPacketService;
-import org.opendaylight.controller.sal.packet.IEEE8021Q;
 import org.opendaylight.controller.sal.packet.IListenDataPacket;
-import org.opendaylight.controller.sal.packet.IPv4;
 import org.opendaylight.controller.sal.packet.Packet;
 import org.opendaylight.controller.sal.packet.PacketResult;
 import org.opendaylight.controller.sal.packet.RawPacket;
-import org.opendaylight.controller.sal.packet.TCP;
-import org.opendaylight.controller.sal.packet.UDP;
+import org.sdnmq.jms.binary.PacketInEncoder;
+import org.sdnmq.jms.json.FlowProgrammerRequestAttributes;
 import org.sdnmq.jms.json.NodeAttributes;
-import org.sdnmq.jms.json.PacketInAttributes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,7 +43,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Frank Duerr
  */
-public class PacketHandler implements IListenDataPacket {
+public class PacketHandler implements IListenDataPacket, IConnectionListener {
     private static final Logger log = LoggerFactory.getLogger(PacketHandler.class);
     
     /**
@@ -59,105 +54,303 @@ public class PacketHandler implements IListenDataPacket {
     private static final String PACKETIN_TOPIC_PROPERTY = "sdnmq.topicname.packetin";
     private static final String DEFAULT_PACKETIN_TOPIC_NAME = "org.sdnmq.packetin";
     
-    private TopicConnection connection = null;
-    private TopicSession session = null;
-    private TopicPublisher publisher = null;
-    private Topic packetinTopic = null;
+    /**
+     * Packet-in events are only of interest to applications connected when the event occurs.
+     * Therefore, they are published non-persistently unless this property is set to true.
+     */
+    private static final String PACKETIN_PERSISTENT_PROPERTY = "sdnmq.packetin.persistent";
     
-    private IDataPacketService dataPacketService = null;
-       
     /**
-     * Called by the dependency manager if all required 
-     * dependencies are satisfied.
+     * Set to false to publish packet-in events only to co-located applications (cf. DirectBus) 
+     * and not via JMS.
      */
-    public void init() {
-        initMQ();
-    }
+    private static final String PACKETIN_JMS_PROPERTY = "sdnmq.packetin.jms";
     
     /**
-     * Initialization of JMS.
+     * Representation of packet-in events: "json" (default, text messages) or "binary" 
+     * (bytes messages as defined by class BinaryFormat; OpenFlow nodes only).
      */
-    private void initMQ() {
-        log.trace("Setting up JMS ...");
+    private static final String PACKETIN_FORMAT_PROPERTY = "sdnmq.packetin.format";
+    
+    /**
+     * Maximum number of cached packet-in headers (cf. class PacketInHeaderCache). 0 disables the cache.
+     */
+    private static final String PACKETIN_HEADER_CACHE_PROPERTY = "sdnmq.packetin.headercache.size";
+    private static final int DEFAULT_PACKETIN_HEADER_CACHE_SIZE = 4096;
+    
+    /**
+     * Built-in transport publishing packet-in events to the JMS packet-in topic.
+     */
+    private class JmsTransport implements IPacketInTransport {
+        private final boolean enabled = ConfigHelper.getBooleanProperty(PACKETIN_JMS_PROPERTY, true);
+        private final boolean binary = "binary".equalsIgnoreCase(System.getProperty(PACKETIN_FORMAT_PROPERTY, "json"));
         
-        Properties jndiProps = JNDIHelper.getJNDIProperties();
+        // Events are published by the threads of the data packet service; every thread reuses its own writer.
+        private final ThreadLocal<PacketInJsonWriter> jsonWriter = new ThreadLocal<PacketInJsonWriter>() {
+            @Override
+            protected PacketInJsonWriter initialValue() {
+                return new PacketInJsonWriter();
+            }
+        };
         
-        Context ctx = null;
-        try {
-            ctx = new InitialContext(jndiProps);
-        } catch (NamingException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return;
+        private final PacketInHeaderCache headerCache = new PacketInHeaderCache(
+                ConfigHelper.getIntProperty(PACKETIN_HEADER_CACHE_PROPERTY, DEFAULT_PACKETIN_HEADER_CACHE_SIZE));
+        
+        @Override
+        public boolean isActive() {
+            return enabled;
         }
         
-        TopicConnectionFactory topicFactory = null;
-        try {
-            topicFactory = (TopicConnectionFactory) ctx.lookup("TopicConnectionFactory");
-        } catch (NamingException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return;
+        @Override
+        public boolean publish(PacketInEvent event) {
+            RawPacket inPkt = event.getRawPacket();
+            
+            Publishers current = publishers;
+            if (current == null) {
+                log.error("Cannot publish packet-in event. JMS not connected.");
+                return true;
+            }
+            
+            // All events of a node go through the same publisher to keep their order.
+            String nodeId = event.getIngressConnector().getNode().getNodeIDString();
+            List<Publisher> pool = current.pools.get(current.ring.getShard(nodeId));
+            Publisher publisher = pool.get((nodeId.hashCode() & Integer.MAX_VALUE) % pool.size());
+            
+            // Packets of the same flow share the rendered header; only the packet data is encoded per event.
+            // Binary events only need the message properties, so no JSON header fragment is rendered.
+            PacketInJsonWriter writer = jsonWriter.get();
+            PacketInHeader pktHeader = PacketInHeader.fromPacket(event.getIngressConnector(), event.getPacket());
+            PacketInHeaderCache.RenderedHeader header = headerCache.get(pktHeader, binary ? null : writer);
+            
+            // Convert packet to binary or JSON representation.
+            byte[] bytes = null;
+            String jsonStr = null;
+            if (binary) {
+                bytes = pktToBinary(event.getIngressConnector(), inPkt, event.getPacketId());
+            }
+            if (bytes == null) {
+                char[] jsonFragment = header.getJsonFragment();
+                if (jsonFragment == null) {
+                    // Non-OpenFlow node in binary mode.
+                    jsonFragment = writer.writeHeader(pktHeader);
+                }
+                jsonStr = writer.write(jsonFragment, inPkt.getPacketData(), event.getPacketId());
+            }
+                    
+            // Send notification to JMS topic.
+            Message message;
+            try {
+                synchronized (publisher) {
+                    if (!publisher.closed) {
+                        if (bytes != null) {
+                            BytesMessage bytesMessage = publisher.session.createBytesMessage();
+                            bytesMessage.writeBytes(bytes);
+                            message = bytesMessage;
+                        } else {
+                            message = publisher.session.createTextMessage(jsonStr);
+                            log.trace("Publishing the following packet-in event: " + jsonStr);
+                        }
+                        header.setProperties(message);
+                        publisher.publisher.send(message);
+                    } else {
+                        log.error("Cannot publish packet-in event. JMS not connected.");
+                    }
+                }
+            } catch (JMSException e) {
+                log.error("Error while publishing packet-in event: " + e.getMessage());
+                return false;
+            }
+            
+            return true;
         }
+    }
+    
+    /**
+     * A publisher with its own session. Publishers are shared by all threads delivering 
+     * packet-in events; session and publisher are guarded by the lock of this object.
+     */
+    private static class Publisher {
+        final TopicSession session;
+        final TopicPublisher publisher;
+        boolean closed = false;
         
-        try {
-            connection = topicFactory.createTopicConnection();
-        } catch (JMSException e) {
-            log.error("Could not create JMS connection: " + e.getMessage());
-            releaseMQ();
-            return;
+        Publisher(TopicSession session, TopicPublisher publisher) {
+            this.session = session;
+            this.publisher = publisher;
         }
         
-        try {
-            session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
-        } catch (JMSException e) {
-            log.error("Could not create JMS session: " + e.getMessage());
-            releaseMQ();
+        synchronized void close() {
+            closed = true;
+            try {
+                publisher.close();
+            } catch (JMSException e) {}
+            try {
+                session.close();
+            } catch (JMSException e) {}
+        }
+    }
+    
+    /**
+     * The publishers of all shards: one publisher per topic connection of a shard.
+     */
+    private static class Publishers {
+        final ShardRing ring;
+        final List<List<Publisher>> pools;
+        
+        Publishers(ShardRing ring, List<List<Publisher>> pools) {
+            this.ring = ring;
+            this.pools = pools;
+        }
+    }
+    
+    // Rebuilt on reconnect; null if not connected.
+    private volatile Publishers publishers = null;
+    private boolean destroyed = false;
+    
+    // The built-in JMS transport and all transports registered as OSGi service.
+    private final List<IPacketInTransport> transports = new CopyOnWriteArrayList<IPacketInTransport>();
+    
+    private IConnectionManager connectionManager = null;
+    private IDataPacketService dataPacketService = null;
+    private IPacketBufferCache packetBufferCache = null;
+    private IRuleTable ruleTable = null;
+    private IFlowProgrammer flowProgrammer = null;
+    private IInventoryCache inventoryCache = null;
+       
+    /**
+     * Called by the dependency manager if all required 
+     * dependencies are satisfied.
+     */
+    public void init() {
+        transports.add(0, new JmsTransport());
+        
+        // The publishers are set up as soon as the connection manager is connected.
+        connectionManager.addListener(this);
+    }
+    
+    /**
+     * Called by the dependency manager before the component is removed.
+     */
+    public synchronized void destroy() {
+        connectionManager.removeListener(this);
+        destroyed = true;
+        releaseMQ();
+    }
+    
+    /**
+     * Initialization of JMS (publishers and their sessions for every shard).
+     */
+    @Override
+    public synchronized void connectionEstablished(ConnectionContext ctx) throws JMSException, NamingException {
+        if (destroyed) {
             return;
         }
         
+        log.trace("Setting up JMS ...");
+        
         // Get the JNDI object name of the packet-in topic object from the OpenDaylight configuration.
         String topicName = System.getProperty(PACKETIN_TOPIC_PROPERTY, DEFAULT_PACKETIN_TOPIC_NAME);
         log.info("Using the following topic for packet-in events: " + topicName);
-        try {
-            packetinTopic = (Topic) ctx.lookup(topicName);
-        } catch (NamingException e) {
-            log.error("Could not resolve topic object: " + e.getMessage());
-            releaseMQ();
-            return;
-        }
+        boolean persistent = ConfigHelper.getBooleanProperty(PACKETIN_PERSISTENT_PROPERTY, false);
         
+        List<String> shardNames = new ArrayList<String>(ctx.getShardCount());
+        List<List<Publisher>> pools = new ArrayList<List<Publisher>>(ctx.getShardCount());
         try {
-            publisher = session.createPublisher(packetinTopic);
+            for (int shard = 0; shard < ctx.getShardCount(); shard++) {
+                shardNames.add(ctx.getShardName(shard));
+                Topic packetinTopic = (Topic) ctx.lookup(shard, topicName);
+                
+                List<Publisher> pool = new ArrayList<Publisher>();
+                pools.add(pool);
+                for (TopicConnection connection : ctx.getTopicConnections(shard)) {
+                    TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+                    TopicPublisher publisher = null;
+                    try {
+                        publisher = session.createPublisher(packetinTopic);
+                        if (!persistent) {
+                            publisher.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+                        }
+                    } catch (JMSException e) {
+                        try {
+                            session.close();
+                        } catch (JMSException e2) {}
+                        throw e;
+                    }
+                    pool.add(new Publisher(session, publisher));
+                }
+            }
         } catch (JMSException e) {
-            log.error(e.getMessage());
-            releaseMQ();
-            return;
+            close(pools);
+            throw e;
+        } catch (NamingException e) {
+            close(pools);
+            throw e;
         }
         
+        publishers = new Publishers(new ShardRing(shardNames), pools);
+        
         log.trace("JMS setup finished successfully");
     }
     
+    @Override
+    public synchronized void connectionLost() {
+        releaseMQ();
+    }
+    
     /**
      * Releases JMS-related objects.
      */
     private void releaseMQ() {
-        if (publisher != null) {
-            try {
+        Publishers current = publishers;
+        publishers = null;
+        if (current != null) {
+            close(current.pools);
+        }
+    }
+    
+    private void close(List<List<Publisher>> pools) {
+        for (List<Publisher> pool : pools) {
+            for (Publisher publisher : pool) {
                 publisher.close();
-            } catch (JMSException e) {}
+            }
         }
+    }
+    
+    /**
+     * Callback invoked by OpenDaylight when a packet-in transport (e.g., the DirectBus) is bound.
+     */
+    void addTransport(IPacketInTransport s) {
+        log.trace("Added PacketInTransport.");
         
-        if (session != null) {
-            try {
-                session.close();
-            } catch (JMSException e) {}
-        }
+        transports.add(s);
+    }
+    
+    /**
+     * Callback invoked by OpenDaylight when a packet-in transport is unbound.
+     */
+    void removeTransport(IPacketInTransport s) {
+        log.trace("Removed PacketInTransport.");
+        
+        transports.remove(s);
+    }
+    
+    /**
+     * Callback invoked by OpenDaylight when ConnectionManager is bound.
+     */
+    void setConnectionManager(IConnectionManager s) {
+        log.trace("Set ConnectionManager.");
+        
+        connectionManager = s;
+    }
+    
+    /**
+     * Callback invoked by OpenDaylight when ConnectionManager is unbound.
+     */
+    void unsetConnectionManager(IConnectionManager s) {
+        log.trace("Removed ConnectionManager.");
         
-        if (connection != null) {
-           try {
-            connection.close();
-           } catch (JMSException e) {}
+        if (connectionManager == s) {
+            connectionManager = null;
         }
     }
     
@@ -182,304 +375,207 @@ public class PacketHandler implements IListenDataPacket {
     }
     
     /**
-     * Converts an IPv4 packet to JSON representation.
-     * 
-     * @param ipv4 the IPv4 packet
-     * @param json the JSON object to which the information will be added
+     * Callback invoked by OpenDaylight when PacketBufferCache is bound.
      */
-    private void ipv4ToJSON(IPv4 ipv4, JSONObject json) {
-        json.put(PacketInAttributes.Keys.NW_SRC.toJSON(), Netutil.ipv4ToStr(ipv4.getSourceAddress()));
-        json.put(PacketInAttributes.Keys.NW_DST.toJSON(), Netutil.ipv4ToStr(ipv4.getDestinationAddress()));
-        json.put(PacketInAttributes.Keys.PROTOCOL.toJSON(), (short) ipv4.getProtocol());
+    void setPacketBufferCache(IPacketBufferCache s) {
+        log.trace("Set PacketBufferCache.");
+        
+        packetBufferCache = s;
     }
     
     /**
-     * Adds message properties according to IPv4 header fields.
-     * 
-     * @param ipv4 the IPv4 packet
-     * @param msg the message whose properties are set
+     * Callback invoked by OpenDaylight when PacketBufferCache is unbound.
      */
-    private void ipv4ToProperties(IPv4 ipv4, Message msg) {
-        try {
-            msg.setStringProperty(MessageFilterAttributes.Keys.NW_SRC.toFilterName(), Netutil.ipv4ToStr(ipv4.getSourceAddress()));
-            msg.setStringProperty(MessageFilterAttributes.Keys.NW_SRC_BINARY.toFilterName(), Netutil.ipv4ToBinaryStr(ipv4.getSourceAddress()));
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
+    void unsetPacketBufferCache(IPacketBufferCache s) {
+        log.trace("Removed PacketBufferCache.");
         
-        try {
-            msg.setStringProperty(MessageFilterAttributes.Keys.NW_DST.toFilterName(), Netutil.ipv4ToStr(ipv4.getDestinationAddress()));
-            msg.setStringProperty(MessageFilterAttributes.Keys.NW_DST_BINARY.toFilterName(), Netutil.ipv4ToBinaryStr(ipv4.getDestinationAddress()));
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
-        
-        try {
-            msg.setShortProperty(MessageFilterAttributes.Keys.NW_PROTOCOL.toFilterName(), (short) ipv4.getProtocol());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
+        if (packetBufferCache == s) {
+            packetBufferCache = null;
         }
     }
     
     /**
-     * Converts an Ethernet frame to JSON representation.
-     * 
-     * @param ethernet the Ethernet frame
-     * @param json the JSON object to which the information will be added
+     * Callback invoked by OpenDaylight when RuleTable is bound.
      */
-    private void ethernetToJSON(Ethernet ethernet, JSONObject json) {
-        json.put(PacketInAttributes.Keys.DL_SRC.toJSON(), Netutil.macToStr(ethernet.getSourceMACAddress()));
-        json.put(PacketInAttributes.Keys.DL_DST.toJSON(), Netutil.macToStr(ethernet.getDestinationMACAddress()));
-        json.put(PacketInAttributes.Keys.ETHERTYPE.toJSON(), ethernet.getEtherType());
+    void setRuleTable(IRuleTable s) {
+        log.trace("Set RuleTable.");
+        
+        ruleTable = s;
     }
     
     /**
-     * Adds message properties according to Ethernet header fields.
-     * 
-     * @param ethernet the Ethernet frame
-     * @param msg the message object to which the information will be added
+     * Callback invoked by OpenDaylight when RuleTable is unbound.
      */
-    private void ethernetToProperties(Ethernet ethernet, Message msg) {
-        try {
-            msg.setStringProperty(MessageFilterAttributes.Keys.DL_SRC.toFilterName(), Netutil.macToStr(ethernet.getSourceMACAddress()));
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
+    void unsetRuleTable(IRuleTable s) {
+        log.trace("Removed RuleTable.");
         
-        try {
-            msg.setStringProperty(MessageFilterAttributes.Keys.DL_DST.toFilterName(), Netutil.macToStr(ethernet.getDestinationMACAddress()));
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
-        
-        try {
-            msg.setShortProperty(MessageFilterAttributes.Keys.DL_TYPE.toFilterName(), ethernet.getEtherType());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
+        if (ruleTable == s) {
+            ruleTable = null;
         }
     }
     
     /**
-     * Converts an IEEE802.1q frame to JSON representation.
-     * 
-     * @param ethernet the IEEE802.q frame
-     * @param json the JSON object to which the information will be added
+     * Callback invoked by OpenDaylight when FlowProgrammer is bound.
      */
-    private void ieee8021qToJSON(IEEE8021Q ieee8021q, JSONObject json) {
-        json.put(PacketInAttributes.Keys.DL_VLAN.toJSON(), ieee8021q.getVid());
-        json.put(PacketInAttributes.Keys.DL_VLAN_PRIORITY.toJSON(), ieee8021q.getPcp());
+    void setFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Set FlowProgrammer.");
+        
+        flowProgrammer = s;
     }
     
     /**
-     * Adds properties to a message according to IEEE802.1q frame information.
-     * 
-     * @param ieee8021q the IEEE802.q frame
-     * @param json the JSON object to which the information will be added
+     * Callback invoked by OpenDaylight when FlowProgrammer is unbound.
      */
-    private void ieee8021qToProperties(IEEE8021Q ieee8021q, Message msg) {
-        try {
-            msg.setShortProperty(MessageFilterAttributes.Keys.DL_VLAN.toFilterName(), (short) ieee8021q.getVid());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
+    void unsetFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Removed FlowProgrammer.");
         
-        try {
-            msg.setByteProperty(MessageFilterAttributes.Keys.DL_VLAN_PR.toFilterName(), ieee8021q.getPcp());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
+        if (flowProgrammer == s) {
+            flowProgrammer = null;
         }
     }
     
     /**
-     * Converts a TCP datagram to JSON representation.
-     * 
-     * @param tcp the TCP datagram
-     * @param json the JSON object to which the information will be added
+     * Callback invoked by OpenDaylight when InventoryCache is bound.
      */
-    private void tcpToJSON(TCP tcp, JSONObject json) {
-        json.put(PacketInAttributes.Keys.TP_SRC.toJSON(), tcp.getSourcePort());
-        json.put(PacketInAttributes.Keys.TP_DST.toJSON(), tcp.getDestinationPort());
+    void setInventoryCache(IInventoryCache s) {
+        log.trace("Set InventoryCache.");
+        
+        inventoryCache = s;
     }
     
     /**
-     * Adds properties to a message according to TCP datagram header fields.
-     * 
-     * @param tcp the TCP datagram
-     * @param msg the message to which the information will be added
+     * Callback invoked by OpenDaylight when InventoryCache is unbound.
      */
-    private void tcpToProperties(TCP tcp, Message msg) {
-        try {
-            msg.setShortProperty(MessageFilterAttributes.Keys.TP_SRC.toFilterName(), tcp.getSourcePort());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
+    void unsetInventoryCache(IInventoryCache s) {
+        log.trace("Removed InventoryCache.");
         
-        try {
-            msg.setShortProperty(MessageFilterAttributes.Keys.TP_DST.toFilterName(), tcp.getDestinationPort());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
+        if (inventoryCache == s) {
+            inventoryCache = null;
         }
     }
     
     /**
-     * Converts a UDP datagram to JSON representation.
-     * 
-     * @param udp the UDP datagram
-     * @param json the JSON object to which the information will be added
-     */
-    private void udpToJSON(UDP udp, JSONObject json) {
-        json.put(PacketInAttributes.Keys.TP_SRC.toJSON(), udp.getSourcePort());
-        json.put(PacketInAttributes.Keys.TP_DST.toJSON(), udp.getDestinationPort());
-    }
-    
-    /**
-     * Sets message properties according to UDP datagram header fields.
+     * Converts a packet to binary representation (cf. class BinaryFormat).
      * 
-     * @param udp the UDP datagram
-     * @param msg the message to which the information will be added
+     * @param ingressConnector the connector that received the packet
+     * @param rawPkt the packet
+     * @param packetId the id of the buffered packet or IPacketBufferCache.INVALID_PACKET_ID
+     * @return binary representation or null if the node is not an OpenFlow node
      */
-    private void udpToProperties(UDP udp, Message msg) {
-        try {
-            msg.setShortProperty(MessageFilterAttributes.Keys.TP_SRC.toFilterName(), udp.getSourcePort());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
+    private byte[] pktToBinary(NodeConnector ingressConnector, RawPacket rawPkt, long packetId) {
+        Object dpid = ingressConnector.getNode().getID();
+        Object port = ingressConnector.getID();
+        if (!(dpid instanceof Long) || !(port instanceof Short)) {
+            return null;
         }
         
-        try {
-            msg.setShortProperty(MessageFilterAttributes.Keys.TP_DST.toFilterName(), udp.getDestinationPort());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
+        return PacketInEncoder.encode((Long) dpid, ((Short) port) & 0xffff, packetId, rawPkt.getPacketData());
     }
     
     /**
-     * Converts a packet to JSON representation.
+     * Applies a reactive rule to a packet, i.e., programs the flow of the rule on the node that received 
+     * the packet and sends the packet to the targets of the rule.
      * 
-     * @param pkt the packet to be converted
-     * @return JSON representation.
+     * @param rule the rule matching the packet
+     * @param rawPkt the packet
+     * @return true if the rule was applied successfully
      */
-    private JSONObject pktToJSON(RawPacket rawPkt) {
-        log.trace("Received packet-in event.");
-        
-        JSONObject json = new JSONObject();
+    private boolean applyRule(Rule rule, RawPacket rawPkt) {
+        Node node = rawPkt.getIncomingNodeConnector().getNode();
         
-        // Add incoming node
-        
-        // The connector, the packet came from ("port")
-        NodeConnector ingressConnector = rawPkt.getIncomingNodeConnector();
-        // The node that received the packet ("switch")
-        Node node = ingressConnector.getNode();
-
-        JSONObject nodeJson = new JSONObject();
-        nodeJson.put(NodeAttributes.Keys.ID.toJSON(), node.getNodeIDString());
-        nodeJson.put(NodeAttributes.Keys.TYPE.toJSON(), node.getType());
-        json.put(PacketInAttributes.Keys.NODE.toJSON(), nodeJson);
-        
-        // Add inport
-        
-        json.put(PacketInAttributes.Keys.INGRESS_PORT.toJSON(), ingressConnector.getNodeConnectorIDString());
-        
-        // Add raw packet data
-        
-        // Use DataPacketService to decode the packet.
-        Packet pkt = dataPacketService.decodeDataPacket(rawPkt);
-
-        while (pkt != null) {
-            if (pkt instanceof Ethernet) {
-                Ethernet ethernet = (Ethernet) pkt;
-                ethernetToJSON(ethernet, json);
-            } else if(pkt instanceof IEEE8021Q) {
-                IEEE8021Q ieee802q = (IEEE8021Q) pkt;
-                ieee8021qToJSON(ieee802q, json);
-            } else if (pkt instanceof IPv4) {
-                IPv4 ipv4 = (IPv4) pkt;
-                ipv4ToJSON(ipv4, json);
-            } else if (pkt instanceof TCP) {
-                TCP tcp = (TCP) pkt;
-                tcpToJSON(tcp, json);
-            } else if (pkt instanceof UDP) {
-                UDP udp = (UDP) pkt;
-                udpToJSON(udp, json);
-            }
+        if (rule.getFlow() != null) {
+            // One flow per rule and node.
+            String flowName = rule.getName() + "@" + node.getNodeIDString();
             
-            pkt = pkt.getPayload();
+            // Packets arriving before the switch has installed the flow (or sent to the controller by 
+            // the flow itself) must not program the flow again.
+            if (!flowProgrammer.isProgrammed(flowName, node, rule.getFlow())) {
+                JSONObject nodeJson = new JSONObject();
+                nodeJson.put(NodeAttributes.Keys.ID.toJSON(), node.getNodeIDString());
+                nodeJson.put(NodeAttributes.Keys.TYPE.toJSON(), node.getType());
+                
+                JSONObject request = new JSONObject();
+                request.put(FlowProgrammerRequestAttributes.Keys.COMMAND.toJSON(), 
+                        FlowProgrammerRequestAttributes.CommandValues.ADD.toJSON());
+                request.put(FlowProgrammerRequestAttributes.Keys.FLOW_NAME.toJSON(), flowName);
+                request.put(FlowProgrammerRequestAttributes.Keys.NODE.toJSON(), nodeJson);
+                request.put(FlowProgrammerRequestAttributes.Keys.FLOW.toJSON(), rule.getFlow());
+                request.put(FlowProgrammerRequestAttributes.Keys.EVICTABLE.toJSON(), rule.isEvictable());
+                
+                if (!flowProgrammer.handleRequest(request)) {
+                    log.error("Could not program flow of rule " + rule.getName());
+                    return false;
+                }
+            }
         }
         
-        json.put(PacketInAttributes.Keys.PACKET.toJSON(), DatatypeConverter.printBase64Binary(rawPkt.getPacketData()));
+        if (rule.getPacketOut() != null) {
+            PacketOut packetOut = new PacketOut(inventoryCache, packetBufferCache);
+            packetOut.addPacket(rawPkt.getPacketData());
+            if (!packetOut.parseTargets(rule.getPacketOut(), node)) {
+                log.error("Invalid packet-out targets of rule " + rule.getName());
+                return false;
+            }
+            packetOut.transmit(dataPacketService);
+        }
         
-        return json;
+        return true;
     }
     
     /**
-     * Sets the properties of the message according to the message header fields for content-based filtering.
+     * Buffers a packet, so packet forwarding requests can refer to it by id.
      * 
-     * @param msg the message whose properties are set
-     * @param pkt the packet from where the message properties are derived
+     * @param rawPkt the packet
+     * @return the packet id or IPacketBufferCache.INVALID_PACKET_ID if the packet could not be buffered
      */
-    private void setMsgProperties(Message msg, RawPacket rawPkt) {
-        // The connector, the packet came from ("port")
-        NodeConnector ingressConnector = rawPkt.getIncomingNodeConnector();
-        // The node that received the packet ("switch")
-        Node node = ingressConnector.getNode();
-
-        try {
-            msg.setStringProperty(MessageFilterAttributes.Keys.NODE_ID.toFilterName(), node.getNodeIDString());
-            msg.setStringProperty(MessageFilterAttributes.Keys.NODE_TYPE.toFilterName(), node.getType());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
-        }
-        
-        try {
-            msg.setStringProperty(MessageFilterAttributes.Keys.INPORT.toFilterName(), ingressConnector.getNodeConnectorIDString());
-        } catch (JMSException e) {
-            log.error(e.getMessage());
+    private long bufferPacket(RawPacket rawPkt) {
+        IPacketBufferCache cache = packetBufferCache;
+        if (cache == null) {
+            return IPacketBufferCache.INVALID_PACKET_ID;
         }
         
-        // Use DataPacketService to decode the packet.
-        Packet pkt = dataPacketService.decodeDataPacket(rawPkt);
-
-        while (pkt != null) {
-            if (pkt instanceof Ethernet) {
-                Ethernet ethernet = (Ethernet) pkt;
-                ethernetToProperties(ethernet, msg);
-            } else if (pkt instanceof IEEE8021Q) {
-                IEEE8021Q ieee802q = (IEEE8021Q) pkt;
-                ieee8021qToProperties(ieee802q, msg);
-            } else if (pkt instanceof IPv4) {
-                IPv4 ipv4 = (IPv4) pkt;
-                ipv4ToProperties(ipv4, msg);
-            } else if (pkt instanceof TCP) {
-                TCP tcp = (TCP) pkt;
-                tcpToProperties(tcp, msg);
-            } else if (pkt instanceof UDP) {
-                UDP udp = (UDP) pkt;
-                udpToProperties(udp, msg);
-            }
-            
-            pkt = pkt.getPayload();
-        }
+        return cache.put(rawPkt.getPacketData());
     }
     
     @Override
     public PacketResult receiveDataPacket(RawPacket inPkt) {
         log.trace("Received data packet.");
-
-        // Convert packet to JSON representation.
-        String jsonStr = pktToJSON(inPkt).toString();
-                
-        // Send notification to JMS topic.
-        TextMessage message;
-        try {
-            if (session != null && publisher != null) {
-                message = session.createTextMessage(jsonStr);
-                setMsgProperties(message, inPkt);
-                log.trace("Publishing the following packet-in event: " + jsonStr);
-                publisher.send(message);
-            } else {
-                log.error("Cannot publish packet-in event. JMS not setup.");
+        
+        Packet pkt = null;
+        
+        // Handle packets matching a reactive rule inside the bundle.
+        IRuleTable rules = ruleTable;
+        if (rules != null && !rules.isEmpty()) {
+            pkt = dataPacketService.decodeDataPacket(inPkt);
+            Rule rule = rules.lookup(PacketFields.fromPacket(inPkt.getIncomingNodeConnector(), pkt));
+            if (rule != null) {
+                log.trace("Packet matches rule " + rule.getName());
+                if (applyRule(rule, inPkt)) {
+                    return PacketResult.CONSUME;
+                }
             }
-        } catch (JMSException e) {
-            log.error("Error while publishing packet-in event: " + e.getMessage());
+        }
+        
+        PacketInEvent event = null;
+        boolean success = true;
+        for (IPacketInTransport transport : transports) {
+            if (!transport.isActive()) {
+                continue;
+            }
+            
+            if (event == null) {
+                if (pkt == null) {
+                    pkt = dataPacketService.decodeDataPacket(inPkt);
+                }
+                event = new PacketInEvent(inPkt, pkt, bufferPacket(inPkt));
+            }
+            
+            if (!transport.publish(event)) {
+                success = false;
+            }
+        }
+        
+        if (!success) {
             return PacketResult.IGNORED;
         }
         
@@ -0,0 +1,70 @@
+/**
+ * PacketInEvent
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketInEvent is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.opendaylight.controller.sal.packet.Packet;
+import org.opendaylight.controller.sal.packet.RawPacket;
+
+/**
+ * A packet-in event as handed to packet-in transports.
+ * 
+ * The raw packet and the decoded packet are passed by reference and shared by all transports
+ * and listeners. They must not be modified.
+ * 
+ * @author Frank Duerr
+ */
+public class PacketInEvent {
+    private final RawPacket rawPacket;
+    private final Packet packet;
+    private final long packetId;
+    
+    /**
+     * Constructor.
+     * 
+     * @param rawPacket the packet as received from OpenDaylight
+     * @param packet the decoded packet
+     * @param packetId the id of the buffered packet or IPacketBufferCache.INVALID_PACKET_ID
+     */
+    public PacketInEvent(RawPacket rawPacket, Packet packet, long packetId) {
+        this.rawPacket = rawPacket;
+        this.packet = packet;
+        this.packetId = packetId;
+    }
+    
+    /**
+     * @return the connector (port) that received the packet
+     */
+    public NodeConnector getIngressConnector() {
+        return rawPacket.getIncomingNodeConnector();
+    }
+    
+    /**
+     * @return the packet as received from OpenDaylight (including the raw frame)
+     */
+    public RawPacket getRawPacket() {
+        return rawPacket;
+    }
+    
+    /**
+     * @return the decoded packet (header records)
+     */
+    public Packet getPacket() {
+        return packet;
+    }
+    
+    /**
+     * @return the id of the buffered packet to be used in packet forwarding requests, 
+     * or IPacketBufferCache.INVALID_PACKET_ID if the packet is not buffered
+     */
+    public long getPacketId() {
+        return packetId;
+    }
+}
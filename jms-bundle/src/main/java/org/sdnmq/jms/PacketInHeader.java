@@ -0,0 +1,214 @@
+/**
+ * PacketInHeader
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketInHeader is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.opendaylight.controller.sal.packet.Ethernet;
+import org.opendaylight.controller.sal.packet.IEEE8021Q;
+import org.opendaylight.controller.sal.packet.IPv4;
+import org.opendaylight.controller.sal.packet.Packet;
+import org.opendaylight.controller.sal.packet.TCP;
+import org.opendaylight.controller.sal.packet.UDP;
+
+/**
+ * The part of a packet-in event that is shared by all packets of a flow: the ingress connector 
+ * and the L2 to L4 header fields. Headers are compared by value, so they can be used as keys 
+ * of the header cache (cf. class PacketInHeaderCache).
+ * 
+ * If a packet contains a layer more than once (e.g., stacked VLAN tags), the innermost 
+ * header determines the fields.
+ * 
+ * @author Frank Duerr
+ */
+public class PacketInHeader {
+    private static final int ETHERNET = 1;
+    private static final int VLAN = 2;
+    private static final int IPV4 = 4;
+    private static final int TRANSPORT = 8;
+    
+    private final NodeConnector ingressConnector;
+    private int layers = 0;
+    private long dlSrc;
+    private long dlDst;
+    private short etherType;
+    private short vlan;
+    private byte vlanPriority;
+    private int nwSrc;
+    private int nwDst;
+    private byte protocol;
+    private short tpSrc;
+    private short tpDst;
+    private int hash;
+    
+    private PacketInHeader(NodeConnector ingressConnector) {
+        this.ingressConnector = ingressConnector;
+    }
+    
+    /**
+     * Extracts the header of a packet.
+     * 
+     * @param ingressConnector the connector that received the packet
+     * @param pkt the decoded packet (may be null)
+     * @return the header
+     */
+    public static PacketInHeader fromPacket(NodeConnector ingressConnector, Packet pkt) {
+        PacketInHeader header = new PacketInHeader(ingressConnector);
+        
+        while (pkt != null) {
+            if (pkt instanceof Ethernet) {
+                Ethernet ethernet = (Ethernet) pkt;
+                header.layers |= ETHERNET;
+                header.dlSrc = macToLong(ethernet.getSourceMACAddress());
+                header.dlDst = macToLong(ethernet.getDestinationMACAddress());
+                header.etherType = ethernet.getEtherType();
+            } else if (pkt instanceof IEEE8021Q) {
+                IEEE8021Q ieee8021q = (IEEE8021Q) pkt;
+                header.layers |= VLAN;
+                header.vlan = ieee8021q.getVid();
+                header.vlanPriority = ieee8021q.getPcp();
+            } else if (pkt instanceof IPv4) {
+                IPv4 ipv4 = (IPv4) pkt;
+                header.layers |= IPV4;
+                header.nwSrc = ipv4.getSourceAddress();
+                header.nwDst = ipv4.getDestinationAddress();
+                header.protocol = ipv4.getProtocol();
+            } else if (pkt instanceof TCP) {
+                TCP tcp = (TCP) pkt;
+                header.layers |= TRANSPORT;
+                header.tpSrc = tcp.getSourcePort();
+                header.tpDst = tcp.getDestinationPort();
+            } else if (pkt instanceof UDP) {
+                UDP udp = (UDP) pkt;
+                header.layers |= TRANSPORT;
+                header.tpSrc = udp.getSourcePort();
+                header.tpDst = udp.getDestinationPort();
+            }
+            
+            pkt = pkt.getPayload();
+        }
+        
+        int h = ingressConnector.hashCode();
+        h = 31*h + header.layers;
+        h = 31*h + (int) (header.dlSrc ^ (header.dlSrc >>> 32));
+        h = 31*h + (int) (header.dlDst ^ (header.dlDst >>> 32));
+        h = 31*h + header.etherType;
+        h = 31*h + header.vlan;
+        h = 31*h + header.vlanPriority;
+        h = 31*h + header.nwSrc;
+        h = 31*h + header.nwDst;
+        h = 31*h + header.protocol;
+        h = 31*h + header.tpSrc;
+        h = 31*h + header.tpDst;
+        header.hash = h;
+        
+        return header;
+    }
+    
+    private static long macToLong(byte[] mac) {
+        long value = 0;
+        for (byte b : mac) {
+            value = (value << 8) | (b & 0xff);
+        }
+        
+        return value;
+    }
+    
+    public NodeConnector getIngressConnector() {
+        return ingressConnector;
+    }
+    
+    public boolean hasEthernet() {
+        return (layers & ETHERNET) != 0;
+    }
+    
+    public boolean hasVlan() {
+        return (layers & VLAN) != 0;
+    }
+    
+    public boolean hasIPv4() {
+        return (layers & IPV4) != 0;
+    }
+    
+    /**
+     * @return true if the packet contains a TCP or UDP header
+     */
+    public boolean hasTransport() {
+        return (layers & TRANSPORT) != 0;
+    }
+    
+    /**
+     * @return the source MAC address as 48 bit integer
+     */
+    public long getDlSrc() {
+        return dlSrc;
+    }
+    
+    /**
+     * @return the destination MAC address as 48 bit integer
+     */
+    public long getDlDst() {
+        return dlDst;
+    }
+    
+    public short getEtherType() {
+        return etherType;
+    }
+    
+    public short getVlan() {
+        return vlan;
+    }
+    
+    public byte getVlanPriority() {
+        return vlanPriority;
+    }
+    
+    public int getNwSrc() {
+        return nwSrc;
+    }
+    
+    public int getNwDst() {
+        return nwDst;
+    }
+    
+    public byte getProtocol() {
+        return protocol;
+    }
+    
+    public short getTpSrc() {
+        return tpSrc;
+    }
+    
+    public short getTpDst() {
+        return tpDst;
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PacketInHeader)) {
+            return false;
+        }
+        
+        PacketInHeader other = (PacketInHeader) obj;
+        return hash == other.hash && layers == other.layers && 
+                dlSrc == other.dlSrc && dlDst == other.dlDst && etherType == other.etherType && 
+                vlan == other.vlan && vlanPriority == other.vlanPriority && 
+                nwSrc == other.nwSrc && nwDst == other.nwDst && protocol == other.protocol && 
+                tpSrc == other.tpSrc && tpDst == other.tpDst && 
+                ingressConnector.equals(other.ingressConnector);
+    }
+}
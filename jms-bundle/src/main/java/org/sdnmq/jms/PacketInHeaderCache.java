@@ -0,0 +1,176 @@
+/**
+ * PacketInHeaderCache
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketInHeaderCache is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of rendered packet-in headers. Packet-ins of the same flow share the 
+ * same header (cf. class PacketInHeader), so the JSON header fragment and the message properties 
+ * for content-based filtering are only rendered for the first packet of a flow. For further 
+ * packets, only the packet data needs to be encoded.
+ * 
+ * The cache is thread-safe.
+ * 
+ * @author Frank Duerr
+ */
+public class PacketInHeaderCache {
+    private static final Logger log = LoggerFactory.getLogger(PacketInHeaderCache.class);
+    
+    /**
+     * A rendered header: the JSON header fragment and the message properties.
+     */
+    public static class RenderedHeader {
+        private final char[] jsonFragment;
+        private final String[] propertyNames;
+        private final Object[] propertyValues;
+        
+        private RenderedHeader(char[] jsonFragment, List<String> propertyNames, List<Object> propertyValues) {
+            this.jsonFragment = jsonFragment;
+            this.propertyNames = propertyNames.toArray(new String[propertyNames.size()]);
+            this.propertyValues = propertyValues.toArray();
+        }
+        
+        /**
+         * @return the JSON header fragment (cf. PacketInJsonWriter.writeHeader()) or null if the header 
+         * was rendered without JSON fragment; must not be modified
+         */
+        public char[] getJsonFragment() {
+            return jsonFragment;
+        }
+        
+        /**
+         * Sets the properties of a message for content-based filtering.
+         * 
+         * @param msg the message whose properties are set
+         */
+        public void setProperties(Message msg) {
+            for (int i = 0; i < propertyNames.length; i++) {
+                Object value = propertyValues[i];
+                try {
+                    if (value instanceof Short) {
+                        msg.setShortProperty(propertyNames[i], (Short) value);
+                    } else if (value instanceof Byte) {
+                        msg.setByteProperty(propertyNames[i], (Byte) value);
+                    } else {
+                        msg.setStringProperty(propertyNames[i], (String) value);
+                    }
+                } catch (JMSException e) {
+                    log.error(e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private final int maxSize;
+    
+    // Guarded by this.
+    private final Map<PacketInHeader, RenderedHeader> headers;
+    
+    /**
+     * Constructor.
+     * 
+     * @param maxSize the maximum number of cached headers (0 disables caching)
+     */
+    public PacketInHeaderCache(final int maxSize) {
+        this.maxSize = maxSize;
+        headers = new LinkedHashMap<PacketInHeader, RenderedHeader>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PacketInHeader, RenderedHeader> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * Gets the rendered header, rendering it if it is not cached.
+     * 
+     * @param header the header
+     * @param writer the writer of the calling thread used to render the JSON header fragment, or null if 
+     * only the message properties are required (e.g., for binary events)
+     * @return the rendered header
+     */
+    public RenderedHeader get(PacketInHeader header, PacketInJsonWriter writer) {
+        if (maxSize <= 0) {
+            return render(header, writer);
+        }
+        
+        RenderedHeader rendered;
+        synchronized (this) {
+            rendered = headers.get(header);
+        }
+        if (rendered != null) {
+            return rendered;
+        }
+        
+        // Rendered outside of the lock; if two threads render the same header, both results are equal.
+        rendered = render(header, writer);
+        synchronized (this) {
+            headers.put(header, rendered);
+        }
+        
+        return rendered;
+    }
+    
+    private RenderedHeader render(PacketInHeader header, PacketInJsonWriter writer) {
+        List<String> names = new ArrayList<String>();
+        List<Object> values = new ArrayList<Object>();
+        
+        NodeConnector ingressConnector = header.getIngressConnector();
+        Node node = ingressConnector.getNode();
+        add(names, values, MessageFilterAttributes.Keys.NODE_ID, node.getNodeIDString());
+        add(names, values, MessageFilterAttributes.Keys.NODE_TYPE, node.getType());
+        add(names, values, MessageFilterAttributes.Keys.INPORT, ingressConnector.getNodeConnectorIDString());
+        
+        if (header.hasEthernet()) {
+            add(names, values, MessageFilterAttributes.Keys.DL_SRC, Netutil.macToStr(header.getDlSrc()));
+            add(names, values, MessageFilterAttributes.Keys.DL_DST, Netutil.macToStr(header.getDlDst()));
+            add(names, values, MessageFilterAttributes.Keys.DL_TYPE, header.getEtherType());
+        }
+        
+        if (header.hasVlan()) {
+            add(names, values, MessageFilterAttributes.Keys.DL_VLAN, header.getVlan());
+            add(names, values, MessageFilterAttributes.Keys.DL_VLAN_PR, header.getVlanPriority());
+        }
+        
+        if (header.hasIPv4()) {
+            add(names, values, MessageFilterAttributes.Keys.NW_SRC, Netutil.ipv4ToStr(header.getNwSrc()));
+            add(names, values, MessageFilterAttributes.Keys.NW_SRC_BINARY, Netutil.ipv4ToBinaryStr(header.getNwSrc()));
+            add(names, values, MessageFilterAttributes.Keys.NW_DST, Netutil.ipv4ToStr(header.getNwDst()));
+            add(names, values, MessageFilterAttributes.Keys.NW_DST_BINARY, Netutil.ipv4ToBinaryStr(header.getNwDst()));
+            add(names, values, MessageFilterAttributes.Keys.NW_PROTOCOL, (short) header.getProtocol());
+        }
+        
+        if (header.hasTransport()) {
+            add(names, values, MessageFilterAttributes.Keys.TP_SRC, header.getTpSrc());
+            add(names, values, MessageFilterAttributes.Keys.TP_DST, header.getTpDst());
+        }
+        
+        return new RenderedHeader(writer != null ? writer.writeHeader(header) : null, names, values);
+    }
+    
+    private static void add(List<String> names, List<Object> values, MessageFilterAttributes.Keys key, Object value) {
+        names.add(key.toFilterName());
+        values.add(value);
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * PacketInJsonWriter
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketInJsonWriter is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.sdnmq.jms.json.NodeAttributes;
+import org.sdnmq.jms.json.PacketInAttributes;
+
+/**
+ * Writer of packet-in events in JSON representation (cf. class PacketInAttributes). 
+ * 
+ * An event is written in two steps: the header fragment, which is the same for all packets 
+ * of a flow, and the event consisting of the header fragment and the packet data.
+ * 
+ * The event is written directly into a character buffer, which is reused for every event, 
+ * instead of building a JSONObject tree. Strings are quoted and numbers are formatted 
+ * as by org.json, so the result is equivalent to the JSONObject representation. 
+ * 
+ * A writer is not thread-safe; use one writer per thread.
+ * 
+ * @author Frank Duerr
+ */
+public class PacketInJsonWriter {
+    private static final char[] HEX_LOWER = "0123456789abcdef".toCharArray();
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    
+    // Key literals including quotes and colon.
+    private static final char[] NODE_KEY = key(PacketInAttributes.Keys.NODE.toJSON());
+    private static final char[] NODE_ID_KEY = key(NodeAttributes.Keys.ID.toJSON());
+    private static final char[] NODE_TYPE_KEY = key(NodeAttributes.Keys.TYPE.toJSON());
+    private static final char[] INGRESS_PORT_KEY = key(PacketInAttributes.Keys.INGRESS_PORT.toJSON());
+    private static final char[] DL_SRC_KEY = key(PacketInAttributes.Keys.DL_SRC.toJSON());
+    private static final char[] DL_DST_KEY = key(PacketInAttributes.Keys.DL_DST.toJSON());
+    private static final char[] ETHERTYPE_KEY = key(PacketInAttributes.Keys.ETHERTYPE.toJSON());
+    private static final char[] DL_VLAN_KEY = key(PacketInAttributes.Keys.DL_VLAN.toJSON());
+    private static final char[] DL_VLAN_PRIORITY_KEY = key(PacketInAttributes.Keys.DL_VLAN_PRIORITY.toJSON());
+    private static final char[] NW_SRC_KEY = key(PacketInAttributes.Keys.NW_SRC.toJSON());
+    private static final char[] NW_DST_KEY = key(PacketInAttributes.Keys.NW_DST.toJSON());
+    private static final char[] PROTOCOL_KEY = key(PacketInAttributes.Keys.PROTOCOL.toJSON());
+    private static final char[] TP_SRC_KEY = key(PacketInAttributes.Keys.TP_SRC.toJSON());
+    private static final char[] TP_DST_KEY = key(PacketInAttributes.Keys.TP_DST.toJSON());
+    private static final char[] PACKET_KEY = key(PacketInAttributes.Keys.PACKET.toJSON());
+    private static final char[] PACKET_ID_KEY = key(PacketInAttributes.Keys.PACKET_ID.toJSON());
+    
+    private char[] buf = new char[1024];
+    private int length = 0;
+    
+    private static char[] key(String key) {
+        return ('"' + key + "\":").toCharArray();
+    }
+    
+    /**
+     * Writes the header fragment of a packet-in event, i.e., the event up to the packet data 
+     * without the closing brace. Fragments can be cached and reused for all packets with the 
+     * same header (cf. class PacketInHeaderCache).
+     * 
+     * @param header the header of the packet
+     * @return the header fragment
+     */
+    public char[] writeHeader(PacketInHeader header) {
+        length = 0;
+        
+        NodeConnector ingressConnector = header.getIngressConnector();
+        Node node = ingressConnector.getNode();
+        
+        append('{');
+        append(NODE_KEY);
+        append('{');
+        append(NODE_ID_KEY);
+        appendString(node.getNodeIDString());
+        append(',');
+        append(NODE_TYPE_KEY);
+        appendString(node.getType());
+        append('}');
+        
+        append(',');
+        append(INGRESS_PORT_KEY);
+        appendString(ingressConnector.getNodeConnectorIDString());
+        
+        if (header.hasEthernet()) {
+            append(',');
+            append(DL_SRC_KEY);
+            appendMac(header.getDlSrc());
+            append(',');
+            append(DL_DST_KEY);
+            appendMac(header.getDlDst());
+            append(',');
+            append(ETHERTYPE_KEY);
+            appendLong(header.getEtherType());
+        }
+        
+        if (header.hasVlan()) {
+            append(',');
+            append(DL_VLAN_KEY);
+            appendLong(header.getVlan());
+            append(',');
+            append(DL_VLAN_PRIORITY_KEY);
+            appendLong(header.getVlanPriority());
+        }
+        
+        if (header.hasIPv4()) {
+            append(',');
+            append(NW_SRC_KEY);
+            appendIPv4(header.getNwSrc());
+            append(',');
+            append(NW_DST_KEY);
+            appendIPv4(header.getNwDst());
+            append(',');
+            append(PROTOCOL_KEY);
+            appendLong((short) header.getProtocol());
+        }
+        
+        if (header.hasTransport()) {
+            append(',');
+            append(TP_SRC_KEY);
+            appendLong(header.getTpSrc());
+            append(',');
+            append(TP_DST_KEY);
+            appendLong(header.getTpDst());
+        }
+        
+        char[] fragment = new char[length];
+        System.arraycopy(buf, 0, fragment, 0, length);
+        
+        return fragment;
+    }
+    
+    /**
+     * Writes a packet-in event.
+     * 
+     * @param headerFragment the header fragment of the event (cf. writeHeader())
+     * @param frame the raw frame
+     * @param packetId the id of the buffered packet or IPacketBufferCache.INVALID_PACKET_ID
+     * @return the event in JSON representation
+     */
+    public String write(char[] headerFragment, byte[] frame, long packetId) {
+        length = 0;
+        // Base64 grows the frame by 4/3; reserve space for it up front.
+        ensureCapacity(headerFragment.length + 64 + (frame.length + 2)/3*4);
+        
+        append(headerFragment);
+        
+        append(',');
+        append(PACKET_KEY);
+        appendBase64(frame);
+        
+        if (packetId != IPacketBufferCache.INVALID_PACKET_ID) {
+            append(',');
+            append(PACKET_ID_KEY);
+            appendLong(packetId);
+        }
+        
+        append('}');
+        
+        return new String(buf, 0, length);
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (buf.length < capacity) {
+            char[] newBuf = new char[Math.max(capacity, 2*buf.length)];
+            System.arraycopy(buf, 0, newBuf, 0, length);
+            buf = newBuf;
+        }
+    }
+    
+    private void append(char c) {
+        ensureCapacity(length + 1);
+        buf[length++] = c;
+    }
+    
+    private void append(char[] chars) {
+        ensureCapacity(length + chars.length);
+        System.arraycopy(chars, 0, buf, length, chars.length);
+        length += chars.length;
+    }
+    
+    private void appendLong(long value) {
+        // Long.MIN_VALUE has 20 characters.
+        ensureCapacity(length + 20);
+        if (value == Long.MIN_VALUE) {
+            for (char c : Long.toString(value).toCharArray()) {
+                buf[length++] = c;
+            }
+            return;
+        }
+        
+        if (value < 0) {
+            buf[length++] = '-';
+            value = -value;
+        }
+        
+        int start = length;
+        do {
+            buf[length++] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        
+        // Digits were written in reverse order.
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = buf[i];
+            buf[i] = buf[j];
+            buf[j] = c;
+        }
+    }
+    
+    /**
+     * Appends a quoted string, escaping characters like JSONObject.quote().
+     */
+    private void appendString(String s) {
+        if (s == null) {
+            append("\"\"".toCharArray());
+            return;
+        }
+        
+        ensureCapacity(length + s.length() + 2);
+        buf[length++] = '"';
+        char previous = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '\\':
+            case '"':
+                append('\\');
+                append(c);
+                break;
+            case '/':
+                if (previous == '<') {
+                    append('\\');
+                }
+                append(c);
+                break;
+            case '\b':
+                append('\\');
+                append('b');
+                break;
+            case '\t':
+                append('\\');
+                append('t');
+                break;
+            case '\n':
+                append('\\');
+                append('n');
+                break;
+            case '\f':
+                append('\\');
+                append('f');
+                break;
+            case '\r':
+                append('\\');
+                append('r');
+                break;
+            default:
+                if (c < 0x20 || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+                    append('\\');
+                    append('u');
+                    append(HEX_LOWER[(c >> 12) & 0xf]);
+                    append(HEX_LOWER[(c >> 8) & 0xf]);
+                    append(HEX_LOWER[(c >> 4) & 0xf]);
+                    append(HEX_LOWER[c & 0xf]);
+                } else {
+                    append(c);
+                }
+            }
+            previous = c;
+        }
+        append('"');
+    }
+    
+    /**
+     * Appends a quoted MAC address in colon hexadecimal notation (cf. Netutil.macToStr()).
+     */
+    private void appendMac(long mac) {
+        ensureCapacity(length + 3*Netutil.MAC_LENGTH + 1);
+        buf[length++] = '"';
+        length = Netutil.writeMac(mac, buf, length);
+        buf[length++] = '"';
+    }
+    
+    /**
+     * Appends a quoted IPv4 address in dotted decimal notation (cf. Netutil.ipv4ToStr()).
+     */
+    private void appendIPv4(int addr) {
+        ensureCapacity(length + 17);
+        buf[length++] = '"';
+        length = Netutil.writeIPv4(addr, buf, length);
+        buf[length++] = '"';
+    }
+    
+    /**
+     * Appends quoted data in base64 encoding (cf. DatatypeConverter.printBase64Binary()).
+     */
+    private void appendBase64(byte[] data) {
+        ensureCapacity(length + (data.length + 2)/3*4 + 2);
+        buf[length++] = '"';
+        
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+            buf[length++] = BASE64[bits >>> 18];
+            buf[length++] = BASE64[(bits >>> 12) & 0x3f];
+            buf[length++] = BASE64[(bits >>> 6) & 0x3f];
+            buf[length++] = BASE64[bits & 0x3f];
+        }
+        
+        int remaining = data.length - i;
+        if (remaining == 1) {
+            int bits = (data[i] & 0xff) << 16;
+            buf[length++] = BASE64[bits >>> 18];
+            buf[length++] = BASE64[(bits >>> 12) & 0x3f];
+            buf[length++] = '=';
+            buf[length++] = '=';
+        } else if (remaining == 2) {
+            int bits = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8);
+            buf[length++] = BASE64[bits >>> 18];
+            buf[length++] = BASE64[(bits >>> 12) & 0x3f];
+            buf[length++] = BASE64[(bits >>> 6) & 0x3f];
+            buf[length++] = '=';
+        }
+        
+        buf[length++] = '"';
+    }
+}
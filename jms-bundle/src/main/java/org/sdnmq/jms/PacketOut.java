@@ -0,0 +1,345 @@
+/**
+ * PacketOut
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketOut is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opendaylight.controller.sal.core.ConstructionException;
+import org.opendaylight.controller.sal.core.Node;
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.opendaylight.controller.sal.packet.IDataPacketService;
+import org.opendaylight.controller.sal.packet.RawPacket;
+import org.sdnmq.jms.binary.BinaryFormat;
+import org.sdnmq.jms.binary.PacketOutDecoder;
+import org.sdnmq.jms.json.NodeAttributes;
+import org.sdnmq.jms.json.PacketForwarderRequestAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A packet-out request, i.e., a set of packets to be sent to a set of egress ports.
+ * 
+ * Packet-out requests are either sent to the packet forwarder or embedded into flow programming 
+ * requests (to send the packet that triggered a reactive flow after programming the flow).
+ * 
+ * @author Frank Duerr
+ */
+public class PacketOut {
+    private static final Logger log = LoggerFactory.getLogger(PacketOut.class);
+    
+    private final IInventoryCache inventoryCache;
+    private final IPacketBufferCache packetBufferCache;
+    
+    // The raw packets to be sent. Each packet is decoded only once, independent of the number 
+    // of egress ports.
+    private final List<byte[]> packets = new ArrayList<byte[]>(1);
+    private final List<NodeConnector> egressConnectors = new ArrayList<NodeConnector>();
+    
+    private String error = null;
+    private boolean packetUnavailable = false;
+    
+    /**
+     * Constructor.
+     * 
+     * @param inventoryCache cache for resolving nodes and ports
+     * @param packetBufferCache cache for resolving packet ids
+     */
+    public PacketOut(IInventoryCache inventoryCache, IPacketBufferCache packetBufferCache) {
+        this.inventoryCache = inventoryCache;
+        this.packetBufferCache = packetBufferCache;
+    }
+    
+    /**
+     * @return description of the last error
+     */
+    public String getError() {
+        return error;
+    }
+    
+    /**
+     * @return true if parsing failed since a referenced packet is not buffered anymore
+     */
+    public boolean isPacketUnavailable() {
+        return packetUnavailable;
+    }
+    
+    /**
+     * Parses a packet-out request in JSON representation.
+     * 
+     * @param json the request
+     * @return true if the request is valid
+     */
+    public boolean parseJson(JSONObject json) {
+        boolean valid;
+        if (json.has(PacketForwarderRequestAttributes.Keys.PACKET_ID.toJSON())) {
+            valid = packetsFromBuffer(json);
+        } else {
+            valid = packetsFromJson(json);
+        }
+        if (!valid) {
+            return false;
+        }
+        
+        return parseTargets(json, null);
+    }
+    
+    /**
+     * Adds a packet to be sent.
+     * 
+     * @param packetData the raw packet data
+     */
+    public void addPacket(byte[] packetData) {
+        packets.add(packetData);
+    }
+    
+    /**
+     * Parses the targets (egress ports) of a packet-out request in JSON representation.
+     * 
+     * @param json the request
+     * @param defaultNode the node of targets not specifying a node (null if targets must specify a node)
+     * @return true if the targets are valid
+     */
+    public boolean parseTargets(JSONObject json, Node defaultNode) {
+        if (json.has(PacketForwarderRequestAttributes.Keys.TARGETS.toJSON())) {
+            try {
+                JSONArray targetsJson = json.getJSONArray(PacketForwarderRequestAttributes.Keys.TARGETS.toJSON());
+                for (int i = 0; i < targetsJson.length(); i++) {
+                    if (!targetFromJson(targetsJson.getJSONObject(i), defaultNode)) {
+                        return false;
+                    }
+                }
+            } catch (JSONException e) {
+                return fail("Invalid targets: " + e.getMessage());
+            }
+            
+            return true;
+        } 
+        
+        return targetFromJson(json, defaultNode);
+    }
+    
+    /**
+     * Parses a packet-out request in binary representation (cf. class BinaryFormat).
+     * 
+     * @param decoder decoder wrapping a valid request
+     * @return true if the request is valid
+     */
+    public boolean parseBinary(PacketOutDecoder decoder) {
+        for (int i = 0; i < decoder.getPacketCount(); i++) {
+            packets.add(decoder.getPacket(i));
+        }
+        
+        for (int i = 0; i < decoder.getTargetCount(); i++) {
+            String nodeId = BinaryFormat.dpidToString(decoder.getTargetDpid(i));
+            Node node = inventoryCache.getNode(NodeAttributes.TypeValues.OF.toJSON(), nodeId);
+            if (node == null) {
+                return fail("Node '" + nodeId + "' not found");
+            }
+            
+            boolean valid;
+            if (decoder.isFloodTarget(i)) {
+                int inPort = decoder.getTargetIngressPort(i);
+                valid = resolveTarget(node, null, true, (inPort == 0 ? null : Integer.toString(inPort)));
+            } else {
+                valid = resolveTarget(node, Integer.toString(decoder.getTargetPort(i)), false, null);
+            }
+            if (!valid) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Sends every packet to every egress port via Data Packet Service.
+     * 
+     * @param dataPacketService the service used for sending the packets
+     */
+    public void transmit(IDataPacketService dataPacketService) {
+        for (byte[] packetData : packets) {
+            for (NodeConnector connector : egressConnectors) {
+                RawPacket pkt;
+                try {
+                    pkt = new RawPacket(packetData);
+                } catch (ConstructionException e) {
+                    log.error("Invalid packet data: " + e.getMessage());
+                    return;
+                }
+                pkt.setOutgoingNodeConnector(connector);
+                
+                dataPacketService.transmitDataPacket(pkt);
+            }
+        }
+    }
+    
+    /**
+     * Logs an error and remembers its description.
+     * 
+     * @param description description of the error
+     * @return always false
+     */
+    private boolean fail(String description) {
+        log.error(description);
+        error = description;
+        
+        return false;
+    }
+    
+    /**
+     * Decodes the packets of a request. A request either contains a single packet or an array of packets.
+     * 
+     * @param json the request
+     * @return true if the request specifies valid packets
+     */
+    private boolean packetsFromJson(JSONObject json) {
+        try {
+            if (json.has(PacketForwarderRequestAttributes.Keys.PACKETS.toJSON())) {
+                JSONArray packetsJson = json.getJSONArray(PacketForwarderRequestAttributes.Keys.PACKETS.toJSON());
+                for (int i = 0; i < packetsJson.length(); i++) {
+                    packets.add(DatatypeConverter.parseBase64Binary(packetsJson.getString(i)));
+                }
+            } else {
+                packets.add(DatatypeConverter.parseBase64Binary(json.getString(PacketForwarderRequestAttributes.Keys.PACKET.toJSON())));
+            }
+        } catch (JSONException e) {
+            return fail("Packet data not specified: " + e.getMessage());
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Retrieves a packet previously received with a packet-in event from the packet buffer. 
+     * 
+     * @param json the request
+     * @return true if the packet is available
+     */
+    private boolean packetsFromBuffer(JSONObject json) {
+        long packetId;
+        try {
+            packetId = json.getLong(PacketForwarderRequestAttributes.Keys.PACKET_ID.toJSON());
+        } catch (JSONException e) {
+            return fail("Invalid packet id: " + e.getMessage());
+        }
+        
+        byte[] packetData = packetBufferCache.get(packetId);
+        if (packetData == null) {
+            packetUnavailable = true;
+            return fail("Packet " + packetId + " not buffered (evicted or expired)");
+        }
+        packets.add(packetData);
+        
+        return true;
+    }
+    
+    /**
+     * Resolves the egress ports of a target. A target is either a single port of a node or 
+     * all ports of a node (flooding), optionally excluding the ingress port of the packet.
+     * 
+     * @param json JSON object specifying the target
+     * @param defaultNode the node used if the target does not specify a node (may be null)
+     * @return true if the target is valid
+     */
+    private boolean targetFromJson(JSONObject json, Node defaultNode) {
+        // Get node information
+        
+        Node node = defaultNode;
+        if (node == null || json.has(PacketForwarderRequestAttributes.Keys.NODE.toJSON())) {
+            String nodeId = null;
+            String nodeType = null;
+            try {
+                JSONObject nodeJson = json.getJSONObject(PacketForwarderRequestAttributes.Keys.NODE.toJSON());
+                nodeId = nodeJson.getString(NodeAttributes.Keys.ID.toJSON());
+                if (nodeJson.has(NodeAttributes.Keys.TYPE.toJSON())) {
+                    nodeType = nodeJson.getString(NodeAttributes.Keys.TYPE.toJSON());
+                } else {
+                    nodeType = NodeAttributes.TypeValues.OF.toJSON();
+                }
+            } catch (JSONException e) {
+                return fail("Node attributes not specified: " + e.getMessage());
+            }
+            
+            assert(nodeId != null);
+            assert(nodeType != null);
+            
+            node = inventoryCache.getNode(nodeType, nodeId);
+            if (node == null) {
+                return fail("Node '" + nodeId + "' not found");
+            }
+        }
+        
+        boolean flood = false;
+        String inPort = null;
+        try {
+            if (json.has(PacketForwarderRequestAttributes.Keys.FLOOD.toJSON())) {
+                flood = json.getBoolean(PacketForwarderRequestAttributes.Keys.FLOOD.toJSON());
+            }
+            if (flood && json.has(PacketForwarderRequestAttributes.Keys.INGRESS_PORT.toJSON())) {
+                inPort = json.getString(PacketForwarderRequestAttributes.Keys.INGRESS_PORT.toJSON());
+            }
+        } catch (JSONException e) {
+            return fail("Invalid flood specification: " + e.getMessage());
+        }
+        
+        // Outgoing port
+        
+        String outPort = null;
+        if (!flood) {
+            try {
+                outPort = json.getString(PacketForwarderRequestAttributes.Keys.EGRESS_PORT.toJSON());
+            } catch (JSONException e) {
+                return fail("Outport not specified: " + e.getMessage());
+            }
+            assert(outPort != null);
+        }
+        
+        return resolveTarget(node, outPort, flood, inPort);
+    }
+    
+    /**
+     * Resolves the egress ports of a target. 
+     * 
+     * @param node the node
+     * @param outPort the egress port (ignored if flooding)
+     * @param flood if true, all ports of the node (except for the ingress port) are egress ports
+     * @param inPort the ingress port excluded from flooding (may be null)
+     * @return true if the target is valid
+     */
+    private boolean resolveTarget(Node node, String outPort, boolean flood, String inPort) {
+        if (flood) {
+            // Send to all ports of the node except for the ingress port
+            NodeConnector ingressConnector = null;
+            if (inPort != null) {
+                ingressConnector = inventoryCache.parseNodeConnector(node, inPort);
+            }
+            for (NodeConnector connector : inventoryCache.getFloodConnectors(node)) {
+                if (!connector.equals(ingressConnector)) {
+                    egressConnectors.add(connector);
+                }
+            }
+            return true;
+        }
+        
+        NodeConnector connector = inventoryCache.getNodeConnector(node, outPort);
+        if (connector == null) {
+            return fail("Port '" + outPort + "' does not exist on node '" + node.getID() + "'");
+        }
+        egressConnectors.add(connector);
+        
+        return true;
+    }
+}
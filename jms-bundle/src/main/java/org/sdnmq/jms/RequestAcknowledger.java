@@ -0,0 +1,187 @@
+/**
+ * RequestAcknowledger
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RequestAcknowledger is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Acknowledges the requests of one consumer (session) according to its consumer settings.
+ * 
+ * In client acknowledgement mode, requests are acknowledged in batches: acknowledging a message 
+ * acknowledges all messages received by the session so far. Unacknowledged requests are redelivered 
+ * after failures. Therefore, the ids of processed requests are recorded in the request history 
+ * shared by all consumers of a component, so redelivered requests that have already been processed 
+ * are skipped, even if they are redelivered to another consumer or after a reconnect.
+ * 
+ * @author Frank Duerr
+ */
+public class RequestAcknowledger {
+    private static final Logger log = LoggerFactory.getLogger(RequestAcknowledger.class);
+    
+    private final ConsumerSettings settings;
+    private final RequestHistory history;
+    
+    private int unacknowledged = 0;
+    // Number of requests received but not processed yet (cf. hold()).
+    private int held = 0;
+    private Message lastMessage = null;
+    private long lastAckTime = System.currentTimeMillis();
+    
+    /**
+     * Constructor.
+     * 
+     * @param settings the consumer settings
+     * @param history the history of processed requests of the component (only recorded if duplicates 
+     * are possible)
+     */
+    public RequestAcknowledger(ConsumerSettings settings, RequestHistory history) {
+        this.settings = settings;
+        this.history = history;
+    }
+    
+    /**
+     * Checks whether a request has been processed already. Only redelivered requests are checked.
+     * 
+     * @param msg the request
+     * @return true if the request is a duplicate that should be skipped
+     */
+    public synchronized boolean isDuplicate(Message msg) {
+        if (settings.getAckMode() == ConsumerSettings.AckMode.AUTO) {
+            return false;
+        }
+        
+        try {
+            if (!msg.getJMSRedelivered()) {
+                return false;
+            }
+            String id = msg.getJMSMessageID();
+            if (id != null && history.contains(id)) {
+                log.trace("Skipping duplicate request " + id);
+                return true;
+            }
+        } catch (JMSException e) {
+            log.error(e.getMessage());
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Records that a request has been processed and acknowledges it if required.
+     * 
+     * @param msg the request
+     */
+    public synchronized void processed(Message msg) {
+        if (settings.getAckMode() == ConsumerSettings.AckMode.AUTO) {
+            return;
+        }
+        
+        try {
+            String id = msg.getJMSMessageID();
+            if (id != null) {
+                history.add(id);
+            }
+        } catch (JMSException e) {
+            log.error(e.getMessage());
+        }
+        
+        if (settings.getAckMode() != ConsumerSettings.AckMode.CLIENT) {
+            return;
+        }
+        
+        lastMessage = msg;
+        unacknowledged++;
+        if (unacknowledged >= settings.getAckBatchSize() || 
+                System.currentTimeMillis()-lastAckTime >= settings.getAckInterval()) {
+            flush();
+        }
+    }
+    
+    /**
+     * Records that a received request will be processed later (e.g., staged for coalescing). 
+     * Since acknowledging a message acknowledges all messages received by the session, no 
+     * requests are acknowledged until every held request has been released.
+     */
+    public synchronized void hold() {
+        held++;
+    }
+    
+    /**
+     * Releases a held request after it has been processed (cf. processed()).
+     */
+    public synchronized void release() {
+        if (held > 0) {
+            held--;
+        }
+    }
+    
+    /**
+     * Acknowledges all requests processed so far (unless requests are held).
+     */
+    public synchronized void flush() {
+        if (lastMessage == null || held > 0) {
+            return;
+        }
+        
+        try {
+            lastMessage.acknowledge();
+        } catch (JMSException e) {
+            log.error("Could not acknowledge requests: " + e.getMessage());
+        }
+        lastMessage = null;
+        unacknowledged = 0;
+        lastAckTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Starts a timer periodically acknowledging the requests of idle consumers in client 
+     * acknowledgement mode.
+     * 
+     * @param settings the consumer settings
+     * @param acknowledgers the acknowledgers of all consumers
+     * @param threadName the name of the timer thread
+     * @return the timer or null if no timer is required
+     */
+    public static ScheduledExecutorService startFlushTimer(ConsumerSettings settings, 
+            final List<RequestAcknowledger> acknowledgers, final String threadName) {
+        if (settings.getAckMode() != ConsumerSettings.AckMode.CLIENT || settings.getAckInterval() <= 0) {
+            return null;
+        }
+        
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (RequestAcknowledger acknowledger : acknowledgers) {
+                    acknowledger.flush();
+                }
+            }
+        }, settings.getAckInterval(), settings.getAckInterval(), TimeUnit.MILLISECONDS);
+        
+        return timer;
+    }
+}
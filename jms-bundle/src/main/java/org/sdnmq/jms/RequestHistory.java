@@ -0,0 +1,58 @@
+/**
+ * RequestHistory
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RequestHistory is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ids of the requests recently processed by a component (packet forwarder or flow programmer).
+ * 
+ * The history is shared by all consumers of the component and survives reconnects, so requests 
+ * redelivered to another consumer or through a new connection are recognized as duplicates.
+ * 
+ * @author Frank Duerr
+ */
+public class RequestHistory {
+    private final Map<String, Boolean> ids;
+    
+    /**
+     * Constructor.
+     * 
+     * @param maxSize the maximum number of remembered request ids
+     */
+    public RequestHistory(final int maxSize) {
+        ids = new LinkedHashMap<String, Boolean>() {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * @param id the JMS message id of a request
+     * @return true if the request has been processed recently
+     */
+    public synchronized boolean contains(String id) {
+        return ids.containsKey(id);
+    }
+    
+    /**
+     * Records that a request has been processed.
+     * 
+     * @param id the JMS message id of the request
+     */
+    public synchronized void add(String id) {
+        ids.put(id, Boolean.TRUE);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Rule
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * Rule is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * A reactive rule handling matching packet-in events inside the bundle instead of publishing them.
+ * 
+ * A rule matches packets whose header fields are equal to all fields of the rule. On a match,
+ * the flow of the rule is programmed on the node that received the packet, and the packet is sent 
+ * to the targets of the rule.
+ * 
+ * Rules are immutable.
+ * 
+ * @author Frank Duerr
+ */
+public class Rule {
+    private final String name;
+    private final int priority;
+    private final Map<MessageFilterAttributes.Keys, String> match;
+    private final JSONObject packetOut;
+    private final JSONObject flow;
+    private final boolean evictable;
+    
+    /**
+     * Constructor.
+     * 
+     * @param name the name of the rule
+     * @param priority the priority of the rule (the matching rule of highest priority is applied)
+     * @param match the header fields to be matched (values normalized by PacketFields)
+     * @param packetOut targets of the packet in the format of packet-out requests (may be null)
+     * @param flow flow to be programmed in the format of flow programming requests (may be null)
+     * @param evictable true if programmed flows may be evicted from full flow tables
+     */
+    public Rule(String name, int priority, Map<MessageFilterAttributes.Keys, String> match, 
+            JSONObject packetOut, JSONObject flow, boolean evictable) {
+        this.name = name;
+        this.priority = priority;
+        Map<MessageFilterAttributes.Keys, String> matchCopy = 
+                new EnumMap<MessageFilterAttributes.Keys, String>(MessageFilterAttributes.Keys.class);
+        matchCopy.putAll(match);
+        this.match = Collections.unmodifiableMap(matchCopy);
+        this.packetOut = packetOut;
+        this.flow = flow;
+        this.evictable = evictable;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    public Map<MessageFilterAttributes.Keys, String> getMatch() {
+        return match;
+    }
+    
+    public JSONObject getPacketOut() {
+        return packetOut;
+    }
+    
+    public JSONObject getFlow() {
+        return flow;
+    }
+    
+    public boolean isEvictable() {
+        return evictable;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * RuleIndex
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RuleIndex is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of reactive rules supporting fast lookups of the rule matching a packet (tuple space search).
+ * 
+ * Rules matching the same set of fields (a "tuple") are stored in one hash table keyed by the values 
+ * of these fields. A lookup probes one hash table per tuple, starting with the tuple containing the 
+ * rule of highest priority, and stops as soon as no remaining tuple can contain a rule of higher 
+ * priority than the best match found so far.
+ * 
+ * Lookups are lock-free and work on an immutable snapshot of the index, which is rebuilt on every
+ * update (updates are rare compared to lookups).
+ * 
+ * @author Frank Duerr
+ */
+public class RuleIndex {
+    private static final char SEPARATOR = '\0';
+    
+    /**
+     * Rules matching the same set of fields.
+     */
+    private static class Tuple {
+        final MessageFilterAttributes.Keys[] fields;
+        // Key built from the field values -> matching rule of highest priority
+        final Map<String, Rule> rules = new HashMap<String, Rule>();
+        int maxPriority = Integer.MIN_VALUE;
+        
+        Tuple(Set<MessageFilterAttributes.Keys> fields) {
+            this.fields = fields.toArray(new MessageFilterAttributes.Keys[fields.size()]);
+        }
+    }
+    
+    // All rules by name; guarded by this.
+    private final Map<String, Rule> rulesByName = new HashMap<String, Rule>();
+    
+    // Immutable snapshot used by lookups, ordered by descending maximum priority.
+    private volatile List<Tuple> tuples = Collections.emptyList();
+    
+    /**
+     * Adds a rule, replacing the rule with the same name.
+     * 
+     * @param rule the rule
+     * @return the replaced rule or null if no rule with this name existed
+     */
+    public synchronized Rule put(Rule rule) {
+        Rule oldRule = rulesByName.put(rule.getName(), rule);
+        rebuild();
+        
+        return oldRule;
+    }
+    
+    /**
+     * Removes a rule.
+     * 
+     * @param name the name of the rule
+     * @return the removed rule or null if no rule with this name exists
+     */
+    public synchronized Rule remove(String name) {
+        Rule rule = rulesByName.remove(name);
+        if (rule != null) {
+            rebuild();
+        }
+        
+        return rule;
+    }
+    
+    /**
+     * @return true if the index contains no rules
+     */
+    public boolean isEmpty() {
+        return tuples.isEmpty();
+    }
+    
+    /**
+     * Finds the rule of highest priority matching the given header fields.
+     * 
+     * @param fields the header fields of a packet
+     * @return the matching rule or null if no rule matches
+     */
+    public Rule lookup(Map<MessageFilterAttributes.Keys, String> fields) {
+        Rule best = null;
+        StringBuilder key = new StringBuilder();
+        
+        for (Tuple tuple : tuples) {
+            if (best != null && best.getPriority() >= tuple.maxPriority) {
+                break;
+            }
+            
+            if (!buildKey(tuple.fields, fields, key)) {
+                continue;
+            }
+            
+            Rule rule = tuple.rules.get(key.toString());
+            if (rule != null && (best == null || rule.getPriority() > best.getPriority())) {
+                best = rule;
+            }
+        }
+        
+        return best;
+    }
+    
+    /**
+     * Builds the hash key from the values of the given fields.
+     * 
+     * @return false if a field is undefined
+     */
+    private static boolean buildKey(MessageFilterAttributes.Keys[] keys, Map<MessageFilterAttributes.Keys, String> fields,
+            StringBuilder key) {
+        key.setLength(0);
+        for (MessageFilterAttributes.Keys field : keys) {
+            String value = fields.get(field);
+            if (value == null) {
+                return false;
+            }
+            key.append(value).append(SEPARATOR);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Rebuilds the snapshot from all rules.
+     */
+    private void rebuild() {
+        Map<Set<MessageFilterAttributes.Keys>, Tuple> tupleMap = new HashMap<Set<MessageFilterAttributes.Keys>, Tuple>();
+        StringBuilder key = new StringBuilder();
+        
+        for (Rule rule : rulesByName.values()) {
+            Set<MessageFilterAttributes.Keys> fieldSet = rule.getMatch().keySet();
+            Tuple tuple = tupleMap.get(fieldSet);
+            if (tuple == null) {
+                tuple = new Tuple(fieldSet);
+                tupleMap.put(fieldSet, tuple);
+            }
+            
+            buildKey(tuple.fields, rule.getMatch(), key);
+            String keyStr = key.toString();
+            Rule existing = tuple.rules.get(keyStr);
+            // Of several rules with equal fields, the one of highest priority (or smallest name) wins.
+            if (existing == null || rule.getPriority() > existing.getPriority() || 
+                    (rule.getPriority() == existing.getPriority() && rule.getName().compareTo(existing.getName()) < 0)) {
+                tuple.rules.put(keyStr, rule);
+            }
+            tuple.maxPriority = Math.max(tuple.maxPriority, rule.getPriority());
+        }
+        
+        List<Tuple> newTuples = new ArrayList<Tuple>(tupleMap.values());
+        Collections.sort(newTuples, new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple t1, Tuple t2) {
+                return (t1.maxPriority > t2.maxPriority ? -1 : (t1.maxPriority < t2.maxPriority ? 1 : 0));
+            }
+        });
+        
+        tuples = Collections.unmodifiableList(newTuples);
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ * RuleTable
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RuleTable is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.NamingException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.sdnmq.jms.json.FlowProgrammerRequestAttributes;
+import org.sdnmq.jms.json.RuleRequestAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rule table service retrieving reactive rules from a JMS queue. 
+ * 
+ * The packet handler applies matching rules to packet-in events directly instead of publishing
+ * these events, which saves the round-trip through the JMS server and the application.
+ * 
+ * @author Frank Duerr
+ */
+public class RuleTable implements IRuleTable, IConnectionListener, MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(RuleTable.class);
+    
+    /**
+     *  This property can be defined in the OpenDaylight configuration to change the 
+     *  rule request queue name (JNDI name of queue object):
+     *  $OPENDAYLIGHTHOME/configuration/config.ini
+     */
+    private static final String RULES_QUEUE_PROPERTY = "sdnmq.queuename.rules";
+    private static final String DEFAULT_RULES_QUEUE_NAME = "org.sdnmq.rules";
+    
+    private QueueSession session = null;
+    private QueueReceiver receiver = null;
+    private boolean destroyed = false;
+    
+    private IConnectionManager connectionManager = null;
+    private IFlowProgrammer flowProgrammer = null;
+    
+    private final RuleIndex index = new RuleIndex();
+    
+    /**
+     * Bind to ConnectionManager
+     */
+    void setConnectionManager(IConnectionManager s) {
+        log.trace("Bind to ConnectionManager.");
+        
+        connectionManager = s;
+    }
+    
+    /**
+     * Unbind from ConnectionManager
+     */
+    void unsetConnectionManager(IConnectionManager s) {
+        log.trace("Unbind from ConnectionManager.");
+        
+        if (connectionManager == s) {
+            connectionManager = null;
+        }
+    }
+    
+    /**
+     * Bind to FlowProgrammer
+     */
+    void setFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Bind to FlowProgrammer.");
+        
+        flowProgrammer = s;
+    }
+    
+    /**
+     * Unbind from FlowProgrammer
+     */
+    void unsetFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Unbind from FlowProgrammer.");
+        
+        if (flowProgrammer == s) {
+            flowProgrammer = null;
+        }
+    }
+    
+    /**
+     * Function called by the dependency manager if all the required
+     * dependencies are satisfied.
+     */
+    public void init() {
+        // The receiver is set up as soon as the connection manager is connected.
+        connectionManager.addListener(this);
+    }
+    
+    /**
+     * Called by the dependency manager before the component is removed.
+     */
+    public synchronized void destroy() {
+        connectionManager.removeListener(this);
+        destroyed = true;
+        releaseMQ();
+    }
+    
+    /**
+     * Setup MQ (receiver and its session).
+     */
+    @Override
+    public synchronized void connectionEstablished(ConnectionContext ctx) throws JMSException, NamingException {
+        if (destroyed) {
+            return;
+        }
+        
+        log.trace("Setting up MQ system");
+        
+        String queueName = System.getProperty(RULES_QUEUE_PROPERTY, DEFAULT_RULES_QUEUE_NAME);
+        log.info("Using the following queue for reactive rules: " + queueName);
+        // Rules are configuration rather than traffic, so they are only accepted through the first shard.
+        Queue rulesQueue = (Queue) ctx.lookup(0, queueName);
+        
+        try {
+            session = ctx.getQueueConnection(0).createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+            receiver = session.createReceiver(rulesQueue);
+            receiver.setMessageListener(this);
+        } catch (JMSException e) {
+            releaseMQ();
+            throw e;
+        }
+        
+        log.trace("MQ setup successful");
+    }
+    
+    @Override
+    public synchronized void connectionLost() {
+        releaseMQ();
+    }
+    
+    /**
+     * Release MQ-related objects.
+     */
+    private void releaseMQ() {
+        if (receiver != null) {
+            try {
+                receiver.close();
+            } catch (JMSException e) {}
+            receiver = null;
+        }
+        
+        if (session != null) {
+            try {
+                session.close();
+            } catch (JMSException e) {}
+            session = null;
+        }
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+    
+    @Override
+    public Rule lookup(Map<MessageFilterAttributes.Keys, String> fields) {
+        return index.lookup(fields);
+    }
+    
+    @Override
+    public void onMessage(Message msg) {
+        log.trace("Received rule request.");
+        
+        if (!(msg instanceof TextMessage)) {
+            log.error("Received invalid message type (not a text message).");
+            return;
+        }
+        
+        JSONObject json = null;
+        try {
+            json = new JSONObject(((TextMessage) msg).getText());
+        } catch (JSONException e) {
+            log.error("Could not parse JSON message: " + e.getMessage());
+            return;
+        } catch (JMSException e) {
+            log.error(e.getMessage());
+            return;
+        }
+        assert(json != null);
+        log.trace(json.toString());
+        
+        String command = null;
+        String ruleName = null;
+        try {
+            command = json.getString(RuleRequestAttributes.Keys.COMMAND.toJSON());
+            ruleName = json.getString(RuleRequestAttributes.Keys.RULE_NAME.toJSON());
+        } catch (JSONException e) {
+            log.error("Command or rule name not specified: " + e.getMessage());
+            return;
+        }
+        
+        if (command.equals(RuleRequestAttributes.CommandValues.DELETE.toJSON())) {
+            Rule oldRule = index.remove(ruleName);
+            if (oldRule == null) {
+                log.error("Rule '" + ruleName + "' does not exist");
+            } else if (oldRule.getFlow() != null) {
+                deleteDerivedFlows(ruleName);
+            }
+        } else if (command.equals(RuleRequestAttributes.CommandValues.ADD.toJSON())) {
+            Rule rule = ruleFromJson(ruleName, json);
+            if (rule != null) {
+                Rule oldRule = index.put(rule);
+                if (oldRule != null && oldRule.getFlow() != null && (rule.getFlow() == null || 
+                        !oldRule.getFlow().toString().equals(rule.getFlow().toString()))) {
+                    // The flows of the old rule must not forward traffic anymore.
+                    deleteDerivedFlows(ruleName);
+                }
+            }
+        } else {
+            log.error("Invalid command: " + command);
+        }
+    }
+    
+    /**
+     * Deletes the flows programmed by a rule on all nodes (named "rule@node", cf. PacketHandler).
+     * Called after the rule has been removed from the index, so packets do not program the 
+     * flows of the rule again (except for packets that matched the rule concurrently).
+     * 
+     * @param ruleName the name of the rule
+     */
+    private void deleteDerivedFlows(String ruleName) {
+        IFlowProgrammer programmer = flowProgrammer;
+        if (programmer == null) {
+            log.error("Could not delete flows of rule '" + ruleName + "': flow programmer not available");
+            return;
+        }
+        
+        JSONObject request = new JSONObject();
+        request.put(FlowProgrammerRequestAttributes.Keys.COMMAND.toJSON(), 
+                FlowProgrammerRequestAttributes.CommandValues.DELETE_ALL.toJSON());
+        request.put(FlowProgrammerRequestAttributes.Keys.FLOW_NAME_PREFIX.toJSON(), ruleName + "@");
+        if (!programmer.handleRequest(request)) {
+            log.error("Could not delete (some) flows of rule '" + ruleName + "'");
+        }
+    }
+    
+    /**
+     * Creates a rule from JSON specification.
+     * 
+     * @param ruleName the name of the rule
+     * @param json the rule request
+     * @return the rule or null if the specification is invalid
+     */
+    private Rule ruleFromJson(String ruleName, JSONObject json) {
+        Map<MessageFilterAttributes.Keys, String> match = 
+                new EnumMap<MessageFilterAttributes.Keys, String>(MessageFilterAttributes.Keys.class);
+        int priority = 0;
+        JSONObject packetOut = null;
+        JSONObject flow = null;
+        boolean evictable = false;
+        
+        try {
+            JSONObject matchJson = json.getJSONObject(RuleRequestAttributes.Keys.MATCH.toJSON());
+            Iterator<?> it = matchJson.keys();
+            while (it.hasNext()) {
+                String fieldName = (String) it.next();
+                MessageFilterAttributes.Keys field = null;
+                for (MessageFilterAttributes.Keys key : MessageFilterAttributes.Keys.values()) {
+                    if (key.toFilterName().equals(fieldName)) {
+                        field = key;
+                        break;
+                    }
+                }
+                if (field == null) {
+                    log.error("Unknown match field: " + fieldName);
+                    return null;
+                }
+                
+                String value = PacketFields.normalize(field, matchJson.get(fieldName));
+                if (value == null) {
+                    log.error("Invalid or unsupported match field: " + fieldName);
+                    return null;
+                }
+                match.put(field, value);
+            }
+            
+            if (json.has(RuleRequestAttributes.Keys.PRIORITY.toJSON())) {
+                priority = json.getInt(RuleRequestAttributes.Keys.PRIORITY.toJSON());
+            }
+            if (json.has(RuleRequestAttributes.Keys.PACKET_OUT.toJSON())) {
+                packetOut = json.getJSONObject(RuleRequestAttributes.Keys.PACKET_OUT.toJSON());
+            }
+            if (json.has(RuleRequestAttributes.Keys.FLOW.toJSON())) {
+                flow = json.getJSONObject(RuleRequestAttributes.Keys.FLOW.toJSON());
+            }
+            if (json.has(RuleRequestAttributes.Keys.EVICTABLE.toJSON())) {
+                evictable = json.getBoolean(RuleRequestAttributes.Keys.EVICTABLE.toJSON());
+            }
+        } catch (JSONException e) {
+            log.error("Invalid rule specification: " + e.getMessage());
+            return null;
+        }
+        
+        if (match.isEmpty()) {
+            // A rule matching all packets would swallow all packet-in events.
+            log.error("Rule '" + ruleName + "' does not specify any match field");
+            return null;
+        }
+        
+        if (packetOut == null && flow == null) {
+            log.error("Rule '" + ruleName + "' defines neither a packet-out nor a flow");
+            return null;
+        }
+        
+        return new Rule(ruleName, priority, match, packetOut, flow, evictable);
+    }
+}
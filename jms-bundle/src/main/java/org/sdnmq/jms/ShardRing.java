@@ -0,0 +1,123 @@
+/**
+ * ShardRing
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * ShardRing is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hash ring mapping keys (node ids) to shards (brokers). 
+ * 
+ * Every shard is placed on the ring at several positions (virtual nodes) derived from 
+ * the name of the shard, so the mapping only depends on the configured shard names and not 
+ * on their order. If a shard is added or removed, only the keys of about 1/n of the ring 
+ * move to a different shard.
+ * 
+ * Applications sending requests through several brokers should use the same shard names 
+ * (the provider URLs configured by property sdnmq.shards) to select the broker for 
+ * the requests of a node. Then all packet-in events and requests of a node pass through 
+ * the same broker, and their order is kept.
+ * 
+ * @author Frank Duerr
+ */
+public class ShardRing {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /**
+     * Number of positions of every shard on the ring.
+     */
+    private static final int VIRTUAL_NODES = 64;
+    
+    // Positions on the ring in ascending order and the shard owning each position.
+    private final long[] positions;
+    private final int[] owners;
+    
+    /**
+     * Constructor.
+     * 
+     * @param shardNames the names of the shards; the index of a name is the shard index 
+     * returned by getShard()
+     */
+    public ShardRing(List<String> shardNames) {
+        if (shardNames.isEmpty()) {
+            throw new IllegalArgumentException("No shards");
+        }
+        
+        int n = shardNames.size()*VIRTUAL_NODES;
+        long[] keys = new long[n];
+        int i = 0;
+        for (int shard = 0; shard < shardNames.size(); shard++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                keys[i++] = (hash(shardNames.get(shard) + "#" + v) & ~0xffffL) | shard;
+            }
+        }
+        // The shard index in the lower bits makes positions unique and sorts owners with them.
+        Arrays.sort(keys);
+        
+        positions = new long[n];
+        owners = new int[n];
+        for (i = 0; i < n; i++) {
+            positions[i] = keys[i];
+            owners[i] = (int) (keys[i] & 0xffffL);
+        }
+    }
+    
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return positions.length/VIRTUAL_NODES;
+    }
+    
+    /**
+     * Maps a key to a shard.
+     * 
+     * @param key the key, e.g., a node id
+     * @return the index of the shard responsible for the key
+     */
+    public int getShard(String key) {
+        if (positions.length == VIRTUAL_NODES) {
+            return 0;
+        }
+        
+        // The first position clockwise from the hash of the key.
+        int i = Arrays.binarySearch(positions, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+            if (i == positions.length) {
+                i = 0;
+            }
+        }
+        
+        return owners[i];
+    }
+    
+    /**
+     * 64 bit FNV-1a hash with a final avalanche step (the finalizer of MurmurHash3).
+     * Positions are compared as signed values, which is fine as long as keys and shards 
+     * are hashed the same way.
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(UTF8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        
+        return h;
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * SharedMemoryTransport
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * SharedMemoryTransport is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opendaylight.controller.sal.core.NodeConnector;
+import org.sdnmq.jms.binary.BinaryFormat;
+import org.sdnmq.jms.shm.EventLogWriter;
+import org.sdnmq.jms.shm.RequestRingReader;
+import org.sdnmq.jms.shm.ShmFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport for applications running on the controller host in other processes. Packet-in events
+ * are written to a memory-mapped event log, requests are read from a memory-mapped request ring
+ * (cf. class ShmFormat for the layout of both files).
+ *
+ * @author Frank Duerr
+ */
+public class SharedMemoryTransport implements IPacketInTransport, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(SharedMemoryTransport.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Set to true to enable the shared memory transport.
+     */
+    private static final String ENABLED_PROPERTY = "sdnmq.shm.enabled";
+
+    /**
+     * Directory of the memory-mapped files (default: /dev/shm/sdnmq if /dev/shm exists,
+     * otherwise sdnmq in the temporary directory).
+     */
+    private static final String DIR_PROPERTY = "sdnmq.shm.dir";
+
+    /**
+     * Size of the data areas of the event log and the request ring in bytes.
+     */
+    private static final String EVENT_LOG_SIZE_PROPERTY = "sdnmq.shm.eventlog.size";
+    private static final int DEFAULT_EVENT_LOG_SIZE = 16*1024*1024;
+    private static final String REQUEST_RING_SIZE_PROPERTY = "sdnmq.shm.requestring.size";
+    private static final int DEFAULT_REQUEST_RING_SIZE = 4*1024*1024;
+
+    /**
+     * Time in microseconds to pause polling if the request ring is empty.
+     */
+    private static final String IDLE_WAIT_PROPERTY = "sdnmq.shm.idlewait";
+    private static final long DEFAULT_IDLE_WAIT = 50;
+
+    private volatile EventLogWriter eventLog = null;
+    private RequestRingReader requestRing = null;
+    private long idleWaitNanos;
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    private IPacketForwarder packetForwarder = null;
+    private IFlowProgrammer flowProgrammer = null;
+
+    /**
+     * Bind to PacketForwarder.
+     */
+    void setPacketForwarder(IPacketForwarder s) {
+        log.trace("Bind to PacketForwarder.");
+
+        packetForwarder = s;
+    }
+
+    /**
+     * Unbind from PacketForwarder.
+     */
+    void unsetPacketForwarder(IPacketForwarder s) {
+        log.trace("Unbind from PacketForwarder.");
+
+        if (packetForwarder == s) {
+            packetForwarder = null;
+        }
+    }
+
+    /**
+     * Bind to FlowProgrammer.
+     */
+    void setFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Bind to FlowProgrammer.");
+
+        flowProgrammer = s;
+    }
+
+    /**
+     * Unbind from FlowProgrammer.
+     */
+    void unsetFlowProgrammer(IFlowProgrammer s) {
+        log.trace("Unbind from FlowProgrammer.");
+
+        if (flowProgrammer == s) {
+            flowProgrammer = null;
+        }
+    }
+
+    /**
+     * Function called by the dependency manager if all the required
+     * dependencies are satisfied.
+     */
+    public void init() {
+        if (!ConfigHelper.getBooleanProperty(ENABLED_PROPERTY, false)) {
+            return;
+        }
+
+        File dir = new File(System.getProperty(DIR_PROPERTY, defaultDir()));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.error("Could not create shared memory directory " + dir);
+            return;
+        }
+
+        int eventLogSize = ConfigHelper.getIntProperty(EVENT_LOG_SIZE_PROPERTY, DEFAULT_EVENT_LOG_SIZE);
+        int requestRingSize = ConfigHelper.getIntProperty(REQUEST_RING_SIZE_PROPERTY, DEFAULT_REQUEST_RING_SIZE);
+        idleWaitNanos = TimeUnit.MICROSECONDS.toNanos(
+                Math.max(1, ConfigHelper.getLongProperty(IDLE_WAIT_PROPERTY, DEFAULT_IDLE_WAIT)));
+        try {
+            requestRing = new RequestRingReader(new File(dir, ShmFormat.REQUEST_RING_FILE), requestRingSize);
+            eventLog = new EventLogWriter(new File(dir, ShmFormat.EVENT_LOG_FILE), eventLogSize);
+        } catch (IOException e) {
+            log.error("Could not set up shared memory transport: " + e.getMessage());
+            requestRing = null;
+            return;
+        }
+        log.info("Using shared memory directory " + dir);
+
+        running = true;
+        thread = new Thread(this, "sdnmq-shm-requests");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Function called by the dependency manager before the component is stopped.
+     */
+    public void destroy() {
+        eventLog = null;
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    private static String defaultDir() {
+        if (new File("/dev/shm").isDirectory()) {
+            return "/dev/shm/sdnmq";
+        }
+
+        return new File(System.getProperty("java.io.tmpdir"), "sdnmq").getPath();
+    }
+
+    @Override
+    public boolean isActive() {
+        return eventLog != null;
+    }
+
+    @Override
+    public boolean publish(PacketInEvent event) {
+        EventLogWriter writer = eventLog;
+        if (writer == null) {
+            return true;
+        }
+
+        NodeConnector connector = event.getIngressConnector();
+
+        return writer.appendPacketIn(event.getPacketId(), connector.getNode().getType(),
+                connector.getNode().getNodeIDString(), connector.getNodeConnectorIDString(),
+                event.getRawPacket().getPacketData());
+    }
+
+    /**
+     * Polls the request ring.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            ByteBuffer request = requestRing.poll();
+            if (request == null) {
+                LockSupport.parkNanos(idleWaitNanos);
+                continue;
+            }
+
+            try {
+                handleRequest(requestRing.getRecordType(), request);
+            } catch (RuntimeException e) {
+                log.error("Could not handle request: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Passes a request to the packet forwarder or flow programmer.
+     *
+     * @param type the record type of the request
+     * @param request the request
+     */
+    private void handleRequest(int type, ByteBuffer request) {
+        IPacketForwarder forwarder = packetForwarder;
+        IFlowProgrammer programmer = flowProgrammer;
+        if (forwarder == null || programmer == null) {
+            log.error("Cannot handle request. Packet forwarder or flow programmer not available.");
+            return;
+        }
+
+        switch (type) {
+        case ShmFormat.TYPE_PACKET_OUT_JSON :
+        case ShmFormat.TYPE_FLOW_MOD_JSON :
+            JSONObject json = null;
+            try {
+                json = new JSONObject(UTF8.decode(request).toString());
+            } catch (JSONException e) {
+                log.error("Could not parse JSON request: " + e.getMessage());
+                return;
+            }
+            if (type == ShmFormat.TYPE_PACKET_OUT_JSON) {
+                forwarder.handleRequest(json);
+            } else {
+                programmer.handleRequest(json);
+            }
+            break;
+        case ShmFormat.TYPE_BINARY :
+            if (BinaryFormat.getMessageType(request) == BinaryFormat.TYPE_PACKET_OUT) {
+                forwarder.handleBinaryRequest(request);
+            } else {
+                programmer.handleBinaryRequest(request);
+            }
+            break;
+        default :
+            log.error("Invalid request type: " + type);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * BinaryFormat
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * BinaryFormat is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class defines the compact binary representation of requests, which can be sent as
+ * JMS BytesMessage instead of JSON text messages, and of packet-in events (published as 
+ * BytesMessage if property sdnmq.packetin.format is set to "binary"). All values are in network byte order
+ * (big endian). Nodes are OpenFlow nodes identified by their 64 bit datapath id; ports
+ * are 16 bit OpenFlow port numbers.
+ *
+ * Every message starts with a common header:
+ *
+ * <pre>
+ *  0  u16  magic (0x534D, "SM")
+ *  2  u8   version (1)
+ *  3  u8   message type (TYPE_PACKET_OUT, TYPE_FLOW_MOD, or TYPE_PACKET_IN)
+ * </pre>
+ *
+ * Packet-out request (TYPE_PACKET_OUT):
+ *
+ * <pre>
+ *  4  u16  number of targets n
+ *  6  u16  number of packets m
+ *  8  n targets of 16 bytes each:
+ *        +0   u64  datapath id
+ *        +8   u16  egress port
+ *        +10  u16  ingress port excluded from flooding (0 = none)
+ *        +12  u16  flags (TARGET_FLAG_FLOOD)
+ *        +14  u16  reserved
+ *     m packets:
+ *        +0   u16  length l
+ *        +2   l bytes raw frame
+ * </pre>
+ *
+ * Flow programming request (TYPE_FLOW_MOD):
+ *
+ * <pre>
+ *  4  u8   command (COMMAND_ADD, COMMAND_MODIFY, COMMAND_DELETE)
+ *  5  u8   flags (FLOW_FLAG_EVICTABLE)
+ *  6  u16  priority
+ *  8  u64  datapath id
+ * 16  u32  bitmap of match fields present (MATCH_*)
+ * 20  u16  ingress port
+ * 22  u16  VLAN id
+ * 24  6B   source MAC address
+ * 30  6B   destination MAC address
+ * 36  u16  ethertype
+ * 38  u8   VLAN priority
+ * 39  u8   type of service
+ * 40  u8   protocol
+ * 41  u8   padding
+ * 42  u16  transport source port
+ * 44  u16  transport destination port
+ * 46  u16  padding
+ * 48  u32  source IPv4 address
+ * 52  u32  source IPv4 mask (0 or 0xFFFFFFFF = exact match)
+ * 56  u32  destination IPv4 address
+ * 60  u32  destination IPv4 mask (0 or 0xFFFFFFFF = exact match)
+ * 64  u16  length l of flow name
+ * 66  u16  number of actions k
+ * 68  l bytes flow name (UTF-8)
+ *     k actions of 12 bytes each:
+ *        +0   u16  action type (ACTION_*)
+ *        +2   10 bytes arguments depending on the action type:
+ *             OUTPUT:                 u16 port
+ *             SET_DL_SRC, SET_DL_DST: 6 bytes MAC address
+ *             SET_NW_SRC, SET_NW_DST: u32 IPv4 address
+ *             SET_TP_SRC, SET_TP_DST: u16 port
+ *             PUSH_VLAN:              u8 pcp, u8 dei, u16 VLAN id
+ * </pre>
+ *
+ * For delete requests, only command, datapath id (ignored), and flow name are evaluated.
+ *
+ * Packet-in event (TYPE_PACKET_IN):
+ *
+ * <pre>
+ *  4  u16  ingress port
+ *  6  u16  reserved
+ *  8  u64  datapath id
+ * 16  s64  packet id (usable in packet forwarding requests; -1 if the packet is not buffered)
+ * 24  u32  length f of the raw frame
+ * 28  f bytes raw frame
+ * </pre>
+ *
+ * Header fields of the frame (addresses, ports, etc.) are not repeated; they are available 
+ * as message properties for filtering and can be read from the frame.
+ *
+ * @author Frank Duerr
+ */
+public class BinaryFormat {
+    public static final short MAGIC = 0x534D;
+    public static final byte VERSION = 1;
+
+    public static final byte TYPE_PACKET_OUT = 1;
+    public static final byte TYPE_FLOW_MOD = 2;
+    public static final byte TYPE_PACKET_IN = 3;
+
+    public static final int HEADER_LENGTH = 4;
+
+    // Packet-out request
+
+    public static final int PACKET_OUT_TARGET_COUNT_OFFSET = 4;
+    public static final int PACKET_OUT_PACKET_COUNT_OFFSET = 6;
+    public static final int PACKET_OUT_TARGETS_OFFSET = 8;
+    public static final int TARGET_LENGTH = 16;
+    public static final int TARGET_DPID_OFFSET = 0;
+    public static final int TARGET_PORT_OFFSET = 8;
+    public static final int TARGET_INGRESS_PORT_OFFSET = 10;
+    public static final int TARGET_FLAGS_OFFSET = 12;
+
+    public static final short TARGET_FLAG_FLOOD = 0x0001;
+
+    // Flow programming request
+
+    public static final byte COMMAND_ADD = 1;
+    public static final byte COMMAND_MODIFY = 2;
+    public static final byte COMMAND_DELETE = 3;
+
+    public static final byte FLOW_FLAG_EVICTABLE = 0x01;
+
+    public static final int FLOW_COMMAND_OFFSET = 4;
+    public static final int FLOW_FLAGS_OFFSET = 5;
+    public static final int FLOW_PRIORITY_OFFSET = 6;
+    public static final int FLOW_DPID_OFFSET = 8;
+    public static final int MATCH_FIELDS_OFFSET = 16;
+    public static final int MATCH_IN_PORT_OFFSET = 20;
+    public static final int MATCH_DL_VLAN_OFFSET = 22;
+    public static final int MATCH_DL_SRC_OFFSET = 24;
+    public static final int MATCH_DL_DST_OFFSET = 30;
+    public static final int MATCH_DL_TYPE_OFFSET = 36;
+    public static final int MATCH_DL_VLAN_PR_OFFSET = 38;
+    public static final int MATCH_NW_TOS_OFFSET = 39;
+    public static final int MATCH_NW_PROTO_OFFSET = 40;
+    public static final int MATCH_TP_SRC_OFFSET = 42;
+    public static final int MATCH_TP_DST_OFFSET = 44;
+    public static final int MATCH_NW_SRC_OFFSET = 48;
+    public static final int MATCH_NW_SRC_MASK_OFFSET = 52;
+    public static final int MATCH_NW_DST_OFFSET = 56;
+    public static final int MATCH_NW_DST_MASK_OFFSET = 60;
+    public static final int FLOW_NAME_LENGTH_OFFSET = 64;
+    public static final int FLOW_ACTION_COUNT_OFFSET = 66;
+    public static final int FLOW_NAME_OFFSET = 68;
+
+    // Packet-in event
+
+    public static final int PACKET_IN_PORT_OFFSET = 4;
+    public static final int PACKET_IN_DPID_OFFSET = 8;
+    public static final int PACKET_IN_ID_OFFSET = 16;
+    public static final int PACKET_IN_FRAME_LENGTH_OFFSET = 24;
+    public static final int PACKET_IN_FRAME_OFFSET = 28;
+
+    public static final int ACTION_LENGTH = 12;
+    public static final int ACTION_ARGS_OFFSET = 2;
+
+    public static final int MATCH_IN_PORT = 1 << 0;
+    public static final int MATCH_DL_SRC = 1 << 1;
+    public static final int MATCH_DL_DST = 1 << 2;
+    public static final int MATCH_DL_VLAN = 1 << 3;
+    public static final int MATCH_DL_VLAN_PR = 1 << 4;
+    public static final int MATCH_DL_TYPE = 1 << 5;
+    public static final int MATCH_NW_TOS = 1 << 6;
+    public static final int MATCH_NW_PROTO = 1 << 7;
+    public static final int MATCH_NW_SRC = 1 << 8;
+    public static final int MATCH_NW_DST = 1 << 9;
+    public static final int MATCH_TP_SRC = 1 << 10;
+    public static final int MATCH_TP_DST = 1 << 11;
+
+    public static final short ACTION_LOOPBACK = 1;
+    public static final short ACTION_OUTPUT = 2;
+    public static final short ACTION_FLOOD = 3;
+    public static final short ACTION_DROP = 4;
+    public static final short ACTION_CONTROLLER = 5;
+    public static final short ACTION_SET_DL_SRC = 6;
+    public static final short ACTION_SET_DL_DST = 7;
+    public static final short ACTION_SET_NW_SRC = 8;
+    public static final short ACTION_SET_NW_DST = 9;
+    public static final short ACTION_SET_TP_SRC = 10;
+    public static final short ACTION_SET_TP_DST = 11;
+    public static final short ACTION_PUSH_VLAN = 12;
+    public static final short ACTION_POP_VLAN = 13;
+
+    /**
+     * Checks the common header of a binary message.
+     *
+     * @param buf the message (position 0 is the start of the message)
+     * @return the message type or -1 if the header is invalid or the version is not supported
+     */
+    public static int getMessageType(ByteBuffer buf) {
+        if (buf.limit() < HEADER_LENGTH) {
+            return -1;
+        }
+
+        if (buf.getShort(0) != MAGIC || buf.get(2) != VERSION) {
+            return -1;
+        }
+
+        return buf.get(3);
+    }
+
+    /**
+     * Writes the common header of a binary message.
+     *
+     * @param buf the buffer (position 0 is the start of the message)
+     * @param type the message type
+     */
+    public static void putHeader(ByteBuffer buf, byte type) {
+        buf.putShort(0, MAGIC);
+        buf.put(2, VERSION);
+        buf.put(3, type);
+    }
+
+    /**
+     * Converts a datapath id to the string representation of OpenFlow node ids
+     * (e.g., "00:00:00:00:00:00:00:01").
+     */
+    public static String dpidToString(long dpid) {
+        char[] chars = new char[23];
+        int pos = 0;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            int b = (int) (dpid >>> shift) & 0xff;
+            chars[pos++] = Character.forDigit(b >>> 4, 16);
+            chars[pos++] = Character.forDigit(b & 0x0f, 16);
+            if (shift > 0) {
+                chars[pos++] = ':';
+            }
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * FlowModDecoder
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowModDecoder is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Decoder for flow programming requests in binary representation (cf. class BinaryFormat).
+ *
+ * The decoder reads fields in place from fixed offsets of the wrapped buffer.
+ *
+ * @author Frank Duerr
+ */
+public class FlowModDecoder {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ByteBuffer buf = null;
+    private int actionsOffset = 0;
+    private int actionCount = 0;
+
+    /**
+     * Wraps a binary flow programming request.
+     *
+     * @param buf the request (position 0 is the start of the request)
+     * @return true if the request is a valid flow programming request
+     */
+    public boolean wrap(ByteBuffer buf) {
+        this.buf = buf;
+
+        if (BinaryFormat.getMessageType(buf) != BinaryFormat.TYPE_FLOW_MOD ||
+                buf.limit() < BinaryFormat.FLOW_NAME_OFFSET) {
+            return false;
+        }
+
+        int nameLength = buf.getShort(BinaryFormat.FLOW_NAME_LENGTH_OFFSET) & 0xffff;
+        actionCount = buf.getShort(BinaryFormat.FLOW_ACTION_COUNT_OFFSET) & 0xffff;
+        actionsOffset = BinaryFormat.FLOW_NAME_OFFSET + nameLength;
+
+        return (actionsOffset + actionCount*BinaryFormat.ACTION_LENGTH <= buf.limit());
+    }
+
+    public byte getCommand() {
+        return buf.get(BinaryFormat.FLOW_COMMAND_OFFSET);
+    }
+
+    public boolean isEvictable() {
+        return (buf.get(BinaryFormat.FLOW_FLAGS_OFFSET) & BinaryFormat.FLOW_FLAG_EVICTABLE) != 0;
+    }
+
+    public short getPriority() {
+        return buf.getShort(BinaryFormat.FLOW_PRIORITY_OFFSET);
+    }
+
+    public long getDpid() {
+        return buf.getLong(BinaryFormat.FLOW_DPID_OFFSET);
+    }
+
+    public String getFlowName() {
+        int length = buf.getShort(BinaryFormat.FLOW_NAME_LENGTH_OFFSET) & 0xffff;
+        byte[] name = new byte[length];
+        ByteBuffer nameBuf = buf.duplicate();
+        nameBuf.position(BinaryFormat.FLOW_NAME_OFFSET);
+        nameBuf.get(name);
+
+        return new String(name, UTF8);
+    }
+
+    // Match fields
+
+    /**
+     * @param field one of BinaryFormat.MATCH_*
+     * @return true if the match field is defined
+     */
+    public boolean hasMatchField(int field) {
+        return (buf.getInt(BinaryFormat.MATCH_FIELDS_OFFSET) & field) != 0;
+    }
+
+    public int getInPort() {
+        return buf.getShort(BinaryFormat.MATCH_IN_PORT_OFFSET) & 0xffff;
+    }
+
+    public short getDlVlan() {
+        return buf.getShort(BinaryFormat.MATCH_DL_VLAN_OFFSET);
+    }
+
+    public byte getDlVlanPriority() {
+        return buf.get(BinaryFormat.MATCH_DL_VLAN_PR_OFFSET);
+    }
+
+    public byte[] getDlSrc() {
+        return getMac(BinaryFormat.MATCH_DL_SRC_OFFSET);
+    }
+
+    public byte[] getDlDst() {
+        return getMac(BinaryFormat.MATCH_DL_DST_OFFSET);
+    }
+
+    public short getDlType() {
+        return buf.getShort(BinaryFormat.MATCH_DL_TYPE_OFFSET);
+    }
+
+    public byte getNwTos() {
+        return buf.get(BinaryFormat.MATCH_NW_TOS_OFFSET);
+    }
+
+    public byte getNwProto() {
+        return buf.get(BinaryFormat.MATCH_NW_PROTO_OFFSET);
+    }
+
+    public int getNwSrc() {
+        return buf.getInt(BinaryFormat.MATCH_NW_SRC_OFFSET);
+    }
+
+    public int getNwSrcMask() {
+        return buf.getInt(BinaryFormat.MATCH_NW_SRC_MASK_OFFSET);
+    }
+
+    public int getNwDst() {
+        return buf.getInt(BinaryFormat.MATCH_NW_DST_OFFSET);
+    }
+
+    public int getNwDstMask() {
+        return buf.getInt(BinaryFormat.MATCH_NW_DST_MASK_OFFSET);
+    }
+
+    public short getTpSrc() {
+        return buf.getShort(BinaryFormat.MATCH_TP_SRC_OFFSET);
+    }
+
+    public short getTpDst() {
+        return buf.getShort(BinaryFormat.MATCH_TP_DST_OFFSET);
+    }
+
+    // Actions
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    /**
+     * @return the type of action i (one of BinaryFormat.ACTION_*)
+     */
+    public short getActionType(int i) {
+        return buf.getShort(actionOffset(i));
+    }
+
+    /**
+     * @return the port argument of an OUTPUT, SET_TP_SRC, or SET_TP_DST action
+     */
+    public int getActionPort(int i) {
+        return buf.getShort(actionOffset(i) + BinaryFormat.ACTION_ARGS_OFFSET) & 0xffff;
+    }
+
+    /**
+     * @return the MAC address argument of a SET_DL_SRC or SET_DL_DST action
+     */
+    public byte[] getActionDlAddress(int i) {
+        return getMac(actionOffset(i) + BinaryFormat.ACTION_ARGS_OFFSET);
+    }
+
+    /**
+     * @return the IPv4 address argument of a SET_NW_SRC or SET_NW_DST action
+     */
+    public int getActionNwAddress(int i) {
+        return buf.getInt(actionOffset(i) + BinaryFormat.ACTION_ARGS_OFFSET);
+    }
+
+    public int getActionVlanPcp(int i) {
+        return buf.get(actionOffset(i) + BinaryFormat.ACTION_ARGS_OFFSET) & 0xff;
+    }
+
+    public int getActionVlanDei(int i) {
+        return buf.get(actionOffset(i) + BinaryFormat.ACTION_ARGS_OFFSET + 1) & 0xff;
+    }
+
+    public int getActionVlanId(int i) {
+        return buf.getShort(actionOffset(i) + BinaryFormat.ACTION_ARGS_OFFSET + 2) & 0xffff;
+    }
+
+    private int actionOffset(int i) {
+        return actionsOffset + i*BinaryFormat.ACTION_LENGTH;
+    }
+
+    private byte[] getMac(int pos) {
+        byte[] mac = new byte[6];
+        for (int i = 0; i < 6; i++) {
+            mac[i] = buf.get(pos + i);
+        }
+
+        return mac;
+    }
+}
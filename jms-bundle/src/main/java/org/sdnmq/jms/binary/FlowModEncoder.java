@@ -0,0 +1,296 @@
+/**
+ * FlowModEncoder
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowModEncoder is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Client-side encoder for flow programming requests in binary representation (cf. class BinaryFormat).
+ *
+ * Usage:
+ *
+ * <pre>
+ * byte[] request = new FlowModEncoder(BinaryFormat.COMMAND_ADD, "DemoFlow", dpid)
+ *     .matchInPort(1).matchDlType((short) 0x0800).output(2).encode();
+ * BytesMessage msg = session.createBytesMessage();
+ * msg.writeBytes(request);
+ * </pre>
+ *
+ * @author Frank Duerr
+ */
+public class FlowModEncoder {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAX_ACTIONS = 64;
+
+    private final byte[] header = new byte[BinaryFormat.FLOW_NAME_OFFSET];
+    private final ByteBuffer headerBuf = ByteBuffer.wrap(header);
+    private final byte[] actions = new byte[MAX_ACTIONS*BinaryFormat.ACTION_LENGTH];
+    private final ByteBuffer actionsBuf = ByteBuffer.wrap(actions);
+    private int actionCount = 0;
+    private byte[] flowName = new byte[0];
+
+    /**
+     * Constructor.
+     *
+     * @param command one of BinaryFormat.COMMAND_*
+     * @param flowName the name of the flow
+     * @param dpid the datapath id of the node to be programmed
+     */
+    public FlowModEncoder(byte command, String flowName, long dpid) {
+        reset(command, flowName, dpid);
+    }
+
+    /**
+     * Resets the encoder for encoding a new request.
+     *
+     * @param command one of BinaryFormat.COMMAND_*
+     * @param flowName the name of the flow
+     * @param dpid the datapath id of the node to be programmed
+     */
+    public FlowModEncoder reset(byte command, String flowName, long dpid) {
+        for (int i = 0; i < header.length; i++) {
+            header[i] = 0;
+        }
+        BinaryFormat.putHeader(headerBuf, BinaryFormat.TYPE_FLOW_MOD);
+        headerBuf.put(BinaryFormat.FLOW_COMMAND_OFFSET, command);
+        headerBuf.putLong(BinaryFormat.FLOW_DPID_OFFSET, dpid);
+        headerBuf.putInt(BinaryFormat.MATCH_NW_SRC_MASK_OFFSET, 0xffffffff);
+        headerBuf.putInt(BinaryFormat.MATCH_NW_DST_MASK_OFFSET, 0xffffffff);
+
+        this.flowName = flowName.getBytes(UTF8);
+        if (this.flowName.length > 0xffff) {
+            throw new IllegalArgumentException("Flow name too long");
+        }
+        actionCount = 0;
+
+        return this;
+    }
+
+    public FlowModEncoder setPriority(short priority) {
+        headerBuf.putShort(BinaryFormat.FLOW_PRIORITY_OFFSET, priority);
+        return this;
+    }
+
+    public FlowModEncoder setEvictable(boolean evictable) {
+        byte flags = headerBuf.get(BinaryFormat.FLOW_FLAGS_OFFSET);
+        if (evictable) {
+            flags |= BinaryFormat.FLOW_FLAG_EVICTABLE;
+        } else {
+            flags &= ~BinaryFormat.FLOW_FLAG_EVICTABLE;
+        }
+        headerBuf.put(BinaryFormat.FLOW_FLAGS_OFFSET, flags);
+        return this;
+    }
+
+    // Match fields
+
+    public FlowModEncoder matchInPort(int port) {
+        headerBuf.putShort(BinaryFormat.MATCH_IN_PORT_OFFSET, (short) port);
+        return setMatchField(BinaryFormat.MATCH_IN_PORT);
+    }
+
+    public FlowModEncoder matchDlSrc(byte[] mac) {
+        putMac(headerBuf, BinaryFormat.MATCH_DL_SRC_OFFSET, mac);
+        return setMatchField(BinaryFormat.MATCH_DL_SRC);
+    }
+
+    public FlowModEncoder matchDlDst(byte[] mac) {
+        putMac(headerBuf, BinaryFormat.MATCH_DL_DST_OFFSET, mac);
+        return setMatchField(BinaryFormat.MATCH_DL_DST);
+    }
+
+    public FlowModEncoder matchDlVlan(short vlan) {
+        headerBuf.putShort(BinaryFormat.MATCH_DL_VLAN_OFFSET, vlan);
+        return setMatchField(BinaryFormat.MATCH_DL_VLAN);
+    }
+
+    public FlowModEncoder matchDlVlanPriority(byte priority) {
+        headerBuf.put(BinaryFormat.MATCH_DL_VLAN_PR_OFFSET, priority);
+        return setMatchField(BinaryFormat.MATCH_DL_VLAN_PR);
+    }
+
+    public FlowModEncoder matchDlType(short ethertype) {
+        headerBuf.putShort(BinaryFormat.MATCH_DL_TYPE_OFFSET, ethertype);
+        return setMatchField(BinaryFormat.MATCH_DL_TYPE);
+    }
+
+    public FlowModEncoder matchNwTos(byte tos) {
+        headerBuf.put(BinaryFormat.MATCH_NW_TOS_OFFSET, tos);
+        return setMatchField(BinaryFormat.MATCH_NW_TOS);
+    }
+
+    public FlowModEncoder matchNwProto(byte protocol) {
+        headerBuf.put(BinaryFormat.MATCH_NW_PROTO_OFFSET, protocol);
+        return setMatchField(BinaryFormat.MATCH_NW_PROTO);
+    }
+
+    /**
+     * @param addr IPv4 address (big endian integer)
+     * @param mask network mask (0xFFFFFFFF for an exact match)
+     */
+    public FlowModEncoder matchNwSrc(int addr, int mask) {
+        headerBuf.putInt(BinaryFormat.MATCH_NW_SRC_OFFSET, addr);
+        headerBuf.putInt(BinaryFormat.MATCH_NW_SRC_MASK_OFFSET, mask);
+        return setMatchField(BinaryFormat.MATCH_NW_SRC);
+    }
+
+    /**
+     * @param addr IPv4 address (big endian integer)
+     * @param mask network mask (0xFFFFFFFF for an exact match)
+     */
+    public FlowModEncoder matchNwDst(int addr, int mask) {
+        headerBuf.putInt(BinaryFormat.MATCH_NW_DST_OFFSET, addr);
+        headerBuf.putInt(BinaryFormat.MATCH_NW_DST_MASK_OFFSET, mask);
+        return setMatchField(BinaryFormat.MATCH_NW_DST);
+    }
+
+    public FlowModEncoder matchTpSrc(short port) {
+        headerBuf.putShort(BinaryFormat.MATCH_TP_SRC_OFFSET, port);
+        return setMatchField(BinaryFormat.MATCH_TP_SRC);
+    }
+
+    public FlowModEncoder matchTpDst(short port) {
+        headerBuf.putShort(BinaryFormat.MATCH_TP_DST_OFFSET, port);
+        return setMatchField(BinaryFormat.MATCH_TP_DST);
+    }
+
+    // Actions
+
+    public FlowModEncoder loopback() {
+        return addAction(BinaryFormat.ACTION_LOOPBACK);
+    }
+
+    public FlowModEncoder output(int port) {
+        int pos = addActionPos(BinaryFormat.ACTION_OUTPUT);
+        actionsBuf.putShort(pos + BinaryFormat.ACTION_ARGS_OFFSET, (short) port);
+        return this;
+    }
+
+    public FlowModEncoder flood() {
+        return addAction(BinaryFormat.ACTION_FLOOD);
+    }
+
+    public FlowModEncoder drop() {
+        return addAction(BinaryFormat.ACTION_DROP);
+    }
+
+    public FlowModEncoder controller() {
+        return addAction(BinaryFormat.ACTION_CONTROLLER);
+    }
+
+    public FlowModEncoder setDlSrc(byte[] mac) {
+        int pos = addActionPos(BinaryFormat.ACTION_SET_DL_SRC);
+        putMac(actionsBuf, pos + BinaryFormat.ACTION_ARGS_OFFSET, mac);
+        return this;
+    }
+
+    public FlowModEncoder setDlDst(byte[] mac) {
+        int pos = addActionPos(BinaryFormat.ACTION_SET_DL_DST);
+        putMac(actionsBuf, pos + BinaryFormat.ACTION_ARGS_OFFSET, mac);
+        return this;
+    }
+
+    public FlowModEncoder setNwSrc(int addr) {
+        int pos = addActionPos(BinaryFormat.ACTION_SET_NW_SRC);
+        actionsBuf.putInt(pos + BinaryFormat.ACTION_ARGS_OFFSET, addr);
+        return this;
+    }
+
+    public FlowModEncoder setNwDst(int addr) {
+        int pos = addActionPos(BinaryFormat.ACTION_SET_NW_DST);
+        actionsBuf.putInt(pos + BinaryFormat.ACTION_ARGS_OFFSET, addr);
+        return this;
+    }
+
+    public FlowModEncoder setTpSrc(int port) {
+        int pos = addActionPos(BinaryFormat.ACTION_SET_TP_SRC);
+        actionsBuf.putShort(pos + BinaryFormat.ACTION_ARGS_OFFSET, (short) port);
+        return this;
+    }
+
+    public FlowModEncoder setTpDst(int port) {
+        int pos = addActionPos(BinaryFormat.ACTION_SET_TP_DST);
+        actionsBuf.putShort(pos + BinaryFormat.ACTION_ARGS_OFFSET, (short) port);
+        return this;
+    }
+
+    public FlowModEncoder pushVlan(int pcp, int dei, int vlanId) {
+        int pos = addActionPos(BinaryFormat.ACTION_PUSH_VLAN);
+        actionsBuf.put(pos + BinaryFormat.ACTION_ARGS_OFFSET, (byte) pcp);
+        actionsBuf.put(pos + BinaryFormat.ACTION_ARGS_OFFSET + 1, (byte) dei);
+        actionsBuf.putShort(pos + BinaryFormat.ACTION_ARGS_OFFSET + 2, (short) vlanId);
+        return this;
+    }
+
+    public FlowModEncoder popVlan() {
+        return addAction(BinaryFormat.ACTION_POP_VLAN);
+    }
+
+    /**
+     * @return the size of the encoded request in bytes
+     */
+    public int getEncodedLength() {
+        return BinaryFormat.FLOW_NAME_OFFSET + flowName.length + actionCount*BinaryFormat.ACTION_LENGTH;
+    }
+
+    /**
+     * Encodes the request.
+     *
+     * @return the binary request
+     */
+    public byte[] encode() {
+        headerBuf.putShort(BinaryFormat.FLOW_NAME_LENGTH_OFFSET, (short) flowName.length);
+        headerBuf.putShort(BinaryFormat.FLOW_ACTION_COUNT_OFFSET, (short) actionCount);
+
+        byte[] bytes = new byte[getEncodedLength()];
+        System.arraycopy(header, 0, bytes, 0, header.length);
+        System.arraycopy(flowName, 0, bytes, header.length, flowName.length);
+        System.arraycopy(actions, 0, bytes, header.length + flowName.length, actionCount*BinaryFormat.ACTION_LENGTH);
+
+        return bytes;
+    }
+
+    private FlowModEncoder setMatchField(int field) {
+        int fields = headerBuf.getInt(BinaryFormat.MATCH_FIELDS_OFFSET);
+        headerBuf.putInt(BinaryFormat.MATCH_FIELDS_OFFSET, fields | field);
+        return this;
+    }
+
+    private FlowModEncoder addAction(short type) {
+        addActionPos(type);
+        return this;
+    }
+
+    private int addActionPos(short type) {
+        if (actionCount == MAX_ACTIONS) {
+            throw new IllegalStateException("Too many actions");
+        }
+
+        int pos = actionCount*BinaryFormat.ACTION_LENGTH;
+        for (int i = 0; i < BinaryFormat.ACTION_LENGTH; i++) {
+            actions[pos + i] = 0;
+        }
+        actionsBuf.putShort(pos, type);
+        actionCount++;
+
+        return pos;
+    }
+
+    private static void putMac(ByteBuffer buf, int pos, byte[] mac) {
+        if (mac.length != 6) {
+            throw new IllegalArgumentException("Invalid MAC address");
+        }
+        for (int i = 0; i < 6; i++) {
+            buf.put(pos + i, mac[i]);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * PacketInEncoder
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketInEncoder is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder for packet-in events in binary representation (cf. class BinaryFormat).
+ *
+ * @author Frank Duerr
+ */
+public class PacketInEncoder {
+    /**
+     * @param frameLength the length of the raw frame
+     * @return the size of the encoded event in bytes
+     */
+    public static int getEncodedLength(int frameLength) {
+        return BinaryFormat.PACKET_IN_FRAME_OFFSET + frameLength;
+    }
+
+    /**
+     * Encodes a packet-in event.
+     *
+     * @param dpid datapath id of the node that received the packet
+     * @param port ingress port
+     * @param packetId the id of the buffered packet (-1 if not buffered)
+     * @param frame the raw frame
+     * @return the binary event
+     */
+    public static byte[] encode(long dpid, int port, long packetId, byte[] frame) {
+        byte[] bytes = new byte[getEncodedLength(frame.length)];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+
+        BinaryFormat.putHeader(buf, BinaryFormat.TYPE_PACKET_IN);
+        buf.putShort(BinaryFormat.PACKET_IN_PORT_OFFSET, (short) port);
+        buf.putShort(BinaryFormat.PACKET_IN_PORT_OFFSET + 2, (short) 0);
+        buf.putLong(BinaryFormat.PACKET_IN_DPID_OFFSET, dpid);
+        buf.putLong(BinaryFormat.PACKET_IN_ID_OFFSET, packetId);
+        buf.putInt(BinaryFormat.PACKET_IN_FRAME_LENGTH_OFFSET, frame.length);
+        System.arraycopy(frame, 0, bytes, BinaryFormat.PACKET_IN_FRAME_OFFSET, frame.length);
+
+        return bytes;
+    }
+}
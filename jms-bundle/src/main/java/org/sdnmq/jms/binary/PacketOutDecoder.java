@@ -0,0 +1,115 @@
+/**
+ * PacketOutDecoder
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketOutDecoder is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder for packet-out requests in binary representation (cf. class BinaryFormat).
+ *
+ * The decoder reads fields in place from the wrapped buffer without copying the request.
+ *
+ * @author Frank Duerr
+ */
+public class PacketOutDecoder {
+    private ByteBuffer buf = null;
+    private int targetCount = 0;
+    private int packetCount = 0;
+    private int[] packetOffsets = new int[0];
+    private int[] packetLengths = new int[0];
+
+    /**
+     * Wraps a binary packet-out request.
+     *
+     * @param buf the request (position 0 is the start of the request)
+     * @return true if the request is a valid packet-out request
+     */
+    public boolean wrap(ByteBuffer buf) {
+        this.buf = buf;
+
+        if (BinaryFormat.getMessageType(buf) != BinaryFormat.TYPE_PACKET_OUT ||
+                buf.limit() < BinaryFormat.PACKET_OUT_TARGETS_OFFSET) {
+            return false;
+        }
+
+        targetCount = buf.getShort(BinaryFormat.PACKET_OUT_TARGET_COUNT_OFFSET) & 0xffff;
+        int packetCount = buf.getShort(BinaryFormat.PACKET_OUT_PACKET_COUNT_OFFSET) & 0xffff;
+
+        if (packetOffsets.length < packetCount) {
+            packetOffsets = new int[packetCount];
+            packetLengths = new int[packetCount];
+        }
+
+        int pos = BinaryFormat.PACKET_OUT_TARGETS_OFFSET + targetCount*BinaryFormat.TARGET_LENGTH;
+        if (pos > buf.limit()) {
+            return false;
+        }
+        for (int i = 0; i < packetCount; i++) {
+            if (pos + 2 > buf.limit()) {
+                return false;
+            }
+            int length = buf.getShort(pos) & 0xffff;
+            pos += 2;
+            if (pos + length > buf.limit()) {
+                return false;
+            }
+            packetOffsets[i] = pos;
+            packetLengths[i] = length;
+            pos += length;
+        }
+        this.packetCount = packetCount;
+
+        return true;
+    }
+
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    public long getTargetDpid(int i) {
+        return buf.getLong(targetOffset(i) + BinaryFormat.TARGET_DPID_OFFSET);
+    }
+
+    public int getTargetPort(int i) {
+        return buf.getShort(targetOffset(i) + BinaryFormat.TARGET_PORT_OFFSET) & 0xffff;
+    }
+
+    public int getTargetIngressPort(int i) {
+        return buf.getShort(targetOffset(i) + BinaryFormat.TARGET_INGRESS_PORT_OFFSET) & 0xffff;
+    }
+
+    public boolean isFloodTarget(int i) {
+        return (buf.getShort(targetOffset(i) + BinaryFormat.TARGET_FLAGS_OFFSET) & BinaryFormat.TARGET_FLAG_FLOOD) != 0;
+    }
+
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    public int getPacketLength(int i) {
+        return packetLengths[i];
+    }
+
+    /**
+     * Copies a packet into a new byte array.
+     */
+    public byte[] getPacket(int i) {
+        byte[] packet = new byte[packetLengths[i]];
+        ByteBuffer packetBuf = buf.duplicate();
+        packetBuf.position(packetOffsets[i]);
+        packetBuf.get(packet);
+
+        return packet;
+    }
+
+    private int targetOffset(int i) {
+        return BinaryFormat.PACKET_OUT_TARGETS_OFFSET + i*BinaryFormat.TARGET_LENGTH;
+    }
+}
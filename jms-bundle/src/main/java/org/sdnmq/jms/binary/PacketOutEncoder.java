@@ -0,0 +1,135 @@
+/**
+ * PacketOutEncoder
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketOutEncoder is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client-side encoder for packet-out requests in binary representation (cf. class BinaryFormat).
+ *
+ * Usage:
+ *
+ * <pre>
+ * byte[] request = new PacketOutEncoder().addTarget(dpid, port).addPacket(frame).encode();
+ * BytesMessage msg = session.createBytesMessage();
+ * msg.writeBytes(request);
+ * </pre>
+ *
+ * An encoder can be reused for further requests after calling reset().
+ *
+ * @author Frank Duerr
+ */
+public class PacketOutEncoder {
+    private final List<long[]> targets = new ArrayList<long[]>();
+    private final List<byte[]> packets = new ArrayList<byte[]>();
+
+    /**
+     * Adds a target port.
+     *
+     * @param dpid datapath id of the node
+     * @param port egress port
+     */
+    public PacketOutEncoder addTarget(long dpid, int port) {
+        targets.add(new long[] {dpid, port, 0, 0});
+        return this;
+    }
+
+    /**
+     * Adds a node to which the packets are flooded.
+     *
+     * @param dpid datapath id of the node
+     * @param ingressPort port excluded from flooding (0 = none)
+     */
+    public PacketOutEncoder addFloodTarget(long dpid, int ingressPort) {
+        targets.add(new long[] {dpid, 0, ingressPort, BinaryFormat.TARGET_FLAG_FLOOD});
+        return this;
+    }
+
+    /**
+     * Adds a packet to be sent to all targets.
+     *
+     * @param packet the raw frame (at most 65535 bytes)
+     */
+    public PacketOutEncoder addPacket(byte[] packet) {
+        if (packet.length > 0xffff) {
+            throw new IllegalArgumentException("Packet too large");
+        }
+        packets.add(packet);
+        return this;
+    }
+
+    /**
+     * Removes all targets and packets.
+     */
+    public PacketOutEncoder reset() {
+        targets.clear();
+        packets.clear();
+        return this;
+    }
+
+    /**
+     * @return the size of the encoded request in bytes
+     */
+    public int getEncodedLength() {
+        int length = BinaryFormat.PACKET_OUT_TARGETS_OFFSET + targets.size()*BinaryFormat.TARGET_LENGTH;
+        for (byte[] packet : packets) {
+            length += 2 + packet.length;
+        }
+
+        return length;
+    }
+
+    /**
+     * Encodes the request.
+     *
+     * @return the binary request
+     */
+    public byte[] encode() {
+        byte[] bytes = new byte[getEncodedLength()];
+        encode(ByteBuffer.wrap(bytes));
+
+        return bytes;
+    }
+
+    /**
+     * Encodes the request into the given buffer starting at position 0.
+     *
+     * @param buf the buffer (must have at least getEncodedLength() bytes)
+     * @return the number of bytes written
+     */
+    public int encode(ByteBuffer buf) {
+        BinaryFormat.putHeader(buf, BinaryFormat.TYPE_PACKET_OUT);
+        buf.putShort(BinaryFormat.PACKET_OUT_TARGET_COUNT_OFFSET, (short) targets.size());
+        buf.putShort(BinaryFormat.PACKET_OUT_PACKET_COUNT_OFFSET, (short) packets.size());
+
+        int pos = BinaryFormat.PACKET_OUT_TARGETS_OFFSET;
+        for (long[] target : targets) {
+            buf.putLong(pos + BinaryFormat.TARGET_DPID_OFFSET, target[0]);
+            buf.putShort(pos + BinaryFormat.TARGET_PORT_OFFSET, (short) target[1]);
+            buf.putShort(pos + BinaryFormat.TARGET_INGRESS_PORT_OFFSET, (short) target[2]);
+            buf.putShort(pos + BinaryFormat.TARGET_FLAGS_OFFSET, (short) target[3]);
+            buf.putShort(pos + BinaryFormat.TARGET_FLAGS_OFFSET + 2, (short) 0);
+            pos += BinaryFormat.TARGET_LENGTH;
+        }
+
+        ByteBuffer packetBuf = buf.duplicate();
+        for (byte[] packet : packets) {
+            buf.putShort(pos, (short) packet.length);
+            pos += 2;
+            packetBuf.position(pos);
+            packetBuf.put(packet);
+            pos += packet.length;
+        }
+
+        return pos;
+    }
+}
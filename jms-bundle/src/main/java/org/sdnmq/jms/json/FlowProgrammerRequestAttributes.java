@@ -23,7 +23,11 @@ public class FlowProgrammerRequestAttributes {
         COMMAND("command"),
         FLOW("flow"),
         NODE("node"),
-        FLOW_NAME("flowName");
+        FLOW_NAME("flowName"),
+        EVICTABLE("evictable"),
+        TAG("tag"),
+        FLOW_NAME_PREFIX("flowNamePrefix"),
+        PACKET_OUT("packetOut");
         
         private String json;
         
@@ -42,7 +46,9 @@ public class FlowProgrammerRequestAttributes {
     public enum CommandValues {
         ADD("add"),
         MODIFY("modify"),
-        DELETE("delete");
+        PATCH("patch"),
+        DELETE("delete"),
+        DELETE_ALL("deleteAll");
         
         private String json;
         
@@ -23,7 +23,12 @@ public class PacketForwarderRequestAttributes {
     public enum Keys {
         NODE("node"),
         EGRESS_PORT("egressPort"),
-        PACKET("packet");
+        PACKET("packet"),
+        PACKETS("packets"),
+        TARGETS("targets"),
+        FLOOD("flood"),
+        INGRESS_PORT("ingressPort"),
+        PACKET_ID("packetId");
         
         private String json;
         
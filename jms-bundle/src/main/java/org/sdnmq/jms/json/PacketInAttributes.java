@@ -28,7 +28,8 @@ public class PacketInAttributes {
         TP_DST("tpDst"),
         PACKET("packet"),
         NODE("node"),
-        INGRESS_PORT("ingressPort");
+        INGRESS_PORT("ingressPort"),
+        PACKET_ID("packetId");
         
         private String json;
         
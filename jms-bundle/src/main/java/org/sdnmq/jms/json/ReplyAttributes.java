@@ -0,0 +1,50 @@
+/**
+ * ReplyAttributes
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * ReplyAttributes is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.json;
+
+/**
+ * This class defines all possible attributes (keys) of a reply object in JSON. 
+ * Replies are sent to the destination given in the JMSReplyTo header of a request.
+ * 
+ * @author Frank Duerr
+ */
+public class ReplyAttributes {
+    public enum Keys {
+        STATUS("status"),
+        DESCRIPTION("description"),
+        // Set in the status reply of a flow programming request if its embedded packet-out request failed.
+        PACKET_OUT_ERROR("packetOutError");
+        
+        private String json;
+        
+        Keys(String json) {
+            this.json = json;
+        }
+        
+        public String toJSON() {
+            return json;
+        }
+    }
+    
+    public enum StatusValues {
+        OK("ok"),
+        ERROR("error");
+        
+        private String json;
+        
+        StatusValues(String json) {
+            this.json = json;
+        }
+        
+        public String toJSON() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * RuleRequestAttributes
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RuleRequestAttributes is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.json;
+
+/**
+ * This class defines all possible attributes (keys) of a reactive rule request object in JSON.
+ * 
+ * The keys of the match object are the filter names defined by class MessageFilterAttributes.
+ * 
+ * @author Frank Duerr
+ */
+public class RuleRequestAttributes {
+    /**
+     * Possible keys of the JSON object.
+     */
+    public enum Keys {
+        COMMAND("command"),
+        RULE_NAME("ruleName"),
+        PRIORITY("priority"),
+        MATCH("match"),
+        PACKET_OUT("packetOut"),
+        FLOW("flow"),
+        EVICTABLE("evictable");
+        
+        private String json;
+        
+        Keys(String json) {
+            this.json = json;
+        }
+        
+        public String toJSON() {
+            return json;
+        }
+    }
+    
+    /**
+     * Possible values of the key COMMAND.
+     */
+    public enum CommandValues {
+        ADD("add"),
+        DELETE("delete");
+        
+        private String json;
+        
+        CommandValues(String json) {
+            this.json = json;
+        }
+        
+        public String toJSON() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * EventLogReader
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * EventLogReader is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Consumer of the event log (cf. class ShmFormat). A reader must only be used by a single thread.
+ *
+ * @author Frank Duerr
+ */
+public class EventLogReader {
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private long position;
+    private long lostBytes = 0;
+    private int recordType = 0;
+
+    /**
+     * Attaches to an event log. The reader starts with the next record written.
+     *
+     * @param file the event log file
+     */
+    public EventLogReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            buf = ShmFormat.attach(raf);
+        } finally {
+            raf.close();
+        }
+        capacity = buf.getInt(ShmFormat.CAPACITY_OFFSET);
+        position = buf.getLong(ShmFormat.TAIL_OFFSET);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return a copy of the payload of the record (position 0 is the start of the payload), 
+     * or null if no record is available
+     */
+    public ByteBuffer poll() {
+        while (true) {
+            long tail = buf.getLong(ShmFormat.TAIL_OFFSET);
+            if (tail < position) {
+                // Log has been re-initialized.
+                position = tail;
+            }
+            if (tail == position) {
+                return null;
+            }
+            if (tail - position > capacity) {
+                // Overrun by the producer.
+                lostBytes += tail - position;
+                position = tail;
+                return null;
+            }
+
+            // Read the record only after reading the tail publishing it.
+            MemoryFence.fence();
+            int offset = (int) (position & (capacity - 1));
+            int length = buf.getInt(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_LENGTH_OFFSET);
+            if (length == ShmFormat.PADDING) {
+                position += capacity - offset;
+                continue;
+            }
+            int type = buf.getInt(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_TYPE_OFFSET);
+            int size = ShmFormat.recordSize(length);
+
+            byte[] payload = null;
+            if (length >= 0 && offset + size <= capacity) {
+                payload = new byte[length];
+                int pos = ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_HEADER_LENGTH;
+                for (int i = 0; i < length; i++) {
+                    payload[i] = buf.get(pos + i);
+                }
+            }
+
+            // Check that the producer did not overwrite the record while it was copied.
+            MemoryFence.fence();
+            long tailIntent = buf.getLong(ShmFormat.TAIL_INTENT_OFFSET);
+            if (payload == null || tailIntent - position > capacity) {
+                long newTail = buf.getLong(ShmFormat.TAIL_OFFSET);
+                lostBytes += Math.max(0, newTail - position);
+                position = newTail;
+                return null;
+            }
+
+            position += size;
+            recordType = type;
+
+            return ByteBuffer.wrap(payload);
+        }
+    }
+
+    /**
+     * @return the type of the record returned by the last call of poll() (ShmFormat.TYPE_*)
+     */
+    public int getRecordType() {
+        return recordType;
+    }
+
+    /**
+     * @return the number of bytes of records lost since the reader was attached because the reader 
+     * was too slow
+     */
+    public long getLostBytes() {
+        return lostBytes;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * EventLogWriter
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * EventLogWriter is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Producer of the event log (cf. class ShmFormat). The writer is thread-safe.
+ *
+ * @author Frank Duerr
+ */
+public class EventLogWriter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private long tail = 0;
+
+    /**
+     * Creates (or re-initializes) the event log.
+     *
+     * @param file the event log file
+     * @param size the requested size of the data area in bytes (rounded up to a power of two)
+     */
+    public EventLogWriter(File file, int size) throws IOException {
+        capacity = ShmFormat.toCapacity(size);
+        buf = ShmFormat.create(file, capacity);
+    }
+
+    /**
+     * @return the capacity of the data area in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Appends a packet-in record.
+     *
+     * @param packetId the id of the buffered packet (-1 if not buffered)
+     * @param nodeType the type of the node that received the packet
+     * @param nodeId the id of the node that received the packet
+     * @param portId the id of the ingress port
+     * @param frame the raw frame
+     * @return false if the record is larger than the event log
+     */
+    public boolean appendPacketIn(long packetId, String nodeType, String nodeId, String portId, byte[] frame) {
+        byte[] type = nodeType.getBytes(UTF8);
+        byte[] node = nodeId.getBytes(UTF8);
+        byte[] port = portId.getBytes(UTF8);
+        int payloadLength = ShmFormat.PACKET_IN_STRINGS_OFFSET + type.length + node.length + port.length + frame.length;
+        int size = ShmFormat.recordSize(payloadLength);
+        if (size > capacity || type.length > 0xffff || node.length > 0xffff || port.length > 0xffff) {
+            return false;
+        }
+
+        synchronized (this) {
+            int offset = (int) (tail & (capacity - 1));
+            long start = tail;
+            if (offset + size > capacity) {
+                // Record does not fit into the rest of the data area.
+                start = tail + (capacity - offset);
+            }
+            long end = start + size;
+
+            // Announce the range to be overwritten before writing.
+            buf.putLong(ShmFormat.TAIL_INTENT_OFFSET, end);
+            MemoryFence.fence();
+
+            if (start != tail) {
+                buf.putInt(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_LENGTH_OFFSET, ShmFormat.PADDING);
+            }
+
+            int pos = ShmFormat.HEADER_LENGTH + (int) (start & (capacity - 1));
+            buf.putInt(pos + ShmFormat.RECORD_LENGTH_OFFSET, payloadLength);
+            buf.putInt(pos + ShmFormat.RECORD_TYPE_OFFSET, ShmFormat.TYPE_PACKET_IN);
+
+            pos += ShmFormat.RECORD_HEADER_LENGTH;
+            buf.putLong(pos + ShmFormat.PACKET_IN_ID_OFFSET, packetId);
+            buf.putInt(pos + ShmFormat.PACKET_IN_FRAME_LENGTH_OFFSET, frame.length);
+            buf.putShort(pos + ShmFormat.PACKET_IN_NODE_TYPE_LENGTH_OFFSET, (short) type.length);
+            buf.putShort(pos + ShmFormat.PACKET_IN_NODE_ID_LENGTH_OFFSET, (short) node.length);
+            buf.putShort(pos + ShmFormat.PACKET_IN_PORT_LENGTH_OFFSET, (short) port.length);
+            buf.putShort(pos + ShmFormat.PACKET_IN_PORT_LENGTH_OFFSET + 2, (short) 0);
+            pos += ShmFormat.PACKET_IN_STRINGS_OFFSET;
+            pos = put(pos, type);
+            pos = put(pos, node);
+            pos = put(pos, port);
+            put(pos, frame);
+
+            // Publish the record after all of its bytes are visible.
+            MemoryFence.fence();
+            buf.putLong(ShmFormat.TAIL_OFFSET, end);
+            tail = end;
+        }
+
+        return true;
+    }
+
+    private int put(int pos, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            buf.put(pos + i, bytes[i]);
+        }
+
+        return pos + bytes.length;
+    }
+}
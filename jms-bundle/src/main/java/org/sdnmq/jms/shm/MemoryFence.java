@@ -0,0 +1,39 @@
+/**
+ * MemoryFence
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * MemoryFence is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.shm;
+
+/**
+ * Memory fence ordering accesses to memory-mapped files shared with other processes.
+ * 
+ * The Java memory model does not define the order in which other processes observe accesses 
+ * to a memory-mapped file, and the JIT compiler as well as weakly ordered CPUs (e.g., ARM, POWER) 
+ * may reorder plain accesses. Java 7 has no explicit fences. On HotSpot, a volatile store is 
+ * followed by a full hardware fence (e.g., "lock addl" on x86, "dmb ish" on ARM), and the compiler 
+ * does not move memory accesses across a volatile store and a subsequent volatile load. Therefore, 
+ * fence() orders all memory accesses before the call before all memory accesses after the call, 
+ * including accesses of other processes that use matching fences (e.g., C11 atomic_thread_fence).
+ * 
+ * @author Frank Duerr
+ */
+class MemoryFence {
+    private static volatile int fence = 0;
+    
+    /**
+     * Full fence: loads and stores before the fence are completed before loads and stores after 
+     * the fence are performed.
+     */
+    static void fence() {
+        fence = 0;
+        if (fence != 0) {
+            // Never reached; the read keeps the volatile load from being removed.
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * RequestRingReader
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RequestRingReader is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Consumer of the request ring (cf. class ShmFormat). There must only be a single reader, 
+ * which must only be used by a single thread.
+ *
+ * Records are read in place: the buffer returned by poll() is valid until the next call 
+ * of poll().
+ *
+ * @author Frank Duerr
+ */
+public class RequestRingReader {
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private long head = 0;
+    private long pendingHead = 0;
+    private int recordType = 0;
+
+    /**
+     * Creates (or re-initializes) the request ring.
+     *
+     * @param file the request ring file
+     * @param size the requested size of the data area in bytes (rounded up to a power of two)
+     */
+    public RequestRingReader(File file, int size) throws IOException {
+        capacity = ShmFormat.toCapacity(size);
+        buf = ShmFormat.create(file, capacity);
+    }
+
+    /**
+     * Reads the next request and releases the request returned by the previous call.
+     *
+     * @return the payload of the request (position 0 is the start of the payload) or null if 
+     * no request is available
+     */
+    public ByteBuffer poll() {
+        if (pendingHead != head) {
+            // Release the previous request only after it has been read completely.
+            MemoryFence.fence();
+            head = pendingHead;
+            buf.putLong(ShmFormat.HEAD_OFFSET, head);
+        }
+
+        while (true) {
+            long tail = buf.getLong(ShmFormat.TAIL_OFFSET);
+            if (tail == head) {
+                return null;
+            }
+            // Read the request only after reading the tail publishing it.
+            MemoryFence.fence();
+
+            int offset = (int) (head & (capacity - 1));
+            int length = buf.getInt(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_LENGTH_OFFSET);
+            if (length == ShmFormat.PADDING) {
+                head += capacity - offset;
+                pendingHead = head;
+                buf.putLong(ShmFormat.HEAD_OFFSET, head);
+                continue;
+            }
+
+            int size = ShmFormat.recordSize(length);
+            if (length < 0 || offset + size > capacity || head + size > tail) {
+                // Corrupt ring (e.g., a writer not following the format). Skip everything written.
+                head = tail;
+                pendingHead = head;
+                buf.putLong(ShmFormat.HEAD_OFFSET, head);
+                return null;
+            }
+
+            recordType = buf.getInt(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_TYPE_OFFSET);
+            pendingHead = head + size;
+
+            ByteBuffer payload = buf.duplicate();
+            payload.position(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_HEADER_LENGTH);
+            payload.limit(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_HEADER_LENGTH + length);
+
+            return payload.slice();
+        }
+    }
+
+    /**
+     * @return the type of the request returned by the last call of poll() (ShmFormat.TYPE_*)
+     */
+    public int getRecordType() {
+        return recordType;
+    }
+}
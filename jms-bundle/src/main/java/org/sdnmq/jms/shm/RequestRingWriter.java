@@ -0,0 +1,106 @@
+/**
+ * RequestRingWriter
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RequestRingWriter is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Producer of the request ring (cf. class ShmFormat). Any number of writers in any number
+ * of processes can write to the same ring. The writer is thread-safe.
+ *
+ * @author Frank Duerr
+ */
+public class RequestRingWriter {
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer buf;
+    private final int capacity;
+
+    /**
+     * Attaches to a request ring.
+     *
+     * @param file the request ring file
+     */
+    public RequestRingWriter(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            buf = ShmFormat.attach(raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        channel = raf.getChannel();
+        capacity = buf.getInt(ShmFormat.CAPACITY_OFFSET);
+    }
+
+    /**
+     * Writes a request.
+     *
+     * @param type the record type (ShmFormat.TYPE_PACKET_OUT_JSON, TYPE_FLOW_MOD_JSON, or TYPE_BINARY)
+     * @param payload the request
+     * @return false if the ring is full
+     */
+    public boolean offer(int type, byte[] payload) throws IOException {
+        int size = ShmFormat.recordSize(payload.length);
+        if (size > capacity) {
+            throw new IllegalArgumentException("Request larger than request ring");
+        }
+
+        // The file lock serializes writers of different processes, the monitor writers of 
+        // the same process (file locks are held per process).
+        synchronized (this) {
+            FileLock lock = channel.lock(0, ShmFormat.HEADER_LENGTH, false);
+            try {
+                long tail = buf.getLong(ShmFormat.TAIL_OFFSET);
+                long head = buf.getLong(ShmFormat.HEAD_OFFSET);
+                // Overwrite released records only after reading the head releasing them.
+                MemoryFence.fence();
+                int offset = (int) (tail & (capacity - 1));
+                int padding = (offset + size > capacity) ? capacity - offset : 0;
+                if (capacity - (tail - head) < padding + size) {
+                    return false;
+                }
+
+                if (padding > 0) {
+                    buf.putInt(ShmFormat.HEADER_LENGTH + offset + ShmFormat.RECORD_LENGTH_OFFSET, ShmFormat.PADDING);
+                    offset = 0;
+                }
+
+                int pos = ShmFormat.HEADER_LENGTH + offset;
+                buf.putInt(pos + ShmFormat.RECORD_LENGTH_OFFSET, payload.length);
+                buf.putInt(pos + ShmFormat.RECORD_TYPE_OFFSET, type);
+                pos += ShmFormat.RECORD_HEADER_LENGTH;
+                for (int i = 0; i < payload.length; i++) {
+                    buf.put(pos + i, payload[i]);
+                }
+
+                // Publish the request after all of its bytes are visible.
+                MemoryFence.fence();
+                buf.putLong(ShmFormat.TAIL_OFFSET, tail + padding + size);
+            } finally {
+                lock.release();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Detaches from the request ring.
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+}
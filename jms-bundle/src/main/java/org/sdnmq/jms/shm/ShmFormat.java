@@ -0,0 +1,207 @@
+/**
+ * ShmFormat
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * ShmFormat is part of SDN-MQ. This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class defines the layout of the memory-mapped files of the shared memory transport.
+ * Applications on the controller host attach to these files to receive packet-in events and
+ * to send requests without a JMS server. All values are in network byte order (big endian).
+ *
+ * The shared memory directory contains two files:
+ *
+ * <ul>
+ * <li>EVENT_LOG_FILE: packet-in events written by SDN-MQ (single producer) and read by
+ * any number of applications (consumers). Every consumer keeps its own read position.
+ * If a consumer falls behind by more than the capacity of the log, it loses events.</li>
+ * <li>REQUEST_RING_FILE: requests written by any number of applications (producers) and read by
+ * SDN-MQ (single consumer). Producers serialize through an exclusive file lock on the header
+ * (bytes 0 to HEADER_LENGTH-1, e.g., fcntl(F_SETLKW) on POSIX systems). If the ring is full,
+ * the request is rejected.</li>
+ * </ul>
+ *
+ * Both files start with a header followed by the data area:
+ *
+ * <pre>
+ *  0  u32  magic (0x53444D51, "SDMQ")
+ *  4  u32  version (1)
+ *  8  u32  capacity c of the data area in bytes (power of two)
+ * 12  u32  reserved
+ * 16  u64  tail: position after the last complete record (only increases)
+ * 24  u64  event log: tail intent, i.e., position up to which the producer is writing
+ *          request ring: head, i.e., position up to which SDN-MQ has consumed records
+ * 32  32 bytes reserved
+ * 64  data area (c bytes)
+ * </pre>
+ *
+ * Positions are byte counts since the file was initialized. The record at position p
+ * is located at file offset HEADER_LENGTH + (p mod c). Records start at multiples of 8 bytes
+ * and never wrap around the end of the data area:
+ *
+ * <pre>
+ *  0  s32  length l of the payload (PADDING: the rest of the data area is unused,
+ *          continue at the start of the data area)
+ *  4  u32  record type
+ *  8  l bytes payload, padded to a multiple of 8 bytes
+ * </pre>
+ *
+ * The producer of the event log first sets the tail intent to the end of the new record,
+ * then writes the record, and finally sets the tail. A consumer copies a record and then
+ * checks the tail intent: if tail intent - p &gt; c, the record may have been overwritten
+ * while copying and must be discarded. If the tail is smaller than the read position of
+ * a consumer, SDN-MQ has been restarted and the consumer continues at the tail.
+ *
+ * Stores and loads of the positions (tail, tail intent, head) must be ordered with respect to the 
+ * accesses of the records by memory fences, since other processes may observe plain accesses in 
+ * a different order on weakly ordered CPUs (cf. class MemoryFence): a fence after setting the 
+ * tail intent, before setting the tail or head, after reading the tail, after reading the head 
+ * (request ring producers), and before reading the tail intent (event log consumers). Positions 
+ * are 8-byte aligned and must be accessed with single 64-bit loads and stores (64-bit JVM/CPU).
+ *
+ * Producers of the request ring write records while holding the file lock and set the tail
+ * before releasing the lock. SDN-MQ sets the head after processing a record. A producer
+ * may only write if the record (including padding at the end of the data area) fits into
+ * c - (tail - head) bytes.
+ *
+ * Packet-in record (TYPE_PACKET_IN) of the event log:
+ *
+ * <pre>
+ *  0  s64  packet id (usable in packet forwarding requests; -1 if the packet is not buffered)
+ *  8  u32  length f of the raw frame
+ * 12  u16  length t of the node type
+ * 14  u16  length n of the node id
+ * 16  u16  length q of the ingress port id
+ * 18  u16  reserved
+ * 20  t bytes node type (UTF-8, e.g., "OF")
+ *     n bytes node id (UTF-8, e.g., "00:00:00:00:00:00:00:01")
+ *     q bytes ingress port id (UTF-8, e.g., "1")
+ *     f bytes raw frame
+ * </pre>
+ *
+ * Request records of the request ring carry a packet forwarding request in JSON representation
+ * (TYPE_PACKET_OUT_JSON, UTF-8), a flow programming request in JSON representation
+ * (TYPE_FLOW_MOD_JSON, UTF-8), or a request in binary representation as defined by class
+ * org.sdnmq.jms.binary.BinaryFormat (TYPE_BINARY).
+ *
+ * @author Frank Duerr
+ */
+public class ShmFormat {
+    public static final String EVENT_LOG_FILE = "packetin.log";
+    public static final String REQUEST_RING_FILE = "requests.ring";
+
+    public static final int MAGIC = 0x53444D51;
+    public static final int VERSION = 1;
+
+    public static final int MAGIC_OFFSET = 0;
+    public static final int VERSION_OFFSET = 4;
+    public static final int CAPACITY_OFFSET = 8;
+    public static final int TAIL_OFFSET = 16;
+    public static final int TAIL_INTENT_OFFSET = 24;
+    public static final int HEAD_OFFSET = 24;
+    public static final int HEADER_LENGTH = 64;
+
+    public static final int RECORD_LENGTH_OFFSET = 0;
+    public static final int RECORD_TYPE_OFFSET = 4;
+    public static final int RECORD_HEADER_LENGTH = 8;
+    public static final int RECORD_ALIGNMENT = 8;
+    public static final int PADDING = -1;
+
+    // Record types
+    public static final int TYPE_PACKET_IN = 1;
+    public static final int TYPE_PACKET_OUT_JSON = 2;
+    public static final int TYPE_FLOW_MOD_JSON = 3;
+    public static final int TYPE_BINARY = 4;
+
+    // Packet-in record
+    public static final int PACKET_IN_ID_OFFSET = 0;
+    public static final int PACKET_IN_FRAME_LENGTH_OFFSET = 8;
+    public static final int PACKET_IN_NODE_TYPE_LENGTH_OFFSET = 12;
+    public static final int PACKET_IN_NODE_ID_LENGTH_OFFSET = 14;
+    public static final int PACKET_IN_PORT_LENGTH_OFFSET = 16;
+    public static final int PACKET_IN_STRINGS_OFFSET = 20;
+
+    /**
+     * @param payloadLength the length of the payload of a record
+     * @return the number of bytes occupied by the record in the data area
+     */
+    public static int recordSize(int payloadLength) {
+        int size = RECORD_HEADER_LENGTH + payloadLength;
+        return (size + RECORD_ALIGNMENT - 1) & ~(RECORD_ALIGNMENT - 1);
+    }
+
+    /**
+     * @param size requested size in bytes
+     * @return the smallest power of two greater than or equal to size
+     */
+    public static int toCapacity(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, RECORD_ALIGNMENT));
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+
+    /**
+     * Creates (or re-initializes) a file with the given capacity and maps it into memory.
+     *
+     * @param file the file
+     * @param capacity the capacity of the data area (power of two)
+     * @return the mapped file
+     */
+    public static MappedByteBuffer create(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(HEADER_LENGTH + capacity);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + capacity);
+            for (int i = 0; i < HEADER_LENGTH; i++) {
+                buf.put(i, (byte) 0);
+            }
+            buf.putInt(CAPACITY_OFFSET, capacity);
+            buf.putInt(VERSION_OFFSET, VERSION);
+            // Magic last, so attaching applications do not see a half-initialized header.
+            buf.putInt(MAGIC_OFFSET, MAGIC);
+
+            return buf;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps an existing file into memory.
+     *
+     * @param raf the file (opened in mode "rw")
+     * @return the mapped file
+     * @throws IOException if the file could not be mapped or is not a valid SDN-MQ file
+     */
+    public static MappedByteBuffer attach(RandomAccessFile raf) throws IOException {
+        if (raf.length() < HEADER_LENGTH) {
+            throw new IOException("Not an SDN-MQ shared memory file");
+        }
+
+        MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        if (buf.getInt(MAGIC_OFFSET) != MAGIC || buf.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Not an SDN-MQ shared memory file or unsupported version");
+        }
+
+        int capacity = buf.getInt(CAPACITY_OFFSET);
+        if (Integer.bitCount(capacity) != 1 || HEADER_LENGTH + (long) capacity > raf.length()) {
+            throw new IOException("Invalid capacity of shared memory file");
+        }
+
+        return buf;
+    }
+}
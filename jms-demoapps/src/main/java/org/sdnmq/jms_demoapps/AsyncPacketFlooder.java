@@ -0,0 +1,105 @@
+/**
+ * AsyncPacketFlooder
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * AsyncPacketFlooder is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.sdnmq.jms_demoapps.client.PacketIn;
+import org.sdnmq.jms_demoapps.client.PacketInListener;
+import org.sdnmq.jms_demoapps.client.PacketOutRequest;
+import org.sdnmq.jms_demoapps.client.RequestCallback;
+import org.sdnmq.jms_demoapps.client.SdnMqClient;
+
+/**
+ * Demo application of SDN-MQ showing how to use the asynchronous client (package client).
+ * Every packet-in event is answered by flooding the packet on the node that received it.
+ * Requests are pipelined; their replies are counted by callbacks.
+ * 
+ * @author Frank Duerr
+ */
+public class AsyncPacketFlooder {
+    public static void main(String[] args) {
+        // Events are processed in order by a single thread.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        
+        final SdnMqClient client;
+        try {
+            // Uses settings from file jndi.properties if file is in CLASSPATH.
+            client = new SdnMqClient(new InitialContext(), executor);
+            client.start();
+        } catch (NamingException e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+            return;
+        } catch (JMSException e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+            return;
+        }
+        
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final RequestCallback callback = new RequestCallback() {
+            @Override
+            public void onSuccess() {
+                succeeded.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(String description) {
+                failed.incrementAndGet();
+                System.err.println("Packet forwarding request failed: " + description);
+            }
+        };
+        
+        try {
+            client.subscribePacketIn(new PacketInListener() {
+                @Override
+                public void onPacketIn(PacketIn packetIn) {
+                    PacketOutRequest request = new PacketOutRequest(packetIn.getNodeId());
+                    request.flood(packetIn.getIngressPort());
+                    if (packetIn.getPacketId() != PacketIn.NO_PACKET_ID) {
+                        request.setPacketId(packetIn.getPacketId());
+                    } else {
+                        request.setPacket(packetIn.getPacketData());
+                    }
+                    
+                    try {
+                        client.forwardPacket(request).addCallback(callback);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, null);
+        } catch (JMSException e) {
+            System.err.println(e.getMessage());
+            client.close();
+            System.exit(-1);
+        }
+        
+        while (true) {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                break;
+            }
+            System.out.println("Flooded packets: " + succeeded.get() + ", failed requests: " + failed.get());
+        }
+        
+        client.close();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * SharedMemoryClient
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * SharedMemoryClient is part of SDN-MQ. This program and the accompanying 
+ * materials are made available under the terms of the Eclipse Public License v1.0 
+ * which accompanies this distribution, and is available at 
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONObject;
+import org.sdnmq.jms.json.NodeAttributes;
+import org.sdnmq.jms.json.PacketForwarderRequestAttributes;
+import org.sdnmq.jms.shm.EventLogReader;
+import org.sdnmq.jms.shm.RequestRingWriter;
+import org.sdnmq.jms.shm.ShmFormat;
+
+/**
+ * Demo application of SDN-MQ showing how to receive packet-in events and send requests 
+ * through the shared memory transport instead of JMS. The application must run on the 
+ * controller host, and the shared memory transport must be enabled in the OpenDaylight
+ * configuration (sdnmq.shm.enabled=true).
+ * 
+ * The demo floods every received packet (like a hub) by referring to the packet by its id.
+ * 
+ * The methods of this class can also be used as a client library by other applications.
+ * The layout of the shared memory files is documented in class ShmFormat.
+ * 
+ * @author Frank Duerr
+ */
+public class SharedMemoryClient {
+    // Default directory of the shared memory files 
+    // (can be changed in the OpenDaylight configuration, property sdnmq.shm.dir).
+    static final String DEFAULT_SHM_DIR = "/dev/shm/sdnmq";
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /**
+     * A packet-in event read from the event log.
+     */
+    public static class PacketIn {
+        public final long packetId;
+        public final String nodeType;
+        public final String nodeId;
+        public final String ingressPort;
+        public final byte[] frame;
+        
+        PacketIn(long packetId, String nodeType, String nodeId, String ingressPort, byte[] frame) {
+            this.packetId = packetId;
+            this.nodeType = nodeType;
+            this.nodeId = nodeId;
+            this.ingressPort = ingressPort;
+            this.frame = frame;
+        }
+    }
+    
+    private final EventLogReader eventLog;
+    private final RequestRingWriter requestRing;
+    
+    /**
+     * Attaches to the shared memory files of SDN-MQ.
+     * 
+     * @param dir the shared memory directory
+     */
+    public SharedMemoryClient(File dir) throws IOException {
+        eventLog = new EventLogReader(new File(dir, ShmFormat.EVENT_LOG_FILE));
+        requestRing = new RequestRingWriter(new File(dir, ShmFormat.REQUEST_RING_FILE));
+    }
+    
+    /**
+     * Reads the next packet-in event.
+     * 
+     * @return the event or null if no event is available
+     */
+    public PacketIn pollPacketIn() {
+        ByteBuffer record;
+        while ((record = eventLog.poll()) != null) {
+            if (eventLog.getRecordType() != ShmFormat.TYPE_PACKET_IN) {
+                // Skip records of future versions.
+                continue;
+            }
+            
+            long packetId = record.getLong(ShmFormat.PACKET_IN_ID_OFFSET);
+            int frameLength = record.getInt(ShmFormat.PACKET_IN_FRAME_LENGTH_OFFSET);
+            int typeLength = record.getShort(ShmFormat.PACKET_IN_NODE_TYPE_LENGTH_OFFSET) & 0xffff;
+            int nodeLength = record.getShort(ShmFormat.PACKET_IN_NODE_ID_LENGTH_OFFSET) & 0xffff;
+            int portLength = record.getShort(ShmFormat.PACKET_IN_PORT_LENGTH_OFFSET) & 0xffff;
+            
+            record.position(ShmFormat.PACKET_IN_STRINGS_OFFSET);
+            String nodeType = getString(record, typeLength);
+            String nodeId = getString(record, nodeLength);
+            String port = getString(record, portLength);
+            byte[] frame = new byte[frameLength];
+            record.get(frame);
+            
+            return new PacketIn(packetId, nodeType, nodeId, port, frame);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Sends a packet forwarding request in JSON representation.
+     * 
+     * @return false if the request ring is full
+     */
+    public boolean sendPacketForwardingRequest(JSONObject request) throws IOException {
+        return requestRing.offer(ShmFormat.TYPE_PACKET_OUT_JSON, request.toString().getBytes(UTF8));
+    }
+    
+    /**
+     * Sends a flow programming request in JSON representation.
+     * 
+     * @return false if the request ring is full
+     */
+    public boolean sendFlowProgrammingRequest(JSONObject request) throws IOException {
+        return requestRing.offer(ShmFormat.TYPE_FLOW_MOD_JSON, request.toString().getBytes(UTF8));
+    }
+    
+    /**
+     * Sends a request in binary representation (cf. class BinaryFormat).
+     * 
+     * @return false if the request ring is full
+     */
+    public boolean sendBinaryRequest(byte[] request) throws IOException {
+        return requestRing.offer(ShmFormat.TYPE_BINARY, request);
+    }
+    
+    /**
+     * @return the number of bytes of events lost because the client was too slow
+     */
+    public long getLostBytes() {
+        return eventLog.getLostBytes();
+    }
+    
+    /**
+     * Detaches from the shared memory files.
+     */
+    public void close() throws IOException {
+        requestRing.close();
+    }
+    
+    private static String getString(ByteBuffer buf, int length) {
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+    
+    public static void main(String[] args) {
+        File dir = new File(args.length > 0 ? args[0] : DEFAULT_SHM_DIR);
+        
+        SharedMemoryClient client = null;
+        try {
+            client = new SharedMemoryClient(dir);
+        } catch (IOException e) {
+            System.err.println("Could not attach to " + dir + ": " + e.getMessage());
+            System.exit(-1);
+        }
+        
+        while (true) {
+            PacketIn packetIn = client.pollPacketIn();
+            if (packetIn == null) {
+                // Nothing to do. Instead of sleeping, latency-critical applications
+                // can also spin.
+                LockSupport.parkNanos(50000);
+                continue;
+            }
+            
+            System.out.println("Packet-in on node " + packetIn.nodeId + ", port " + packetIn.ingressPort + 
+                    ", " + packetIn.frame.length + " bytes");
+            
+            if (packetIn.packetId < 0) {
+                // Not buffered by SDN-MQ.
+                continue;
+            }
+            
+            // Flood the packet (except for the ingress port).
+            JSONObject nodeJson = new JSONObject();
+            nodeJson.put(NodeAttributes.Keys.ID.toJSON(), packetIn.nodeId);
+            nodeJson.put(NodeAttributes.Keys.TYPE.toJSON(), packetIn.nodeType);
+            JSONObject request = new JSONObject();
+            request.put(PacketForwarderRequestAttributes.Keys.NODE.toJSON(), nodeJson);
+            request.put(PacketForwarderRequestAttributes.Keys.FLOOD.toJSON(), true);
+            request.put(PacketForwarderRequestAttributes.Keys.INGRESS_PORT.toJSON(), packetIn.ingressPort);
+            request.put(PacketForwarderRequestAttributes.Keys.PACKET_ID.toJSON(), packetIn.packetId);
+            
+            try {
+                if (!client.sendPacketForwardingRequest(request)) {
+                    System.err.println("Request ring full");
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+}
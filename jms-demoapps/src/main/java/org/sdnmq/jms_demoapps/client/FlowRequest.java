@@ -0,0 +1,363 @@
+/**
+ * FlowRequest
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * FlowRequest is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.sdnmq.jms.json.ActionAttributes;
+import org.sdnmq.jms.json.FlowAttributes;
+import org.sdnmq.jms.json.FlowProgrammerRequestAttributes;
+import org.sdnmq.jms.json.MatchAttributes;
+import org.sdnmq.jms.json.NodeAttributes;
+
+/**
+ * Builder of flow programming requests, e.g.:
+ * 
+ * <pre>
+ * FlowRequest.add("DemoFlow", "00:00:00:00:00:00:00:01")
+ *     .matchInPort("1").matchEtherType(0x0800).output("2").setPriority(10)
+ * </pre>
+ * 
+ * For the meaning of the attributes, cf. classes MatchAttributes and ActionAttributes.
+ * 
+ * @author Frank Duerr
+ */
+public class FlowRequest {
+    private final JSONObject json = new JSONObject();
+    private final JSONObject match = new JSONObject();
+    private final JSONArray actions = new JSONArray();
+    private final JSONObject flow = new JSONObject();
+    private final String nodeId;
+    
+    private FlowRequest(FlowProgrammerRequestAttributes.CommandValues command, String flowName, String nodeId) {
+        this.nodeId = nodeId;
+        
+        json.put(FlowProgrammerRequestAttributes.Keys.COMMAND.toJSON(), command.toJSON());
+        if (flowName != null) {
+            json.put(FlowProgrammerRequestAttributes.Keys.FLOW_NAME.toJSON(), flowName);
+        }
+        if (nodeId != null) {
+            JSONObject nodeJson = new JSONObject();
+            nodeJson.put(NodeAttributes.Keys.ID.toJSON(), nodeId);
+            nodeJson.put(NodeAttributes.Keys.TYPE.toJSON(), NodeAttributes.TypeValues.OF.toJSON());
+            json.put(FlowProgrammerRequestAttributes.Keys.NODE.toJSON(), nodeJson);
+        }
+        
+        if (command == FlowProgrammerRequestAttributes.CommandValues.ADD || 
+                command == FlowProgrammerRequestAttributes.CommandValues.MODIFY) {
+            flow.put(FlowAttributes.Keys.MATCH.toJSON(), match);
+            flow.put(FlowAttributes.Keys.ACTIONS.toJSON(), actions);
+            flow.put(FlowAttributes.Keys.PRIORITY.toJSON(), 0);
+            json.put(FlowProgrammerRequestAttributes.Keys.FLOW.toJSON(), flow);
+        } else if (command == FlowProgrammerRequestAttributes.CommandValues.PATCH) {
+            // Only the attributes set on the request are changed; actions are added with the first action.
+            json.put(FlowProgrammerRequestAttributes.Keys.FLOW.toJSON(), flow);
+        }
+    }
+    
+    /**
+     * Creates a request adding a flow.
+     * 
+     * @param flowName the name of the flow
+     * @param nodeId the id of the OpenFlow node (switch) to be programmed
+     */
+    public static FlowRequest add(String flowName, String nodeId) {
+        return new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.ADD, flowName, nodeId);
+    }
+    
+    /**
+     * Creates a request modifying a flow.
+     * 
+     * @param flowName the name of the flow
+     * @param nodeId the id of the OpenFlow node (switch) to be programmed
+     */
+    public static FlowRequest modify(String flowName, String nodeId) {
+        return new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.MODIFY, flowName, nodeId);
+    }
+    
+    /**
+     * Creates a request patching the actions or priority of an existing flow, e.g.:
+     * 
+     * <pre>
+     * FlowRequest.patch("DemoFlow").output("3")
+     * </pre>
+     * 
+     * The match of the flow cannot be patched, i.e., match fields are ignored.
+     * 
+     * The request carries no node id, so it is not ordered with earlier requests for the flow 
+     * (cf. SdnMqClient). Use patch(flowName, nodeId) if it is pipelined with such requests.
+     * 
+     * @param flowName the name of the flow
+     */
+    public static FlowRequest patch(String flowName) {
+        return new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.PATCH, flowName, null);
+    }
+    
+    /**
+     * Creates a request patching a flow, which is executed after the earlier requests for the 
+     * node of the flow (cf. patch(flowName)).
+     * 
+     * @param flowName the name of the flow
+     * @param nodeId the id of the OpenFlow node (switch) the flow is programmed on
+     */
+    public static FlowRequest patch(String flowName, String nodeId) {
+        return new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.PATCH, flowName, nodeId);
+    }
+    
+    /**
+     * Creates a request deleting a flow.
+     * 
+     * The request carries no node id, so it is not ordered with earlier requests for the flow 
+     * (cf. SdnMqClient): with several consumers, it may overtake an add request for the flow. 
+     * Use delete(flowName, nodeId) if it is pipelined with such requests.
+     * 
+     * @param flowName the name of the flow
+     */
+    public static FlowRequest delete(String flowName) {
+        return new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.DELETE, flowName, null);
+    }
+    
+    /**
+     * Creates a request deleting a flow, which is executed after the earlier requests for the 
+     * node of the flow.
+     * 
+     * @param flowName the name of the flow
+     * @param nodeId the id of the OpenFlow node (switch) the flow is programmed on
+     */
+    public static FlowRequest delete(String flowName, String nodeId) {
+        return new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.DELETE, flowName, nodeId);
+    }
+    
+    /**
+     * Creates a request deleting all named flows of a node. Note that all flows are removed from
+     * the node, including flows not programmed through SDN-MQ.
+     * 
+     * @param nodeId the id of the OpenFlow node (switch)
+     */
+    public static FlowRequest deleteAllOfNode(String nodeId) {
+        return new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.DELETE_ALL, null, nodeId);
+    }
+    
+    /**
+     * Creates a request deleting all flows whose names start with the given prefix.
+     * 
+     * @param prefix the prefix of the flow names
+     */
+    public static FlowRequest deleteAllWithPrefix(String prefix) {
+        FlowRequest request = new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.DELETE_ALL, null, null);
+        request.json.put(FlowProgrammerRequestAttributes.Keys.FLOW_NAME_PREFIX.toJSON(), prefix);
+        return request;
+    }
+    
+    /**
+     * Creates a request deleting all flows with the given group tag (cf. setTag()).
+     * 
+     * @param tag the group tag
+     */
+    public static FlowRequest deleteAllWithTag(String tag) {
+        FlowRequest request = new FlowRequest(FlowProgrammerRequestAttributes.CommandValues.DELETE_ALL, null, null);
+        request.setTag(tag);
+        return request;
+    }
+    
+    /**
+     * @return the id of the node to be programmed (null if the request does not refer to a node)
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    public FlowRequest setPriority(int priority) {
+        flow.put(FlowAttributes.Keys.PRIORITY.toJSON(), priority);
+        return this;
+    }
+    
+    public FlowRequest setEvictable(boolean evictable) {
+        json.put(FlowProgrammerRequestAttributes.Keys.EVICTABLE.toJSON(), evictable);
+        return this;
+    }
+    
+    /**
+     * Sets the group tag of the flow (e.g., the tenant), so the flows of a group can be deleted 
+     * at once (cf. deleteAllWithTag()).
+     */
+    public FlowRequest setTag(String tag) {
+        json.put(FlowProgrammerRequestAttributes.Keys.TAG.toJSON(), tag);
+        return this;
+    }
+    
+    /**
+     * Sends a packet after the flow has been programmed (e.g., the packet that triggered the flow).
+     * The targets of the packet-out request default to the node of the flow. If the packet-out
+     * request fails, the request still succeeds (cf. RequestFuture.getPacketOutError()).
+     */
+    public FlowRequest setPacketOut(PacketOutRequest packetOut) {
+        json.put(FlowProgrammerRequestAttributes.Keys.PACKET_OUT.toJSON(), packetOut.toJSON());
+        return this;
+    }
+    
+    // Match fields
+    
+    public FlowRequest matchInPort(String port) {
+        match.put(MatchAttributes.Keys.INGRESS_PORT.toJSON(), port);
+        return this;
+    }
+    
+    public FlowRequest matchDlSrc(String mac) {
+        match.put(MatchAttributes.Keys.DL_SRC.toJSON(), mac);
+        return this;
+    }
+    
+    public FlowRequest matchDlDst(String mac) {
+        match.put(MatchAttributes.Keys.DL_DST.toJSON(), mac);
+        return this;
+    }
+    
+    public FlowRequest matchDlVlan(int vlan) {
+        match.put(MatchAttributes.Keys.DL_VLAN.toJSON(), vlan);
+        return this;
+    }
+    
+    public FlowRequest matchDlVlanPriority(int priority) {
+        match.put(MatchAttributes.Keys.DL_VLAN_PRIORITY.toJSON(), priority);
+        return this;
+    }
+    
+    public FlowRequest matchEtherType(int ethertype) {
+        match.put(MatchAttributes.Keys.ETHERTYPE.toJSON(), ethertype);
+        return this;
+    }
+    
+    public FlowRequest matchNwSrc(String addr) {
+        match.put(MatchAttributes.Keys.NW_SRC.toJSON(), addr);
+        return this;
+    }
+    
+    public FlowRequest matchNwSrc(String addr, String mask) {
+        match.put(MatchAttributes.Keys.NW_SRC_MASK.toJSON(), mask);
+        return matchNwSrc(addr);
+    }
+    
+    public FlowRequest matchNwDst(String addr) {
+        match.put(MatchAttributes.Keys.NW_DST.toJSON(), addr);
+        return this;
+    }
+    
+    public FlowRequest matchNwDst(String addr, String mask) {
+        match.put(MatchAttributes.Keys.NW_DST_MASK.toJSON(), mask);
+        return matchNwDst(addr);
+    }
+    
+    public FlowRequest matchNwTos(int tos) {
+        match.put(MatchAttributes.Keys.NW_TOS.toJSON(), tos);
+        return this;
+    }
+    
+    public FlowRequest matchProtocol(int protocol) {
+        match.put(MatchAttributes.Keys.PROTOCOL.toJSON(), protocol);
+        return this;
+    }
+    
+    public FlowRequest matchTpSrc(int port) {
+        match.put(MatchAttributes.Keys.TP_SRC.toJSON(), port);
+        return this;
+    }
+    
+    public FlowRequest matchTpDst(int port) {
+        match.put(MatchAttributes.Keys.TP_DST.toJSON(), port);
+        return this;
+    }
+    
+    // Actions (applied in the order they are added)
+    
+    private FlowRequest action(ActionAttributes.ActionTypeValues type, ActionAttributes.Keys key, Object value) {
+        JSONObject actionJson = new JSONObject();
+        actionJson.put(ActionAttributes.Keys.ACTION.toJSON(), type.toJSON());
+        if (key != null) {
+            actionJson.put(key.toJSON(), value);
+        }
+        
+        return addAction(actionJson);
+    }
+    
+    private FlowRequest addAction(JSONObject actionJson) {
+        actions.put(actionJson);
+        if (!flow.has(FlowAttributes.Keys.ACTIONS.toJSON())) {
+            flow.put(FlowAttributes.Keys.ACTIONS.toJSON(), actions);
+        }
+        
+        return this;
+    }
+    
+    public FlowRequest loopback() {
+        return action(ActionAttributes.ActionTypeValues.LOOPBACK, null, null);
+    }
+    
+    public FlowRequest output(String port) {
+        return action(ActionAttributes.ActionTypeValues.OUTPUT, ActionAttributes.Keys.PORT, port);
+    }
+    
+    public FlowRequest flood() {
+        return action(ActionAttributes.ActionTypeValues.FLOOD, null, null);
+    }
+    
+    public FlowRequest drop() {
+        return action(ActionAttributes.ActionTypeValues.DROP, null, null);
+    }
+    
+    public FlowRequest controller() {
+        return action(ActionAttributes.ActionTypeValues.CONTROLLER, null, null);
+    }
+    
+    public FlowRequest setDlSrc(String mac) {
+        return action(ActionAttributes.ActionTypeValues.SET_DL_SRC, ActionAttributes.Keys.DL_ADDRESS, mac);
+    }
+    
+    public FlowRequest setDlDst(String mac) {
+        return action(ActionAttributes.ActionTypeValues.SET_DL_DST, ActionAttributes.Keys.DL_ADDRESS, mac);
+    }
+    
+    public FlowRequest setNwSrc(String addr) {
+        return action(ActionAttributes.ActionTypeValues.SET_NW_SRC, ActionAttributes.Keys.NW_ADDRESS, addr);
+    }
+    
+    public FlowRequest setNwDst(String addr) {
+        return action(ActionAttributes.ActionTypeValues.SET_NW_DST, ActionAttributes.Keys.NW_ADDRESS, addr);
+    }
+    
+    public FlowRequest setTpSrc(int port) {
+        return action(ActionAttributes.ActionTypeValues.SET_TP_SRC, ActionAttributes.Keys.TP_ADDRESS, Integer.toString(port));
+    }
+    
+    public FlowRequest setTpDst(int port) {
+        return action(ActionAttributes.ActionTypeValues.SET_TP_DST, ActionAttributes.Keys.TP_ADDRESS, Integer.toString(port));
+    }
+    
+    public FlowRequest pushVlan(int pcp, int dei, int vlanId) {
+        JSONObject actionJson = new JSONObject();
+        actionJson.put(ActionAttributes.Keys.ACTION.toJSON(), ActionAttributes.ActionTypeValues.PUSH_VLAN.toJSON());
+        actionJson.put(ActionAttributes.Keys.PCP.toJSON(), pcp);
+        actionJson.put(ActionAttributes.Keys.DEI.toJSON(), dei);
+        actionJson.put(ActionAttributes.Keys.VLAN_ID.toJSON(), vlanId);
+        
+        return addAction(actionJson);
+    }
+    
+    public FlowRequest popVlan() {
+        return action(ActionAttributes.ActionTypeValues.POP_VLAN, null, null);
+    }
+    
+    /**
+     * @return the request in JSON representation
+     */
+    public JSONObject toJSON() {
+        return json;
+    }
+}
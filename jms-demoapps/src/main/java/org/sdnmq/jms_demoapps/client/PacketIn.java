@@ -0,0 +1,139 @@
+/**
+ * PacketIn
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketIn is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.sdnmq.jms.json.NodeAttributes;
+import org.sdnmq.jms.json.PacketInAttributes;
+
+/**
+ * A packet-in event. Header fields not contained in the packet are null.
+ * 
+ * @author Frank Duerr
+ */
+public class PacketIn {
+    /**
+     * Packet id of packets not buffered by SDN-MQ.
+     */
+    public static final long NO_PACKET_ID = -1;
+    
+    private final JSONObject json;
+    private final String nodeId;
+    private final String nodeType;
+    private final String ingressPort;
+    private byte[] packetData = null;
+    
+    private PacketIn(JSONObject json) throws JSONException {
+        this.json = json;
+        JSONObject nodeJson = json.getJSONObject(PacketInAttributes.Keys.NODE.toJSON());
+        nodeId = nodeJson.getString(NodeAttributes.Keys.ID.toJSON());
+        nodeType = nodeJson.getString(NodeAttributes.Keys.TYPE.toJSON());
+        ingressPort = json.getString(PacketInAttributes.Keys.INGRESS_PORT.toJSON());
+    }
+    
+    /**
+     * Parses a packet-in event in JSON representation.
+     * 
+     * @param json the event
+     * @return the event
+     * @throws JSONException if node or ingress port are missing
+     */
+    public static PacketIn fromJSON(JSONObject json) throws JSONException {
+        return new PacketIn(json);
+    }
+    
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    public String getNodeType() {
+        return nodeType;
+    }
+    
+    public String getIngressPort() {
+        return ingressPort;
+    }
+    
+    /**
+     * @return the id of the buffered packet (usable by PacketOutRequest.setPacketId()) or NO_PACKET_ID
+     */
+    public long getPacketId() {
+        return json.optLong(PacketInAttributes.Keys.PACKET_ID.toJSON(), NO_PACKET_ID);
+    }
+    
+    /**
+     * @return the raw packet data (decoded on first access)
+     */
+    public synchronized byte[] getPacketData() {
+        if (packetData == null) {
+            packetData = DatatypeConverter.parseBase64Binary(json.getString(PacketInAttributes.Keys.PACKET.toJSON()));
+        }
+        
+        return packetData;
+    }
+    
+    private String optString(PacketInAttributes.Keys key) {
+        return json.has(key.toJSON()) ? json.getString(key.toJSON()) : null;
+    }
+    
+    private Integer optInt(PacketInAttributes.Keys key) {
+        return json.has(key.toJSON()) ? json.getInt(key.toJSON()) : null;
+    }
+    
+    public String getDlSrc() {
+        return optString(PacketInAttributes.Keys.DL_SRC);
+    }
+    
+    public String getDlDst() {
+        return optString(PacketInAttributes.Keys.DL_DST);
+    }
+    
+    public Integer getEtherType() {
+        return optInt(PacketInAttributes.Keys.ETHERTYPE);
+    }
+    
+    public Integer getDlVlan() {
+        return optInt(PacketInAttributes.Keys.DL_VLAN);
+    }
+    
+    public Integer getDlVlanPriority() {
+        return optInt(PacketInAttributes.Keys.DL_VLAN_PRIORITY);
+    }
+    
+    public String getNwSrc() {
+        return optString(PacketInAttributes.Keys.NW_SRC);
+    }
+    
+    public String getNwDst() {
+        return optString(PacketInAttributes.Keys.NW_DST);
+    }
+    
+    public Integer getProtocol() {
+        return optInt(PacketInAttributes.Keys.PROTOCOL);
+    }
+    
+    public Integer getTpSrc() {
+        return optInt(PacketInAttributes.Keys.TP_SRC);
+    }
+    
+    public Integer getTpDst() {
+        return optInt(PacketInAttributes.Keys.TP_DST);
+    }
+    
+    /**
+     * @return the event in JSON representation
+     */
+    public JSONObject toJSON() {
+        return json;
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * PacketInListener
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketInListener is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+/**
+ * Receiver of packet-in events (cf. SdnMqClient.subscribePacketIn()).
+ * 
+ * @author Frank Duerr
+ */
+public interface PacketInListener {
+    /**
+     * Called by the callback executor of the client for every packet-in event.
+     * 
+     * @param packetIn the event
+     */
+    public void onPacketIn(PacketIn packetIn);
+}
@@ -0,0 +1,568 @@
+/**
+ * PacketInReader
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketInReader is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import org.sdnmq.jms.binary.BinaryFormat;
+import org.sdnmq.jms.json.NodeAttributes;
+import org.sdnmq.jms.json.PacketInAttributes;
+
+/**
+ * Flyweight reader of packet-in events in JSON representation (text messages) and binary 
+ * representation (bytes messages, cf. class BinaryFormat).
+ * 
+ * Instead of parsing the complete event, the reader only locates and converts the fields that
+ * are accessed. JSON fields are read in place from the message text; header fields of binary 
+ * events are read from the raw frame. Addresses are returned as numbers (MAC addresses as 
+ * 48 bit values, IPv4 addresses as 32 bit values). Ethertype, IP protocol, and transport ports
+ * are returned as unsigned values in both representations. The reader keeps its buffers from event 
+ * to event, so reading an event allocates no objects once the buffers have reached the size 
+ * of the largest packet (except for what the JMS provider allocates for the message itself).
+ * 
+ * A reader is not thread-safe; use one reader per thread:
+ * 
+ * <pre>
+ * PacketInReader reader = new PacketInReader();
+ * ...
+ * public void onMessage(Message msg) {
+ *     if (reader.wrap(msg) &amp;&amp; reader.getEtherType() == 0x0800) {
+ *         int nwDst = reader.getNwDst();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * 
+ * @author Frank Duerr
+ */
+public class PacketInReader {
+    /**
+     * Value of numeric fields not contained in the event.
+     */
+    public static final int ABSENT = -1;
+    
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int PROTOCOL_TCP = 6;
+    private static final int PROTOCOL_UDP = 17;
+    
+    // JSON keys including quotes.
+    private static final String NODE_ID_KEY = quote(NodeAttributes.Keys.ID.toJSON());
+    private static final String INGRESS_PORT_KEY = quote(PacketInAttributes.Keys.INGRESS_PORT.toJSON());
+    private static final String PACKET_ID_KEY = quote(PacketInAttributes.Keys.PACKET_ID.toJSON());
+    private static final String PACKET_KEY = quote(PacketInAttributes.Keys.PACKET.toJSON());
+    private static final String DL_SRC_KEY = quote(PacketInAttributes.Keys.DL_SRC.toJSON());
+    private static final String DL_DST_KEY = quote(PacketInAttributes.Keys.DL_DST.toJSON());
+    private static final String DL_VLAN_KEY = quote(PacketInAttributes.Keys.DL_VLAN.toJSON());
+    private static final String ETHERTYPE_KEY = quote(PacketInAttributes.Keys.ETHERTYPE.toJSON());
+    private static final String NW_SRC_KEY = quote(PacketInAttributes.Keys.NW_SRC.toJSON());
+    private static final String NW_DST_KEY = quote(PacketInAttributes.Keys.NW_DST.toJSON());
+    private static final String PROTOCOL_KEY = quote(PacketInAttributes.Keys.PROTOCOL.toJSON());
+    private static final String TP_SRC_KEY = quote(PacketInAttributes.Keys.TP_SRC.toJSON());
+    private static final String TP_DST_KEY = quote(PacketInAttributes.Keys.TP_DST.toJSON());
+    
+    private static final int[] BASE64 = new int[128];
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64[i] = -1;
+        }
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+    
+    // JSON event (null for binary events).
+    private String text = null;
+    
+    // Body of binary events; decoded packet of JSON events.
+    private byte[] buf = new byte[2048];
+    private int frameOffset;
+    private int frameLength;
+    private boolean frameAvailable;
+    
+    // Offsets of the headers in the frame of binary events, computed on first access.
+    private boolean frameParsed;
+    private int l2TypeOffset;
+    private int l3Offset;
+    private int l4Offset;
+    
+    private static String quote(String key) {
+        return '"' + key + '"';
+    }
+    
+    /**
+     * Points the reader at a packet-in event.
+     * 
+     * @param msg the message carrying the event
+     * @return false if the message is not a packet-in event
+     */
+    public boolean wrap(Message msg) throws JMSException {
+        frameAvailable = false;
+        frameParsed = false;
+        
+        if (msg instanceof TextMessage) {
+            text = ((TextMessage) msg).getText();
+            return text != null;
+        } else if (msg instanceof BytesMessage) {
+            text = null;
+            BytesMessage bytesMsg = (BytesMessage) msg;
+            int length = (int) bytesMsg.getBodyLength();
+            ensureCapacity(length);
+            bytesMsg.readBytes(buf, length);
+            
+            if (length < BinaryFormat.PACKET_IN_FRAME_OFFSET || getShort(0) != (BinaryFormat.MAGIC & 0xffff) ||
+                    buf[2] != BinaryFormat.VERSION || buf[3] != BinaryFormat.TYPE_PACKET_IN) {
+                return false;
+            }
+            frameOffset = BinaryFormat.PACKET_IN_FRAME_OFFSET;
+            frameLength = getInt(BinaryFormat.PACKET_IN_FRAME_LENGTH_OFFSET);
+            if (frameLength < 0 || frameLength > length - frameOffset) {
+                return false;
+            }
+            frameAvailable = true;
+            
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @return true if the current event is in binary representation
+     */
+    public boolean isBinary() {
+        return text == null;
+    }
+    
+    private void ensureCapacity(int length) {
+        if (buf.length < length) {
+            buf = new byte[Math.max(length, 2*buf.length)];
+        }
+    }
+    
+    // Binary events
+    
+    private int getShort(int offset) {
+        return ((buf[offset] & 0xff) << 8) | (buf[offset + 1] & 0xff);
+    }
+    
+    private int getInt(int offset) {
+        return (getShort(offset) << 16) | getShort(offset + 2);
+    }
+    
+    private long getLong(int offset) {
+        return ((long) getInt(offset) << 32) | (getInt(offset + 4) & 0xffffffffL);
+    }
+    
+    private long getMac(int offset) {
+        return ((long) getShort(offset) << 32) | (getInt(offset + 2) & 0xffffffffL);
+    }
+    
+    /**
+     * Locates the headers in the frame of a binary event.
+     */
+    private void parseFrame() {
+        if (frameParsed) {
+            return;
+        }
+        frameParsed = true;
+        l2TypeOffset = -1;
+        l3Offset = -1;
+        l4Offset = -1;
+        
+        int end = frameOffset + frameLength;
+        if (frameLength < 14) {
+            return;
+        }
+        l2TypeOffset = frameOffset + 12;
+        
+        int typeOffset = l2TypeOffset;
+        if (getShort(typeOffset) == ETHERTYPE_VLAN) {
+            if (frameLength < 18) {
+                return;
+            }
+            typeOffset += 4;
+        }
+        if (getShort(typeOffset) != ETHERTYPE_IPV4 || typeOffset + 2 + 20 > end) {
+            return;
+        }
+        l3Offset = typeOffset + 2;
+        
+        int headerLength = (buf[l3Offset] & 0x0f)*4;
+        // Only the first fragment carries the transport header.
+        boolean firstFragment = (getShort(l3Offset + 6) & 0x1fff) == 0;
+        if (firstFragment && headerLength >= 20 && l3Offset + headerLength + 4 <= end) {
+            l4Offset = l3Offset + headerLength;
+        }
+    }
+    
+    // JSON events
+    
+    /**
+     * @return the index of the first character of the value of a key, or -1 if the key does not exist
+     */
+    private int valueIndex(String key) {
+        int i = text.indexOf(key);
+        if (i < 0) {
+            return -1;
+        }
+        
+        i += key.length();
+        while (i < text.length() && (text.charAt(i) == ':' || Character.isWhitespace(text.charAt(i)))) {
+            i++;
+        }
+        
+        return i;
+    }
+    
+    /**
+     * Parses a decimal number (quoted or not).
+     */
+    private long parseDecimal(int i, long absent) {
+        if (i < 0) {
+            return absent;
+        }
+        
+        if (i < text.length() && text.charAt(i) == '"') {
+            i++;
+        }
+        boolean negative = false;
+        if (i < text.length() && text.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        
+        long value = 0;
+        int digits = 0;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = 10*value + (c - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            return absent;
+        }
+        
+        return negative ? -value : value;
+    }
+    
+    /**
+     * Parses an unsigned field, which SDN-MQ writes to JSON events as signed Java short or byte
+     * (e.g., ethertype 0x8100 as -32512), so it has the same value as in binary events.
+     * 
+     * @param i index of the value (negative if the field is absent)
+     * @param mask 0xffff for 16 bit fields, 0xff for 8 bit fields
+     * @return the unsigned value or ABSENT
+     */
+    private int parseUnsigned(int i, int mask) {
+        long value = parseDecimal(i, Long.MIN_VALUE);
+        
+        return (value == Long.MIN_VALUE) ? ABSENT : (int) value & mask;
+    }
+    
+    /**
+     * Parses a quoted string of hex digits separated by colons (MAC address, datapath id).
+     */
+    private long parseHex(int i) {
+        if (i < 0 || i >= text.length() || text.charAt(i) != '"') {
+            return ABSENT;
+        }
+        
+        long value = 0;
+        for (i++; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                return value;
+            } else if (c != ':') {
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    return ABSENT;
+                }
+                value = (value << 4) | digit;
+            }
+        }
+        
+        return ABSENT;
+    }
+    
+    /**
+     * Parses a quoted IPv4 address in dotted decimal notation.
+     */
+    private int parseIPv4(int i) {
+        if (i < 0 || i >= text.length() || text.charAt(i) != '"') {
+            return 0;
+        }
+        
+        int addr = 0;
+        int octet = 0;
+        for (i++; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '"') {
+                addr = (addr << 8) | (octet & 0xff);
+                octet = 0;
+                if (c == '"') {
+                    return addr;
+                }
+            } else {
+                octet = 10*octet + (c - '0');
+            }
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Decodes the base64-encoded packet of a JSON event into the buffer.
+     */
+    private void decodePacket() {
+        frameOffset = 0;
+        frameLength = 0;
+        frameAvailable = true;
+        
+        int i = valueIndex(PACKET_KEY);
+        if (i < 0 || i >= text.length() || text.charAt(i) != '"') {
+            return;
+        }
+        i++;
+        int end = text.indexOf('"', i);
+        if (end < 0) {
+            return;
+        }
+        ensureCapacity((end - i)/4*3 + 3);
+        
+        int bits = 0;
+        int bitCount = 0;
+        int length = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            int value = (c < 128) ? BASE64[c] : -1;
+            if (value < 0) {
+                // Padding or line breaks
+                continue;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                buf[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        frameLength = length;
+    }
+    
+    // Fields
+    
+    /**
+     * @return the datapath id of the OpenFlow node that received the packet
+     */
+    public long getDpid() {
+        if (text == null) {
+            return getLong(BinaryFormat.PACKET_IN_DPID_OFFSET);
+        }
+        
+        return parseHex(valueIndex(NODE_ID_KEY));
+    }
+    
+    /**
+     * @return the ingress port (ABSENT if the port id is not numeric)
+     */
+    public int getIngressPort() {
+        if (text == null) {
+            return getShort(BinaryFormat.PACKET_IN_PORT_OFFSET);
+        }
+        
+        return (int) parseDecimal(valueIndex(INGRESS_PORT_KEY), ABSENT);
+    }
+    
+    /**
+     * @return the id of the buffered packet or ABSENT if the packet is not buffered
+     */
+    public long getPacketId() {
+        if (text == null) {
+            return getLong(BinaryFormat.PACKET_IN_ID_OFFSET);
+        }
+        
+        return parseDecimal(valueIndex(PACKET_ID_KEY), ABSENT);
+    }
+    
+    /**
+     * @return the source MAC address or ABSENT
+     */
+    public long getDlSrc() {
+        if (text == null) {
+            parseFrame();
+            return (l2TypeOffset < 0) ? ABSENT : getMac(frameOffset + 6);
+        }
+        
+        return parseHex(valueIndex(DL_SRC_KEY));
+    }
+    
+    /**
+     * @return the destination MAC address or ABSENT
+     */
+    public long getDlDst() {
+        if (text == null) {
+            parseFrame();
+            return (l2TypeOffset < 0) ? ABSENT : getMac(frameOffset);
+        }
+        
+        return parseHex(valueIndex(DL_DST_KEY));
+    }
+    
+    /**
+     * @return the ethertype of the Ethernet header (0x8100 for VLAN-tagged frames) or ABSENT
+     */
+    public int getEtherType() {
+        if (text == null) {
+            parseFrame();
+            return (l2TypeOffset < 0) ? ABSENT : getShort(l2TypeOffset);
+        }
+        
+        return parseUnsigned(valueIndex(ETHERTYPE_KEY), 0xffff);
+    }
+    
+    /**
+     * @return the VLAN id or ABSENT if the frame is not tagged
+     */
+    public int getDlVlan() {
+        if (text == null) {
+            parseFrame();
+            if (l2TypeOffset < 0 || getShort(l2TypeOffset) != ETHERTYPE_VLAN || frameLength < 18) {
+                return ABSENT;
+            }
+            return getShort(l2TypeOffset + 2) & 0x0fff;
+        }
+        
+        return (int) parseDecimal(valueIndex(DL_VLAN_KEY), ABSENT);
+    }
+    
+    /**
+     * @return true if the packet is an IPv4 packet
+     */
+    public boolean isIPv4() {
+        if (text == null) {
+            parseFrame();
+            return l3Offset >= 0;
+        }
+        
+        return text.indexOf(NW_SRC_KEY) >= 0;
+    }
+    
+    /**
+     * @return the IPv4 source address (0 if the packet is not an IPv4 packet)
+     */
+    public int getNwSrc() {
+        if (text == null) {
+            parseFrame();
+            return (l3Offset < 0) ? 0 : getInt(l3Offset + 12);
+        }
+        
+        return parseIPv4(valueIndex(NW_SRC_KEY));
+    }
+    
+    /**
+     * @return the IPv4 destination address (0 if the packet is not an IPv4 packet)
+     */
+    public int getNwDst() {
+        if (text == null) {
+            parseFrame();
+            return (l3Offset < 0) ? 0 : getInt(l3Offset + 16);
+        }
+        
+        return parseIPv4(valueIndex(NW_DST_KEY));
+    }
+    
+    /**
+     * @return the IP protocol or ABSENT
+     */
+    public int getProtocol() {
+        if (text == null) {
+            parseFrame();
+            return (l3Offset < 0) ? ABSENT : (buf[l3Offset + 9] & 0xff);
+        }
+        
+        return parseUnsigned(valueIndex(PROTOCOL_KEY), 0xff);
+    }
+    
+    /**
+     * @return the TCP or UDP source port or ABSENT
+     */
+    public int getTpSrc() {
+        if (text == null) {
+            return isTransport() ? getShort(l4Offset) : ABSENT;
+        }
+        
+        return parseUnsigned(valueIndex(TP_SRC_KEY), 0xffff);
+    }
+    
+    /**
+     * @return the TCP or UDP destination port or ABSENT
+     */
+    public int getTpDst() {
+        if (text == null) {
+            return isTransport() ? getShort(l4Offset + 2) : ABSENT;
+        }
+        
+        return parseUnsigned(valueIndex(TP_DST_KEY), 0xffff);
+    }
+    
+    private boolean isTransport() {
+        parseFrame();
+        if (l4Offset < 0) {
+            return false;
+        }
+        
+        int protocol = buf[l3Offset + 9] & 0xff;
+        return protocol == PROTOCOL_TCP || protocol == PROTOCOL_UDP;
+    }
+    
+    // Raw frame
+    
+    /**
+     * @return the buffer holding the raw frame (valid until the next call of wrap(); 
+     * cf. getPacketOffset() and getPacketLength())
+     */
+    public byte[] getPacketBuffer() {
+        if (!frameAvailable) {
+            decodePacket();
+        }
+        
+        return buf;
+    }
+    
+    /**
+     * @return the offset of the raw frame in the buffer returned by getPacketBuffer()
+     */
+    public int getPacketOffset() {
+        if (!frameAvailable) {
+            decodePacket();
+        }
+        
+        return frameOffset;
+    }
+    
+    /**
+     * @return the length of the raw frame
+     */
+    public int getPacketLength() {
+        if (!frameAvailable) {
+            decodePacket();
+        }
+        
+        return frameLength;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * PacketOutRequest
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * PacketOutRequest is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.sdnmq.jms.json.NodeAttributes;
+import org.sdnmq.jms.json.PacketForwarderRequestAttributes;
+
+/**
+ * Builder of packet forwarding requests, e.g.:
+ * 
+ * <pre>
+ * new PacketOutRequest("00:00:00:00:00:00:00:01").addEgressPort("2").setPacketId(packetIn.getPacketId())
+ * </pre>
+ * 
+ * A request sends one packet (given by its data or by the id of a buffered packet-in packet) 
+ * to any number of targets. Targets are egress ports or all ports of a node (flooding).
+ * 
+ * @author Frank Duerr
+ */
+public class PacketOutRequest {
+    private final JSONObject json = new JSONObject();
+    private final JSONArray targets = new JSONArray();
+    private final String nodeId;
+    
+    /**
+     * Constructor.
+     * 
+     * @param nodeId the id of the OpenFlow node (switch) of the targets added by addEgressPort() and flood()
+     */
+    public PacketOutRequest(String nodeId) {
+        this.nodeId = nodeId;
+        json.put(PacketForwarderRequestAttributes.Keys.TARGETS.toJSON(), targets);
+    }
+    
+    /**
+     * @return the id of the node of the targets
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    private JSONObject newTarget(String targetNodeId) {
+        JSONObject nodeJson = new JSONObject();
+        nodeJson.put(NodeAttributes.Keys.ID.toJSON(), targetNodeId);
+        nodeJson.put(NodeAttributes.Keys.TYPE.toJSON(), NodeAttributes.TypeValues.OF.toJSON());
+        
+        JSONObject target = new JSONObject();
+        target.put(PacketForwarderRequestAttributes.Keys.NODE.toJSON(), nodeJson);
+        targets.put(target);
+        
+        return target;
+    }
+    
+    public PacketOutRequest addEgressPort(String port) {
+        return addEgressPort(nodeId, port);
+    }
+    
+    public PacketOutRequest addEgressPort(String targetNodeId, String port) {
+        newTarget(targetNodeId).put(PacketForwarderRequestAttributes.Keys.EGRESS_PORT.toJSON(), port);
+        return this;
+    }
+    
+    /**
+     * Sends the packet to all ports of the node except for the ingress port.
+     * 
+     * @param ingressPort the port excluded from flooding (null to send to all ports)
+     */
+    public PacketOutRequest flood(String ingressPort) {
+        JSONObject target = newTarget(nodeId);
+        target.put(PacketForwarderRequestAttributes.Keys.FLOOD.toJSON(), true);
+        if (ingressPort != null) {
+            target.put(PacketForwarderRequestAttributes.Keys.INGRESS_PORT.toJSON(), ingressPort);
+        }
+        
+        return this;
+    }
+    
+    public PacketOutRequest setPacket(byte[] packetData) {
+        json.put(PacketForwarderRequestAttributes.Keys.PACKET.toJSON(), DatatypeConverter.printBase64Binary(packetData));
+        return this;
+    }
+    
+    /**
+     * Sends a packet buffered by SDN-MQ (cf. PacketIn.getPacketId()).
+     */
+    public PacketOutRequest setPacketId(long packetId) {
+        json.put(PacketForwarderRequestAttributes.Keys.PACKET_ID.toJSON(), packetId);
+        return this;
+    }
+    
+    /**
+     * @return the request in JSON representation
+     */
+    public JSONObject toJSON() {
+        return json;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * RequestCallback
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RequestCallback is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+/**
+ * Callback notified about the completion of a request (cf. RequestFuture.addCallback()).
+ * 
+ * @author Frank Duerr
+ */
+public interface RequestCallback {
+    /**
+     * Called if SDN-MQ executed the request successfully.
+     */
+    public void onSuccess();
+    
+    /**
+     * Called if the request failed, could not be sent, or was not answered in time.
+     * 
+     * @param description description of the error
+     */
+    public void onFailure(String description);
+}
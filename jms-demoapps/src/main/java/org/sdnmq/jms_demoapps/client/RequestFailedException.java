@@ -0,0 +1,23 @@
+/**
+ * RequestFailedException
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RequestFailedException is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+/**
+ * Cause of the ExecutionException thrown by RequestFuture.get() if a request failed.
+ * 
+ * @author Frank Duerr
+ */
+public class RequestFailedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public RequestFailedException(String description) {
+        super(description);
+    }
+}
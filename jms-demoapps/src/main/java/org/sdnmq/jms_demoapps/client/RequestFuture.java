@@ -0,0 +1,179 @@
+/**
+ * RequestFuture
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * RequestFuture is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of a request sent by SdnMqClient. The request completes when the status
+ * reply of SDN-MQ arrives, when it cannot be sent, or when no reply arrives in time. 
+ * 
+ * Sent requests cannot be cancelled.
+ * 
+ * @author Frank Duerr
+ */
+public class RequestFuture implements Future<Void> {
+    private final Executor callbackExecutor;
+    private final List<RequestCallback> callbacks = new LinkedList<RequestCallback>();
+    private boolean done = false;
+    private String error = null;
+    private String packetOutError = null;
+    
+    RequestFuture(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+    
+    /**
+     * Adds a callback that is called by the callback executor of the client when the request 
+     * completes. If the request has already completed, the callback is scheduled immediately.
+     * 
+     * @param callback the callback
+     */
+    public void addCallback(RequestCallback callback) {
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        
+        dispatch(callback);
+    }
+    
+    /**
+     * Completes the request.
+     * 
+     * @param description null if the request succeeded, otherwise the description of the error
+     * @return false if the request had already completed
+     */
+    boolean complete(String description) {
+        return complete(description, null);
+    }
+    
+    /**
+     * Completes a flow programming request with an embedded packet-out request.
+     * 
+     * @param description null if the flow was programmed, otherwise the description of the error
+     * @param packetOutError null if the packet-out request succeeded or was not executed, otherwise 
+     * the description of its error
+     * @return false if the request had already completed
+     */
+    boolean complete(String description, String packetOutError) {
+        List<RequestCallback> pending;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            error = description;
+            this.packetOutError = packetOutError;
+            notifyAll();
+            
+            pending = new LinkedList<RequestCallback>(callbacks);
+            callbacks.clear();
+        }
+        
+        for (RequestCallback callback : pending) {
+            dispatch(callback);
+        }
+        
+        return true;
+    }
+    
+    private void dispatch(final RequestCallback callback) {
+        final String description;
+        synchronized (this) {
+            description = error;
+        }
+        
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (description == null) {
+                    callback.onSuccess();
+                } else {
+                    callback.onFailure(description);
+                }
+            }
+        });
+    }
+    
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+    
+    /**
+     * @return true if the request completed successfully
+     */
+    public synchronized boolean isSuccess() {
+        return done && error == null;
+    }
+
+    /**
+     * The status of a flow programming request refers to the flow. If the packet-out request 
+     * embedded into the flow programming request failed (e.g., since the packet expired), the 
+     * flow programming request still succeeds.
+     * 
+     * @return the description of the error of the embedded packet-out request, or null if the 
+     * packet-out request succeeded, was not executed, or the request has not completed yet
+     */
+    public synchronized String getPacketOutError() {
+        return packetOutError;
+    }
+
+    @Override
+    public synchronized Void get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        
+        return result();
+    }
+
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, 
+            TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        
+        return result();
+    }
+    
+    private Void result() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(new RequestFailedException(error));
+        }
+        
+        return null;
+    }
+}
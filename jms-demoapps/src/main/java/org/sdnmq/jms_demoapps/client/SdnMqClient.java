@@ -0,0 +1,459 @@
+/**
+ * SdnMqClient
+ * Copyright (c) 2014 Frank Duerr
+ *
+ * SdnMqClient is part of SDN-MQ. This program and the accompanying materials 
+ * are made available under the terms of the Eclipse Public License v1.0 which 
+ * accompanies this distribution, and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.sdnmq.jms_demoapps.client;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueConnectionFactory;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicConnectionFactory;
+import javax.jms.TopicSession;
+import javax.jms.TopicSubscriber;
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.sdnmq.jms.MessageHelper;
+import org.sdnmq.jms.json.ReplyAttributes;
+
+/**
+ * Asynchronous client of SDN-MQ.
+ * 
+ * Requests are queued by the calling thread and sent by a single sender thread owning 
+ * the JMS session, so any number of application threads can send requests concurrently.
+ * Requests are pipelined: the sender does not wait for replies. Instead, every request 
+ * asks SDN-MQ for a status reply (cf. MessageHelper.STATUS_REPLY_PROPERTY), which is 
+ * correlated with the request by its correlation id and completes the RequestFuture returned 
+ * to the caller. The sender sends queued requests in batches of up to batchSize requests 
+ * per transaction, so the broker is only synchronously involved once per batch.
+ * 
+ * Requests for the same node carry the node id as message group (JMSXGroupID), so SDN-MQ 
+ * executes them in order even with several concurrent consumers.
+ * 
+ * Packet-in events and request callbacks are delivered by the callback executor given to
+ * the constructor. Use a single-threaded executor if events have to be processed in order.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * SdnMqClient client = new SdnMqClient(new InitialContext(), Executors.newSingleThreadExecutor());
+ * client.start();
+ * client.subscribePacketIn(listener, null);
+ * RequestFuture f = client.programFlow(FlowRequest.add("DemoFlow", nodeId).matchInPort("1").drop());
+ * f.get();
+ * client.close();
+ * </pre>
+ * 
+ * @author Frank Duerr
+ */
+public class SdnMqClient {
+    // Default JNDI names (cf. file jndi.properties).
+    public static final String PACKETIN_TOPIC_NAME = "org.sdnmq.packetin";
+    public static final String PACKETOUT_QUEUE_NAME = "org.sdnmq.packetout";
+    public static final String FLOWPROGRAMMER_QUEUE_NAME = "org.sdnmq.flowprogrammer";
+    
+    private static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+    
+    /**
+     * Maximum number of queued requests. Further requests block the caller until the sender
+     * catches up.
+     */
+    private static final int MAX_QUEUED_REQUESTS = 10000;
+    
+    /**
+     * A queued request.
+     */
+    private static class PendingRequest {
+        final Queue queue;
+        final String text;
+        final String nodeId;
+        final RequestFuture future;
+        
+        PendingRequest(Queue queue, String text, String nodeId, RequestFuture future) {
+            this.queue = queue;
+            this.text = text;
+            this.nodeId = nodeId;
+            this.future = future;
+        }
+    }
+    
+    private final Context ctx;
+    private final Executor callbackExecutor;
+    private int batchSize = 32;
+    private long replyTimeout = 10000;
+    
+    private QueueConnection queueConnection = null;
+    private TopicConnection topicConnection = null;
+    private Queue packetOutQueue = null;
+    private Queue flowProgrammerQueue = null;
+    private Topic packetInTopic = null;
+    private QueueSession replySession = null;
+    private TemporaryQueue replyQueue = null;
+    private final List<TopicSession> subscriberSessions = new LinkedList<TopicSession>();
+    
+    private final BlockingQueue<PendingRequest> queuedRequests = new LinkedBlockingQueue<PendingRequest>(MAX_QUEUED_REQUESTS);
+    private final ConcurrentMap<String, RequestFuture> outstandingRequests = new ConcurrentHashMap<String, RequestFuture>();
+    private final String clientId = UUID.randomUUID().toString();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private Thread sender = null;
+    private ScheduledExecutorService timer = null;
+    private volatile boolean closed = false;
+    
+    /**
+     * Constructor.
+     * 
+     * @param ctx JNDI context defining the connection factories, the packet-in topic, and the 
+     * request queues (cf. file jndi.properties)
+     * @param callbackExecutor executor delivering packet-in events and calling request callbacks
+     */
+    public SdnMqClient(Context ctx, Executor callbackExecutor) {
+        this.ctx = ctx;
+        this.callbackExecutor = callbackExecutor;
+    }
+    
+    /**
+     * @param batchSize maximum number of requests sent in one transaction (default: 32; 
+     * must be set before starting the client)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    /**
+     * @param replyTimeout time in milliseconds after which a request without reply fails 
+     * (default: 10000; must be set before starting the client)
+     */
+    public void setReplyTimeout(long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+    
+    /**
+     * Connects to the JMS server and starts the sender thread.
+     */
+    public synchronized void start() throws JMSException, NamingException {
+        try {
+            packetOutQueue = (Queue) ctx.lookup(PACKETOUT_QUEUE_NAME);
+            flowProgrammerQueue = (Queue) ctx.lookup(FLOWPROGRAMMER_QUEUE_NAME);
+            packetInTopic = (Topic) ctx.lookup(PACKETIN_TOPIC_NAME);
+            
+            QueueConnectionFactory queueFactory = (QueueConnectionFactory) ctx.lookup("QueueConnectionFactory");
+            queueConnection = queueFactory.createQueueConnection();
+            TopicConnectionFactory topicFactory = (TopicConnectionFactory) ctx.lookup("TopicConnectionFactory");
+            topicConnection = topicFactory.createTopicConnection();
+            
+            replySession = queueConnection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+            replyQueue = replySession.createTemporaryQueue();
+            QueueReceiver replyReceiver = replySession.createReceiver(replyQueue);
+            replyReceiver.setMessageListener(new MessageListener() {
+                @Override
+                public void onMessage(Message msg) {
+                    handleReply(msg);
+                }
+            });
+            
+            // The session of the sender thread is transacted to send requests in batches.
+            final QueueSession senderSession = queueConnection.createQueueSession(true, Session.SESSION_TRANSACTED);
+            final QueueSender queueSender = senderSession.createSender(null);
+            
+            queueConnection.start();
+            topicConnection.start();
+            
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "sdnmq-client-timeouts");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            
+            sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sendRequests(senderSession, queueSender);
+                }
+            }, "sdnmq-client-sender");
+            sender.setDaemon(true);
+            sender.start();
+        } catch (JMSException e) {
+            close();
+            throw e;
+        } catch (NamingException e) {
+            close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Closes the client. Queued and outstanding requests fail.
+     */
+    public synchronized void close() {
+        closed = true;
+        
+        if (sender != null) {
+            sender.interrupt();
+            try {
+                sender.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sender = null;
+        }
+        
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        
+        if (queueConnection != null) {
+            try {
+                queueConnection.close();
+            } catch (JMSException e) {}
+            queueConnection = null;
+        }
+        
+        if (topicConnection != null) {
+            try {
+                topicConnection.close();
+            } catch (JMSException e) {}
+            topicConnection = null;
+        }
+        subscriberSessions.clear();
+        
+        List<PendingRequest> pending = new LinkedList<PendingRequest>();
+        queuedRequests.drainTo(pending);
+        for (PendingRequest request : pending) {
+            request.future.complete("Client closed");
+        }
+        for (String requestId : outstandingRequests.keySet()) {
+            RequestFuture future = outstandingRequests.remove(requestId);
+            if (future != null) {
+                future.complete("Client closed");
+            }
+        }
+    }
+    
+    /**
+     * Subscribes to packet-in events in JSON representation.
+     * 
+     * @param listener the listener receiving the events
+     * @param selector JMS message selector filtering events (cf. class MessageFilterAttributes), 
+     * or null to receive all events
+     */
+    public synchronized void subscribePacketIn(final PacketInListener listener, String selector) throws JMSException {
+        if (topicConnection == null) {
+            throw new IllegalStateException("Client not started");
+        }
+        
+        TopicSession session = topicConnection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+        subscriberSessions.add(session);
+        TopicSubscriber subscriber = session.createSubscriber(packetInTopic, selector, false);
+        subscriber.setMessageListener(new MessageListener() {
+            @Override
+            public void onMessage(Message msg) {
+                if (!(msg instanceof TextMessage)) {
+                    return;
+                }
+                
+                final PacketIn packetIn;
+                try {
+                    packetIn = PacketIn.fromJSON(new JSONObject(((TextMessage) msg).getText()));
+                } catch (JSONException e) {
+                    System.err.println("Invalid packet-in event: " + e.getMessage());
+                    return;
+                } catch (JMSException e) {
+                    System.err.println(e.getMessage());
+                    return;
+                }
+                
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onPacketIn(packetIn);
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Subscribes to packet-in events without converting them. The listener is called by the 
+     * JMS session thread, which avoids the hand-over to the callback executor. Use a
+     * PacketInReader to read the events (JSON or binary representation).
+     * 
+     * @param listener the listener receiving the messages
+     * @param selector JMS message selector filtering events, or null to receive all events
+     */
+    public synchronized void subscribePacketInMessages(MessageListener listener, String selector) throws JMSException {
+        if (topicConnection == null) {
+            throw new IllegalStateException("Client not started");
+        }
+        
+        TopicSession session = topicConnection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+        subscriberSessions.add(session);
+        session.createSubscriber(packetInTopic, selector, false).setMessageListener(listener);
+    }
+    
+    /**
+     * Sends a flow programming request.
+     * 
+     * @param request the request
+     * @return the pending result of the request
+     */
+    public RequestFuture programFlow(FlowRequest request) throws InterruptedException {
+        return enqueue(flowProgrammerQueue, request.toJSON(), request.getNodeId());
+    }
+    
+    /**
+     * Sends a packet forwarding request.
+     * 
+     * @param request the request
+     * @return the pending result of the request
+     */
+    public RequestFuture forwardPacket(PacketOutRequest request) throws InterruptedException {
+        return enqueue(packetOutQueue, request.toJSON(), request.getNodeId());
+    }
+    
+    private RequestFuture enqueue(Queue queue, JSONObject json, String nodeId) throws InterruptedException {
+        RequestFuture future = new RequestFuture(callbackExecutor);
+        if (closed || queue == null) {
+            future.complete("Client not started or closed");
+            return future;
+        }
+        
+        // Serialize in the calling thread to keep the sender thread free for I/O.
+        queuedRequests.put(new PendingRequest(queue, json.toString(), nodeId, future));
+        
+        return future;
+    }
+    
+    /**
+     * Loop of the sender thread.
+     */
+    private void sendRequests(QueueSession session, QueueSender queueSender) {
+        List<PendingRequest> batch = new ArrayList<PendingRequest>(batchSize);
+        while (!closed) {
+            try {
+                batch.add(queuedRequests.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            // Everything queued in the meantime goes into the same transaction.
+            queuedRequests.drainTo(batch, batchSize - 1);
+            
+            List<String> requestIds = new ArrayList<String>(batch.size());
+            try {
+                for (PendingRequest request : batch) {
+                    String requestId = clientId + "-" + nextRequestId.getAndIncrement();
+                    requestIds.add(requestId);
+                    
+                    TextMessage msg = session.createTextMessage(request.text);
+                    msg.setJMSReplyTo(replyQueue);
+                    msg.setJMSCorrelationID(requestId);
+                    msg.setBooleanProperty(MessageHelper.STATUS_REPLY_PROPERTY, true);
+                    if (request.nodeId != null) {
+                        msg.setStringProperty(GROUP_ID_PROPERTY, request.nodeId);
+                    }
+                    
+                    // Register before sending, since the reply may arrive before commit() returns.
+                    outstandingRequests.put(requestId, request.future);
+                    queueSender.send(request.queue, msg);
+                }
+                session.commit();
+                
+                for (String requestId : requestIds) {
+                    scheduleTimeout(requestId);
+                }
+            } catch (JMSException e) {
+                try {
+                    session.rollback();
+                } catch (JMSException e2) {}
+                for (int i = 0; i < batch.size(); i++) {
+                    if (i < requestIds.size()) {
+                        outstandingRequests.remove(requestIds.get(i));
+                    }
+                    batch.get(i).future.complete("Could not send request: " + e.getMessage());
+                }
+            }
+            batch.clear();
+        }
+    }
+    
+    private void scheduleTimeout(final String requestId) {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                RequestFuture future = outstandingRequests.remove(requestId);
+                if (future != null) {
+                    future.complete("No reply within " + replyTimeout + " ms");
+                }
+            }
+        }, replyTimeout, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Completes the request a status reply refers to.
+     */
+    private void handleReply(Message msg) {
+        try {
+            String requestId = msg.getJMSCorrelationID();
+            if (requestId == null || !(msg instanceof TextMessage)) {
+                return;
+            }
+            
+            // SDN-MQ sends exactly one status reply per request, which also reports the error
+            // of an embedded packet-out request.
+            RequestFuture future = outstandingRequests.remove(requestId);
+            if (future == null) {
+                return;
+            }
+            
+            JSONObject json = new JSONObject(((TextMessage) msg).getText());
+            String status = json.getString(ReplyAttributes.Keys.STATUS.toJSON());
+            String packetOutError = json.optString(ReplyAttributes.Keys.PACKET_OUT_ERROR.toJSON(), null);
+            if (status.equals(ReplyAttributes.StatusValues.OK.toJSON())) {
+                future.complete(null, packetOutError);
+            } else {
+                future.complete(json.optString(ReplyAttributes.Keys.DESCRIPTION.toJSON(), "Request failed"), 
+                        packetOutError);
+            }
+        } catch (JMSException e) {
+            System.err.println(e.getMessage());
+        } catch (JSONException e) {
+            System.err.println("Invalid reply: " + e.getMessage());
+        }
+    }
+}